@@ -7,6 +7,8 @@ import java.awt.*;
 import org.lwjgl.opengl.*;
 
 import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.shader.*;
 
 public class GraphicsContext {
 	public static final String DEFAULT_TITLE = "ModernGL";
@@ -71,7 +73,8 @@ public class GraphicsContext {
 	}
 
 	private void render() {
-		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+		GL.get().glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+		FrameUniforms.beginFrame();
 		this.loop.render();
 	}
 
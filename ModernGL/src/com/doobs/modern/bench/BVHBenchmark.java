@@ -0,0 +1,117 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.matrix.frustum.*;
+import com.doobs.modern.util.spatial.*;
+
+/**
+ * Builds a BVH over a synthetic scene, compares its frustum queries to a linear
+ * Frustum.cullBoxes() pass, and times refitting after moving every object.
+ */
+public class BVHBenchmark {
+	private static final int NUM_OBJECTS = 200000;
+	private static final int RUNS = 100;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), 800, 600);
+
+		Random random = new Random(0);
+		float[] bounds = new float[NUM_OBJECTS * 6];
+		float[] x = new float[NUM_OBJECTS], y = new float[NUM_OBJECTS], z = new float[NUM_OBJECTS], extent = new float[NUM_OBJECTS];
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			x[i] = random.nextFloat() * 2000 - 1000;
+			y[i] = random.nextFloat() * 200 - 100;
+			z[i] = random.nextFloat() * 2000 - 1000;
+			extent[i] = random.nextFloat() * 5;
+		}
+		fillBounds(bounds, x, y, z, extent);
+
+		long start = System.nanoTime();
+		BVH bvh = new BVH(bounds, NUM_OBJECTS);
+		System.out.println(String.format("build            %.3f ms, %d nodes, depth %d", (System.nanoTime() - start) / 1e6, bvh.getNumNodes(), bvh.getDepth()));
+
+		ForkJoinPool pool = new ForkJoinPool();
+		start = System.nanoTime();
+		BVH parallel = new BVH(bounds, NUM_OBJECTS, pool);
+		System.out.println(String.format("parallel build   %.3f ms on %d workers, %d nodes", (System.nanoTime() - start) / 1e6, pool.getParallelism(),
+				parallel.getNumNodes()));
+		pool.shutdown();
+
+		Frustum frustum = Matrices.perspective;
+		Matrices.loadIdentity();
+		Matrices.rotate(30.0f, 0.0f, 1.0f, 0.0f);
+		frustum.updatePlanes(Matrices.transform);
+
+		int[] expected = new int[NUM_OBJECTS];
+		int[] visible = new int[NUM_OBJECTS];
+		int numExpected = 0;
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			numExpected = frustum.cullBoxes(x, y, z, extent, extent, extent, 0, NUM_OBJECTS, expected);
+		}
+		print("linear cullBoxes", start, numExpected);
+
+		int numVisible = 0;
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			numVisible = bvh.query(frustum, visible);
+		}
+		print("BVH query", start, numVisible);
+		check(expected, numExpected, visible, numVisible);
+
+		// Move everything a little, then refit.
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			x[i] += random.nextFloat() * 20 - 10;
+			z[i] += random.nextFloat() * 20 - 10;
+		}
+		fillBounds(bounds, x, y, z, extent);
+		start = System.nanoTime();
+		bvh.refit();
+		System.out.println(String.format("refit            %.3f ms, cost ratio %.3f", (System.nanoTime() - start) / 1e6, bvh.getCostRatio()));
+
+		numExpected = frustum.cullBoxes(x, y, z, extent, extent, extent, 0, NUM_OBJECTS, expected);
+		numVisible = bvh.query(frustum, visible);
+		check(expected, numExpected, visible, numVisible);
+	}
+
+	private static void fillBounds(float[] bounds, float[] x, float[] y, float[] z, float[] extent) {
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			bounds[i * 6] = x[i] - extent[i];
+			bounds[i * 6 + 1] = y[i] - extent[i];
+			bounds[i * 6 + 2] = z[i] - extent[i];
+			bounds[i * 6 + 3] = x[i] + extent[i];
+			bounds[i * 6 + 4] = y[i] + extent[i];
+			bounds[i * 6 + 5] = z[i] + extent[i];
+		}
+	}
+
+	/**
+	 * Makes sure the BVH found the same objects as the linear pass, give or take rounding
+	 * at the planes.
+	 */
+	private static void check(int[] expected, int numExpected, int[] visible, int numVisible) {
+		Set<Integer> linear = new HashSet<Integer>();
+		for (int i = 0; i < numExpected; i++) {
+			linear.add(expected[i]);
+		}
+		int missing = 0;
+		for (int i = 0; i < numVisible; i++) {
+			if (!linear.remove(visible[i])) {
+				missing++;
+			}
+		}
+		if (missing + linear.size() > numExpected / 1000) {
+			throw new IllegalStateException("BVH and linear culling disagree on " + (missing + linear.size()) + " objects");
+		}
+	}
+
+	private static void print(String name, long start, int numVisible) {
+		double runTime = (System.nanoTime() - start) / 1e6 / RUNS;
+		System.out.println(String.format("%-16s %.3f ms per %d objects, %d visible", name, runTime, NUM_OBJECTS, numVisible));
+	}
+}
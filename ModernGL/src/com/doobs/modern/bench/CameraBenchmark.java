@@ -0,0 +1,133 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Checks the Camera's cached quaternion view matrix against composing its Euler rotations
+ * and translation with MatrixStack, checks rotate() and slerp(), checks that tick()
+ * neither rebuilds a still view nor undoes rotate(), and times a frame loop where the
+ * camera mostly stands still.
+ */
+public class CameraBenchmark {
+	private static final int NUM_CHECKS = 10000;
+	private static final int FRAMES = 1000000;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), 800, 600);
+		Random random = new Random(0);
+		Camera camera = new Camera();
+		MatrixStack stack = new MatrixStack();
+
+		// The view the Camera used to compose from four operations.
+		for (int i = 0; i < NUM_CHECKS; i++) {
+			camera.rotX = random.nextFloat() * 180 - 90;
+			camera.rotY = random.nextFloat() * 360;
+			camera.rotZ = random.nextFloat() * 360 - 180;
+			camera.setPosition(random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50, random.nextFloat() * 100 - 50);
+
+			stack.loadIdentity();
+			stack.rotate(-camera.rotX, 1, 0, 0);
+			stack.rotate(-camera.rotY, 0, 1, 0);
+			stack.rotate(-camera.rotZ, 0, 0, 1);
+			stack.translate(-camera.x, -camera.y, -camera.z);
+			check("view " + i, stack.getMatrix(), camera.getViewMatrix(), 1e-3f);
+		}
+		System.out.println(NUM_CHECKS + " views match composing the Euler rotations");
+
+		// Turning in camera space is rotating the view the other way, before it.
+		camera.reset();
+		camera.setPosition(1, 2, 3);
+		camera.rotY = 30;
+		float[] expected = camera.getViewMatrix().clone();
+		camera.rotate(20, 1, 0, 0);
+		stack.loadIdentity();
+		stack.rotate(20, 1, 0, 0);
+		stack.multiply4(expected);
+		check("rotate", stack.getMatrix(), camera.getViewMatrix(), 1e-4f);
+
+		// Halfway between looking forward and turned 90 degrees left is 45 degrees.
+		float[] from = { 0, 0, 0, 1 }, to = new float[4], orientation = new float[4];
+		Math3D.quaternionFromAxisAngle4f(to, 90, 0, 1, 0);
+		camera.slerp(from, to, 0.5f);
+		camera.getOrientation(orientation);
+		Math3D.quaternionFromAxisAngle4f(to, 45, 0, 1, 0);
+		check("slerp", to, orientation, 1e-5f);
+		System.out.println("rotate and slerp match");
+
+		// A still camera keeps its view through ticks, also when its angle wraps around.
+		camera.reset();
+		camera.rotY = -10;
+		camera.tick();
+		camera.getViewMatrix();
+		int stillUpdates = camera.getNumViewUpdates();
+		for (int i = 0; i < 100; i++) {
+			camera.tick();
+			camera.getViewMatrix();
+		}
+		if (camera.getNumViewUpdates() != stillUpdates) {
+			throw new IllegalStateException("A still camera rebuilt its view " + (camera.getNumViewUpdates() - stillUpdates) + " times in 100 ticks");
+		}
+
+		// Ticks keep a rotation set directly, until an Euler angle changes.
+		camera.rotate(30, 1, 0, 0);
+		expected = camera.getViewMatrix().clone();
+		for (int i = 0; i < 100; i++) {
+			camera.tick();
+		}
+		check("rotate then tick", expected, camera.getViewMatrix(), 1e-6f);
+		camera.rotY = 20;
+		camera.tick();
+		stack.loadIdentity();
+		stack.rotate(-20, 0, 1, 0);
+		check("Euler angle after rotate", stack.getMatrix(), camera.getViewMatrix(), 1e-4f);
+		if (!camera.isEulerMode()) {
+			throw new IllegalStateException("Changing an Euler angle didn't return to Euler mode");
+		}
+		System.out.println("ticks keep still and rotated views");
+
+		// Frames where the camera moves one frame in ten.
+		camera.reset();
+		camera.rotY = 45;
+		for (int round = 0; round < 3; round++) {
+			int updates = camera.getNumViewUpdates();
+			long start = System.nanoTime();
+			for (int frame = 0; frame < FRAMES; frame++) {
+				if (frame % 10 == 0) {
+					camera.x += 0.01f;
+				}
+				Matrices.loadIdentity();
+				camera.applyTransformations();
+			}
+			print("cached view", start, camera.getNumViewUpdates() - updates);
+
+			start = System.nanoTime();
+			for (int frame = 0; frame < FRAMES; frame++) {
+				if (frame % 10 == 0) {
+					camera.x += 0.01f;
+				}
+				Matrices.loadIdentity();
+				Matrices.rotate(-camera.rotX, 1, 0, 0);
+				Matrices.rotate(-camera.rotY, 0, 1, 0);
+				Matrices.rotate(-camera.rotZ, 0, 0, 1);
+				Matrices.translate(-camera.x, -camera.y, -camera.z);
+			}
+			print("four operations", start, FRAMES);
+		}
+	}
+
+	private static void check(String name, float[] expected, float[] actual, float tolerance) {
+		for (int i = 0; i < expected.length; i++) {
+			if (Math.abs(expected[i] - actual[i]) > tolerance * Math.max(1.0f, Math.abs(expected[i]))) {
+				throw new IllegalStateException(name + " differs at " + i + ": " + actual[i] + ", expected " + expected[i]);
+			}
+		}
+	}
+
+	private static void print(String name, long start, int updates) {
+		System.out.println(String.format("%s: %.1f ns per frame, %d view updates", name, (System.nanoTime() - start) / (double) FRAMES, updates));
+	}
+}
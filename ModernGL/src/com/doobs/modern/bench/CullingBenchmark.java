@@ -0,0 +1,71 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.matrix.frustum.*;
+
+/**
+ * Culls a synthetic scene of spheres and boxes against the perspective Frustum, one object
+ * at a time and in a single pass over struct-of-arrays bounds.
+ */
+public class CullingBenchmark {
+	private static final int NUM_OBJECTS = 100000;
+	private static final int RUNS = 200;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), 800, 600);
+
+		Random random = new Random(0);
+		float[] x = new float[NUM_OBJECTS], y = new float[NUM_OBJECTS], z = new float[NUM_OBJECTS];
+		float[] radius = new float[NUM_OBJECTS];
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			x[i] = random.nextFloat() * 2000 - 1000;
+			y[i] = random.nextFloat() * 200 - 100;
+			z[i] = random.nextFloat() * 2000 - 1000;
+			radius[i] = random.nextFloat() * 5;
+		}
+
+		// World space planes for a camera at the origin, turned a little to the left.
+		Frustum frustum = Matrices.perspective;
+		Matrices.loadIdentity();
+		Matrices.rotate(30.0f, 0.0f, 1.0f, 0.0f);
+		frustum.updatePlanes(Matrices.transform);
+
+		int[] visible = new int[NUM_OBJECTS];
+		int numVisible = 0;
+		long start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			numVisible = 0;
+			for (int i = 0; i < NUM_OBJECTS; i++) {
+				if (frustum.isSphereVisible(x[i], y[i], z[i], radius[i])) {
+					visible[numVisible++] = i;
+				}
+			}
+		}
+		print("isSphereVisible", start, numVisible);
+
+		start = System.nanoTime();
+		int numCulled = 0;
+		for (int run = 0; run < RUNS; run++) {
+			numCulled = frustum.cullSpheres(x, y, z, radius, 0, NUM_OBJECTS, visible);
+		}
+		print("cullSpheres", start, numCulled);
+		if (numCulled != numVisible) {
+			throw new IllegalStateException("cullSpheres found " + numCulled + " visible spheres, expected " + numVisible);
+		}
+
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			numCulled = frustum.cullBoxes(x, y, z, radius, radius, radius, 0, NUM_OBJECTS, visible);
+		}
+		print("cullBoxes", start, numCulled);
+	}
+
+	private static void print(String name, long start, int numVisible) {
+		double runTime = (System.nanoTime() - start) / 1e6 / RUNS;
+		System.out.println(String.format("%-16s %.3f ms per %d objects, %d visible", name, runTime, NUM_OBJECTS, numVisible));
+	}
+}
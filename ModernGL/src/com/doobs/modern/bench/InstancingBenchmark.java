@@ -0,0 +1,113 @@
+package com.doobs.modern.bench;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.shader.*;
+
+/**
+ * Compares drawing a grid of spheres one by one with drawing them through an
+ * InstancedBatch, where a varying share of the instances move every frame.
+ */
+public class InstancingBenchmark {
+	private static final int GRID_SIZE = 64;
+	private static final int WARMUP_FRAMES = 100;
+	private static final int FRAMES = 300;
+
+	public static void main(String[] args) {
+		HeadlessBackend backend = new HeadlessBackend();
+		GLTools.initHeadless(new StateCache(backend), 800, 600);
+
+		SimpleBatch sphere = Shapes.makeSphere(0.4f, 12, 12);
+		Shader shader = StockShaders.getFlatShaderProgram();
+		Shader instancedShader = StockShaders.getInstancedFlatShaderProgram();
+		MatrixStack model = new MatrixStack();
+
+		InstancedBatch instances = new InstancedBatch(sphere, 16);
+		for (int x = 0; x < GRID_SIZE; x++) {
+			for (int y = 0; y < GRID_SIZE; y++) {
+				placeObject(model, x, y, 0);
+				instances.add(model.getMatrix(), x / (float) GRID_SIZE, y / (float) GRID_SIZE, 1.0f, 1.0f);
+			}
+		}
+
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			renderSeparate(shader, sphere, i);
+		}
+		backend.reset();
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			renderSeparate(shader, sphere, i);
+		}
+		print("separate draws", start, backend);
+
+		int[] movingPercents = { 0, 1, 10, 100 };
+		for (int movingPercent : movingPercents) {
+			for (int i = 0; i < WARMUP_FRAMES; i++) {
+				renderInstanced(instancedShader, instances, model, movingPercent, i);
+			}
+			backend.reset();
+			start = System.nanoTime();
+			for (int i = 0; i < FRAMES; i++) {
+				renderInstanced(instancedShader, instances, model, movingPercent, i);
+			}
+			print("instanced, " + movingPercent + "% moving", start, backend);
+		}
+	}
+
+	private static void renderSeparate(Shader shader, Batch batch, int frame) {
+		Matrices.loadIdentity();
+		Matrices.translate(0, 0, -GRID_SIZE);
+		FrameUniforms.update();
+
+		shader.use();
+		for (int x = 0; x < GRID_SIZE; x++) {
+			for (int y = 0; y < GRID_SIZE; y++) {
+				Matrices.modelViewStack.push();
+				Matrices.translate(x - (GRID_SIZE / 2), y - (GRID_SIZE / 2), 0);
+				Matrices.rotate(frame, 0, 1, 0);
+				Matrices.sendMatrices(shader);
+				Color.set(shader, x / (float) GRID_SIZE, y / (float) GRID_SIZE, 1.0f, 1.0f);
+				batch.draw(shader.getAttributeLocations());
+				Matrices.modelViewStack.pop();
+			}
+		}
+		endFrame();
+	}
+
+	private static void renderInstanced(Shader shader, InstancedBatch instances, MatrixStack model, int movingPercent, int frame) {
+		Matrices.loadIdentity();
+		Matrices.translate(0, 0, -GRID_SIZE);
+		FrameUniforms.update();
+
+		// Move every instance whose index falls in the moving share.
+		for (int i = 0; i < instances.getNumInstances(); i++) {
+			if ((i % 100) < movingPercent) {
+				placeObject(model, i / GRID_SIZE, i % GRID_SIZE, frame);
+				instances.setTransform(i, model.getMatrix());
+			}
+		}
+
+		shader.use();
+		instances.draw(shader.getAttributeLocations());
+		endFrame();
+	}
+
+	private static void placeObject(MatrixStack model, int x, int y, float angle) {
+		model.loadIdentity();
+		model.translate(x - (GRID_SIZE / 2), y - (GRID_SIZE / 2), 0);
+		model.rotate(angle, 0, 1, 0);
+	}
+
+	private static void endFrame() {
+		GLValidation.endFrame();
+		GL.endFrame();
+	}
+
+	private static void print(String name, long start, HeadlessBackend backend) {
+		double frameTime = (System.nanoTime() - start) / 1e6 / FRAMES;
+		System.out.println(String.format("%-24s %.3f ms/frame, %d calls/frame, %d draws/frame, %d bytes/frame", name, frameTime, backend.getNumCalls() / FRAMES,
+				backend.getNumDrawCalls() / FRAMES, backend.getUploadedBytes() / FRAMES));
+	}
+}
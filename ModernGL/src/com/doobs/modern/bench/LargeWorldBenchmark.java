@@ -0,0 +1,74 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Places a camera and objects near it far from the origin, and compares where the objects
+ * end up in camera space with float world matrices and with RelativeTransform, against
+ * the same transform done in doubles. Then times RelativeTransform.getModelViews().
+ */
+public class LargeWorldBenchmark {
+	private static final double ORIGIN = 1.0e7;
+	private static final int NUM_OBJECTS = 10000;
+	private static final int RUNS = 1000;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		Camera camera = new Camera();
+		camera.rotX = 20;
+		camera.rotY = 135;
+		camera.setWorldPosition(ORIGIN + 0.37, ORIGIN * 0.5 + 0.11, -ORIGIN + 0.73);
+
+		// Objects within 10 units of the camera, turned around y.
+		double[] positions = new double[NUM_OBJECTS * 3];
+		float[] models = new float[NUM_OBJECTS * 16];
+		float[] model = new float[16], modelView = new float[16];
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			positions[i * 3] = camera.getWorldX() + random.nextDouble() * 20 - 10;
+			positions[i * 3 + 1] = camera.getWorldY() + random.nextDouble() * 20 - 10;
+			positions[i * 3 + 2] = camera.getWorldZ() + random.nextDouble() * 20 - 10;
+			Math3D.rotate4f(model, random.nextFloat() * 360, 0, 1, 0);
+			System.arraycopy(model, 0, models, i * 16, 16);
+		}
+
+		RelativeTransform relative = new RelativeTransform();
+		relative.setCamera(camera);
+		float[] results = new float[NUM_OBJECTS * 16];
+		relative.getModelViews(results, 0, models, 0, positions, 0, NUM_OBJECTS);
+
+		// The camera space position of every object's origin, in doubles, floats, and
+		// relative to the camera.
+		float[] view = camera.getViewMatrix();
+		double floatError = 0, relativeError = 0;
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			double dx = positions[i * 3] - camera.getWorldX(), dy = positions[i * 3 + 1] - camera.getWorldY(), dz = positions[i * 3 + 2] - camera.getWorldZ();
+			System.arraycopy(models, i * 16, model, 0, 16);
+			model[12] = (float) positions[i * 3];
+			model[13] = (float) positions[i * 3 + 1];
+			model[14] = (float) positions[i * 3 + 2];
+			Math3D.matrixMultiply4f(modelView, view, model);
+
+			for (int row = 0; row < 3; row++) {
+				double exact = view[row] * dx + view[4 + row] * dy + view[8 + row] * dz;
+				floatError = Math.max(floatError, Math.abs(modelView[12 + row] - exact));
+				relativeError = Math.max(relativeError, Math.abs(results[i * 16 + 12 + row] - exact));
+			}
+		}
+		System.out.println(String.format("largest error %.0f units from the origin: %.4f with float matrices, %.7f relative to the camera", ORIGIN, floatError,
+				relativeError));
+		if (relativeError > 1e-4) {
+			throw new IllegalStateException("Relative model-view matrices are off by " + relativeError);
+		}
+
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (int run = 0; run < RUNS; run++) {
+				relative.getModelViews(results, 0, models, 0, positions, 0, NUM_OBJECTS);
+			}
+			System.out.println(String.format("getModelViews: %.1f ns per object", (System.nanoTime() - start) / (double) RUNS / NUM_OBJECTS));
+		}
+	}
+}
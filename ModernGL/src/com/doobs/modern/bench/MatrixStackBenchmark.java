@@ -0,0 +1,137 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Checks random sequences of MatrixStack operations against building every operation as a
+ * full matrix and multiplying it with Math3D.matrixMultiply4f(), then times a deep
+ * hierarchy of translations and rotations both ways.
+ */
+public class MatrixStackBenchmark {
+	private static final int NUM_SEQUENCES = 10000;
+	private static final int SEQUENCE_LENGTH = 12;
+	private static final int DEPTH = 32;
+	private static final int RUNS = 100000;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		MatrixStack stack = new MatrixStack();
+		float[] expected = new float[16], op = new float[16], product = new float[16];
+		float[] inverse = new float[16], expectedInverse = new float[16];
+		for (int sequence = 0; sequence < NUM_SEQUENCES; sequence++) {
+			stack.loadIdentity();
+			Math3D.loadIdentity4f(expected);
+			for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+				float x = random.nextFloat() * 4 - 2, y = random.nextFloat() * 4 - 2, z = random.nextFloat() * 4 - 2;
+				float angle = random.nextFloat() * 720 - 360;
+				switch (random.nextInt(8)) {
+				case 0:
+					stack.translate(x, y, z);
+					Math3D.translate4f(op, x, y, z);
+					break;
+				case 1:
+					stack.rotate(angle, x, y, z);
+					Math3D.rotate4f(op, angle, x, y, z);
+					break;
+				case 2:
+					stack.rotateX(angle);
+					Math3D.rotate4f(op, angle, 1, 0, 0);
+					break;
+				case 3:
+					stack.rotateY(angle);
+					Math3D.rotate4f(op, angle, 0, 1, 0);
+					break;
+				case 4:
+					stack.rotate(angle, 0, 0, -1);
+					Math3D.rotate4f(op, angle, 0, 0, -1);
+					break;
+				case 5:
+					// Mostly uniform scales near 1, so the products stay well conditioned.
+					x = 0.5f + random.nextFloat();
+					y = random.nextBoolean() ? x : 0.5f + random.nextFloat();
+					stack.scale(x, y, x);
+					Math3D.loadIdentity4f(op);
+					op[0] = op[10] = x;
+					op[5] = y;
+					break;
+				case 6:
+					for (int j = 0; j < 16; j++) {
+						op[j] = random.nextFloat() - 0.5f;
+					}
+					op[0] += 2;
+					op[5] += 2;
+					op[10] += 2;
+					op[15] += 2;
+					stack.multiply4(op);
+					break;
+				default:
+					Math3D.rotate4f(op, angle, x, y, z);
+					op[12] = x;
+					op[13] = y;
+					op[14] = z;
+					stack.multiply4(op);
+				}
+				Math3D.matrixMultiply4f(product, expected, op);
+				System.arraycopy(product, 0, expected, 0, 16);
+				check("sequence " + sequence, expected, stack.getMatrix());
+
+				if (!Math3D.matrixInverse4f(expectedInverse, expected) || !stack.getInverse(inverse)) {
+					throw new IllegalStateException("Couldn't invert the matrix of sequence " + sequence);
+				}
+				check("inverse of type " + stack.getType() + " in sequence " + sequence, expectedInverse, inverse);
+			}
+		}
+		System.out.println(NUM_SEQUENCES + " random sequences match the general path");
+
+		// A deep hierarchy, like a long chain of joints. The first round warms up the JIT.
+		float[] matrix = new float[16];
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (int run = 0; run < RUNS; run++) {
+				stack.loadIdentity();
+				for (int i = 0; i < DEPTH; i++) {
+					stack.push();
+					stack.translate(0.0f, 1.0f, 0.0f);
+					stack.rotate(10.0f + i, 0, 0, 1);
+					stack.scale(1.01f, 1.01f, 1.01f);
+				}
+				for (int i = 0; i < DEPTH; i++) {
+					stack.pop();
+				}
+			}
+			print("MatrixStack", start);
+
+			start = System.nanoTime();
+			for (int run = 0; run < RUNS; run++) {
+				Math3D.loadIdentity4f(matrix);
+				for (int i = 0; i < DEPTH; i++) {
+					Math3D.translate4f(op, 0.0f, 1.0f, 0.0f);
+					Math3D.matrixMultiply4f(product, matrix, op);
+					Math3D.rotate4f(op, 10.0f + i, 0, 0, 1);
+					Math3D.matrixMultiply4f(matrix, product, op);
+					Math3D.loadIdentity4f(op);
+					op[0] = op[5] = op[10] = 1.01f;
+					Math3D.matrixMultiply4f(product, matrix, op);
+					System.arraycopy(product, 0, matrix, 0, 16);
+				}
+			}
+			print("general multiplies", start);
+		}
+	}
+
+	private static void check(String name, float[] expected, float[] actual) {
+		for (int i = 0; i < 16; i++) {
+			float tolerance = 1e-3f * Math.max(1.0f, Math.abs(expected[i]));
+			if (Math.abs(expected[i] - actual[i]) > tolerance) {
+				throw new IllegalStateException(name + " differs at " + i + ": " + actual[i] + ", expected " + expected[i]);
+			}
+		}
+	}
+
+	private static void print(String name, long start) {
+		System.out.println(String.format("%s: %.1f ns per level", name, (System.nanoTime() - start) / (double) RUNS / DEPTH));
+	}
+}
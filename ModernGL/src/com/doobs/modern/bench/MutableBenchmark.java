@@ -0,0 +1,99 @@
+package com.doobs.modern.bench;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.shader.*;
+
+/**
+ * Edits a small patch of a terrain grid every frame, once by rebuilding a SimpleBatch
+ * and once through a MutableBatch's dirty ranges.
+ */
+public class MutableBenchmark {
+	private static final int GRID_SIZE = 256;
+	private static final int PATCH_SIZE = 8;
+	private static final int FRAMES = 300;
+
+	public static void main(String[] args) {
+		HeadlessBackend backend = new HeadlessBackend();
+		GLTools.initHeadless(new StateCache(backend), 800, 600);
+		Shader shader = StockShaders.getFlatShaderProgram();
+
+		float[] heights = new float[GRID_SIZE * GRID_SIZE * 3];
+		int[] indices = makeIndices();
+		for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++) {
+			heights[i * 3] = i % GRID_SIZE;
+			heights[i * 3 + 2] = i / GRID_SIZE;
+		}
+
+		// Rebuilding a SimpleBatch every frame.
+		backend.reset();
+		long start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			editPatch(heights, frame);
+			SimpleBatch batch = new SimpleBatch(GL_TRIANGLES, 3, heights, null, null, null, indices);
+			batch.draw(shader.getAttributeLocations());
+			batch.cleanup();
+		}
+		print("rebuilt SimpleBatch", start, backend);
+
+		// Editing a MutableBatch in place.
+		VertexFormat format = new VertexFormat().add(StockShaders.POSITION_IN_NAME, 3);
+		MutableBatch terrain = new MutableBatch(GL_TRIANGLES, true, format);
+		terrain.setNumVertices(GRID_SIZE * GRID_SIZE);
+		terrain.setVertices(0, 0, heights, 0, GRID_SIZE * GRID_SIZE);
+		terrain.setNumIndices(indices.length);
+		terrain.setIndices(0, indices, 0, indices.length);
+		terrain.update();
+
+		backend.reset();
+		start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			int first = editPatch(terrain.getVertexData(0), frame);
+			for (int row = 0; row < PATCH_SIZE; row++) {
+				terrain.markDirty(0, first + row * GRID_SIZE, PATCH_SIZE);
+			}
+			terrain.draw(shader.getAttributeLocations());
+		}
+		print("MutableBatch", start, backend);
+	}
+
+	/**
+	 * Raises a patch of "positions" and returns the index of its first vertex.
+	 */
+	private static int editPatch(float[] positions, int frame) {
+		int x = (frame * 7) % (GRID_SIZE - PATCH_SIZE);
+		int z = (frame * 13) % (GRID_SIZE - PATCH_SIZE);
+		for (int row = 0; row < PATCH_SIZE; row++) {
+			for (int column = 0; column < PATCH_SIZE; column++) {
+				positions[((z + row) * GRID_SIZE + x + column) * 3 + 1] += 0.1f;
+			}
+		}
+		return z * GRID_SIZE + x;
+	}
+
+	private static int[] makeIndices() {
+		int[] indices = new int[(GRID_SIZE - 1) * (GRID_SIZE - 1) * 6];
+		int i = 0;
+		for (int z = 0; z < GRID_SIZE - 1; z++) {
+			for (int x = 0; x < GRID_SIZE - 1; x++) {
+				int corner = z * GRID_SIZE + x;
+				indices[i++] = corner;
+				indices[i++] = corner + GRID_SIZE;
+				indices[i++] = corner + 1;
+				indices[i++] = corner + 1;
+				indices[i++] = corner + GRID_SIZE;
+				indices[i++] = corner + GRID_SIZE + 1;
+			}
+		}
+		return indices;
+	}
+
+	private static void print(String name, long start, HeadlessBackend backend) {
+		double frameTime = (System.nanoTime() - start) / 1e6 / FRAMES;
+		System.out.println(String.format("%-20s %.3f ms/frame, %d calls/frame, %d bytes/frame", name, frameTime, backend.getNumCalls() / FRAMES,
+				backend.getUploadedBytes() / FRAMES));
+	}
+}
@@ -0,0 +1,177 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.spatial.*;
+
+/**
+ * Rasterizes a disk and a sphere into an OcclusionBuffer, checks that boxes behind them are
+ * hidden and boxes in front or beside them aren't, that boxes seen through a gap or past
+ * an edge within a pixel aren't hidden, and that nothing in front of the near plane hides
+ * anything. Then times rasterizing and testing a field of
+ * random boxes on one thread and on a ForkJoinPool.
+ */
+public class OcclusionBenchmark {
+	private static final int WIDTH = 256, HEIGHT = 128;
+	private static final int NUM_BOXES = 10000;
+	private static final int RUNS = 200;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), 800, 400);
+
+		Shapes disk = Shapes.addDisk(new Shapes(), 0.0f, 4.0f, 64, 4);
+		Shapes sphere = Shapes.addSphere(new Shapes(), 2.0f, 48, 48);
+
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		OcclusionBuffer buffer = new OcclusionBuffer(WIDTH, HEIGHT);
+		OcclusionBuffer parallelBuffer = new OcclusionBuffer(WIDTH, HEIGHT, pool);
+		addOccluders(buffer, disk, sphere);
+		addOccluders(parallelBuffer, disk, sphere);
+		buffer.rasterize();
+		parallelBuffer.rasterize();
+		if (!Arrays.equals(buffer.getDepth(), parallelBuffer.getDepth())) {
+			throw new IllegalStateException("Rasterizing in parallel gave different depths");
+		}
+
+		Matrices.loadIdentity();
+		check(buffer, 0.0f, 0.0f, -20.0f, false, "behind the disk");
+		check(buffer, 6.0f, 0.0f, -20.0f, false, "behind the sphere");
+		check(buffer, 0.0f, 0.0f, -5.0f, true, "in front of the disk");
+		check(buffer, -20.0f, 0.0f, -20.0f, true, "beside the disk");
+		check(buffer, 3.0f, 0.0f, -10.0f, true, "between the disk and the sphere");
+		System.out.println(String.format("%d occluder triangles, occlusion checks passed", buffer.getNumTriangles()));
+		checkPartialPixels();
+		checkNearPlane();
+		System.out.println("gap, edge and near plane checks passed");
+
+		// A field of boxes behind and around the occluders.
+		Random random = new Random(0);
+		float[] boxes = new float[NUM_BOXES * 3];
+		for (int i = 0; i < boxes.length; i += 3) {
+			boxes[i] = random.nextFloat() * 40 - 20;
+			boxes[i + 1] = random.nextFloat() * 20 - 10;
+			boxes[i + 2] = -random.nextFloat() * 40 - 5;
+		}
+
+		int numHidden = 0;
+		long start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			buffer.clear();
+			addOccluders(buffer, disk, sphere);
+			buffer.rasterize();
+		}
+		print("rasterize on one thread", start);
+
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			parallelBuffer.clear();
+			addOccluders(parallelBuffer, disk, sphere);
+			parallelBuffer.rasterize();
+		}
+		print("rasterize on " + pool.getParallelism() + " workers", start);
+
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			numHidden = 0;
+			for (int i = 0; i < boxes.length; i += 3) {
+				if (!buffer.isVisible(boxes[i] - 0.5f, boxes[i + 1] - 0.5f, boxes[i + 2] - 0.5f, boxes[i] + 0.5f, boxes[i + 1] + 0.5f, boxes[i + 2] + 0.5f,
+						Matrices.transform)) {
+					numHidden++;
+				}
+			}
+		}
+		print("isVisible for " + NUM_BOXES + " boxes, " + numHidden + " hidden", start);
+
+		pool.shutdown();
+	}
+
+	private static void addOccluders(OcclusionBuffer buffer, Shapes disk, Shapes sphere) {
+		Matrices.loadIdentity();
+		Matrices.translate(0.0f, 0.0f, -10.0f);
+		buffer.addOccluder(disk, Matrices.transform);
+		Matrices.loadIdentity();
+		Matrices.translate(6.0f, 0.0f, -10.0f);
+		buffer.addOccluder(sphere, Matrices.transform);
+		Matrices.loadIdentity();
+	}
+
+	/**
+	 * Checks boxes behind walls that cover only part of a pixel, in a 16 x 16 buffer where
+	 * window x is (x + 1) * 8. The walls are at depth 0.5 and the boxes at 0.75.
+	 */
+	private static void checkPartialPixels() {
+		float[] identity = new float[16];
+		Math3D.loadIdentity4f(identity);
+		OcclusionBuffer buffer = new OcclusionBuffer(16, 16);
+
+		// Walls from window x 0 to 8.1 and 8.4 to 16. No pixel center is in the gap.
+		addWall(buffer, -1.0f, 0.0125f, identity);
+		addWall(buffer, 0.05f, 1.0f, identity);
+		buffer.rasterize();
+		checkWindowBox(buffer, 8.15f, 8.35f, true, "in the gap between two walls", identity);
+		checkWindowBox(buffer, 4.2f, 4.8f, false, "behind a wall", identity);
+
+		// A wall from window x 0 to 8.7, which covers the center of pixel 8.
+		buffer.clear();
+		addWall(buffer, -1.0f, 0.0875f, identity);
+		buffer.rasterize();
+		checkWindowBox(buffer, 8.8f, 8.9f, true, "past the edge of a wall", identity);
+		checkWindowBox(buffer, 7.2f, 7.8f, false, "behind the edge of a wall", identity);
+	}
+
+	/**
+	 * Checks a wall between the eye and the near plane, which OpenGL clips away, and one
+	 * just past it, with a near plane at 1.
+	 */
+	private static void checkNearPlane() {
+		float[] projection = new float[16];
+		Math3D.perspective(projection, 1.0f, 100.0f, 1.0f, -1.0f, -1.0f, 1.0f);
+		OcclusionBuffer buffer = new OcclusionBuffer(16, 16);
+		int[] indices = { 0, 1, 2, 0, 2, 3 };
+
+		for (float z : new float[] { -0.5f, -2.0f }) {
+			boolean clipped = z > -1.0f;
+			float[] vertices = { -5.0f, -5.0f, z, 5.0f, -5.0f, z, 5.0f, 5.0f, z, -5.0f, 5.0f, z };
+			buffer.clear();
+			buffer.addOccluder(vertices, 3, 4, indices, indices.length, projection);
+			buffer.rasterize();
+			String wall = clipped ? "a wall in front of the near plane" : "a wall past the near plane";
+			if (buffer.isVisible(-1.0f, -1.0f, -11.0f, 1.0f, 1.0f, -9.0f, projection) != clipped) {
+				throw new IllegalStateException("A box behind " + wall + " should " + (clipped ? "" : "not ") + "be visible");
+			}
+			if (!buffer.isVisible(-1.0f, -1.0f, -3.0f, 1.0f, 1.0f, -0.5f, projection)) {
+				throw new IllegalStateException("A box reaching in front of the near plane should be visible");
+			}
+		}
+	}
+
+	/**
+	 * Adds a full height wall from "left" to "right" at depth 0.5 as two triangles.
+	 */
+	private static void addWall(OcclusionBuffer buffer, float left, float right, float[] mvp) {
+		float[] vertices = { left, -1.0f, 0.0f, right, -1.0f, 0.0f, right, 1.0f, 0.0f, left, 1.0f, 0.0f };
+		int[] indices = { 0, 1, 2, 0, 2, 3 };
+		buffer.addOccluder(vertices, 3, 4, indices, indices.length, mvp);
+	}
+
+	private static void checkWindowBox(OcclusionBuffer buffer, float left, float right, boolean expected, String name, float[] mvp) {
+		if (buffer.isVisible(left / 8 - 1, -0.5f, 0.5f, right / 8 - 1, 0.5f, 0.5f, mvp) != expected) {
+			throw new IllegalStateException("A box " + name + " should " + (expected ? "" : "not ") + "be visible");
+		}
+	}
+
+	private static void check(OcclusionBuffer buffer, float x, float y, float z, boolean expected, String name) {
+		if (buffer.isVisible(x - 0.5f, y - 0.5f, z - 0.5f, x + 0.5f, y + 0.5f, z + 0.5f, Matrices.transform) != expected) {
+			throw new IllegalStateException("A box " + name + " should " + (expected ? "" : "not ") + "be visible");
+		}
+	}
+
+	private static void print(String name, long start) {
+		System.out.println(String.format("%s: %.3f ms per run", name, (System.nanoTime() - start) / 1e6 / RUNS));
+	}
+}
@@ -0,0 +1,144 @@
+package com.doobs.modern.bench;
+
+import java.nio.*;
+import java.util.*;
+
+import org.lwjgl.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Checks an OffHeapMatrixStack against a MatrixStack over random operations, including
+ * their types and the matrices a GeometryTransform computes from them, checks that
+ * unbalanced push() and pop() calls are reported, and times uploading the top matrix of
+ * each through a headless backend.
+ */
+public class OffHeapMatrixStackBenchmark {
+	private static final int NUM_OPERATIONS = 100000;
+	private static final int RUNS = 1000000;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), 800, 600);
+
+		Random random = new Random(0);
+		MatrixStack heap = new MatrixStack();
+		OffHeapMatrixStack offHeap = new OffHeapMatrixStack(64);
+		MatrixStack projection = new MatrixStack(Matrices.perspective.getProjectionMatrix());
+		GeometryTransform heapTransform = new GeometryTransform(heap, projection);
+		GeometryTransform offHeapTransform = new GeometryTransform(offHeap, projection);
+		float[] op = new float[16];
+		int depth = 0;
+		for (int i = 0; i < NUM_OPERATIONS; i++) {
+			float x = random.nextFloat() - 0.5f, y = random.nextFloat() - 0.5f, z = random.nextFloat() - 0.5f;
+			float angle = random.nextFloat() * 360;
+			switch (random.nextInt(7)) {
+			case 0:
+				if (depth < 63) {
+					heap.push();
+					offHeap.push();
+					depth++;
+				}
+				break;
+			case 1:
+				if (depth > 0) {
+					heap.pop();
+					offHeap.pop();
+					depth--;
+				}
+				break;
+			case 2:
+				heap.translate(x, y, z);
+				offHeap.translate(x, y, z);
+				break;
+			case 3:
+				heap.rotate(angle, x, y, z);
+				offHeap.rotate(angle, x, y, z);
+				break;
+			case 4:
+				heap.rotateY(angle);
+				offHeap.rotateY(angle);
+				break;
+			case 5:
+				heap.loadIdentity();
+				offHeap.loadIdentity();
+				break;
+			default:
+				Math3D.rotate4f(op, angle, x, y, z);
+				heap.multiply4(op);
+				offHeap.multiply4(op);
+			}
+
+			FloatBuffer matrix = offHeap.getMatrixBuffer();
+			float[] mvp = offHeapTransform.getModelViewProjectionMatrix(), expectedMVP = heapTransform.getModelViewProjectionMatrix();
+			for (int j = 0; j < 16; j++) {
+				if (Math.abs(matrix.get(j) - heap.getMatrix()[j]) > 1e-3f) {
+					throw new IllegalStateException("Operation " + i + " differs at " + j + ": " + matrix.get(j) + ", expected " + heap.getMatrix()[j]);
+				}
+				if (Math.abs(mvp[j] - expectedMVP[j]) > 1e-3f) {
+					throw new IllegalStateException("Operation " + i + " gives a different MVP matrix at " + j);
+				}
+			}
+			if (offHeap.getType() != heap.getType()) {
+				throw new IllegalStateException("Operation " + i + " gives type " + offHeap.getType() + ", expected " + heap.getType());
+			}
+		}
+		System.out.println(NUM_OPERATIONS + " random operations match MatrixStack");
+
+		// The top matrix array stays the same object through operations.
+		float[] top = offHeap.getMatrix();
+		Math3D.rotate4f(op, 30.0f, 1.0f, 2.0f, 3.0f);
+		offHeap.multiply4(op);
+		offHeap.rotate(45.0f, 1.0f, 1.0f, 0.0f);
+		if (offHeap.getMatrix() != top) {
+			throw new IllegalStateException("getMatrix() returned a different array after multiply4()");
+		}
+
+		// Unbalanced calls.
+		OffHeapMatrixStack small = new OffHeapMatrixStack(4);
+		expectFailure(small, false);
+		for (int i = 0; i < 3; i++) {
+			small.push();
+		}
+		expectFailure(small, true);
+		System.out.println("overflow and underflow are reported");
+
+		// Uploading the top matrix, as Matrices.sendMVMatrix() would with a changing matrix.
+		FloatBuffer uniformBuffer = BufferUtils.createFloatBuffer(16);
+		GLBackend gl = GL.get();
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (int run = 0; run < RUNS; run++) {
+				heap.translate(0.0f, 0.0f, 0.001f);
+				heap.fillBuffer(uniformBuffer);
+				gl.glUniformMatrix4(0, false, uniformBuffer);
+			}
+			print("MatrixStack.fillBuffer", start);
+
+			start = System.nanoTime();
+			for (int run = 0; run < RUNS; run++) {
+				offHeap.translate(0.0f, 0.0f, 0.001f);
+				gl.glUniformMatrix4(0, false, offHeap.getMatrixBuffer());
+			}
+			print("OffHeapMatrixStack.getMatrixBuffer", start);
+		}
+	}
+
+	private static void expectFailure(OffHeapMatrixStack stack, boolean push) {
+		try {
+			if (push) {
+				stack.push();
+			} else {
+				stack.pop();
+			}
+		} catch (IllegalStateException e) {
+			return;
+		}
+		throw new IllegalStateException("Unbalanced " + (push ? "push()" : "pop()") + " wasn't reported");
+	}
+
+	private static void print(String name, long start) {
+		System.out.println(String.format("%s: %.1f ns per upload", name, (System.nanoTime() - start) / (double) RUNS));
+	}
+}
@@ -0,0 +1,76 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.matrix.frustum.*;
+
+/**
+ * Culls a fixed synthetic scene of a million spheres with a ParallelCuller, from one
+ * worker up to one per processor, and checks every result against a single-threaded
+ * Frustum.cullSpheres().
+ */
+public class ParallelCullingBenchmark {
+	private static final int NUM_OBJECTS = 1000000;
+	private static final int WARMUP_RUNS = 50;
+	private static final int RUNS = 100;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), 800, 600);
+
+		Random random = new Random(0);
+		float[] x = new float[NUM_OBJECTS], y = new float[NUM_OBJECTS], z = new float[NUM_OBJECTS];
+		float[] radius = new float[NUM_OBJECTS];
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			x[i] = random.nextFloat() * 2000 - 1000;
+			y[i] = random.nextFloat() * 200 - 100;
+			z[i] = random.nextFloat() * 2000 - 1000;
+			radius[i] = random.nextFloat() * 5;
+		}
+
+		Frustum frustum = Matrices.perspective;
+		Matrices.loadIdentity();
+		Matrices.rotate(30.0f, 0.0f, 1.0f, 0.0f);
+		frustum.updatePlanes(Matrices.transform);
+
+		int[] expected = new int[NUM_OBJECTS];
+		int numExpected = frustum.cullSpheres(x, y, z, radius, 0, NUM_OBJECTS, expected);
+
+		int[] visible = new int[NUM_OBJECTS];
+		double singleTime = 0;
+
+		// Powers of two, finishing with one worker per processor.
+		int processors = Runtime.getRuntime().availableProcessors();
+		List<Integer> workerCounts = new ArrayList<Integer>();
+		for (int parallelism = 1; parallelism < processors; parallelism *= 2) {
+			workerCounts.add(parallelism);
+		}
+		workerCounts.add(processors);
+
+		for (int parallelism : workerCounts) {
+			ParallelCuller culler = new ParallelCuller(parallelism);
+			for (int run = 0; run < WARMUP_RUNS; run++) {
+				culler.cullSpheres(frustum, x, y, z, radius, NUM_OBJECTS, visible);
+			}
+
+			int numVisible = 0;
+			long start = System.nanoTime();
+			for (int run = 0; run < RUNS; run++) {
+				numVisible = culler.cullSpheres(frustum, x, y, z, radius, NUM_OBJECTS, visible);
+			}
+			double runTime = (System.nanoTime() - start) / 1e6 / RUNS;
+			culler.cleanup();
+
+			if ((numVisible != numExpected) || !Arrays.equals(Arrays.copyOf(visible, numVisible), Arrays.copyOf(expected, numExpected))) {
+				throw new IllegalStateException(parallelism + " workers found different visible objects");
+			}
+			if (parallelism == 1) {
+				singleTime = runTime;
+			}
+			System.out.println(String.format("%2d workers %.3f ms per %d objects, %.2fx, %d visible", parallelism, runTime, NUM_OBJECTS, singleTime / runTime,
+					numVisible));
+		}
+	}
+}
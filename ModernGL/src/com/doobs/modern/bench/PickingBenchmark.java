@@ -0,0 +1,81 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.spatial.*;
+
+/**
+ * Picks random window positions in a scene of high resolution spheres with a Picker, and
+ * checks some of the picks against testing every triangle of every object.
+ */
+public class PickingBenchmark {
+	private static final int SLICES = 1000;
+	private static final int NUM_OBJECTS = 8;
+	private static final int NUM_PICKS = 2000;
+	private static final int NUM_CHECKS = 20;
+	private static final int WIDTH = 800, HEIGHT = 600;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), WIDTH, HEIGHT);
+
+		long start = System.nanoTime();
+		Shapes shapes = Shapes.addSphere(new Shapes(), 1.0f, SLICES, SLICES);
+		TriangleBVH sphere = shapes.buildTriangleBVH();
+		System.out.println(String.format("built a TriangleBVH over %d triangles in %.1f ms", sphere.getNumTriangles(), (System.nanoTime() - start) / 1e6));
+
+		// A row of spheres in front of the camera.
+		Picker picker = new Picker();
+		float[] model = new float[16];
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			Math3D.translate4f(model, (i - NUM_OBJECTS / 2) * 1.5f, (i % 2) * 1.0f - 0.5f, -6.0f - i);
+			picker.add(sphere, model);
+		}
+		picker.build();
+		Matrices.loadIdentity();
+
+		Random random = new Random(0);
+		int numHits = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < NUM_PICKS; i++) {
+			if (picker.pick(Matrices.transform, random.nextFloat() * WIDTH, random.nextFloat() * HEIGHT, WIDTH, HEIGHT) >= 0) {
+				numHits++;
+			}
+		}
+		double pickTime = (System.nanoTime() - start) / 1e6 / NUM_PICKS;
+		System.out.println(String.format("%.4f ms per pick over %d objects, %d of %d picks hit", pickTime, NUM_OBJECTS, numHits, NUM_PICKS));
+
+		// Brute force: every triangle of every object.
+		Ray ray = new Ray();
+		Ray local = new Ray();
+		float[] inverse = new float[16];
+		for (int check = 0; check < NUM_CHECKS; check++) {
+			float x = random.nextFloat() * WIDTH, y = random.nextFloat() * HEIGHT;
+			int picked = picker.pick(Matrices.transform, x, y, WIDTH, HEIGHT);
+			float pickedDistance = picker.getWindowRay().getDistance();
+
+			ray.setFromWindow(Matrices.transform, x, y, WIDTH, HEIGHT);
+			int closest = -1;
+			float closestDistance = Float.POSITIVE_INFINITY;
+			for (int object = 0; object < NUM_OBJECTS; object++) {
+				Math3D.translate4f(model, (object - NUM_OBJECTS / 2) * 1.5f, (object % 2) * 1.0f - 0.5f, -6.0f - object);
+				Math3D.matrixInverse4f(inverse, model);
+				local.transform(ray, inverse);
+				for (int triangle = 0; triangle < sphere.getNumTriangles(); triangle++) {
+					float distance = sphere.intersect(triangle, local);
+					if (distance < closestDistance) {
+						closestDistance = distance;
+						closest = object;
+					}
+				}
+			}
+			if ((closest != picked) || ((closest >= 0) && (Math.abs(closestDistance - pickedDistance) > 1e-3f))) {
+				throw new IllegalStateException("Picked " + picked + " at " + pickedDistance + ", expected " + closest + " at " + closestDistance);
+			}
+		}
+		System.out.println(NUM_CHECKS + " picks match testing every triangle");
+	}
+}
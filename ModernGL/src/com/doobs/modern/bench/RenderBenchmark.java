@@ -0,0 +1,110 @@
+package com.doobs.modern.bench;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.shader.*;
+
+/**
+ * Measures the CPU cost of drawing a grid of objects through a HeadlessBackend, and how
+ * many OpenGL calls each frame makes after the StateCache drops redundant ones. The grid
+ * is drawn once with per-object uniforms and once through an ObjectUniformRing.
+ */
+public class RenderBenchmark {
+	private static final int GRID_SIZE = 32;
+	private static final int WARMUP_FRAMES = 200;
+	private static final int FRAMES = 500;
+
+	public static void main(String[] args) {
+		run(false);
+		System.out.println();
+		run(true);
+	}
+
+	private static void run(boolean useRing) {
+		HeadlessBackend backend = new HeadlessBackend();
+		StateCache cache = new StateCache(backend);
+		GLTools.initHeadless(cache, 800, 600);
+
+		Batch[] batches = { Shapes.makeSphere(0.5f, 16, 16), Shapes.makeTorus(0.5f, 0.15f, 16, 16), Shapes.makeCube(1.0f, 1.0f, 1.0f) };
+		Shader shader;
+		ObjectUniformRing ring = null;
+		if (useRing) {
+			shader = StockShaders.getObjectFlatShaderProgram();
+			ring = new ObjectUniformRing(GRID_SIZE * GRID_SIZE);
+		} else {
+			shader = StockShaders.getFlatShaderProgram();
+		}
+
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			renderFrame(shader, ring, batches);
+		}
+
+		backend.reset();
+		long start = System.nanoTime();
+		for (int i = 0; i < FRAMES; i++) {
+			renderFrame(shader, ring, batches);
+		}
+		double frameTime = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+		System.out.println(String.format("%d objects, %s: %.3f ms/frame", GRID_SIZE * GRID_SIZE, useRing ? "uniform ring" : "uniforms", frameTime));
+		System.out.println("calls/frame:           " + (backend.getNumCalls() / FRAMES));
+		System.out.println("draws/frame:           " + (backend.getNumDrawCalls() / FRAMES));
+		System.out.println("program binds/frame:   " + (backend.getNumProgramBinds() / FRAMES));
+		System.out.println("buffer binds/frame:    " + (backend.getNumBufferBinds() / FRAMES));
+		System.out.println("VAO binds/frame:       " + (backend.getNumVertexArrayBinds() / FRAMES));
+		System.out.println("uniform uploads/frame: " + (backend.getNumUniformUploads() / FRAMES));
+		System.out.println("uploaded bytes/frame:  " + (backend.getUploadedBytes() / FRAMES));
+		System.out.println("state calls issued:    " + cache.getIssuedCalls());
+		System.out.println("state calls skipped:   " + cache.getSkippedCalls());
+	}
+
+	private static void renderFrame(Shader shader, ObjectUniformRing ring, Batch[] batches) {
+		Matrices.loadIdentity();
+		Matrices.translate(0, 0, -GRID_SIZE);
+		FrameUniforms.update();
+
+		if (ring != null) {
+			// Write every object's data first, so it goes to the GPU in one upload.
+			ring.beginFrame();
+			for (int x = 0; x < GRID_SIZE; x++) {
+				for (int y = 0; y < GRID_SIZE; y++) {
+					Matrices.modelViewStack.push();
+					transformObject(x, y);
+					ring.push(Matrices.transform, x / (float) GRID_SIZE, y / (float) GRID_SIZE, 1.0f, 1.0f);
+					Matrices.modelViewStack.pop();
+				}
+			}
+			ring.flush();
+		}
+
+		int slot = 0;
+		for (int x = 0; x < GRID_SIZE; x++) {
+			for (int y = 0; y < GRID_SIZE; y++) {
+				shader.use();
+				if (ring != null) {
+					ring.bind(slot++);
+				} else {
+					Matrices.modelViewStack.push();
+					transformObject(x, y);
+					Matrices.sendMatrices(shader);
+					Color.set(shader, x / (float) GRID_SIZE, y / (float) GRID_SIZE, 1.0f, 1.0f);
+					Matrices.modelViewStack.pop();
+				}
+				batches[(x + y) % batches.length].draw(shader.getAttributeLocations());
+			}
+		}
+
+		if (ring != null) {
+			ring.endFrame();
+		}
+		GLValidation.endFrame();
+		GL.endFrame();
+	}
+
+	private static void transformObject(int x, int y) {
+		Matrices.translate(x - (GRID_SIZE / 2), y - (GRID_SIZE / 2), 0);
+		Matrices.rotate(x * y, 0, 1, 0);
+	}
+}
@@ -0,0 +1,121 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.shader.*;
+import com.doobs.modern.util.texture.*;
+
+/**
+ * Draws objects with a random mix of shaders and textures, once in submission order and
+ * once through a RenderQueue, and compares the program and texture binds that reach
+ * OpenGL through the StateCache.
+ */
+public class RenderQueueBenchmark {
+	private static final int NUM_OBJECTS = 2000;
+	private static final int NUM_TEXTURES = 16;
+	private static final int FRAMES = 300;
+
+	public static void main(String[] args) {
+		HeadlessBackend backend = new HeadlessBackend();
+		GLTools.initHeadless(new StateCache(backend), 800, 600);
+
+		Shader[] shaderChoices = { StockShaders.getFlatShaderProgram(), StockShaders.getPointLightDiffuseShaderProgram(),
+				StockShaders.getTextureModulateShaderProgram(), StockShaders.getTexturePointLightDiffuseShaderProgram() };
+		Texture[][] textureChoices = new Texture[NUM_TEXTURES][];
+		for (int i = 0; i < NUM_TEXTURES; i++) {
+			textureChoices[i] = new Texture[] { new Texture(GL.get().glGenTextures(), 64, 64) };
+		}
+		SimpleBatch sphere = Shapes.makeSphere(1.0f, 8, 8);
+
+		Random random = new Random(0);
+		Shader[] shaders = new Shader[NUM_OBJECTS];
+		Texture[][] textures = new Texture[NUM_OBJECTS][];
+		float[] positions = new float[NUM_OBJECTS * 3];
+		boolean[] blended = new boolean[NUM_OBJECTS];
+		for (int i = 0; i < NUM_OBJECTS; i++) {
+			shaders[i] = shaderChoices[random.nextInt(shaderChoices.length)];
+			textures[i] = textureChoices[random.nextInt(NUM_TEXTURES)];
+			positions[i * 3] = random.nextFloat() * 200 - 100;
+			positions[i * 3 + 1] = random.nextFloat() * 200 - 100;
+			positions[i * 3 + 2] = -random.nextFloat() * 500;
+			blended[i] = random.nextInt(10) == 0;
+		}
+
+		// Drawing in submission order.
+		backend.reset();
+		long start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			Matrices.loadIdentity();
+			FrameUniforms.update();
+			for (int i = 0; i < NUM_OBJECTS; i++) {
+				Matrices.modelViewStack.push();
+				Matrices.translate(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+				shaders[i].use();
+				textures[i][0].bind(0);
+				Matrices.sendMatrices(shaders[i]);
+				Color.set(shaders[i], 1.0f, 1.0f, 1.0f, blended[i] ? 0.5f : 1.0f);
+				sphere.draw(shaders[i].getAttributeLocations());
+				Matrices.modelViewStack.pop();
+			}
+			GLValidation.endFrame();
+			GL.endFrame();
+		}
+		print("submission order", start, backend);
+
+		// Drawing through a RenderQueue.
+		RenderQueue queue = new RenderQueue(NUM_OBJECTS);
+		backend.reset();
+		start = System.nanoTime();
+		for (int frame = 0; frame < FRAMES; frame++) {
+			Matrices.loadIdentity();
+			FrameUniforms.update();
+			for (int i = 0; i < NUM_OBJECTS; i++) {
+				Matrices.modelViewStack.push();
+				Matrices.translate(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+				queue.submit(sphere, shaders[i], textures[i], blended[i], 1.0f, 1.0f, 1.0f, blended[i] ? 0.5f : 1.0f);
+				Matrices.modelViewStack.pop();
+			}
+			queue.render();
+			GLValidation.endFrame();
+			GL.endFrame();
+		}
+		print("RenderQueue", start, backend);
+
+		checkGrowth(shaderChoices[0]);
+	}
+
+	/**
+	 * Submits more draws than a RenderQueue has room for, and checks every one is drawn
+	 * exactly once.
+	 */
+	private static void checkGrowth(Shader shader) {
+		final int numDraws = 4;
+		final int[] drawn = new int[numDraws];
+		RenderQueue queue = new RenderQueue(2);
+		Matrices.loadIdentity();
+		for (int i = 0; i < numDraws; i++) {
+			final int index = i;
+			Batch batch = new Batch() {
+				public void draw(Map<String, Integer> attributeLocations) {
+					drawn[index]++;
+				}
+			};
+			Matrices.modelViewStack.push();
+			Matrices.translate(0, 0, -i);
+			queue.submit(batch, shader, null, false, 1.0f, 1.0f, 1.0f, 1.0f);
+			Matrices.modelViewStack.pop();
+		}
+		queue.render();
+		System.out.println("grown queue draws: " + Arrays.toString(drawn) + (Arrays.equals(drawn, new int[] { 1, 1, 1, 1 }) ? " (ok)" : " (WRONG)"));
+	}
+
+	private static void print(String name, long start, HeadlessBackend backend) {
+		double frameTime = (System.nanoTime() - start) / 1e6 / FRAMES;
+		System.out.println(String.format("%-20s %.3f ms/frame, %d program binds/frame, %d texture binds/frame, %d calls/frame", name, frameTime,
+				backend.getNumProgramBinds() / FRAMES, backend.getNumTextureBinds() / FRAMES, backend.getNumCalls() / FRAMES));
+	}
+}
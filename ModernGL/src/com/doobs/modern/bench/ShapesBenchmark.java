@@ -0,0 +1,78 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.batch.*;
+
+/**
+ * Compares mesh build times of hash-based vertex welding in Shapes against the old
+ * List.indexOf() welding. Doesn't need an OpenGL context, since only the vertex data is
+ * built.
+ */
+public class ShapesBenchmark {
+	// Linear welding is quadratic, so it is skipped above this tessellation.
+	private static final int MAX_LINEAR_TESSELLATION = 128;
+	private static final int RUNS = 5;
+
+	/**
+	 * The welding Shapes used before, kept around as a baseline.
+	 */
+	private static class LinearShapes extends Shapes {
+		private List<float[]> vertices = new ArrayList<float[]>();
+		private List<Short> indexes = new ArrayList<Short>();
+
+		public void addVertex(float[] vertex, float[] normal, float[] texCoords) {
+			float[] v = new float[8];
+			System.arraycopy(vertex, 0, v, 0, 3);
+			System.arraycopy(normal, 0, v, 3, 3);
+			System.arraycopy(texCoords, 0, v, 6, 2);
+
+			int index = -1;
+			for (int i = 0; i < this.vertices.size(); i++) {
+				if (Arrays.equals(this.vertices.get(i), v)) {
+					index = i;
+					break;
+				}
+			}
+			if (index < 0) {
+				this.vertices.add(v);
+				index = this.vertices.size() - 1;
+			}
+			this.indexes.add((short) index);
+		}
+	}
+
+	public static void main(String[] args) {
+		System.out.println("shape     n   vertices   hash (ms)   linear (ms)");
+		for (int n = 16; n <= 512; n *= 2) {
+			run("sphere", n);
+			run("torus", n);
+		}
+	}
+
+	private static void run(String shape, int n) {
+		Shapes hashed = null;
+		double hashTime = Double.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			hashed = build(new Shapes(), shape, n);
+			hashTime = Math.min(hashTime, (System.nanoTime() - start) / 1e6);
+		}
+
+		String linear = "-";
+		if (n <= MAX_LINEAR_TESSELLATION) {
+			long start = System.nanoTime();
+			build(new LinearShapes(), shape, n);
+			linear = String.format("%.1f", (System.nanoTime() - start) / 1e6);
+		}
+
+		System.out.println(String.format("%-6s %4d %10d %11.1f %13s", shape, n, hashed.getNumVertices(), hashTime, linear));
+	}
+
+	private static Shapes build(Shapes factory, String shape, int n) {
+		if (shape.equals("sphere")) {
+			return Shapes.addSphere(factory, 1.0f, n, n);
+		}
+		return Shapes.addTorus(factory, 1.0f, 0.25f, n, n);
+	}
+}
@@ -0,0 +1,69 @@
+package com.doobs.modern.bench;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import java.nio.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.shader.*;
+
+/**
+ * Rewrites and draws a cloud of colored points every frame through a StreamBatch, once
+ * for each StreamingBuffer mode, by pretending to be different OpenGL versions.
+ */
+public class StreamingBenchmark {
+	private static final int NUM_PARTICLES = 50000;
+	private static final int WARMUP_FRAMES = 100;
+	private static final int FRAMES = 300;
+
+	public static void main(String[] args) {
+		int[][] versions = { { 4, 4 }, { 3, 3 }, { 3, 1 } };
+		for (int[] version : versions) {
+			HeadlessBackend backend = new HeadlessBackend(version[0], version[1]);
+			GLTools.initHeadless(new StateCache(backend), 800, 600);
+
+			VertexFormat format = new VertexFormat().add(StockShaders.POSITION_IN_NAME, 3).add(StockShaders.COLOR_IN_NAME, 4);
+			StreamBatch particles = new StreamBatch(GL_POINTS, format, NUM_PARTICLES);
+			Shader shader = StockShaders.getColoredShaderProgram();
+
+			for (int i = 0; i < WARMUP_FRAMES; i++) {
+				renderFrame(shader, particles, i);
+			}
+			backend.reset();
+			long start = System.nanoTime();
+			for (int i = 0; i < FRAMES; i++) {
+				renderFrame(shader, particles, i);
+			}
+			double frameTime = (System.nanoTime() - start) / 1e6 / FRAMES;
+
+			StreamingBuffer buffer = particles.getStreamingBuffer();
+			System.out.println(String.format("%-15s %.3f ms/frame, %d calls/frame, %d stalls", buffer.getMode(), frameTime, backend.getNumCalls() / FRAMES,
+					buffer.getNumStalls()));
+			particles.cleanup();
+		}
+	}
+
+	private static void renderFrame(Shader shader, StreamBatch particles, int frame) {
+		Matrices.loadIdentity();
+		FrameUniforms.update();
+
+		FloatBuffer vertices = particles.begin();
+		for (int i = 0; i < NUM_PARTICLES; i++) {
+			float angle = (i + frame) * 0.001f;
+			vertices.put((float) Math.cos(angle) * (i % 100)).put((float) Math.sin(angle) * (i % 100)).put(-100);
+			vertices.put(1.0f).put(i / (float) NUM_PARTICLES).put(0.0f).put(1.0f);
+		}
+		particles.end();
+
+		shader.use();
+		Matrices.sendMatrices(shader);
+		particles.draw(shader.getAttributeLocations());
+		particles.endFrame();
+
+		GLValidation.endFrame();
+		GL.endFrame();
+	}
+}
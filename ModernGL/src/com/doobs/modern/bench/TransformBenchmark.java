@@ -0,0 +1,145 @@
+package com.doobs.modern.bench;
+
+import java.nio.*;
+import java.util.*;
+
+import org.lwjgl.*;
+
+import com.doobs.modern.util.*;
+
+/**
+ * Transforms points, matrices and boxes one at a time with the single matrix and vector
+ * methods of Math3D, and in bulk with its array kernels, checking that they agree.
+ */
+public class TransformBenchmark {
+	private static final int NUM_POINTS = 100000;
+	private static final int NUM_MATRICES = 10000;
+	private static final int RUNS = 200;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		float[] m = new float[16];
+		Math3D.loadIdentity4f(m);
+		Math3D.rotate4f(m, 30.0f, 0.3f, 1.0f, 0.2f);
+		m[12] = 1.0f;
+		m[13] = -2.0f;
+		m[14] = 3.0f;
+
+		// Points interleaved with 5 other floats, like Shapes vertices.
+		int stride = 8;
+		float[] points = new float[NUM_POINTS * stride];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = random.nextFloat() * 20 - 10;
+		}
+		float[] result = new float[points.length];
+
+		long start = System.nanoTime();
+		float[] vector = new float[4];
+		for (int run = 0; run < RUNS; run++) {
+			for (int i = 0; i < NUM_POINTS; i++) {
+				int o = i * stride;
+				vector[0] = points[o];
+				vector[1] = points[o + 1];
+				vector[2] = points[o + 2];
+				vector[3] = 1.0f;
+				float[] product = Math3D.matrixMultiplyByVector4f(m, vector);
+				result[o] = product[0];
+				result[o + 1] = product[1];
+				result[o + 2] = product[2];
+			}
+		}
+		print("matrixMultiplyByVector4f per point", start, NUM_POINTS);
+		float[] expected = result.clone();
+
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			Math3D.transformPoints3f(result, 0, m, points, 0, stride, NUM_POINTS);
+		}
+		print("transformPoints3f", start, NUM_POINTS);
+		check("transformPoints3f", expected, result);
+
+		FloatBuffer pointBuffer = BufferUtils.createFloatBuffer(points.length);
+		FloatBuffer resultBuffer = BufferUtils.createFloatBuffer(points.length);
+		pointBuffer.put(points).flip();
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			Math3D.transformPoints3f(resultBuffer, 0, m, pointBuffer, 0, stride, NUM_POINTS);
+		}
+		print("transformPoints3f on FloatBuffers", start, NUM_POINTS);
+		resultBuffer.get(result);
+		check("transformPoints3f on FloatBuffers", expected, result);
+
+		// Matrices.
+		float[] matrices = new float[NUM_MATRICES * 16];
+		for (int i = 0; i < matrices.length; i++) {
+			matrices[i] = random.nextFloat();
+		}
+		float[] products = new float[matrices.length];
+		float[] single = new float[16], product = new float[16];
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			for (int i = 0; i < NUM_MATRICES; i++) {
+				System.arraycopy(matrices, i * 16, single, 0, 16);
+				Math3D.matrixMultiply4f(product, m, single);
+				System.arraycopy(product, 0, products, i * 16, 16);
+			}
+		}
+		print("matrixMultiply4f per matrix", start, NUM_MATRICES);
+		expected = products.clone();
+
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			Math3D.matrixMultiply4f(products, 0, m, matrices, 0, NUM_MATRICES);
+		}
+		print("matrixMultiply4f in bulk", start, NUM_MATRICES);
+		check("matrixMultiply4f in bulk", expected, products);
+
+		// Boxes, checked against transforming all 8 corners.
+		float[] boxes = new float[NUM_MATRICES * 6];
+		for (int i = 0; i < boxes.length; i += 6) {
+			for (int axis = 0; axis < 3; axis++) {
+				boxes[i + axis] = random.nextFloat() * 10;
+				boxes[i + 3 + axis] = boxes[i + axis] + random.nextFloat();
+			}
+		}
+		float[] transformed = new float[boxes.length];
+		start = System.nanoTime();
+		for (int run = 0; run < RUNS; run++) {
+			Math3D.transformBoxes3f(transformed, 0, m, boxes, 0, NUM_MATRICES);
+		}
+		print("transformBoxes3f", start, NUM_MATRICES);
+
+		float[] corners = new float[8 * 3];
+		for (int i = 0; i < boxes.length; i += 6) {
+			for (int corner = 0; corner < 8; corner++) {
+				corners[corner * 3] = boxes[i + ((corner & 1) == 0 ? 0 : 3)];
+				corners[corner * 3 + 1] = boxes[i + ((corner & 2) == 0 ? 1 : 4)];
+				corners[corner * 3 + 2] = boxes[i + ((corner & 4) == 0 ? 2 : 5)];
+			}
+			Math3D.transformPoints3f(corners, 0, m, corners, 0, 3, 8);
+			for (int axis = 0; axis < 3; axis++) {
+				float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+				for (int corner = 0; corner < 8; corner++) {
+					min = Math.min(min, corners[corner * 3 + axis]);
+					max = Math.max(max, corners[corner * 3 + axis]);
+				}
+				if ((Math.abs(min - transformed[i + axis]) > 1e-4f) || (Math.abs(max - transformed[i + 3 + axis]) > 1e-4f)) {
+					throw new IllegalStateException("transformBoxes3f differs from transforming the corners of box " + (i / 6));
+				}
+			}
+		}
+		System.out.println("all kernels match");
+	}
+
+	private static void check(String name, float[] expected, float[] actual) {
+		for (int i = 0; i < expected.length; i++) {
+			if (Math.abs(expected[i] - actual[i]) > 1e-4f) {
+				throw new IllegalStateException(name + " differs at " + i + ": " + actual[i] + ", expected " + expected[i]);
+			}
+		}
+	}
+
+	private static void print(String name, long start, int count) {
+		System.out.println(String.format("%s: %.2f ns per item", name, (System.nanoTime() - start) / (double) RUNS / count));
+	}
+}
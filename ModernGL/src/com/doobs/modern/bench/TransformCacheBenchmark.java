@@ -0,0 +1,60 @@
+package com.doobs.modern.bench;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Walks a random hierarchy of pushes, pops and transforms, asking the GeometryTransform for
+ * its matrices several times per node like a frame that culls, picks and draws would, and
+ * checks every cached matrix against computing it again.
+ */
+public class TransformCacheBenchmark {
+	private static final int NUM_NODES = 200000;
+	private static final int QUERIES_PER_NODE = 3;
+
+	public static void main(String[] args) {
+		GLTools.initHeadless(new StateCache(new HeadlessBackend()), 800, 600);
+		GeometryTransform transform = Matrices.transform;
+		MatrixStack modelView = Matrices.modelViewStack;
+
+		Random random = new Random(0);
+		float[] expected = new float[16];
+		float[] expectedNormal = new float[9];
+		int depth = 0;
+		Matrices.loadIdentity();
+		transform.resetCounters();
+		long start = System.nanoTime();
+		for (int node = 0; node < NUM_NODES; node++) {
+			int operation = random.nextInt(4);
+			if ((operation == 0) && (depth < 32)) {
+				modelView.push();
+				depth++;
+			} else if ((operation == 1) && (depth > 0)) {
+				modelView.pop();
+				depth--;
+			} else if (operation == 2) {
+				modelView.translate(random.nextFloat(), random.nextFloat(), random.nextFloat());
+			}
+
+			for (int query = 0; query < QUERIES_PER_NODE; query++) {
+				float[] mvp = transform.getModelViewProjectionMatrix();
+				float[] normal = transform.getNormalMatrix();
+				if (query == 0) {
+					Math3D.matrixMultiply4f(expected, transform.getProjectionMatrix(), transform.getModelViewMatrix());
+					Math3D.extractRotationMatrix3f(expectedNormal, transform.getModelViewMatrix());
+					if (!Arrays.equals(expected, mvp) || !Arrays.equals(expectedNormal, normal)) {
+						throw new IllegalStateException("Stale cached matrix at node " + node);
+					}
+				}
+			}
+			if (transform.getModelViewProjectionBuffer().get(12) != expected[12]) {
+				throw new IllegalStateException("Stale cached buffer at node " + node);
+			}
+		}
+		double time = (System.nanoTime() - start) / 1e6;
+		System.out.println(String.format("%d nodes in %.1f ms: %d cache hits, %d misses", NUM_NODES, time, transform.getNumHits(), transform.getNumMisses()));
+	}
+}
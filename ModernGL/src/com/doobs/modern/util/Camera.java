@@ -6,11 +6,38 @@ import com.doobs.modern.util.matrix.*;
 
 /**
  * Basic Camera object that supports position, velocity, and rotation.
+ *
+ * The orientation is a quaternion. It can be set directly with rotate(), setOrientation()
+ * or slerp(), which don't suffer from gimbal lock and leave the Euler angles alone, and
+ * then stays as it is until "rotX", "rotY" or "rotZ" (in degrees) are changed. From then
+ * on it follows them again, which is Euler mode. Angles are compared modulo 360, so
+ * wrapping them around doesn't count as a change. The view matrix is cached and only
+ * rebuilt when the position or the orientation changed.
  */
 public class Camera {
 	public float x, y, z, xv, yv, zv;
 	public float rotX, rotY, rotZ;
 
+	// The position in double precision, for worlds too large for floats. It's used while
+	// "x", "y" and "z" still hold it rounded to floats.
+	private double worldX, worldY, worldZ;
+
+	// Rotates from camera space to world space, as (x, y, z, w).
+	private float[] orientation = { 0.0f, 0.0f, 0.0f, 1.0f };
+
+	private float[] viewMatrix = new float[16];
+	private boolean orientationChanged = true;
+	private boolean eulerMode = true;
+	private int numViewUpdates = 0;
+
+	// The position the view matrix was built from, and the Euler angles when the
+	// orientation was last built from them or set directly.
+	private float viewX, viewY, viewZ;
+	private float eulerX = Float.NaN, eulerY, eulerZ;
+
+	// Temp quaternion. Avoiding garbage collection on rotating!
+	private float[] temp = new float[4];
+
 	/**
 	 * Creates a Camera at the origin with no rotation.
 	 */
@@ -41,37 +68,187 @@ public class Camera {
 	}
 
 	/**
-	 * Updates this Camera based on how much time has passed ("delta").
+	 * Updates this Camera based on how much time has passed ("delta"). The Euler angles are
+	 * only limited in Euler mode, so they don't undo a rotation set directly.
 	 */
 	public void tick() {
-		// Limits the rotation to straight up and straight down.
-		if (this.rotX < -90) {
-			this.rotX = -90;
-		} else if (this.rotX > 90) {
-			this.rotX = 90;
-		}
+		if (this.isEulerMode()) {
+			// Limits the rotation to straight up and straight down.
+			if (this.rotX < -90) {
+				this.rotX = -90;
+			} else if (this.rotX > 90) {
+				this.rotX = 90;
+			}
 
-		// Keeps rotation values from getting insane.
-		if (this.rotY <= 0) {
-			this.rotY += 360.0f;
-		} else if (this.rotY >= 360) {
-			this.rotY -= 360.0f;
+			// Keeps rotation values from getting insane.
+			if (this.rotY < 0) {
+				this.rotY += 360.0f;
+			} else if (this.rotY >= 360) {
+				this.rotY -= 360.0f;
+			}
 		}
 
 		// Apply velocity.
-		this.x += this.xv;
-		this.y += this.yv;
-		this.z += this.zv;
+		this.setWorldPosition(this.getWorldX() + this.xv, this.getWorldY() + this.yv, this.getWorldZ() + this.zv);
 	}
 
 	/**
-	 * Applies the transformations held within this Camera to the OpenGL context.
+	 * Applies the transformations held within this Camera to the OpenGL context, by
+	 * multiplying the model-view matrix by the view matrix.
 	 */
 	public void applyTransformations() {
-		Matrices.rotate(-this.rotX, 1, 0, 0);
-		Matrices.rotate(-this.rotY, 0, 1, 0);
-		Matrices.rotate(-this.rotZ, 0, 0, 1);
-		Matrices.translate(-this.x, -this.y, -this.z);
+		Matrices.modelViewStack.multiply4(this.getViewMatrix(), MatrixStack.RIGID);
+	}
+
+	/**
+	 * Replaces the top matrix of "stack" with the view matrix.
+	 */
+	public void loadView(MatrixStack stack) {
+		stack.load(this.getViewMatrix(), MatrixStack.RIGID);
+	}
+
+	/**
+	 * Returns the view matrix, which transforms from world space to camera space. It's
+	 * rebuilt if the position or orientation changed since the last call, and shouldn't be
+	 * modified.
+	 */
+	public float[] getViewMatrix() {
+		this.updateOrientation();
+		if (!this.orientationChanged && (this.x == this.viewX) && (this.y == this.viewY) && (this.z == this.viewZ)) {
+			return this.viewMatrix;
+		}
+
+		// The rotation of the inverse orientation, (-x, -y, -z, w).
+		float qx = this.orientation[0], qy = this.orientation[1], qz = this.orientation[2], qw = this.orientation[3];
+		float xx = qx * qx, yy = qy * qy, zz = qz * qz;
+		float xy = qx * qy, xz = qx * qz, yz = qy * qz;
+		float xw = qx * qw, yw = qy * qw, zw = qz * qw;
+		float[] m = this.viewMatrix;
+		m[0] = 1.0f - (2.0f * (yy + zz));
+		m[1] = 2.0f * (xy - zw);
+		m[2] = 2.0f * (xz + yw);
+		m[3] = 0.0f;
+		m[4] = 2.0f * (xy + zw);
+		m[5] = 1.0f - (2.0f * (xx + zz));
+		m[6] = 2.0f * (yz - xw);
+		m[7] = 0.0f;
+		m[8] = 2.0f * (xz - yw);
+		m[9] = 2.0f * (yz + xw);
+		m[10] = 1.0f - (2.0f * (xx + yy));
+		m[11] = 0.0f;
+
+		// Then the translation, rotated.
+		m[12] = -((m[0] * this.x) + (m[4] * this.y) + (m[8] * this.z));
+		m[13] = -((m[1] * this.x) + (m[5] * this.y) + (m[9] * this.z));
+		m[14] = -((m[2] * this.x) + (m[6] * this.y) + (m[10] * this.z));
+		m[15] = 1.0f;
+
+		this.viewX = this.x;
+		this.viewY = this.y;
+		this.viewZ = this.z;
+		this.orientationChanged = false;
+		this.numViewUpdates++;
+		return this.viewMatrix;
+	}
+
+	/**
+	 * Rebuilds the orientation from the Euler angles if they changed, and returns to Euler
+	 * mode. The view rotates by "rotX" around x, then "rotY" around y, then "rotZ" around z,
+	 * as seen from the world, so the orientation is the reverse.
+	 */
+	private void updateOrientation() {
+		if (isSameAngle(this.rotX, this.eulerX) && isSameAngle(this.rotY, this.eulerY) && isSameAngle(this.rotZ, this.eulerZ)) {
+			return;
+		}
+		Math3D.quaternionFromAxisAngle4f(this.orientation, -this.rotZ, 0, 0, 1);
+		Math3D.quaternionFromAxisAngle4f(this.temp, -this.rotY, 0, 1, 0);
+		Math3D.quaternionMultiply4f(this.orientation, this.orientation, this.temp);
+		Math3D.quaternionFromAxisAngle4f(this.temp, -this.rotX, 1, 0, 0);
+		Math3D.quaternionMultiply4f(this.orientation, this.orientation, this.temp);
+		this.eulerX = this.rotX;
+		this.eulerY = this.rotY;
+		this.eulerZ = this.rotZ;
+		this.orientationChanged = true;
+		this.eulerMode = true;
+	}
+
+	/**
+	 * Returns whether "a" and "b" are the same angle in degrees.
+	 */
+	private static boolean isSameAngle(float a, float b) {
+		return (a - b) % 360.0f == 0.0f;
+	}
+
+	/**
+	 * Called after the orientation was set directly. It's kept until the Euler angles
+	 * change from what they are now.
+	 */
+	private void leaveEulerMode() {
+		this.eulerX = this.rotX;
+		this.eulerY = this.rotY;
+		this.eulerZ = this.rotZ;
+		this.orientationChanged = true;
+		this.eulerMode = false;
+	}
+
+	/**
+	 * Returns whether the orientation follows the Euler angles, rather than having been
+	 * set directly since they last changed.
+	 */
+	public boolean isEulerMode() {
+		this.updateOrientation();
+		return this.eulerMode;
+	}
+
+	/**
+	 * Turns this Camera "angle" degrees counter-clockwise around the axis ("x", "y", "z")
+	 * in its own space, e.g. (0, 1, 0) to look left and (1, 0, 0) to look up.
+	 */
+	public void rotate(float angle, float x, float y, float z) {
+		this.updateOrientation();
+		Math3D.quaternionFromAxisAngle4f(this.temp, angle, x, y, z);
+		Math3D.quaternionMultiply4f(this.orientation, this.orientation, this.temp);
+		Math3D.quaternionNormalize4f(this.orientation);
+		this.leaveEulerMode();
+	}
+
+	/**
+	 * Sets the orientation to the quaternion ("x", "y", "z", "w"), which rotates from
+	 * camera space to world space.
+	 */
+	public void setOrientation(float x, float y, float z, float w) {
+		this.updateOrientation();
+		this.orientation[0] = x;
+		this.orientation[1] = y;
+		this.orientation[2] = z;
+		this.orientation[3] = w;
+		Math3D.quaternionNormalize4f(this.orientation);
+		this.leaveEulerMode();
+	}
+
+	/**
+	 * Sets the orientation to "t" of the way from the quaternion "from" to "to", turning
+	 * at a constant speed along the shorter arc as "t" goes from 0 to 1.
+	 */
+	public void slerp(float[] from, float[] to, float t) {
+		this.updateOrientation();
+		Math3D.quaternionSlerp4f(this.orientation, from, to, t);
+		this.leaveEulerMode();
+	}
+
+	/**
+	 * Changes the entries of "result" to the orientation, as (x, y, z, w).
+	 */
+	public void getOrientation(float[] result) {
+		this.updateOrientation();
+		System.arraycopy(this.orientation, 0, result, 0, 4);
+	}
+
+	/**
+	 * Returns how many times the view matrix was rebuilt.
+	 */
+	public int getNumViewUpdates() {
+		return this.numViewUpdates;
 	}
 
 	/**
@@ -84,6 +261,7 @@ public class Camera {
 		this.x = 0;
 		this.y = 0;
 		this.z = 0;
+		this.eulerX = Float.NaN;
 	}
 
 	/**
@@ -93,6 +271,7 @@ public class Camera {
 		this.rotX = 0;
 		this.rotY = 0;
 		this.rotZ = 0;
+		this.eulerX = Float.NaN;
 	}
 
 	/**
@@ -118,6 +297,43 @@ public class Camera {
 		this.z = z;
 	}
 
+	/**
+	 * Sets this Camera's position to ("x", "y", "z") in double precision, for use with
+	 * RelativeTransform. "x", "y" and "z" are set to it rounded to floats.
+	 */
+	public void setWorldPosition(double x, double y, double z) {
+		this.worldX = x;
+		this.worldY = y;
+		this.worldZ = z;
+		this.x = (float) x;
+		this.y = (float) y;
+		this.z = (float) z;
+	}
+
+	/**
+	 * Returns this Camera's x-coordinate in double precision, or "x" if it was changed
+	 * since setWorldPosition().
+	 */
+	public double getWorldX() {
+		return this.x == (float) this.worldX ? this.worldX : this.x;
+	}
+
+	/**
+	 * Returns this Camera's y-coordinate in double precision, or "y" if it was changed
+	 * since setWorldPosition().
+	 */
+	public double getWorldY() {
+		return this.y == (float) this.worldY ? this.worldY : this.y;
+	}
+
+	/**
+	 * Returns this Camera's z-coordinate in double precision, or "z" if it was changed
+	 * since setWorldPosition().
+	 */
+	public double getWorldZ() {
+		return this.z == (float) this.worldZ ? this.worldZ : this.z;
+	}
+
 	/**
 	 * Returns this Camera's x-coordinate.
 	 */
@@ -4,6 +4,6 @@ import com.doobs.modern.util.shader.*;
 
 public class Color {
 	public static void set(Shader shader, float r, float g, float b, float a) {
-		shader.setUniform4f(StockShaders.COLOR_UNIFORM_NAME, r, g, b, a);
+		shader.getColorUniform().set(r, g, b, a);
 	}
 }
@@ -9,6 +9,7 @@ import org.lwjgl.input.*;
 import org.lwjgl.opengl.*;
 
 import com.doobs.modern.*;
+import com.doobs.modern.util.gl.*;
 import com.doobs.modern.util.matrix.*;
 
 public class GLTools {
@@ -28,6 +29,10 @@ public class GLTools {
 
 	public static boolean fullscreen = false;
 
+	// Whether batches record their attribute setup in vertex array objects. Set in
+	// initGL() from the context's capabilities.
+	public static boolean vertexArrays = false;
+
 	private static boolean wasResized = false;
 
 	public static void init(GraphicsContext context) {
@@ -39,6 +44,18 @@ public class GLTools {
 		lastFPS = getTime();
 	}
 
+	/**
+	 * Sets up the library to render through "backend" without creating a Display, e.g. a
+	 * HeadlessBackend for tests and benchmarks.
+	 */
+	public static void initHeadless(GLBackend backend, int width, int height) {
+		GL.set(backend);
+		aspectRatio = (float) width / (float) height;
+		vertexArrays = backend.isVersionSupported(3, 0);
+		GLValidation.init();
+		Matrices.init(width, height);
+	}
+
 	public static void initDisplay() {
 		try {
 			setDisplayMode(context.getWidth(), context.getHeight(), fullscreen);
@@ -46,24 +63,34 @@ public class GLTools {
 			Display.setVSyncEnabled(vSync);
 			Display.setResizable(true);
 			Mouse.setGrabbed(mouseGrabbed);
-			Display.create();
+			if (GLValidation.getLevel() == GLValidation.Level.DEBUG_CALLBACK) {
+				// Drivers may only report debug messages in a debug context.
+				Display.create(new PixelFormat(), new ContextAttribs().withDebug(true));
+			} else {
+				Display.create();
+			}
 		} catch (LWJGLException e) {
 			e.printStackTrace();
 		}
 	}
 
 	public static void initGL() {
+		GLBackend gl = GL.get();
 		// State Setup
-		glEnable(GL_DEPTH_TEST);
-		glEnable(GL_CULL_FACE);
-		glCullFace(GL_BACK);
-		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
-		glHint(GL_PERSPECTIVE_CORRECTION_HINT, GL_NICEST);
+		gl.glEnable(GL_DEPTH_TEST);
+		gl.glEnable(GL_CULL_FACE);
+		gl.glCullFace(GL_BACK);
+		gl.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		gl.glHint(GL_PERSPECTIVE_CORRECTION_HINT, GL_NICEST);
 
 		aspectRatio = (float) context.getWidth() / (float) context.getHeight();
 
-		glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-		glColor4f(1.0f, 1.0f, 1.0f, 1.0f);
+		gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+		gl.glColor4f(1.0f, 1.0f, 1.0f, 1.0f);
+
+		vertexArrays = gl.isVersionSupported(3, 0);
+
+		GLValidation.init();
 	}
 
 	public static long getTime() {
@@ -85,23 +112,15 @@ public class GLTools {
 		updateFPS();
 		Display.setTitle(GraphicsContext.DEFAULT_TITLE + " FPS: " + perFrameFPS);
 
-		checkForErrors();
+		GLValidation.endFrame();
+		GL.endFrame();
 	}
 
+	/**
+	 * Prints all pending OpenGL errors, regardless of the GLValidation level.
+	 */
 	public static void checkForErrors() {
-		int status = -1;
-		while (status != GL_NO_ERROR) {
-			status = glGetError();
-			if (status == GL_INVALID_ENUM) {
-				System.err.println("OpenGL: INVALID_ENUM error");
-			} else if (status == GL_INVALID_VALUE) {
-				System.err.println("OpenGL: INVALID_VALUE error");
-			} else if (status == GL_INVALID_OPERATION) {
-				System.err.println("OpenGL: INVALID_OPERATION error");
-			} else if (status == GL_OUT_OF_MEMORY) {
-				System.err.println("OpenGL: OUT_OF_MEMORY error");
-			}
-		}
+		GLValidation.printErrors();
 	}
 
 	public static void resizeGL() {
@@ -111,13 +130,14 @@ public class GLTools {
 		context.setWidth(width);
 		context.setHeight(height);
 
-		glViewport(0, 0, width, height);
+		GL.get().glViewport(0, 0, width, height);
 		aspectRatio = (float) context.getWidth() / (float) context.getHeight();
 
 		Matrices.perspective.setPerspective(fov, width / height, zNear, zFar);
 		Matrices.orthographic.setOrthographic(0, width, 0, height, -1f, 1f);
 		Matrices.projectionStack = new MatrixStack(Matrices.isPerspective ? Matrices.perspective.getProjectionMatrix()
 				: Matrices.orthographic.getProjectionMatrix());
+		Matrices.transform.setProjectionStack(Matrices.projectionStack);
 
 		wasResized = true;
 	}
@@ -0,0 +1,151 @@
+package com.doobs.modern.util;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import org.lwjgl.opengl.*;
+
+import com.doobs.modern.util.gl.*;
+
+/**
+ * Decides how much OpenGL error checking is done. glGetError() can force the driver to
+ * synchronize, so every class that talks to OpenGL reports its call sites through check()
+ * and only pays for a glGetError() at the PER_CALL level.
+ *
+ * The starting level can be set with -Dmoderngl.validation=OFF|PER_FRAME|PER_CALL|DEBUG_CALLBACK.
+ * Starting at DEBUG_CALLBACK also makes GLTools create a debug context, which some drivers
+ * need before they report anything.
+ */
+public class GLValidation {
+	public enum Level {
+		// No error checking at all.
+		OFF,
+		// Errors are collected once per frame in endFrame().
+		PER_FRAME,
+		// Errors are checked after every call site and thrown with the site's name.
+		PER_CALL,
+		// The driver reports errors through KHR_debug as they happen. Falls back to
+		// PER_CALL if the extension isn't available.
+		DEBUG_CALLBACK
+	}
+
+	private static Level level = getStartingLevel();
+
+	private static boolean contextCreated = false;
+	private static boolean callbackInstalled = false;
+
+	/**
+	 * Returns the level named by the "moderngl.validation" property, or PER_FRAME if it's
+	 * missing or misspelled.
+	 */
+	private static Level getStartingLevel() {
+		String name = System.getProperty("moderngl.validation", Level.PER_FRAME.name());
+		try {
+			return Level.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("OpenGL: unknown validation level \"" + name + "\", validating per frame instead");
+			return Level.PER_FRAME;
+		}
+	}
+
+	/**
+	 * Applies the current level to the newly created OpenGL context.
+	 */
+	public static void init() {
+		contextCreated = true;
+		setLevel(level);
+	}
+
+	/**
+	 * Changes the validation level. DEBUG_CALLBACK installs the callback as soon as an
+	 * OpenGL context exists, and other levels remove it.
+	 */
+	public static void setLevel(Level level) {
+		GLBackend gl = GL.get();
+		if ((level != Level.DEBUG_CALLBACK) && callbackInstalled) {
+			gl.glDebugMessageCallback(null);
+			gl.glDisable(KHRDebug.GL_DEBUG_OUTPUT_SYNCHRONOUS);
+			gl.glDisable(KHRDebug.GL_DEBUG_OUTPUT);
+			callbackInstalled = false;
+		}
+		if ((level == Level.DEBUG_CALLBACK) && contextCreated && !callbackInstalled) {
+			if (gl.isExtensionSupported("GL_KHR_debug") || gl.isVersionSupported(4, 3)) {
+				gl.glEnable(KHRDebug.GL_DEBUG_OUTPUT);
+				gl.glEnable(KHRDebug.GL_DEBUG_OUTPUT_SYNCHRONOUS);
+				gl.glDebugMessageCallback(new KHRDebugCallback.Handler() {
+					public void handleMessage(int source, int type, int id, int severity, String message) {
+						if (type == KHRDebug.GL_DEBUG_TYPE_ERROR) {
+							// Output is synchronous, so the stack trace names the call site.
+							new Throwable("OpenGL: " + message).printStackTrace();
+						}
+					}
+				});
+				callbackInstalled = true;
+			} else {
+				System.err.println("OpenGL: KHR_debug is not supported, validating per call instead");
+				level = Level.PER_CALL;
+			}
+		}
+		GLValidation.level = level;
+	}
+
+	public static Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Throws a RuntimeException naming "site" if an OpenGL error is pending and the level
+	 * is PER_CALL. Does nothing otherwise.
+	 */
+	public static void check(String site) {
+		if (level == Level.PER_CALL) {
+			int error = GL.get().glGetError();
+			if (error != GL_NO_ERROR) {
+				throw new RuntimeException("OpenGL error " + getErrorName(error) + " at " + site);
+			}
+		}
+	}
+
+	/**
+	 * Prints any pending OpenGL errors, unless validation is OFF or left to the debug
+	 * callback. Called once per frame.
+	 */
+	public static void endFrame() {
+		if ((level == Level.PER_FRAME) || (level == Level.PER_CALL)) {
+			printErrors();
+		}
+	}
+
+	/**
+	 * Prints and clears all pending OpenGL errors, regardless of the level.
+	 */
+	public static void printErrors() {
+		int status;
+		while ((status = GL.get().glGetError()) != GL_NO_ERROR) {
+			System.err.println("OpenGL: " + getErrorName(status) + " error");
+		}
+	}
+
+	/**
+	 * Returns the name of the OpenGL "error" code.
+	 */
+	public static String getErrorName(int error) {
+		switch (error) {
+		case GL_INVALID_ENUM:
+			return "INVALID_ENUM";
+		case GL_INVALID_VALUE:
+			return "INVALID_VALUE";
+		case GL_INVALID_OPERATION:
+			return "INVALID_OPERATION";
+		case GL_STACK_OVERFLOW:
+			return "STACK_OVERFLOW";
+		case GL_STACK_UNDERFLOW:
+			return "STACK_UNDERFLOW";
+		case GL_OUT_OF_MEMORY:
+			return "OUT_OF_MEMORY";
+		case GL30.GL_INVALID_FRAMEBUFFER_OPERATION:
+			return "INVALID_FRAMEBUFFER_OPERATION";
+		default:
+			return "0x" + Integer.toHexString(error);
+		}
+	}
+}
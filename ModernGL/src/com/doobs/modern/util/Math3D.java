@@ -1,5 +1,7 @@
 package com.doobs.modern.util;
 
+import java.nio.*;
+
 public class Math3D {
 	// Constant identity matrices rather than generated ones, because it's
 	// faster.
@@ -117,164 +119,314 @@ public class Math3D {
 		}
 	}
 
+	/**
+	 * Like matrixMultiply4f(float[], float[], float[]), for matrices whose bottom rows are
+	 * (0, 0, 0, 1), such as any combination of translations, rotations and scales. Takes 36
+	 * multiplications instead of 64. "product" may be "a" or "b".
+	 */
+	public static void matrixMultiplyAffine4f(float[] product, final float[] a, final float[] b) {
+		float a0 = a[0], a1 = a[1], a2 = a[2], a4 = a[4], a5 = a[5], a6 = a[6];
+		float a8 = a[8], a9 = a[9], a10 = a[10], a12 = a[12], a13 = a[13], a14 = a[14];
+		for (int column = 0; column < 16; column += 4) {
+			float b0 = b[column], b1 = b[column + 1], b2 = b[column + 2];
+			product[column] = (a0 * b0) + (a4 * b1) + (a8 * b2);
+			product[column + 1] = (a1 * b0) + (a5 * b1) + (a9 * b2);
+			product[column + 2] = (a2 * b0) + (a6 * b1) + (a10 * b2);
+			product[column + 3] = 0.0f;
+		}
+		product[12] += a12;
+		product[13] += a13;
+		product[14] += a14;
+		product[15] = 1.0f;
+	}
+
 	/**
 	 * Returns a float[] that reflects the multiplication between the matrix "a" and the
 	 * vector "b".
 	 */
 	public static float[] matrixMultiplyByVector4f(float[] a, float[] b) {
 		float[] result = new float[4];
-
-		result[0] = (a[0] * b[0]) + (a[4] * b[1]) + (a[8] * b[2]) + (a[12] * b[3]);
-		result[1] = (a[1] * b[0]) + (a[5] * b[1]) + (a[9] * b[2]) + (a[13] * b[3]);
-		result[2] = (a[2] * b[0]) + (a[6] * b[1]) + (a[10] * b[2]) + (a[14] * b[3]);
-		result[3] = (a[3] * b[0]) + (a[7] * b[1]) + (a[11] * b[2]) + (a[15] * b[3]);
-
+		matrixMultiplyByVector4f(result, a, b);
 		return result;
 	}
 
 	/**
-	 * Changes the entries of "result" to represent the inverse of the matrix "m".
+	 * Changes the entries of "result" to reflect the multiplication between the matrix "a"
+	 * and the vector "b". "result" may be "b".
 	 */
-	public static boolean matrixInverse4f(float[] result, float[] m) {
-		float[] tempInverse = new float[16];
-		float det;
-
-		tempInverse[0] = (((m[5] * m[10] * m[15]) - (m[5] * m[11] * m[14]) - (m[9] * m[6] * m[15])) + (m[9] * m[7] * m[14]) + (m[13] * m[6] * m[11]))
-				- (m[13] * m[7] * m[10]);
-
-		tempInverse[4] = (((-m[4] * m[10] * m[15]) + (m[4] * m[11] * m[14]) + (m[8] * m[6] * m[15])) - (m[8] * m[7] * m[14]) - (m[12] * m[6] * m[11]))
-				+ (m[12] * m[7] * m[10]);
-
-		tempInverse[8] = (((m[4] * m[9] * m[15]) - (m[4] * m[11] * m[13]) - (m[8] * m[5] * m[15])) + (m[8] * m[7] * m[13]) + (m[12] * m[5] * m[11]))
-				- (m[12] * m[7] * m[9]);
-
-		tempInverse[12] = (((-m[4] * m[9] * m[14]) + (m[4] * m[10] * m[13]) + (m[8] * m[5] * m[14])) - (m[8] * m[6] * m[13]) - (m[12] * m[5] * m[10]))
-				+ (m[12] * m[6] * m[9]);
-
-		tempInverse[1] = (((-m[1] * m[10] * m[15]) + (m[1] * m[11] * m[14]) + (m[9] * m[2] * m[15])) - (m[9] * m[3] * m[14]) - (m[13] * m[2] * m[11]))
-				+ (m[13] * m[3] * m[10]);
-
-		tempInverse[5] = (((m[0] * m[10] * m[15]) - (m[0] * m[11] * m[14]) - (m[8] * m[2] * m[15])) + (m[8] * m[3] * m[14]) + (m[12] * m[2] * m[11]))
-				- (m[12] * m[3] * m[10]);
-
-		tempInverse[9] = (((-m[0] * m[9] * m[15]) + (m[0] * m[11] * m[13]) + (m[8] * m[1] * m[15])) - (m[8] * m[3] * m[13]) - (m[12] * m[1] * m[11]))
-				+ (m[12] * m[3] * m[9]);
-
-		tempInverse[13] = (((m[0] * m[9] * m[14]) - (m[0] * m[10] * m[13]) - (m[8] * m[1] * m[14])) + (m[8] * m[2] * m[13]) + (m[12] * m[1] * m[10]))
-				- (m[12] * m[2] * m[9]);
-
-		tempInverse[2] = (((m[1] * m[6] * m[15]) - (m[1] * m[7] * m[14]) - (m[5] * m[2] * m[15])) + (m[5] * m[3] * m[14]) + (m[13] * m[2] * m[7]))
-				- (m[13] * m[3] * m[6]);
-
-		tempInverse[6] = (((-m[0] * m[6] * m[15]) + (m[0] * m[7] * m[14]) + (m[4] * m[2] * m[15])) - (m[4] * m[3] * m[14]) - (m[12] * m[2] * m[7]))
-				+ (m[12] * m[3] * m[6]);
-
-		tempInverse[10] = (((m[0] * m[5] * m[15]) - (m[0] * m[7] * m[13]) - (m[4] * m[1] * m[15])) + (m[4] * m[3] * m[13]) + (m[12] * m[1] * m[7]))
-				- (m[12] * m[3] * m[5]);
-
-		tempInverse[14] = (((-m[0] * m[5] * m[14]) + (m[0] * m[6] * m[13]) + (m[4] * m[1] * m[14])) - (m[4] * m[2] * m[13]) - (m[12] * m[1] * m[6]))
-				+ (m[12] * m[2] * m[5]);
-
-		tempInverse[3] = (((-m[1] * m[6] * m[11]) + (m[1] * m[7] * m[10]) + (m[5] * m[2] * m[11])) - (m[5] * m[3] * m[10]) - (m[9] * m[2] * m[7]))
-				+ (m[9] * m[3] * m[6]);
-
-		tempInverse[7] = (((m[0] * m[6] * m[11]) - (m[0] * m[7] * m[10]) - (m[4] * m[2] * m[11])) + (m[4] * m[3] * m[10]) + (m[8] * m[2] * m[7]))
-				- (m[8] * m[3] * m[6]);
-
-		tempInverse[11] = (((-m[0] * m[5] * m[11]) + (m[0] * m[7] * m[9]) + (m[4] * m[1] * m[11])) - (m[4] * m[3] * m[9]) - (m[8] * m[1] * m[7]))
-				+ (m[8] * m[3] * m[5]);
-
-		tempInverse[15] = (((m[0] * m[5] * m[10]) - (m[0] * m[6] * m[9]) - (m[4] * m[1] * m[10])) + (m[4] * m[2] * m[9]) + (m[8] * m[1] * m[6]))
-				- (m[8] * m[2] * m[5]);
-
-		det = (m[0] * tempInverse[0]) + (m[1] * tempInverse[4]) + (m[2] * tempInverse[8]) + (m[3] * tempInverse[12]);
+	public static void matrixMultiplyByVector4f(float[] result, float[] a, float[] b) {
+		float x = b[0], y = b[1], z = b[2], w = b[3];
+		result[0] = (a[0] * x) + (a[4] * y) + (a[8] * z) + (a[12] * w);
+		result[1] = (a[1] * x) + (a[5] * y) + (a[9] * z) + (a[13] * w);
+		result[2] = (a[2] * x) + (a[6] * y) + (a[10] * z) + (a[14] * w);
+		result[3] = (a[3] * x) + (a[7] * y) + (a[11] * z) + (a[15] * w);
+	}
 
-		if (det == 0) {
-			return false;
+	/**
+	 * Multiplies the matrix "a" by "count" matrices stored one after another in "matrices"
+	 * from "offset", and stores the products in "products" from "productOffset". "products"
+	 * may be "matrices" at the same offset.
+	 */
+	public static void matrixMultiply4f(float[] products, int productOffset, final float[] a, final float[] matrices, int offset, int count) {
+		float a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3], a4 = a[4], a5 = a[5], a6 = a[6], a7 = a[7];
+		float a8 = a[8], a9 = a[9], a10 = a[10], a11 = a[11], a12 = a[12], a13 = a[13], a14 = a[14], a15 = a[15];
+		float[] b = matrices;
+		int o = offset, p = productOffset;
+		for (int i = 0; i < count; i++, o += 16, p += 16) {
+			// Column by column, so each column of "b" is read before it may be overwritten.
+			for (int column = 0; column < 16; column += 4) {
+				float b0 = b[o + column], b1 = b[o + column + 1], b2 = b[o + column + 2], b3 = b[o + column + 3];
+				products[p + column] = (a0 * b0) + (a4 * b1) + (a8 * b2) + (a12 * b3);
+				products[p + column + 1] = (a1 * b0) + (a5 * b1) + (a9 * b2) + (a13 * b3);
+				products[p + column + 2] = (a2 * b0) + (a6 * b1) + (a10 * b2) + (a14 * b3);
+				products[p + column + 3] = (a3 * b0) + (a7 * b1) + (a11 * b2) + (a15 * b3);
+			}
 		}
+	}
 
-		det = 1f / det;
+	/**
+	 * Transforms "count" points by the matrix "m", as if their w were 1. The points are
+	 * read from "points" starting at "offset" and written to "result" starting at
+	 * "resultOffset", "stride" floats apart in both, so interleaved vertex data can be
+	 * transformed in place. Only x, y and z of every point are written.
+	 */
+	public static void transformPoints3f(float[] result, int resultOffset, float[] m, float[] points, int offset, int stride, int count) {
+		float m0 = m[0], m1 = m[1], m2 = m[2], m4 = m[4], m5 = m[5], m6 = m[6];
+		float m8 = m[8], m9 = m[9], m10 = m[10], m12 = m[12], m13 = m[13], m14 = m[14];
+		int o = offset, r = resultOffset;
+		for (int i = 0; i < count; i++, o += stride, r += stride) {
+			float x = points[o], y = points[o + 1], z = points[o + 2];
+			result[r] = (m0 * x) + (m4 * y) + (m8 * z) + m12;
+			result[r + 1] = (m1 * x) + (m5 * y) + (m9 * z) + m13;
+			result[r + 2] = (m2 * x) + (m6 * y) + (m10 * z) + m14;
+		}
+	}
 
-		float[] inverse = new float[16];
+	/**
+	 * Like transformPoints3f(float[], int, float[], float[], int, int, int), with the points
+	 * read from "points" and written to "result" at absolute positions, leaving the
+	 * buffers' positions alone.
+	 */
+	public static void transformPoints3f(FloatBuffer result, int resultOffset, float[] m, FloatBuffer points, int offset, int stride, int count) {
+		float m0 = m[0], m1 = m[1], m2 = m[2], m4 = m[4], m5 = m[5], m6 = m[6];
+		float m8 = m[8], m9 = m[9], m10 = m[10], m12 = m[12], m13 = m[13], m14 = m[14];
+		int o = offset, r = resultOffset;
+		for (int i = 0; i < count; i++, o += stride, r += stride) {
+			float x = points.get(o), y = points.get(o + 1), z = points.get(o + 2);
+			result.put(r, (m0 * x) + (m4 * y) + (m8 * z) + m12);
+			result.put(r + 1, (m1 * x) + (m5 * y) + (m9 * z) + m13);
+			result.put(r + 2, (m2 * x) + (m6 * y) + (m10 * z) + m14);
+		}
+	}
 
-		for (int i = 0; i < 16; i++) {
-			inverse[i] = tempInverse[i] * det;
+	/**
+	 * Transforms "count" directions by the upper 3x3 of the matrix "m", laid out like
+	 * transformPoints3f(). For normals under non-uniform scaling, "m" should be the inverse
+	 * transpose of the model matrix. The results aren't normalized.
+	 */
+	public static void transformNormals3f(float[] result, int resultOffset, float[] m, float[] normals, int offset, int stride, int count) {
+		float m0 = m[0], m1 = m[1], m2 = m[2], m4 = m[4], m5 = m[5], m6 = m[6];
+		float m8 = m[8], m9 = m[9], m10 = m[10];
+		int o = offset, r = resultOffset;
+		for (int i = 0; i < count; i++, o += stride, r += stride) {
+			float x = normals[o], y = normals[o + 1], z = normals[o + 2];
+			result[r] = (m0 * x) + (m4 * y) + (m8 * z);
+			result[r + 1] = (m1 * x) + (m5 * y) + (m9 * z);
+			result[r + 2] = (m2 * x) + (m6 * y) + (m10 * z);
 		}
+	}
 
-		return true;
+	/**
+	 * Like transformNormals3f(float[], int, float[], float[], int, int, int), with the
+	 * normals read from "normals" and written to "result" at absolute positions.
+	 */
+	public static void transformNormals3f(FloatBuffer result, int resultOffset, float[] m, FloatBuffer normals, int offset, int stride, int count) {
+		float m0 = m[0], m1 = m[1], m2 = m[2], m4 = m[4], m5 = m[5], m6 = m[6];
+		float m8 = m[8], m9 = m[9], m10 = m[10];
+		int o = offset, r = resultOffset;
+		for (int i = 0; i < count; i++, o += stride, r += stride) {
+			float x = normals.get(o), y = normals.get(o + 1), z = normals.get(o + 2);
+			result.put(r, (m0 * x) + (m4 * y) + (m8 * z));
+			result.put(r + 1, (m1 * x) + (m5 * y) + (m9 * z));
+			result.put(r + 2, (m2 * x) + (m6 * y) + (m10 * z));
+		}
 	}
 
 	/**
-	 * Returns a float[] that represents the inverse of the matrix "m".
+	 * Transforms "count" axis-aligned boxes by the matrix "m", and stores the boxes around
+	 * the results. Every box is 6 floats (min x, y, z, then max x, y, z), read from "boxes"
+	 * starting at "offset" and written to "result" starting at "resultOffset". "result" may
+	 * be "boxes" at the same offset.
 	 */
-	public static float[] matrixInverse4f(float[] m) {
-		float[] tempInverse = new float[16];
-		float det;
+	public static void transformBoxes3f(float[] result, int resultOffset, float[] m, float[] boxes, int offset, int count) {
+		int o = offset, r = resultOffset;
+		for (int i = 0; i < count; i++, o += 6, r += 6) {
+			float minX = boxes[o], minY = boxes[o + 1], minZ = boxes[o + 2];
+			float maxX = boxes[o + 3], maxY = boxes[o + 4], maxZ = boxes[o + 5];
+
+			// Every output axis starts at the translation, and each matrix entry adds the
+			// smaller of its products with the box's min and max to the new min, and the
+			// larger to the new max (Arvo's method), instead of transforming 8 corners.
+			for (int axis = 0; axis < 3; axis++) {
+				float low = m[12 + axis], high = low;
+				float a = m[axis] * minX, b = m[axis] * maxX;
+				low += Math.min(a, b);
+				high += Math.max(a, b);
+				a = m[4 + axis] * minY;
+				b = m[4 + axis] * maxY;
+				low += Math.min(a, b);
+				high += Math.max(a, b);
+				a = m[8 + axis] * minZ;
+				b = m[8 + axis] * maxZ;
+				low += Math.min(a, b);
+				high += Math.max(a, b);
+				result[r + axis] = low;
+				result[r + 3 + axis] = high;
+			}
+		}
+	}
 
-		// Algorithmically generate the inverse.
-		tempInverse[0] = (((m[5] * m[10] * m[15]) - (m[5] * m[11] * m[14]) - (m[9] * m[6] * m[15])) + (m[9] * m[7] * m[14]) + (m[13] * m[6] * m[11]))
+	/**
+	 * Changes the entries of "result" to represent the inverse of the matrix "m", and
+	 * returns whether "m" could be inverted. "result" may be "m". Nothing is allocated.
+	 */
+	public static boolean matrixInverse4f(float[] result, float[] m) {
+		float i0 = (((m[5] * m[10] * m[15]) - (m[5] * m[11] * m[14]) - (m[9] * m[6] * m[15])) + (m[9] * m[7] * m[14]) + (m[13] * m[6] * m[11]))
 				- (m[13] * m[7] * m[10]);
 
-		tempInverse[4] = (((-m[4] * m[10] * m[15]) + (m[4] * m[11] * m[14]) + (m[8] * m[6] * m[15])) - (m[8] * m[7] * m[14]) - (m[12] * m[6] * m[11]))
+		float i4 = (((-m[4] * m[10] * m[15]) + (m[4] * m[11] * m[14]) + (m[8] * m[6] * m[15])) - (m[8] * m[7] * m[14]) - (m[12] * m[6] * m[11]))
 				+ (m[12] * m[7] * m[10]);
 
-		tempInverse[8] = (((m[4] * m[9] * m[15]) - (m[4] * m[11] * m[13]) - (m[8] * m[5] * m[15])) + (m[8] * m[7] * m[13]) + (m[12] * m[5] * m[11]))
+		float i8 = (((m[4] * m[9] * m[15]) - (m[4] * m[11] * m[13]) - (m[8] * m[5] * m[15])) + (m[8] * m[7] * m[13]) + (m[12] * m[5] * m[11]))
 				- (m[12] * m[7] * m[9]);
 
-		tempInverse[12] = (((-m[4] * m[9] * m[14]) + (m[4] * m[10] * m[13]) + (m[8] * m[5] * m[14])) - (m[8] * m[6] * m[13]) - (m[12] * m[5] * m[10]))
+		float i12 = (((-m[4] * m[9] * m[14]) + (m[4] * m[10] * m[13]) + (m[8] * m[5] * m[14])) - (m[8] * m[6] * m[13]) - (m[12] * m[5] * m[10]))
 				+ (m[12] * m[6] * m[9]);
 
-		tempInverse[1] = (((-m[1] * m[10] * m[15]) + (m[1] * m[11] * m[14]) + (m[9] * m[2] * m[15])) - (m[9] * m[3] * m[14]) - (m[13] * m[2] * m[11]))
+		float i1 = (((-m[1] * m[10] * m[15]) + (m[1] * m[11] * m[14]) + (m[9] * m[2] * m[15])) - (m[9] * m[3] * m[14]) - (m[13] * m[2] * m[11]))
 				+ (m[13] * m[3] * m[10]);
 
-		tempInverse[5] = (((m[0] * m[10] * m[15]) - (m[0] * m[11] * m[14]) - (m[8] * m[2] * m[15])) + (m[8] * m[3] * m[14]) + (m[12] * m[2] * m[11]))
+		float i5 = (((m[0] * m[10] * m[15]) - (m[0] * m[11] * m[14]) - (m[8] * m[2] * m[15])) + (m[8] * m[3] * m[14]) + (m[12] * m[2] * m[11]))
 				- (m[12] * m[3] * m[10]);
 
-		tempInverse[9] = (((-m[0] * m[9] * m[15]) + (m[0] * m[11] * m[13]) + (m[8] * m[1] * m[15])) - (m[8] * m[3] * m[13]) - (m[12] * m[1] * m[11]))
+		float i9 = (((-m[0] * m[9] * m[15]) + (m[0] * m[11] * m[13]) + (m[8] * m[1] * m[15])) - (m[8] * m[3] * m[13]) - (m[12] * m[1] * m[11]))
 				+ (m[12] * m[3] * m[9]);
 
-		tempInverse[13] = (((m[0] * m[9] * m[14]) - (m[0] * m[10] * m[13]) - (m[8] * m[1] * m[14])) + (m[8] * m[2] * m[13]) + (m[12] * m[1] * m[10]))
+		float i13 = (((m[0] * m[9] * m[14]) - (m[0] * m[10] * m[13]) - (m[8] * m[1] * m[14])) + (m[8] * m[2] * m[13]) + (m[12] * m[1] * m[10]))
 				- (m[12] * m[2] * m[9]);
 
-		tempInverse[2] = (((m[1] * m[6] * m[15]) - (m[1] * m[7] * m[14]) - (m[5] * m[2] * m[15])) + (m[5] * m[3] * m[14]) + (m[13] * m[2] * m[7]))
+		float i2 = (((m[1] * m[6] * m[15]) - (m[1] * m[7] * m[14]) - (m[5] * m[2] * m[15])) + (m[5] * m[3] * m[14]) + (m[13] * m[2] * m[7]))
 				- (m[13] * m[3] * m[6]);
 
-		tempInverse[6] = (((-m[0] * m[6] * m[15]) + (m[0] * m[7] * m[14]) + (m[4] * m[2] * m[15])) - (m[4] * m[3] * m[14]) - (m[12] * m[2] * m[7]))
+		float i6 = (((-m[0] * m[6] * m[15]) + (m[0] * m[7] * m[14]) + (m[4] * m[2] * m[15])) - (m[4] * m[3] * m[14]) - (m[12] * m[2] * m[7]))
 				+ (m[12] * m[3] * m[6]);
 
-		tempInverse[10] = (((m[0] * m[5] * m[15]) - (m[0] * m[7] * m[13]) - (m[4] * m[1] * m[15])) + (m[4] * m[3] * m[13]) + (m[12] * m[1] * m[7]))
+		float i10 = (((m[0] * m[5] * m[15]) - (m[0] * m[7] * m[13]) - (m[4] * m[1] * m[15])) + (m[4] * m[3] * m[13]) + (m[12] * m[1] * m[7]))
 				- (m[12] * m[3] * m[5]);
 
-		tempInverse[14] = (((-m[0] * m[5] * m[14]) + (m[0] * m[6] * m[13]) + (m[4] * m[1] * m[14])) - (m[4] * m[2] * m[13]) - (m[12] * m[1] * m[6]))
+		float i14 = (((-m[0] * m[5] * m[14]) + (m[0] * m[6] * m[13]) + (m[4] * m[1] * m[14])) - (m[4] * m[2] * m[13]) - (m[12] * m[1] * m[6]))
 				+ (m[12] * m[2] * m[5]);
 
-		tempInverse[3] = (((-m[1] * m[6] * m[11]) + (m[1] * m[7] * m[10]) + (m[5] * m[2] * m[11])) - (m[5] * m[3] * m[10]) - (m[9] * m[2] * m[7]))
+		float i3 = (((-m[1] * m[6] * m[11]) + (m[1] * m[7] * m[10]) + (m[5] * m[2] * m[11])) - (m[5] * m[3] * m[10]) - (m[9] * m[2] * m[7]))
 				+ (m[9] * m[3] * m[6]);
 
-		tempInverse[7] = (((m[0] * m[6] * m[11]) - (m[0] * m[7] * m[10]) - (m[4] * m[2] * m[11])) + (m[4] * m[3] * m[10]) + (m[8] * m[2] * m[7]))
+		float i7 = (((m[0] * m[6] * m[11]) - (m[0] * m[7] * m[10]) - (m[4] * m[2] * m[11])) + (m[4] * m[3] * m[10]) + (m[8] * m[2] * m[7]))
 				- (m[8] * m[3] * m[6]);
 
-		tempInverse[11] = (((-m[0] * m[5] * m[11]) + (m[0] * m[7] * m[9]) + (m[4] * m[1] * m[11])) - (m[4] * m[3] * m[9]) - (m[8] * m[1] * m[7]))
+		float i11 = (((-m[0] * m[5] * m[11]) + (m[0] * m[7] * m[9]) + (m[4] * m[1] * m[11])) - (m[4] * m[3] * m[9]) - (m[8] * m[1] * m[7]))
 				+ (m[8] * m[3] * m[5]);
 
-		tempInverse[15] = (((m[0] * m[5] * m[10]) - (m[0] * m[6] * m[9]) - (m[4] * m[1] * m[10])) + (m[4] * m[2] * m[9]) + (m[8] * m[1] * m[6]))
+		float i15 = (((m[0] * m[5] * m[10]) - (m[0] * m[6] * m[9]) - (m[4] * m[1] * m[10])) + (m[4] * m[2] * m[9]) + (m[8] * m[1] * m[6]))
 				- (m[8] * m[2] * m[5]);
 
-		det = (m[0] * tempInverse[0]) + (m[1] * tempInverse[4]) + (m[2] * tempInverse[8]) + (m[3] * tempInverse[12]);
+		float det = (m[0] * i0) + (m[1] * i4) + (m[2] * i8) + (m[3] * i12);
 
 		if (det == 0) {
-			return null;
+			return false;
 		}
 
 		det = 1f / det;
 
+		result[0] = i0 * det;
+		result[1] = i1 * det;
+		result[2] = i2 * det;
+		result[3] = i3 * det;
+		result[4] = i4 * det;
+		result[5] = i5 * det;
+		result[6] = i6 * det;
+		result[7] = i7 * det;
+		result[8] = i8 * det;
+		result[9] = i9 * det;
+		result[10] = i10 * det;
+		result[11] = i11 * det;
+		result[12] = i12 * det;
+		result[13] = i13 * det;
+		result[14] = i14 * det;
+		result[15] = i15 * det;
+
+		return true;
+	}
+
+	/**
+	 * Returns a float[] that represents the inverse of the matrix "m", or null if "m" can't
+	 * be inverted.
+	 */
+	public static float[] matrixInverse4f(float[] m) {
 		float[] inverse = new float[16];
+		return matrixInverse4f(inverse, m) ? inverse : null;
+	}
 
-		for (int i = 0; i < 16; i++) {
-			inverse[i] = tempInverse[i] * det;
-		}
+	/**
+	 * Changes the entries of "result" to represent the inverse of the rigid matrix "m", a
+	 * rotation followed by a translation, by transposing the rotation instead of the full
+	 * inversion. "result" may be "m".
+	 */
+	public static void matrixInverseRigid4f(float[] result, float[] m) {
+		float m1 = m[1], m2 = m[2], m6 = m[6];
+		float x = m[12], y = m[13], z = m[14];
+
+		result[0] = m[0];
+		result[1] = m[4];
+		result[2] = m[8];
+		result[3] = 0.0f;
+
+		result[4] = m1;
+		result[5] = m[5];
+		result[6] = m[9];
+		result[7] = 0.0f;
+
+		result[8] = m2;
+		result[9] = m6;
+		result[10] = m[10];
+		result[11] = 0.0f;
+
+		result[12] = -((result[0] * x) + (result[4] * y) + (result[8] * z));
+		result[13] = -((result[1] * x) + (result[5] * y) + (result[9] * z));
+		result[14] = -((result[2] * x) + (result[6] * y) + (result[10] * z));
+		result[15] = 1.0f;
+	}
 
-		return inverse;
+	/**
+	 * Changes the entries of "result" (x, y, z) to the point that the window coordinates
+	 * ("winX", "winY", "winZ") came from, like gluUnProject(). "inverseMVP" is the inverse
+	 * of the projection x model-view matrix, and ("x", "y", "width", "height") is the
+	 * viewport. "winZ" is 0 on the near plane and 1 on the far plane. Returns false if the
+	 * point is at infinity.
+	 */
+	public static boolean unproject(float[] result, float[] inverseMVP, float winX, float winY, float winZ, int x, int y, int width, int height) {
+		float[] m = inverseMVP;
+		float nx = (2.0f * (winX - x)) / width - 1.0f;
+		float ny = (2.0f * (winY - y)) / height - 1.0f;
+		float nz = 2.0f * winZ - 1.0f;
+
+		float w = (m[3] * nx) + (m[7] * ny) + (m[11] * nz) + m[15];
+		if (w == 0) {
+			return false;
+		}
+		result[0] = ((m[0] * nx) + (m[4] * ny) + (m[8] * nz) + m[12]) / w;
+		result[1] = ((m[1] * nx) + (m[5] * ny) + (m[9] * nz) + m[13]) / w;
+		result[2] = ((m[2] * nx) + (m[6] * ny) + (m[10] * nz) + m[14]) / w;
+		return true;
 	}
 
 	/**
@@ -337,6 +489,154 @@ public class Math3D {
 		m[15] = 1.0f;
 	}
 
+	/**
+	 * Multiplies "m" in place by a translation of ("x", "y", "z"), like
+	 * matrixMultiply4f(m, m, translation) but with 12 multiplications.
+	 */
+	public static void multiplyTranslation4f(float[] m, float x, float y, float z) {
+		m[12] += (m[0] * x) + (m[4] * y) + (m[8] * z);
+		m[13] += (m[1] * x) + (m[5] * y) + (m[9] * z);
+		m[14] += (m[2] * x) + (m[6] * y) + (m[10] * z);
+		m[15] += (m[3] * x) + (m[7] * y) + (m[11] * z);
+	}
+
+	/**
+	 * Multiplies "m" in place by a scale of ("x", "y", "z"), which scales its first three
+	 * columns.
+	 */
+	public static void multiplyScale4f(float[] m, float x, float y, float z) {
+		for (int row = 0; row < 4; row++) {
+			m[row] *= x;
+			m[4 + row] *= y;
+			m[8 + row] *= z;
+		}
+	}
+
+	/**
+	 * Multiplies "m" in place by a rotation of "angle" degrees around the x axis, like
+	 * rotate4f(rotation, "angle", 1, 0, 0) followed by a multiplication.
+	 */
+	public static void multiplyRotationX4f(float[] m, float angle) {
+		double radians = Math.toRadians(angle);
+		float sine = (float) Math.sin(radians), cosine = (float) Math.cos(radians);
+		for (int row = 0; row < 4; row++) {
+			float column1 = m[4 + row], column2 = m[8 + row];
+			m[4 + row] = (cosine * column1) - (sine * column2);
+			m[8 + row] = (sine * column1) + (cosine * column2);
+		}
+	}
+
+	/**
+	 * Multiplies "m" in place by a rotation of "angle" degrees around the y axis, like
+	 * rotate4f(rotation, "angle", 0, 1, 0) followed by a multiplication.
+	 */
+	public static void multiplyRotationY4f(float[] m, float angle) {
+		double radians = Math.toRadians(angle);
+		float sine = (float) Math.sin(radians), cosine = (float) Math.cos(radians);
+		for (int row = 0; row < 4; row++) {
+			float column0 = m[row], column2 = m[8 + row];
+			m[row] = (cosine * column0) + (sine * column2);
+			m[8 + row] = (cosine * column2) - (sine * column0);
+		}
+	}
+
+	/**
+	 * Multiplies "m" in place by a rotation of "angle" degrees around the z axis, like
+	 * rotate4f(rotation, "angle", 0, 0, 1) followed by a multiplication.
+	 */
+	public static void multiplyRotationZ4f(float[] m, float angle) {
+		double radians = Math.toRadians(angle);
+		float sine = (float) Math.sin(radians), cosine = (float) Math.cos(radians);
+		for (int row = 0; row < 4; row++) {
+			float column0 = m[row], column1 = m[4 + row];
+			m[row] = (cosine * column0) - (sine * column1);
+			m[4 + row] = (sine * column0) + (cosine * column1);
+		}
+	}
+
+	/**
+	 * Changes the entries of "result" to the quaternion (x, y, z, w) rotating "angle"
+	 * degrees counter-clockwise around the axis ("x", "y", "z"), which needn't be
+	 * normalized.
+	 */
+	public static void quaternionFromAxisAngle4f(float[] result, float angle, float x, float y, float z) {
+		float magnitude = (float) Math.sqrt((x * x) + (y * y) + (z * z));
+		if (magnitude == 0.0f) {
+			result[0] = result[1] = result[2] = 0.0f;
+			result[3] = 1.0f;
+			return;
+		}
+		double half = Math.toRadians(angle) * 0.5;
+		float scale = (float) Math.sin(half) / magnitude;
+		result[0] = x * scale;
+		result[1] = y * scale;
+		result[2] = z * scale;
+		result[3] = (float) Math.cos(half);
+	}
+
+	/**
+	 * Changes the entries of "product" to the quaternion "a" * "b", which rotates by "b"
+	 * first and then by "a". "product" may be "a" or "b".
+	 */
+	public static void quaternionMultiply4f(float[] product, float[] a, float[] b) {
+		float ax = a[0], ay = a[1], az = a[2], aw = a[3];
+		float bx = b[0], by = b[1], bz = b[2], bw = b[3];
+		product[0] = (aw * bx) + (ax * bw) + (ay * bz) - (az * by);
+		product[1] = (aw * by) - (ax * bz) + (ay * bw) + (az * bx);
+		product[2] = (aw * bz) + (ax * by) - (ay * bx) + (az * bw);
+		product[3] = (aw * bw) - (ax * bx) - (ay * by) - (az * bz);
+	}
+
+	/**
+	 * Scales the quaternion "q" to unit length, or makes it the identity if it has none.
+	 */
+	public static void quaternionNormalize4f(float[] q) {
+		float lengthSquared = (q[0] * q[0]) + (q[1] * q[1]) + (q[2] * q[2]) + (q[3] * q[3]);
+		if (lengthSquared == 0.0f) {
+			q[3] = 1.0f;
+			return;
+		}
+		float scale = 1.0f / (float) Math.sqrt(lengthSquared);
+		q[0] *= scale;
+		q[1] *= scale;
+		q[2] *= scale;
+		q[3] *= scale;
+	}
+
+	/**
+	 * Changes the entries of "result" to the spherical linear interpolation between the
+	 * unit quaternions "a" ("t" = 0) and "b" ("t" = 1), along the shorter arc. "result" may
+	 * be "a" or "b".
+	 */
+	public static void quaternionSlerp4f(float[] result, float[] a, float[] b, float t) {
+		float bx = b[0], by = b[1], bz = b[2], bw = b[3];
+		float cosine = (a[0] * bx) + (a[1] * by) + (a[2] * bz) + (a[3] * bw);
+
+		// q and -q are the same rotation, so flip "b" to take the shorter way around.
+		if (cosine < 0.0f) {
+			cosine = -cosine;
+			bx = -bx;
+			by = -by;
+			bz = -bz;
+			bw = -bw;
+		}
+
+		// Nearly equal quaternions would divide by a sine near 0, and are interpolated
+		// linearly instead.
+		float weightA = 1.0f - t, weightB = t;
+		if (cosine < 0.9995f) {
+			double angle = Math.acos(cosine);
+			double inverseSine = 1.0 / Math.sin(angle);
+			weightA = (float) (Math.sin((1.0f - t) * angle) * inverseSine);
+			weightB = (float) (Math.sin(t * angle) * inverseSine);
+		}
+		result[0] = (weightA * a[0]) + (weightB * bx);
+		result[1] = (weightA * a[1]) + (weightB * by);
+		result[2] = (weightA * a[2]) + (weightB * bz);
+		result[3] = (weightA * a[3]) + (weightB * bw);
+		quaternionNormalize4f(result);
+	}
+
 	public static void printMatrix4f(float[] product) {
 		for (int i = 0; i < 4; i++) {
 			System.out.println(product[(0 << 2) + i] + ", " + product[(1 << 2) + i] + ", " + product[(2 << 2) + i] + ", " + product[(3 << 2) + i]);
@@ -0,0 +1,254 @@
+package com.doobs.modern.util;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import java.util.*;
+
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+import com.doobs.modern.util.shader.*;
+import com.doobs.modern.util.texture.*;
+
+/**
+ * Collects the draws of a frame and issues them in an order that needs few state
+ * changes. Every submitted draw gets a 64-bit sort key:
+ *
+ * Opaque draws (bit 63 clear) are grouped by shader (bits 51 - 62), then texture (bits
+ * 39 - 50), then drawn front to back (bits 15 - 38) so early depth testing can reject
+ * hidden fragments.
+ *
+ * Blended draws (bit 63 set) come after all opaque ones and are drawn back to front
+ * (bits 39 - 62), then grouped by shader and texture.
+ *
+ * The keys are radix sorted. All per-draw data lives in arrays that are only reallocated
+ * when the queue outgrows them, so a steady frame allocates nothing.
+ */
+public class RenderQueue {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private static final long BLEND_BIT = 1L << 63;
+	private static final int ID_BITS = 12;
+	private static final int DEPTH_BITS = 24;
+	private static final long ID_MASK = (1L << ID_BITS) - 1;
+	private static final long DEPTH_MAX = (1L << DEPTH_BITS) - 1;
+
+	private int numItems = 0;
+	private Batch[] batches;
+	private Shader[] shaders;
+	private Texture[][] textures;
+	private float[] transforms;
+	private float[] colors;
+
+	private long[] keys;
+	private int[] order;
+
+	// Scratch space for the radix sort.
+	private long[] tempKeys;
+	private int[] tempOrder;
+	private int[] counts = new int[256];
+
+	private int numProgramSwitches = 0;
+	private int numTextureSwitches = 0;
+
+	public RenderQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a RenderQueue with room for "capacity" draws. It grows as needed.
+	 */
+	public RenderQueue(int capacity) {
+		this.allocate(Math.max(capacity, 1));
+	}
+
+	private void allocate(int capacity) {
+		this.batches = this.batches == null ? new Batch[capacity] : Arrays.copyOf(this.batches, capacity);
+		this.shaders = this.shaders == null ? new Shader[capacity] : Arrays.copyOf(this.shaders, capacity);
+		this.textures = this.textures == null ? new Texture[capacity][] : Arrays.copyOf(this.textures, capacity);
+		this.transforms = this.transforms == null ? new float[capacity * 16] : Arrays.copyOf(this.transforms, capacity * 16);
+		this.colors = this.colors == null ? new float[capacity * 4] : Arrays.copyOf(this.colors, capacity * 4);
+		this.keys = this.keys == null ? new long[capacity] : Arrays.copyOf(this.keys, capacity);
+		this.order = this.order == null ? new int[capacity] : Arrays.copyOf(this.order, capacity);
+		this.tempKeys = new long[capacity];
+		this.tempOrder = new int[capacity];
+	}
+
+	/**
+	 * Queues a draw of "batch" with "shader", the current model-view matrix and the color
+	 * ("r", "g", "b", "a"). "textures" are bound to units 0, 1, ... and can be null. If
+	 * "blend", the draw is alpha blended and sorted back to front.
+	 */
+	public void submit(Batch batch, Shader shader, Texture[] textures, boolean blend, float r, float g, float b, float a) {
+		this.submit(batch, shader, textures, Matrices.transform.getModelViewMatrix(), blend, r, g, b, a);
+	}
+
+	/**
+	 * Queues a draw of "batch" with "shader", the "modelView" matrix (which is copied) and
+	 * the color ("r", "g", "b", "a"). "textures" are bound to units 0, 1, ... and can be
+	 * null. If "blend", the draw is alpha blended and sorted back to front.
+	 */
+	public void submit(Batch batch, Shader shader, Texture[] textures, float[] modelView, boolean blend, float r, float g, float b, float a) {
+		if (this.numItems == this.batches.length) {
+			this.allocate(this.numItems * 2);
+		}
+
+		int item = this.numItems++;
+		this.batches[item] = batch;
+		this.shaders[item] = shader;
+		this.textures[item] = textures;
+		System.arraycopy(modelView, 0, this.transforms, item * 16, 16);
+		this.colors[item * 4] = r;
+		this.colors[item * 4 + 1] = g;
+		this.colors[item * 4 + 2] = b;
+		this.colors[item * 4 + 3] = a;
+
+		// The distance in front of the camera, scaled to the depth range.
+		float distance = (-modelView[14] - GLTools.zNear) / (GLTools.zFar - GLTools.zNear);
+		long depth = (long) (Math.min(Math.max(distance, 0.0f), 1.0f) * DEPTH_MAX);
+
+		// GL object IDs are small, so their low bits are enough to group by.
+		long shaderID = shader.getID() & ID_MASK;
+		long textureID = ((textures != null) && (textures.length > 0)) ? (textures[0].getID() & ID_MASK) : 0;
+
+		if (blend) {
+			this.keys[item] = BLEND_BIT | ((DEPTH_MAX - depth) << (2 * ID_BITS + 15)) | (shaderID << (ID_BITS + 15)) | (textureID << 15);
+		} else {
+			this.keys[item] = (shaderID << (ID_BITS + DEPTH_BITS + 15)) | (textureID << (DEPTH_BITS + 15)) | (depth << 15);
+		}
+		this.order[item] = item;
+	}
+
+	/**
+	 * Sorts and draws every queued draw, then empties the queue.
+	 */
+	public void render() {
+		this.sort();
+
+		GLBackend gl = GL.get();
+		Shader currentShader = null;
+		Texture[] currentTextures = null;
+		boolean blending = false;
+		gl.glDisable(GL_BLEND);
+		this.numProgramSwitches = 0;
+		this.numTextureSwitches = 0;
+
+		MatrixStack modelView = Matrices.modelViewStack;
+		modelView.push();
+		for (int i = 0; i < this.numItems; i++) {
+			int item = this.order[i];
+
+			if (!blending && (this.keys[i] < 0)) {
+				blending = true;
+				gl.glEnable(GL_BLEND);
+				gl.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+			}
+
+			Shader shader = this.shaders[item];
+			if (shader != currentShader) {
+				shader.use();
+				currentShader = shader;
+				this.numProgramSwitches++;
+			}
+
+			Texture[] textures = this.textures[item];
+			if ((textures != currentTextures) && (textures != null)) {
+				for (int unit = 0; unit < textures.length; unit++) {
+					if ((currentTextures == null) || (unit >= currentTextures.length) || (currentTextures[unit] != textures[unit])) {
+						textures[unit].bind(unit);
+						this.numTextureSwitches++;
+					}
+				}
+				currentTextures = textures;
+			}
+
+			modelView.load(this.transforms, item * 16, MatrixStack.GENERAL);
+			Matrices.sendMatrices(shader);
+			Color.set(shader, this.colors[item * 4], this.colors[item * 4 + 1], this.colors[item * 4 + 2], this.colors[item * 4 + 3]);
+			this.batches[item].draw(shader.getAttributeLocations());
+		}
+		modelView.pop();
+
+		if (blending) {
+			gl.glDisable(GL_BLEND);
+		}
+		this.clear();
+	}
+
+	/**
+	 * Sorts the queued keys as unsigned numbers, and the order of the draws with them, one
+	 * byte at a time from the lowest. Bytes that are the same for every key are skipped.
+	 */
+	private void sort() {
+		int n = this.numItems;
+		long[] keys = this.keys;
+		int[] order = this.order;
+		long[] tempKeys = this.tempKeys;
+		int[] tempOrder = this.tempOrder;
+
+		for (int shift = 0; shift < 64; shift += 8) {
+			Arrays.fill(this.counts, 0);
+			for (int i = 0; i < n; i++) {
+				this.counts[(int) ((keys[i] >>> shift) & 0xFF)]++;
+			}
+			if ((n == 0) || (this.counts[(int) ((keys[0] >>> shift) & 0xFF)] == n)) {
+				continue;
+			}
+
+			int total = 0;
+			for (int bucket = 0; bucket < 256; bucket++) {
+				int count = this.counts[bucket];
+				this.counts[bucket] = total;
+				total += count;
+			}
+			for (int i = 0; i < n; i++) {
+				int bucket = (int) ((keys[i] >>> shift) & 0xFF);
+				int destination = this.counts[bucket]++;
+				tempKeys[destination] = keys[i];
+				tempOrder[destination] = order[i];
+			}
+
+			long[] swapKeys = keys;
+			keys = tempKeys;
+			tempKeys = swapKeys;
+			int[] swapOrder = order;
+			order = tempOrder;
+			tempOrder = swapOrder;
+		}
+
+		this.keys = keys;
+		this.order = order;
+		this.tempKeys = tempKeys;
+		this.tempOrder = tempOrder;
+	}
+
+	/**
+	 * Empties the queue without drawing.
+	 */
+	public void clear() {
+		// Drop references so batches and shaders aren't kept alive by the queue.
+		Arrays.fill(this.batches, 0, this.numItems, null);
+		Arrays.fill(this.shaders, 0, this.numItems, null);
+		Arrays.fill(this.textures, 0, this.numItems, null);
+		this.numItems = 0;
+	}
+
+	// Getters
+	public int getNumItems() {
+		return this.numItems;
+	}
+
+	/**
+	 * Returns the number of shader changes made by the last render().
+	 */
+	public int getNumProgramSwitches() {
+		return this.numProgramSwitches;
+	}
+
+	/**
+	 * Returns the number of texture binds made by the last render().
+	 */
+	public int getNumTextureSwitches() {
+		return this.numTextureSwitches;
+	}
+}
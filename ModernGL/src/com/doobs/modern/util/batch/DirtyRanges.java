@@ -0,0 +1,80 @@
+package com.doobs.modern.util.batch;
+
+import java.util.*;
+
+/**
+ * A sorted set of disjoint [start, end) ranges that still have to be uploaded. Ranges
+ * that overlap or touch are merged as they are added. Past MAX_RANGES everything
+ * collapses into a single range, since one large upload beats many small ones.
+ */
+class DirtyRanges {
+	private static final int MAX_RANGES = 64;
+
+	private int[] starts = new int[8];
+	private int[] ends = new int[8];
+	private int numRanges = 0;
+
+	/**
+	 * Marks "start" (inclusive) to "end" (exclusive) as dirty.
+	 */
+	void add(int start, int end) {
+		if (start >= end) {
+			return;
+		}
+
+		// Ranges before "first" end before "start" and are left alone. Ranges from "first"
+		// up to "last" overlap or touch the new range, and are merged into it.
+		int first = 0;
+		while ((first < this.numRanges) && (this.ends[first] < start)) {
+			first++;
+		}
+		int last = first;
+		while ((last < this.numRanges) && (this.starts[last] <= end)) {
+			start = Math.min(start, this.starts[last]);
+			end = Math.max(end, this.ends[last]);
+			last++;
+		}
+
+		int merged = last - first;
+		if (merged == 0) {
+			if (this.numRanges == this.starts.length) {
+				this.starts = Arrays.copyOf(this.starts, this.numRanges * 2);
+				this.ends = Arrays.copyOf(this.ends, this.numRanges * 2);
+			}
+			System.arraycopy(this.starts, first, this.starts, first + 1, this.numRanges - first);
+			System.arraycopy(this.ends, first, this.ends, first + 1, this.numRanges - first);
+			this.numRanges++;
+		} else {
+			System.arraycopy(this.starts, last, this.starts, first + 1, this.numRanges - last);
+			System.arraycopy(this.ends, last, this.ends, first + 1, this.numRanges - last);
+			this.numRanges -= merged - 1;
+		}
+		this.starts[first] = start;
+		this.ends[first] = end;
+
+		if (this.numRanges > MAX_RANGES) {
+			this.ends[0] = this.ends[this.numRanges - 1];
+			this.numRanges = 1;
+		}
+	}
+
+	void clear() {
+		this.numRanges = 0;
+	}
+
+	boolean isEmpty() {
+		return this.numRanges == 0;
+	}
+
+	int size() {
+		return this.numRanges;
+	}
+
+	int getStart(int range) {
+		return this.starts[range];
+	}
+
+	int getEnd(int range) {
+		return this.ends[range];
+	}
+}
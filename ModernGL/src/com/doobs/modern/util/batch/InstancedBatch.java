@@ -0,0 +1,335 @@
+package com.doobs.modern.util.batch;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+
+import java.nio.*;
+import java.util.*;
+
+import org.lwjgl.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.shader.*;
+
+/**
+ * Draws many copies of a SimpleBatch with a single instanced draw call. Every instance
+ * has its own model matrix and color, packed into an instance buffer that the instanced
+ * StockShaders read through StockShaders.INSTANCE_MATRIX_IN_NAME and
+ * StockShaders.INSTANCE_COLOR_IN_NAME.
+ *
+ * Instances that are set are marked as changed, and draw() only uploads those, merging
+ * nearby ones into a single upload.
+ */
+public class InstancedBatch implements Batch {
+	// Floats per instance: a column-major mat4 followed by a vec4 color.
+	public static final int INSTANCE_SIZE = 20;
+	private static final int COLOR_OFFSET = 16;
+
+	// Changed instances closer together than this are uploaded in one call.
+	private static final int MERGE_DISTANCE = 16;
+
+	private SimpleBatch batch;
+
+	private int capacity;
+	private int numInstances = 0;
+
+	private int instanceBuffer;
+	private FloatBuffer instanceData;
+
+	// Bit i is set if instance i changed since the last upload. "dirtyMin" and "dirtyMax"
+	// bound the set bits.
+	private long[] dirty;
+	private int dirtyMin = Integer.MAX_VALUE;
+	private int dirtyMax = -1;
+
+	// Vertex array objects recorded for each attribute layout this batch was drawn with.
+	private int[] vertexArrays = new int[0];
+	private Map<?, ?>[] vertexArrayLayouts = new Map<?, ?>[0];
+	private int numVertexArrays = 0;
+
+	private long numUploads = 0;
+	private long numUploadedInstances = 0;
+
+	/**
+	 * Creates an InstancedBatch of "batch" with room for "capacity" instances. The
+	 * capacity grows as needed. "batch" can be shared, and isn't deleted by cleanup().
+	 */
+	public InstancedBatch(SimpleBatch batch, int capacity) {
+		this.batch = batch;
+		this.capacity = Math.max(capacity, 1);
+		this.instanceData = BufferUtils.createFloatBuffer(this.capacity * INSTANCE_SIZE);
+		this.dirty = new long[(this.capacity + 63) / 64];
+
+		GLBackend gl = GL.get();
+		this.instanceBuffer = gl.glGenBuffers();
+		gl.glBindBuffer(GL_ARRAY_BUFFER, this.instanceBuffer);
+		gl.glBufferData(GL_ARRAY_BUFFER, (long) this.capacity * INSTANCE_SIZE * 4, GL_DYNAMIC_DRAW);
+	}
+
+	/**
+	 * Adds an instance with "modelMatrix" and the color ("r", "g", "b", "a"), then returns
+	 * its index.
+	 */
+	public int add(float[] modelMatrix, float r, float g, float b, float a) {
+		if (this.numInstances == this.capacity) {
+			this.grow(this.capacity * 2);
+		}
+
+		int instance = this.numInstances++;
+		this.setTransform(instance, modelMatrix);
+		this.setColor(instance, r, g, b, a);
+		return instance;
+	}
+
+	/**
+	 * Removes "instance" by moving the last instance into its place. Indexes of other
+	 * instances are unchanged, except the last one, which becomes "instance".
+	 */
+	public void remove(int instance) {
+		int last = --this.numInstances;
+		if (instance != last) {
+			for (int i = 0; i < INSTANCE_SIZE; i++) {
+				this.instanceData.put(instance * INSTANCE_SIZE + i, this.instanceData.get(last * INSTANCE_SIZE + i));
+			}
+			this.markDirty(instance);
+		}
+	}
+
+	/**
+	 * Removes every instance.
+	 */
+	public void clear() {
+		this.numInstances = 0;
+	}
+
+	/**
+	 * Sets the model matrix of "instance" to "modelMatrix".
+	 */
+	public void setTransform(int instance, float[] modelMatrix) {
+		int base = instance * INSTANCE_SIZE;
+		for (int i = 0; i < 16; i++) {
+			this.instanceData.put(base + i, modelMatrix[i]);
+		}
+		this.markDirty(instance);
+	}
+
+	/**
+	 * Sets the color of "instance" to ("r", "g", "b", "a").
+	 */
+	public void setColor(int instance, float r, float g, float b, float a) {
+		int base = instance * INSTANCE_SIZE + COLOR_OFFSET;
+		this.instanceData.put(base, r);
+		this.instanceData.put(base + 1, g);
+		this.instanceData.put(base + 2, b);
+		this.instanceData.put(base + 3, a);
+		this.markDirty(instance);
+	}
+
+	private void markDirty(int instance) {
+		this.dirty[instance >> 6] |= 1L << instance;
+		this.dirtyMin = Math.min(this.dirtyMin, instance);
+		this.dirtyMax = Math.max(this.dirtyMax, instance);
+	}
+
+	/**
+	 * Reallocates the instance buffer with room for "capacity" instances, and uploads all
+	 * current instances to it.
+	 */
+	private void grow(int capacity) {
+		FloatBuffer instanceData = BufferUtils.createFloatBuffer(capacity * INSTANCE_SIZE);
+		this.instanceData.clear();
+		instanceData.put(this.instanceData);
+		instanceData.clear();
+		this.instanceData = instanceData;
+		this.dirty = Arrays.copyOf(this.dirty, (capacity + 63) / 64);
+		this.capacity = capacity;
+
+		// Keep the buffer name, so recorded vertex arrays still point at it.
+		GLBackend gl = GL.get();
+		gl.glBindBuffer(GL_ARRAY_BUFFER, this.instanceBuffer);
+		gl.glBufferData(GL_ARRAY_BUFFER, (long) capacity * INSTANCE_SIZE * 4, GL_DYNAMIC_DRAW);
+		if (this.numInstances > 0) {
+			this.upload(0, this.numInstances);
+		}
+		this.clearDirty();
+	}
+
+	/**
+	 * Uploads the instances that changed since the last call, in runs of nearby
+	 * instances.
+	 */
+	public void update() {
+		int max = Math.min(this.dirtyMax, this.numInstances - 1);
+		int runStart = -1;
+		int runEnd = -1;
+		for (int i = this.dirtyMin; i <= max; i++) {
+			long word = this.dirty[i >> 6] >>> i;
+			if (word == 0) {
+				// Skip to the next word.
+				i |= 63;
+				continue;
+			}
+			i += Long.numberOfTrailingZeros(word);
+			if (i > max) {
+				break;
+			}
+
+			if (runStart == -1) {
+				runStart = i;
+			} else if (i - runEnd > MERGE_DISTANCE) {
+				this.upload(runStart, runEnd + 1);
+				runStart = i;
+			}
+			runEnd = i;
+		}
+		if (runStart != -1) {
+			this.upload(runStart, runEnd + 1);
+		}
+		this.clearDirty();
+	}
+
+	/**
+	 * Uploads instances "start" (inclusive) to "end" (exclusive).
+	 */
+	private void upload(int start, int end) {
+		GLBackend gl = GL.get();
+		this.instanceData.limit(end * INSTANCE_SIZE);
+		this.instanceData.position(start * INSTANCE_SIZE);
+		gl.glBindBuffer(GL_ARRAY_BUFFER, this.instanceBuffer);
+		gl.glBufferSubData(GL_ARRAY_BUFFER, (long) start * INSTANCE_SIZE * 4, this.instanceData);
+		this.instanceData.clear();
+
+		this.numUploads++;
+		this.numUploadedInstances += end - start;
+	}
+
+	private void clearDirty() {
+		if (this.dirtyMax != -1) {
+			Arrays.fill(this.dirty, this.dirtyMin >> 6, (this.dirtyMax >> 6) + 1, 0);
+		}
+		this.dirtyMin = Integer.MAX_VALUE;
+		this.dirtyMax = -1;
+	}
+
+	/**
+	 * Uploads changed instances, then draws every instance in one call. Like
+	 * SimpleBatch.draw(), the vertex array is left bound.
+	 */
+	public void draw(Map<String, Integer> attributeLocations) {
+		if (this.numInstances == 0) {
+			return;
+		}
+		this.update();
+
+		if (GLTools.vertexArrays) {
+			GL.get().glBindVertexArray(this.getVertexArray(attributeLocations));
+			this.batch.drawInstanced(this.numInstances);
+		} else {
+			this.batch.bindAttributes(attributeLocations);
+			this.bindInstances(attributeLocations, 1);
+			this.batch.drawInstanced(this.numInstances);
+
+			// Without a vertex array the divisors would leak into the next non-instanced
+			// draw.
+			this.bindInstances(attributeLocations, 0);
+		}
+	}
+
+	/**
+	 * Returns the vertex array object that binds this InstancedBatch to
+	 * "attributeLocations", recording a new one the first time a layout is drawn.
+	 */
+	private int getVertexArray(Map<String, Integer> attributeLocations) {
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			if (this.vertexArrayLayouts[i] == attributeLocations) {
+				return this.vertexArrays[i];
+			}
+		}
+
+		GLBackend gl = GL.get();
+		int vertexArray = gl.glGenVertexArrays();
+		gl.glBindVertexArray(vertexArray);
+		this.batch.bindAttributes(attributeLocations);
+		this.bindInstances(attributeLocations, 1);
+
+		if (this.numVertexArrays == this.vertexArrays.length) {
+			int capacity = Math.max(2, this.numVertexArrays * 2);
+			this.vertexArrays = Arrays.copyOf(this.vertexArrays, capacity);
+			this.vertexArrayLayouts = Arrays.copyOf(this.vertexArrayLayouts, capacity);
+		}
+		this.vertexArrays[this.numVertexArrays] = vertexArray;
+		this.vertexArrayLayouts[this.numVertexArrays++] = attributeLocations;
+		return vertexArray;
+	}
+
+	/**
+	 * Points the instance attributes in "attributeLocations" at the instance buffer, with
+	 * "divisor" as the attribute divisor.
+	 */
+	private void bindInstances(Map<String, Integer> attributeLocations, int divisor) {
+		GLBackend gl = GL.get();
+		gl.glBindBuffer(GL_ARRAY_BUFFER, this.instanceBuffer);
+
+		// A mat4 attribute takes up four locations, one per column.
+		Integer matrixLocation = attributeLocations.get(StockShaders.INSTANCE_MATRIX_IN_NAME);
+		if (matrixLocation != null) {
+			for (int column = 0; column < 4; column++) {
+				gl.glVertexAttribPointer(matrixLocation + column, 4, GL_FLOAT, false, INSTANCE_SIZE * 4, column * 16);
+				gl.glEnableVertexAttribArray(matrixLocation + column);
+				gl.glVertexAttribDivisor(matrixLocation + column, divisor);
+			}
+		}
+
+		Integer colorLocation = attributeLocations.get(StockShaders.INSTANCE_COLOR_IN_NAME);
+		if (colorLocation != null) {
+			gl.glVertexAttribPointer(colorLocation, 4, GL_FLOAT, false, INSTANCE_SIZE * 4, COLOR_OFFSET * 4);
+			gl.glEnableVertexAttribArray(colorLocation);
+			gl.glVertexAttribDivisor(colorLocation, divisor);
+		}
+		GLValidation.check("InstancedBatch.bindInstances");
+	}
+
+	/**
+	 * Deletes the instance buffer and vertex arrays of this InstancedBatch. The
+	 * SimpleBatch it draws is left alone.
+	 */
+	public void cleanup() {
+		GLBackend gl = GL.get();
+		if (this.numVertexArrays > 0) {
+			gl.glBindVertexArray(0);
+		}
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			gl.glDeleteVertexArrays(this.vertexArrays[i]);
+		}
+		this.numVertexArrays = 0;
+		gl.glDeleteBuffers(this.instanceBuffer);
+	}
+
+	// Getters
+	public SimpleBatch getBatch() {
+		return this.batch;
+	}
+
+	public int getNumInstances() {
+		return this.numInstances;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns the number of glBufferSubData() calls made for instances so far.
+	 */
+	public long getNumUploads() {
+		return this.numUploads;
+	}
+
+	/**
+	 * Returns the number of instances uploaded so far.
+	 */
+	public long getNumUploadedInstances() {
+		return this.numUploadedInstances;
+	}
+}
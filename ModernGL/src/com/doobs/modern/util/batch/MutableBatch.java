@@ -0,0 +1,349 @@
+package com.doobs.modern.util.batch;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+
+import java.nio.*;
+import java.util.*;
+
+import org.lwjgl.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
+/**
+ * A Batch whose vertices and indices can be edited after creation, like deformable
+ * terrain. Every vertex stream keeps a float[] copy on the CPU. Edits only mark ranges
+ * as dirty, and update() (called by draw()) uploads the merged dirty ranges with
+ * glBufferSubData.
+ *
+ * Buffers grow with headroom when vertices or indices are added. Buffer IDs never
+ * change, so recorded vertex arrays stay valid.
+ */
+public class MutableBatch implements Batch {
+	// Buffers are allocated this much larger than needed when they grow.
+	private static final float HEADROOM = 1.5f;
+
+	/**
+	 * One vertex buffer and its CPU copy.
+	 */
+	private static class Stream {
+		private VertexFormat format;
+		private int floatsPerVertex;
+		private float[] data;
+		private int buffer;
+		private int bufferCapacity = 0;
+		private DirtyRanges dirty = new DirtyRanges();
+	}
+
+	private int mode;
+	private Stream[] streams;
+	private int numVertices = 0;
+
+	private boolean indexed;
+	private int[] indices = new int[0];
+	private int numIndices = 0;
+	private int indexBuffer = -1;
+	private int indexBufferCapacity = 0;
+	private DirtyRanges dirtyIndices = new DirtyRanges();
+
+	// Direct buffers the dirty ranges are copied to before uploading. Grown as needed.
+	private FloatBuffer floatStaging = BufferUtils.createFloatBuffer(256);
+	private IntBuffer intStaging = BufferUtils.createIntBuffer(256);
+
+	// Vertex array objects recorded for each attribute layout this batch was drawn with.
+	private int[] vertexArrays = new int[0];
+	private Map<?, ?>[] vertexArrayLayouts = new Map<?, ?>[0];
+	private int numVertexArrays = 0;
+
+	private long numUploads = 0;
+	private long uploadedBytes = 0;
+
+	/**
+	 * Pre: every format only contains GL_FLOAT attributes.
+	 *
+	 * Creates an empty MutableBatch using the OpenGL drawing "mode", with one vertex
+	 * buffer per entry of "formats". If "indexed", it draws with GL_UNSIGNED_INT indices.
+	 */
+	public MutableBatch(int mode, boolean indexed, VertexFormat... formats) {
+		GLBackend gl = GL.get();
+		this.mode = mode;
+		this.indexed = indexed;
+
+		this.streams = new Stream[formats.length];
+		for (int i = 0; i < formats.length; i++) {
+			Stream stream = new Stream();
+			stream.format = formats[i];
+			stream.floatsPerVertex = formats[i].getStride() / 4;
+			stream.data = new float[0];
+			stream.buffer = gl.glGenBuffers();
+			this.streams[i] = stream;
+		}
+		if (indexed) {
+			this.indexBuffer = gl.glGenBuffers();
+		}
+	}
+
+	/**
+	 * Sets the number of vertices, keeping existing ones. New vertices are zero until set.
+	 */
+	public void setNumVertices(int numVertices) {
+		for (Stream stream : this.streams) {
+			int length = numVertices * stream.floatsPerVertex;
+			if (length > stream.data.length) {
+				stream.data = Arrays.copyOf(stream.data, (int) (length * HEADROOM));
+			}
+			if (numVertices > this.numVertices) {
+				// Clears vertices left over from before the batch shrank.
+				Arrays.fill(stream.data, this.numVertices * stream.floatsPerVertex, length, 0.0f);
+				stream.dirty.add(this.numVertices, numVertices);
+			}
+		}
+		this.numVertices = numVertices;
+	}
+
+	/**
+	 * Copies "count" vertices from "source" (starting at float "sourceOffset") to vertex
+	 * stream "stream", starting at vertex "first".
+	 */
+	public void setVertices(int stream, int first, float[] source, int sourceOffset, int count) {
+		Stream s = this.streams[stream];
+		System.arraycopy(source, sourceOffset, s.data, first * s.floatsPerVertex, count * s.floatsPerVertex);
+		s.dirty.add(first, first + count);
+	}
+
+	/**
+	 * Returns the CPU copy of vertex stream "stream". After changing it directly, call
+	 * markDirty() for the changed vertices. The array is replaced when the batch grows.
+	 */
+	public float[] getVertexData(int stream) {
+		return this.streams[stream].data;
+	}
+
+	/**
+	 * Marks "count" vertices of "stream", starting at vertex "first", as changed.
+	 */
+	public void markDirty(int stream, int first, int count) {
+		this.streams[stream].dirty.add(first, first + count);
+	}
+
+	/**
+	 * Sets the number of indices, keeping existing ones. New indices are zero until set.
+	 */
+	public void setNumIndices(int numIndices) {
+		if (numIndices > this.indices.length) {
+			this.indices = Arrays.copyOf(this.indices, (int) (numIndices * HEADROOM));
+		}
+		if (numIndices > this.numIndices) {
+			Arrays.fill(this.indices, this.numIndices, numIndices, 0);
+			this.dirtyIndices.add(this.numIndices, numIndices);
+		}
+		this.numIndices = numIndices;
+	}
+
+	/**
+	 * Copies "count" indices from "source" (starting at "sourceOffset"), starting at index
+	 * "first".
+	 */
+	public void setIndices(int first, int[] source, int sourceOffset, int count) {
+		System.arraycopy(source, sourceOffset, this.indices, first, count);
+		this.dirtyIndices.add(first, first + count);
+	}
+
+	/**
+	 * Uploads everything that changed since the last update. Buffers that are too small
+	 * are reallocated with headroom and uploaded in full.
+	 */
+	public void update() {
+		GLBackend gl = GL.get();
+		for (Stream stream : this.streams) {
+			if (stream.dirty.isEmpty()) {
+				continue;
+			}
+
+			gl.glBindBuffer(GL_ARRAY_BUFFER, stream.buffer);
+			if (this.numVertices > stream.bufferCapacity) {
+				stream.bufferCapacity = (int) (this.numVertices * HEADROOM);
+				gl.glBufferData(GL_ARRAY_BUFFER, (long) stream.bufferCapacity * stream.format.getStride(), GL_DYNAMIC_DRAW);
+				this.uploadVertices(stream, 0, this.numVertices);
+			} else {
+				for (int i = 0; i < stream.dirty.size(); i++) {
+					int end = Math.min(stream.dirty.getEnd(i), this.numVertices);
+					this.uploadVertices(stream, stream.dirty.getStart(i), end);
+				}
+			}
+			stream.dirty.clear();
+		}
+
+		if (this.indexed && !this.dirtyIndices.isEmpty()) {
+			// Don't change the index buffer of whichever batch was drawn last.
+			if (GLTools.vertexArrays) {
+				gl.glBindVertexArray(0);
+			}
+			gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
+			if (this.numIndices > this.indexBufferCapacity) {
+				this.indexBufferCapacity = (int) (this.numIndices * HEADROOM);
+				gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, (long) this.indexBufferCapacity * 4, GL_DYNAMIC_DRAW);
+				this.uploadIndices(0, this.numIndices);
+			} else {
+				for (int i = 0; i < this.dirtyIndices.size(); i++) {
+					this.uploadIndices(this.dirtyIndices.getStart(i), Math.min(this.dirtyIndices.getEnd(i), this.numIndices));
+				}
+			}
+			this.dirtyIndices.clear();
+		}
+		GLValidation.check("MutableBatch.update");
+	}
+
+	/**
+	 * Uploads vertices "start" (inclusive) to "end" (exclusive) of "stream", which must
+	 * be bound.
+	 */
+	private void uploadVertices(Stream stream, int start, int end) {
+		if (start >= end) {
+			return;
+		}
+
+		int length = (end - start) * stream.floatsPerVertex;
+		if (length > this.floatStaging.capacity()) {
+			this.floatStaging = BufferUtils.createFloatBuffer(Math.max(length, this.floatStaging.capacity() * 2));
+		}
+		this.floatStaging.clear();
+		this.floatStaging.put(stream.data, start * stream.floatsPerVertex, length);
+		this.floatStaging.flip();
+		GL.get().glBufferSubData(GL_ARRAY_BUFFER, (long) start * stream.format.getStride(), this.floatStaging);
+
+		this.numUploads++;
+		this.uploadedBytes += length * 4;
+	}
+
+	/**
+	 * Uploads indices "start" (inclusive) to "end" (exclusive). The index buffer must be
+	 * bound.
+	 */
+	private void uploadIndices(int start, int end) {
+		if (start >= end) {
+			return;
+		}
+
+		int length = end - start;
+		if (length > this.intStaging.capacity()) {
+			this.intStaging = BufferUtils.createIntBuffer(Math.max(length, this.intStaging.capacity() * 2));
+		}
+		this.intStaging.clear();
+		this.intStaging.put(this.indices, start, length);
+		this.intStaging.flip();
+		GL.get().glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, (long) start * 4, this.intStaging);
+
+		this.numUploads++;
+		this.uploadedBytes += length * 4;
+	}
+
+	/**
+	 * Uploads any changes, then draws this MutableBatch. Like SimpleBatch.draw(), the
+	 * vertex array is left bound.
+	 */
+	public void draw(Map<String, Integer> attributeLocations) {
+		this.update();
+
+		GLBackend gl = GL.get();
+		if (GLTools.vertexArrays) {
+			gl.glBindVertexArray(this.getVertexArray(attributeLocations));
+		} else {
+			this.bindAttributes(attributeLocations);
+		}
+
+		if (this.indexed) {
+			if (this.numIndices > 0) {
+				gl.glDrawElements(this.mode, this.numIndices, GL_UNSIGNED_INT, 0);
+			}
+		} else if (this.numVertices > 0) {
+			gl.glDrawArrays(this.mode, 0, this.numVertices);
+		}
+		GLValidation.check("MutableBatch.draw");
+	}
+
+	private void bindAttributes(Map<String, Integer> attributeLocations) {
+		for (Stream stream : this.streams) {
+			SimpleBatch.bind(stream.buffer, stream.format, attributeLocations);
+		}
+		if (this.indexed) {
+			GL.get().glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
+		}
+	}
+
+	private int getVertexArray(Map<String, Integer> attributeLocations) {
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			if (this.vertexArrayLayouts[i] == attributeLocations) {
+				return this.vertexArrays[i];
+			}
+		}
+
+		GLBackend gl = GL.get();
+		int vertexArray = gl.glGenVertexArrays();
+		gl.glBindVertexArray(vertexArray);
+		this.bindAttributes(attributeLocations);
+
+		if (this.numVertexArrays == this.vertexArrays.length) {
+			int capacity = Math.max(2, this.numVertexArrays * 2);
+			this.vertexArrays = Arrays.copyOf(this.vertexArrays, capacity);
+			this.vertexArrayLayouts = Arrays.copyOf(this.vertexArrayLayouts, capacity);
+		}
+		this.vertexArrays[this.numVertexArrays] = vertexArray;
+		this.vertexArrayLayouts[this.numVertexArrays++] = attributeLocations;
+		return vertexArray;
+	}
+
+	/**
+	 * Deletes the OpenGL buffers and vertex arrays of this MutableBatch. It can't be drawn
+	 * afterwards.
+	 */
+	public void cleanup() {
+		GLBackend gl = GL.get();
+		if (this.numVertexArrays > 0) {
+			gl.glBindVertexArray(0);
+		}
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			gl.glDeleteVertexArrays(this.vertexArrays[i]);
+		}
+		this.numVertexArrays = 0;
+
+		for (Stream stream : this.streams) {
+			gl.glDeleteBuffers(stream.buffer);
+		}
+		if (this.indexed) {
+			gl.glDeleteBuffers(this.indexBuffer);
+		}
+	}
+
+	// Getters
+	public int getMode() {
+		return this.mode;
+	}
+
+	public int getNumVertices() {
+		return this.numVertices;
+	}
+
+	public int getNumIndices() {
+		return this.numIndices;
+	}
+
+	public int[] getIndexData() {
+		return this.indices;
+	}
+
+	/**
+	 * Returns the number of glBufferSubData() calls made so far.
+	 */
+	public long getNumUploads() {
+		return this.numUploads;
+	}
+
+	/**
+	 * Returns the number of bytes uploaded with glBufferSubData() so far.
+	 */
+	public long getUploadedBytes() {
+		return this.uploadedBytes;
+	}
+}
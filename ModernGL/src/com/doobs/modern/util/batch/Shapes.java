@@ -5,56 +5,52 @@ import java.util.*;
 import org.lwjgl.opengl.*;
 
 import com.doobs.modern.util.*;
+import com.doobs.modern.util.shader.*;
+import com.doobs.modern.util.spatial.*;
 
 public class Shapes {
+	/**
+	 * Layout of interleaved batches built by Shapes. The position's w-component is left
+	 * out, since OpenGL fills it in with 1.0.
+	 */
+	public static final VertexFormat VERTEX_FORMAT = new VertexFormat().add(StockShaders.POSITION_IN_NAME, 3).add(StockShaders.NORMAL_IN_NAME, 3)
+			.add(StockShaders.TEX_COORD_IN_NAME, 2);
 
-	private static class Vertex {
+	// Floats per vertex: position (3), normal (3), texture coordinates (2).
+	private static final int VERTEX_SIZE = 8;
+	private static final int DEFAULT_CAPACITY = 256;
 
-		private float[] xyz = new float[3];
-		private float[] nrm = new float[3];
-		private float[] txt = new float[2];
+	// Marks an empty slot in the welding table.
+	private static final int EMPTY = -1;
 
-		public Vertex(float[] vtx, float[] normal, float[] txtcoords) {
-			System.arraycopy(vtx, 0, this.xyz, 0, 3);
-			if (normal != null) {
-				System.arraycopy(normal, 0, this.nrm, 0, 3);
-			}
-			if (txtcoords != null) {
-				System.arraycopy(txtcoords, 0, this.txt, 0, 2);
-			}
-		}
+	private float[] vertices = new float[DEFAULT_CAPACITY * VERTEX_SIZE];
+	private int numVertices = 0;
 
-		public boolean equals(Object obj) {
-			if (obj == null) {
-				return false;
-			}
-			if (this.getClass() != obj.getClass()) {
-				return false;
-			}
-			final Vertex other = (Vertex) obj;
-			if (!Arrays.equals(this.xyz, other.xyz)) {
-				return false;
-			}
-			if (!Arrays.equals(this.nrm, other.nrm)) {
-				return false;
-			}
-			if (!Arrays.equals(this.txt, other.txt)) {
-				return false;
-			}
-			return true;
-		}
+	private int[] indexes = new int[DEFAULT_CAPACITY];
+	private int numIndexes = 0;
+
+	// Open-addressing table of vertex indices, keyed by vertex contents.
+	private int[] table = newTable(DEFAULT_CAPACITY * 2);
+
+	// Vertices whose components all fall within the same "weldEpsilon" cell are merged.
+	private float weldEpsilon = 0.0f;
+
+	// Temp vertex. Avoiding garbage collection on welding!
+	private float[] temp = new float[VERTEX_SIZE];
+
+	public Shapes() {
 
-		public int hashCode() {
-			int hash = 7;
-			hash = (83 * hash) + Arrays.hashCode(this.xyz);
-			hash = (83 * hash) + Arrays.hashCode(this.nrm);
-			hash = (83 * hash) + Arrays.hashCode(this.txt);
-			return hash;
-		}
 	}
 
-	private List<Vertex> vertices = new ArrayList<Vertex>();
-	private List<Short> indexes = new ArrayList<Short>();
+	/**
+	 * Creates a Shapes that welds vertices whose components round to the same multiple of
+	 * "weldEpsilon", rather than only exactly equal vertices. Components are snapped to a
+	 * grid with cells "weldEpsilon" wide, so two vertices closer than "weldEpsilon" but on
+	 * opposite sides of a cell boundary are still kept apart.
+	 */
+	public Shapes(float weldEpsilon) {
+		this.weldEpsilon = weldEpsilon;
+	}
 
 	public void addTriangle(float[][] triangle, float[][] normals, float[][] textures) {
 		for (int k = 0; k < 3; k++) {
@@ -63,51 +59,222 @@ public class Shapes {
 	}
 
 	public void addVertex(float[] vertex, float[] normal, float[] texCoords) {
-		Vertex v = new Vertex(vertex, normal, texCoords);
-		short index = (short) this.vertices.indexOf(v);
-		if (index < 0) {
-			this.vertices.add(v);
-			index = (short) (this.vertices.size() - 1);
+		float[] v = this.temp;
+		System.arraycopy(vertex, 0, v, 0, 3);
+		if (normal != null) {
+			System.arraycopy(normal, 0, v, 3, 3);
+		} else {
+			v[3] = v[4] = v[5] = 0.0f;
+		}
+		if (texCoords != null) {
+			System.arraycopy(texCoords, 0, v, 6, 2);
+		} else {
+			v[6] = v[7] = 0.0f;
+		}
+
+		int mask = this.table.length - 1;
+		int slot = this.hash(v, 0) & mask;
+		int index;
+		while ((index = this.table[slot]) != EMPTY) {
+			if (this.matches(v, index * VERTEX_SIZE)) {
+				this.addIndex(index);
+				return;
+			}
+			slot = (slot + 1) & mask;
 		}
-		this.indexes.add(index);
+
+		index = this.numVertices++;
+		if ((index * VERTEX_SIZE) == this.vertices.length) {
+			this.vertices = Arrays.copyOf(this.vertices, this.vertices.length * 2);
+		}
+		System.arraycopy(v, 0, this.vertices, index * VERTEX_SIZE, VERTEX_SIZE);
+		this.table[slot] = index;
+
+		// Keep the table at most half full so probe sequences stay short.
+		if ((this.numVertices * 2) > this.table.length) {
+			this.rehash(this.table.length * 2);
+		}
+		this.addIndex(index);
 	}
 
-	public Batch buildBatch() {
-		float[] fv = new float[this.vertices.size() * 4];
-		for (int i = 0; i < this.vertices.size(); i++) {
-			fv[i << 2] = this.vertices.get(i).xyz[0];
-			fv[(i << 2) + 1] = this.vertices.get(i).xyz[1];
-			fv[(i << 2) + 2] = this.vertices.get(i).xyz[2];
-			fv[(i << 2) + 3] = 1.0f;
+	private void addIndex(int index) {
+		if (this.numIndexes == this.indexes.length) {
+			this.indexes = Arrays.copyOf(this.indexes, this.indexes.length * 2);
 		}
+		this.indexes[this.numIndexes++] = index;
+	}
 
-		float[] fn = new float[this.vertices.size() * 3];
-		for (int i = 0; i < this.vertices.size(); i++) {
-			fn[(i * 3) + 0] = this.vertices.get(i).nrm[0];
-			fn[(i * 3) + 1] = this.vertices.get(i).nrm[1];
-			fn[(i * 3) + 2] = this.vertices.get(i).nrm[2];
+	/**
+	 * Returns the bits used to compare component "value". Exact welding uses the raw float
+	 * bits (like Arrays.equals(float[], float[])), epsilon welding uses the grid cell.
+	 */
+	private int key(float value) {
+		if (this.weldEpsilon > 0.0f) {
+			return Math.round(value / this.weldEpsilon);
 		}
+		return Float.floatToIntBits(value);
+	}
 
-		float[] ft = new float[this.vertices.size() * 2];
-		for (int i = 0; i < this.vertices.size(); i++) {
-			ft[(i * 2) + 0] = this.vertices.get(i).txt[0];
-			ft[(i * 2) + 1] = this.vertices.get(i).txt[1];
+	private int hash(float[] data, int start) {
+		int hash = 7;
+		for (int i = 0; i < VERTEX_SIZE; i++) {
+			hash = (83 * hash) + this.key(data[start + i]);
 		}
+		// Spread the bits, since the table size is a power of two.
+		return hash ^ (hash >>> 16);
+	}
 
-		short[] idx = new short[this.indexes.size()];
-		for (int i = 0; i < this.indexes.size(); i++) {
-			idx[i] = this.indexes.get(i);
+	private boolean matches(float[] v, int start) {
+		for (int i = 0; i < VERTEX_SIZE; i++) {
+			if (this.key(v[i]) != this.key(this.vertices[start + i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity) {
+		this.table = newTable(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < this.numVertices; i++) {
+			int slot = this.hash(this.vertices, i * VERTEX_SIZE) & mask;
+			while (this.table[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			this.table[slot] = i;
 		}
-		return new SimpleBatch(GL11.GL_TRIANGLES, 4, fv, null, fn, ft, idx);
+	}
+
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, EMPTY);
+		return table;
+	}
+
+	/**
+	 * Builds an interleaved SimpleBatch from the triangles added so far.
+	 */
+	public SimpleBatch buildBatch() {
+		return this.buildBatch(true);
+	}
+
+	/**
+	 * Builds a SimpleBatch from the triangles added so far. If "interleaved", all vertex
+	 * attributes are stored in a single buffer laid out as VERTEX_FORMAT, otherwise each
+	 * attribute gets its own buffer.
+	 */
+	public SimpleBatch buildBatch(boolean interleaved) {
+		int[] idx = Arrays.copyOf(this.indexes, this.numIndexes);
+
+		// The welded vertices are already laid out as VERTEX_FORMAT.
+		if (interleaved) {
+			return this.addBounds(new SimpleBatch(GL11.GL_TRIANGLES, VERTEX_FORMAT, Arrays.copyOf(this.vertices, this.numVertices * VERTEX_SIZE), idx));
+		}
+
+		float[] fv = new float[this.numVertices * 4];
+		float[] fn = new float[this.numVertices * 3];
+		float[] ft = new float[this.numVertices * 2];
+		for (int i = 0; i < this.numVertices; i++) {
+			int v = i * VERTEX_SIZE;
+			fv[i << 2] = this.vertices[v];
+			fv[(i << 2) + 1] = this.vertices[v + 1];
+			fv[(i << 2) + 2] = this.vertices[v + 2];
+			fv[(i << 2) + 3] = 1.0f;
+
+			fn[(i * 3) + 0] = this.vertices[v + 3];
+			fn[(i * 3) + 1] = this.vertices[v + 4];
+			fn[(i * 3) + 2] = this.vertices[v + 5];
+
+			ft[(i * 2) + 0] = this.vertices[v + 6];
+			ft[(i * 2) + 1] = this.vertices[v + 7];
+		}
+		return this.addBounds(new SimpleBatch(GL11.GL_TRIANGLES, 4, fv, null, fn, ft, idx));
+	}
+
+	/**
+	 * Builds a TriangleBVH over the triangles added so far, for picking the batches built
+	 * from them.
+	 */
+	public TriangleBVH buildTriangleBVH() {
+		return new TriangleBVH(Arrays.copyOf(this.vertices, this.numVertices * VERTEX_SIZE), VERTEX_SIZE, Arrays.copyOf(this.indexes, this.numIndexes),
+				this.numIndexes);
+	}
+
+	/**
+	 * Sets the bounds of "batch" to the box around the vertices added so far, and returns
+	 * "batch".
+	 */
+	private SimpleBatch addBounds(SimpleBatch batch) {
+		if (this.numVertices == 0) {
+			return batch;
+		}
+
+		float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+		for (int v = 0; v < this.numVertices * VERTEX_SIZE; v += VERTEX_SIZE) {
+			minX = Math.min(minX, this.vertices[v]);
+			minY = Math.min(minY, this.vertices[v + 1]);
+			minZ = Math.min(minZ, this.vertices[v + 2]);
+			maxX = Math.max(maxX, this.vertices[v]);
+			maxY = Math.max(maxY, this.vertices[v + 1]);
+			maxZ = Math.max(maxZ, this.vertices[v + 2]);
+		}
+		batch.setBounds(minX, minY, minZ, maxX, maxY, maxZ);
+		return batch;
 	}
 
 	public void clear() {
-		this.indexes.clear();
-		this.vertices.clear();
+		this.numIndexes = 0;
+		this.numVertices = 0;
+		Arrays.fill(this.table, EMPTY);
 	}
 
-	public static Batch makeTorus(float majorRadius, float minorRadius, int numMajor, int numMinor) {
-		Shapes factory = new Shapes();
+	/**
+	 * Returns the number of unique vertices added so far.
+	 */
+	public int getNumVertices() {
+		return this.numVertices;
+	}
+
+	/**
+	 * Returns the number of indices added so far.
+	 */
+	public int getNumIndexes() {
+		return this.numIndexes;
+	}
+
+	/**
+	 * Returns the welded vertices added so far, laid out as VERTEX_FORMAT. Only the first
+	 * getNumVertices() are used, and the array is replaced when it grows.
+	 */
+	public float[] getVertexData() {
+		return this.vertices;
+	}
+
+	/**
+	 * Returns the indices added so far. Only the first getNumIndexes() are used, and the
+	 * array is replaced when it grows.
+	 */
+	public int[] getIndexData() {
+		return this.indexes;
+	}
+
+	/**
+	 * Returns the weld tolerance of this Shapes. 0 means only exactly equal vertices are
+	 * welded.
+	 */
+	public float getWeldEpsilon() {
+		return this.weldEpsilon;
+	}
+
+	public static SimpleBatch makeTorus(float majorRadius, float minorRadius, int numMajor, int numMinor) {
+		return addTorus(new Shapes(), majorRadius, minorRadius, numMajor, numMinor).buildBatch();
+	}
+
+	/**
+	 * Adds the triangles of a torus to "factory" and returns "factory".
+	 */
+	public static Shapes addTorus(Shapes factory, float majorRadius, float minorRadius, int numMajor, int numMinor) {
 		double majorStep = (2.0f * Math.PI) / numMajor;
 		double minorStep = (2.0f * Math.PI) / numMinor;
 
@@ -193,12 +360,18 @@ public class Shapes {
 				factory.addTriangle(vVertex, vNormal, vTexture);
 			}
 		}
-		return factory.buildBatch();
+		return factory;
+
+	}
 
+	public static SimpleBatch makeSphere(float fRadius, float iSlices, float iStacks) {
+		return addSphere(new Shapes(), fRadius, iSlices, iStacks).buildBatch();
 	}
 
-	public static Batch makeSphere(float fRadius, float iSlices, float iStacks) {
-		Shapes factory = new Shapes();
+	/**
+	 * Adds the triangles of a sphere to "factory" and returns "factory".
+	 */
+	public static Shapes addSphere(Shapes factory, float fRadius, float iSlices, float iStacks) {
 		float drho = (float) (3.141592653589) / iStacks;
 		float dtheta = (2.0f * (float) (3.141592653589)) / iSlices;
 		float ds = 1.0f / iSlices;
@@ -300,11 +473,17 @@ public class Shapes {
 			}
 			t -= dt;
 		}
-		return factory.buildBatch();
+		return factory;
 	}
 
-	public static Batch makeDisk(float innerRadius, float outerRadius, int nSlices, int nStacks) {
-		Shapes factory = new Shapes();
+	public static SimpleBatch makeDisk(float innerRadius, float outerRadius, int nSlices, int nStacks) {
+		return addDisk(new Shapes(), innerRadius, outerRadius, nSlices, nStacks).buildBatch();
+	}
+
+	/**
+	 * Adds the triangles of a disk to "factory" and returns "factory".
+	 */
+	public static Shapes addDisk(Shapes factory, float innerRadius, float outerRadius, int nSlices, int nStacks) {
 
 		// How much to step out each stack
 		float fStepSizeRadial = outerRadius - innerRadius;
@@ -402,11 +581,17 @@ public class Shapes {
 			}
 		}
 
-		return factory.buildBatch();
+		return factory;
+	}
+
+	public static SimpleBatch makeCylinder(float baseRadius, float topRadius, float fLength, int numSlices, int numStacks) {
+		return addCylinder(new Shapes(), baseRadius, topRadius, fLength, numSlices, numStacks).buildBatch();
 	}
 
-	public static Batch makeCylinder(float baseRadius, float topRadius, float fLength, int numSlices, int numStacks) {
-		Shapes factory = new Shapes();
+	/**
+	 * Adds the triangles of a cylinder to "factory" and returns "factory".
+	 */
+	public static Shapes addCylinder(Shapes factory, float baseRadius, float topRadius, float fLength, int numSlices, int numStacks) {
 		float fRadiusStep = (topRadius - baseRadius) / (numStacks);
 
 		float fStepSizeSlice = (3.1415926536f * 2.0f) / (numSlices);
@@ -544,10 +729,10 @@ public class Shapes {
 				factory.addTriangle(vVertex, vNormal, vTexture);
 			}
 		}
-		return factory.buildBatch();
+		return factory;
 	}
 
-	public static Batch makeCube(float width, float height, float depth) {
+	public static SimpleBatch makeCube(float width, float height, float depth) {
 		float xmax = width / 2;
 		float xmin = -xmax;
 		float ymax = height / 2;
@@ -668,7 +853,9 @@ public class Shapes {
 		// System.out.println(String.format("nn: %f, %f, %f", normal[0], normal[1],
 		// normal[2]));
 		// }
-		return new SimpleBatch(GL11.GL_TRIANGLES, 4, vertex, null, normals, textures, index);
+		SimpleBatch batch = new SimpleBatch(GL11.GL_TRIANGLES, 4, vertex, null, normals, textures, index);
+		batch.setBounds(xmin, ymin, zmin, xmax, ymax, zmax);
+		return batch;
 	}
 
 	public static void main(String[] args) {
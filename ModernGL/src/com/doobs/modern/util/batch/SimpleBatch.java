@@ -2,25 +2,47 @@ package com.doobs.modern.util.batch;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.*;
 
 import java.nio.*;
 import java.util.*;
 
 import org.lwjgl.*;
 
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.frustum.*;
 import com.doobs.modern.util.shader.*;
 
 public class SimpleBatch implements Batch {
+	private static final VertexFormat COLOR_FORMAT = new VertexFormat().add(StockShaders.COLOR_IN_NAME, 4);
+	private static final VertexFormat NORMAL_FORMAT = new VertexFormat().add(StockShaders.NORMAL_IN_NAME, 3);
+	private static final VertexFormat TEX_COORD_FORMAT = new VertexFormat().add(StockShaders.TEX_COORD_IN_NAME, 2);
+
 	private int mode;
 	private int numElements;
 	private int numVertAttribs;
 
-	private int vertexBuffer;
-	private int colorBuffer;
-	private int normalBuffer;
-	private int textureBuffer;
+	// Each vertex buffer is laid out according to the VertexFormat at the same index. The
+	// separate layout has one buffer per attribute, the interleaved layout a single one.
+	private int[] vertexBuffers;
+	private VertexFormat[] formats;
+
 	private int indexBuffer;
+	private int indexType;
+
+	// Vertex array objects recorded for each attribute layout this batch was drawn with.
+	private int[] vertexArrays = new int[0];
+	private Map<?, ?>[] vertexArrayLayouts = new Map<?, ?>[0];
+	private int[][] vertexArraySignatures = new int[0][];
+	private int numVertexArrays = 0;
+
+	private Map<String, Integer> lastLayout;
+	private int lastVertexArray;
+
+	// Local axis aligned bounds, if known (see setBounds()).
+	private boolean hasBounds = false;
+	private float[] boundsMin = new float[3];
+	private float[] boundsMax = new float[3];
 
 	/**
 	 * Pre: "vertices" != null. All other vertex attributes can be null.
@@ -28,93 +50,368 @@ public class SimpleBatch implements Batch {
 	 * Creates a SimpleBatch using the OpenGL drawing "mode" 
 	 */
 	public SimpleBatch(int mode, int numVertAttribs, float[] vertices, float[] colors, float[] normals, float[] texCoords, short[] indices) {
+		this(mode, numVertAttribs, vertices, colors, normals, texCoords);
+
+		if (indices != null) {
+			GLBackend gl = GL.get();
+			this.numElements = indices.length;
+			this.indexType = GL_UNSIGNED_SHORT;
+
+			ShortBuffer indexData = BufferUtils.createShortBuffer(indices.length);
+			indexData.put(indices);
+			indexData.flip();
+			this.indexBuffer = gl.glGenBuffers();
+			if (GLTools.vertexArrays) {
+				gl.glBindVertexArray(0);
+			}
+			gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
+			gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexData, GL_STATIC_DRAW);
+		}
+	}
+
+	/**
+	 * Pre: "vertices" != null. All other vertex attributes can be null.
+	 * 
+	 * Creates a SimpleBatch using the OpenGL drawing "mode". The smallest index type that
+	 * can address every vertex is chosen (see getIndexType(int)).
+	 */
+	public SimpleBatch(int mode, int numVertAttribs, float[] vertices, float[] colors, float[] normals, float[] texCoords, int[] indices) {
+		this(mode, numVertAttribs, vertices, colors, normals, texCoords);
+		this.bufferIndices(indices, vertices.length / numVertAttribs);
+	}
+
+	/**
+	 * Pre: "vertexData" != null and "format" only contains GL_FLOAT attributes.
+	 * 
+	 * Creates an interleaved SimpleBatch using the OpenGL drawing "mode". Every vertex in
+	 * "vertexData" is laid out according to "format", and the whole batch is stored in a
+	 * single buffer. "indices" can be null.
+	 */
+	public SimpleBatch(int mode, VertexFormat format, float[] vertexData, int[] indices) {
+		this.mode = mode;
+		this.numVertAttribs = format.getAttribute(StockShaders.POSITION_IN_NAME).getComponents();
+
+		int numVertices = (vertexData.length * 4) / format.getStride();
+		this.indexBuffer = -1;
+		this.numElements = numVertices;
+
+		this.vertexBuffers = new int[] { this.buffer(vertexData) };
+		this.formats = new VertexFormat[] { format };
+
+		this.bufferIndices(indices, numVertices);
+	}
+
+	/**
+	 * Buffers the vertex attributes, each into its own buffer. The batch draws the raw
+	 * vertex data until an index buffer is added.
+	 */
+	private SimpleBatch(int mode, int numVertAttribs, float[] vertices, float[] colors, float[] normals, float[] texCoords) {
 		this.mode = mode;
 		this.numVertAttribs = numVertAttribs;
 
 		this.indexBuffer = -1;
+		this.numElements = vertices.length / numVertAttribs;
 
-		// If index data is null, then the raw vertex data represents the model.
-		if (indices != null) {
-			this.numElements = indices.length;
-		} else {
-			this.numElements = vertices.length / 3;
+		float[][] data = { vertices, normals, colors, texCoords };
+		VertexFormat[] formats = { new VertexFormat().add(StockShaders.POSITION_IN_NAME, numVertAttribs), NORMAL_FORMAT, COLOR_FORMAT, TEX_COORD_FORMAT };
+
+		int numBuffers = 0;
+		for (float[] attribute : data) {
+			if (attribute != null) {
+				numBuffers++;
+			}
 		}
 
-		this.vertexBuffer = this.buffer(vertices);
-		this.colorBuffer = this.buffer(colors);
-		this.normalBuffer = this.buffer(normals);
-		this.textureBuffer = this.buffer(texCoords);
+		this.vertexBuffers = new int[numBuffers];
+		this.formats = new VertexFormat[numBuffers];
+		for (int i = 0, j = 0; i < data.length; i++) {
+			if (data[i] != null) {
+				this.vertexBuffers[j] = this.buffer(data[i]);
+				this.formats[j++] = formats[i];
+			}
+		}
+	}
 
+	/**
+	 * Buffers "indices" to a GL_ELEMENT_ARRAY_BUFFER, using the smallest type that can
+	 * index "numVertices" vertices. Does nothing if "indices" == null.
+	 */
+	private void bufferIndices(int[] indices, int numVertices) {
 		if (indices == null) {
-			this.indexBuffer = -1;
-		} else {
+			return;
+		}
+
+		GLBackend gl = GL.get();
+
+		this.numElements = indices.length;
+		this.indexType = getIndexType(numVertices);
+		this.indexBuffer = gl.glGenBuffers();
+
+		// Don't attach the index buffer to whichever batch was drawn last.
+		if (GLTools.vertexArrays) {
+			gl.glBindVertexArray(0);
+		}
+		gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
+
+		if (this.indexType == GL_UNSIGNED_BYTE) {
+			ByteBuffer indexData = BufferUtils.createByteBuffer(indices.length);
+			for (int index : indices) {
+				indexData.put((byte) index);
+			}
+			indexData.flip();
+			gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexData, GL_STATIC_DRAW);
+		} else if (this.indexType == GL_UNSIGNED_SHORT) {
 			ShortBuffer indexData = BufferUtils.createShortBuffer(indices.length);
+			for (int index : indices) {
+				indexData.put((short) index);
+			}
+			indexData.flip();
+			gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexData, GL_STATIC_DRAW);
+		} else {
+			IntBuffer indexData = BufferUtils.createIntBuffer(indices.length);
 			indexData.put(indices);
 			indexData.flip();
-			this.indexBuffer = glGenBuffers();
-			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
-			glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexData, GL_STATIC_DRAW);
+			gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexData, GL_STATIC_DRAW);
 		}
 	}
 
 	/**
-	 * Buffers "data" to a GL_ARRAY_BUFFER, then returns an OpenGL buffer ID. If "data" ==
-	 * null, returns -1.
+	 * Returns the smallest OpenGL index type (GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or
+	 * GL_UNSIGNED_INT) that can index "numVertices" vertices.
 	 */
-	private int buffer(float[] data) {
-		if (data == null) {
-			return -1;
+	public static int getIndexType(int numVertices) {
+		if (numVertices <= 0x100) {
+			return GL_UNSIGNED_BYTE;
+		} else if (numVertices <= 0x10000) {
+			return GL_UNSIGNED_SHORT;
+		} else {
+			return GL_UNSIGNED_INT;
 		}
+	}
+
+	/**
+	 * Buffers "data" to a GL_ARRAY_BUFFER, then returns an OpenGL buffer ID.
+	 */
+	private int buffer(float[] data) {
+		GLBackend gl = GL.get();
 		FloatBuffer dataBuffer = BufferUtils.createFloatBuffer(data.length);
 		dataBuffer.put(data);
 		dataBuffer.flip();
-		int bufferID = glGenBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, bufferID);
-		glBufferData(GL_ARRAY_BUFFER, dataBuffer, GL_STATIC_DRAW);
+		int bufferID = gl.glGenBuffers();
+		gl.glBindBuffer(GL_ARRAY_BUFFER, bufferID);
+		gl.glBufferData(GL_ARRAY_BUFFER, dataBuffer, GL_STATIC_DRAW);
 		return bufferID;
 	}
 
+	/**
+	 * Draws this SimpleBatch. If vertex array objects are available, the attribute setup
+	 * for "attributeLocations" is recorded on the first draw and only the vertex array is
+	 * bound afterwards. The vertex array is left bound, so code that binds a
+	 * GL_ELEMENT_ARRAY_BUFFER outside of a draw must bind vertex array 0 first.
+	 */
 	public void draw(Map<String, Integer> attributeLocations) {
-		this.bind(this.vertexBuffer, attributeLocations.get(StockShaders.POSITION_IN_NAME), this.numVertAttribs);
-		this.bind(this.normalBuffer, attributeLocations.get(StockShaders.NORMAL_IN_NAME), 3);
-		this.bind(this.colorBuffer, attributeLocations.get(StockShaders.COLOR_IN_NAME), 4);
-		this.bind(this.textureBuffer, attributeLocations.get(StockShaders.TEX_COORD_IN_NAME), 2);
+		GLBackend gl = GL.get();
+		if (GLTools.vertexArrays) {
+			gl.glBindVertexArray(this.getVertexArray(attributeLocations));
+		} else {
+			this.bindAttributes(attributeLocations);
+		}
+
+		if (this.indexBuffer != -1) {
+			gl.glDrawElements(this.mode, this.numElements, this.indexType, 0);
+		} else {
+			gl.glDrawArrays(this.mode, 0, this.numElements);
+		}
+
+		GLValidation.check("SimpleBatch.draw");
+	}
 
+	/**
+	 * Draws "numInstances" instances of this SimpleBatch with whatever attributes are
+	 * bound. Used by InstancedBatch.
+	 */
+	void drawInstanced(int numInstances) {
+		GLBackend gl = GL.get();
 		if (this.indexBuffer != -1) {
-			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
-			glDrawElements(this.mode, this.numElements, GL_UNSIGNED_SHORT, 0);
+			gl.glDrawElementsInstanced(this.mode, this.numElements, this.indexType, 0, numInstances);
 		} else {
-			glDrawArrays(this.mode, 0, this.numElements);
+			gl.glDrawArraysInstanced(this.mode, 0, this.numElements, numInstances);
+		}
+		GLValidation.check("SimpleBatch.drawInstanced");
+	}
+
+	/**
+	 * Returns the vertex array object that binds this SimpleBatch to "attributeLocations",
+	 * recording a new one if no shader with the same attribute layout has drawn it yet.
+	 */
+	private int getVertexArray(Map<String, Integer> attributeLocations) {
+		// Shaders usually draw a batch many times in a row.
+		if (attributeLocations == this.lastLayout) {
+			return this.lastVertexArray;
+		}
+
+		GLBackend gl = GL.get();
+
+		int vertexArray = -1;
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			if (this.vertexArrayLayouts[i] == attributeLocations) {
+				vertexArray = this.vertexArrays[i];
+				break;
+			}
+		}
+
+		// Different shaders can share a vertex array if their attribute locations agree.
+		if (vertexArray == -1) {
+			int[] signature = this.getSignature(attributeLocations);
+			for (int i = 0; i < this.numVertexArrays; i++) {
+				if (Arrays.equals(this.vertexArraySignatures[i], signature)) {
+					vertexArray = this.vertexArrays[i];
+					break;
+				}
+			}
+
+			if (vertexArray == -1) {
+				vertexArray = gl.glGenVertexArrays();
+				gl.glBindVertexArray(vertexArray);
+				this.bindAttributes(attributeLocations);
+			}
+
+			if (this.numVertexArrays == this.vertexArrays.length) {
+				int capacity = Math.max(2, this.numVertexArrays * 2);
+				this.vertexArrays = Arrays.copyOf(this.vertexArrays, capacity);
+				this.vertexArrayLayouts = Arrays.copyOf(this.vertexArrayLayouts, capacity);
+				this.vertexArraySignatures = Arrays.copyOf(this.vertexArraySignatures, capacity);
+			}
+			this.vertexArrays[this.numVertexArrays] = vertexArray;
+			this.vertexArrayLayouts[this.numVertexArrays] = attributeLocations;
+			this.vertexArraySignatures[this.numVertexArrays++] = signature;
+		}
+
+		this.lastLayout = attributeLocations;
+		this.lastVertexArray = vertexArray;
+		return vertexArray;
+	}
+
+	/**
+	 * Returns the location in "attributeLocations" of every attribute of this
+	 * SimpleBatch, in order, with -1 for attributes the shader doesn't use.
+	 */
+	private int[] getSignature(Map<String, Integer> attributeLocations) {
+		int numAttributes = 0;
+		for (VertexFormat format : this.formats) {
+			numAttributes += format.getAttributes().length;
 		}
 
-		this.checkerror();
+		int[] signature = new int[numAttributes];
+		int i = 0;
+		for (VertexFormat format : this.formats) {
+			for (VertexFormat.Attribute attribute : format.getAttributes()) {
+				Integer inLocation = attributeLocations.get(attribute.getName());
+				signature[i++] = inLocation != null ? inLocation : -1;
+			}
+		}
+		return signature;
 	}
 
 	/**
-	 * Enables the buffer at "bufferID" for drawing. "inLocation" is the ID of the shader
-	 * variable this buffer will be sent to. "numOfComponents" is the number of components
-	 * per vertex for the specified buffer.
+	 * Deletes the OpenGL buffers and vertex arrays of this SimpleBatch. It can't be drawn
+	 * afterwards.
 	 */
-	private void bind(int bufferID, Integer inLocation, int numOfComponents) {
-		if ((bufferID != -1) && inLocation != null) {
-			glBindBuffer(GL_ARRAY_BUFFER, bufferID);
-			glVertexAttribPointer(inLocation, numOfComponents, GL_FLOAT, false, numOfComponents * 4, 0);
-			glEnableVertexAttribArray(inLocation);
-			this.checkerror();
+	public void cleanup() {
+		GLBackend gl = GL.get();
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			if (this.vertexArrays[i] == this.lastVertexArray) {
+				gl.glBindVertexArray(0);
+			}
+			gl.glDeleteVertexArrays(this.vertexArrays[i]);
+		}
+		this.numVertexArrays = 0;
+		this.lastLayout = null;
+
+		for (int vertexBuffer : this.vertexBuffers) {
+			gl.glDeleteBuffers(vertexBuffer);
+		}
+		if (this.indexBuffer != -1) {
+			gl.glDeleteBuffers(this.indexBuffer);
 		}
 	}
 
 	/**
-	 * Checks for OpenGL errors and prints them, if there are any.
+	 * Binds every vertex buffer of this SimpleBatch to "attributeLocations", and the index
+	 * buffer if there is one.
 	 */
-	private void checkerror() {
-		int error = glGetError();
-		if (error != 0) {
-			System.out.println("OpenGL error '" + error + "' occured!");
-			throw new RuntimeException("OpenGL error '" + error + "' occured!");
+	void bindAttributes(Map<String, Integer> attributeLocations) {
+		for (int i = 0; i < this.vertexBuffers.length; i++) {
+			bind(this.vertexBuffers[i], this.formats[i], attributeLocations);
+		}
+		if (this.indexBuffer != -1) {
+			GL.get().glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, this.indexBuffer);
 		}
 	}
 
+	/**
+	 * Enables the buffer at "bufferID" for drawing. Every attribute in "format" is sent
+	 * to the shader variable of the same name in "attributeLocations", if there is one.
+	 */
+	static void bind(int bufferID, VertexFormat format, Map<String, Integer> attributeLocations) {
+		GLBackend gl = GL.get();
+		gl.glBindBuffer(GL_ARRAY_BUFFER, bufferID);
+		for (VertexFormat.Attribute attribute : format.getAttributes()) {
+			Integer inLocation = attributeLocations.get(attribute.getName());
+			if (inLocation != null) {
+				gl.glVertexAttribPointer(inLocation, attribute.getComponents(), attribute.getType(), attribute.isNormalized(), format.getStride(),
+						attribute.getOffset());
+				gl.glEnableVertexAttribArray(inLocation);
+				GLValidation.check("SimpleBatch.bind");
+			}
+		}
+	}
+
+	/**
+	 * Sets the axis aligned box around this SimpleBatch's vertices, in its own coordinates.
+	 */
+	public void setBounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		this.boundsMin[0] = minX;
+		this.boundsMin[1] = minY;
+		this.boundsMin[2] = minZ;
+		this.boundsMax[0] = maxX;
+		this.boundsMax[1] = maxY;
+		this.boundsMax[2] = maxZ;
+		this.hasBounds = true;
+	}
+
+	/**
+	 * Returns whether this SimpleBatch can be visible in "frustum", whose planes must be in
+	 * this batch's coordinates (see Frustum.updatePlanes(GeometryTransform)). Batches
+	 * without bounds are always visible.
+	 */
+	public boolean isVisible(Frustum frustum) {
+		return !this.hasBounds
+				|| frustum.isBoxVisible(this.boundsMin[0], this.boundsMin[1], this.boundsMin[2], this.boundsMax[0], this.boundsMax[1], this.boundsMax[2]);
+	}
+
+	public boolean hasBounds() {
+		return this.hasBounds;
+	}
+
+	public float[] getBoundsMin() {
+		return this.boundsMin;
+	}
+
+	public float[] getBoundsMax() {
+		return this.boundsMax;
+	}
+
+	/**
+	 * Returns the radius of the sphere around the center of the bounds that contains them.
+	 */
+	public float getBoundingRadius() {
+		float x = this.boundsMax[0] - this.boundsMin[0];
+		float y = this.boundsMax[1] - this.boundsMin[1];
+		float z = this.boundsMax[2] - this.boundsMin[2];
+		return 0.5f * (float) Math.sqrt(x * x + y * y + z * z);
+	}
+
 	/**
 	 * Returns the OpenGL mode this SimpleBatch renders in (e.g. GL_TRIANGLES, GL_QUADS,
 	 * GL_LINES).
@@ -123,6 +420,22 @@ public class SimpleBatch implements Batch {
 		return this.mode;
 	}
 
+	/**
+	 * Returns the OpenGL type of this SimpleBatch's indices (GL_UNSIGNED_BYTE,
+	 * GL_UNSIGNED_SHORT or GL_UNSIGNED_INT), or -1 if it has no index buffer.
+	 */
+	public int getIndexType() {
+		return this.indexBuffer != -1 ? this.indexType : -1;
+	}
+
+	/**
+	 * Returns whether all vertex attributes of this SimpleBatch are stored in a single
+	 * interleaved buffer.
+	 */
+	public boolean isInterleaved() {
+		return (this.vertexBuffers.length == 1) && (this.formats[0].getAttributes().length > 1);
+	}
+
 	/**
 	 * Returns the number of attributes in every vertex for this SimpleBatch.
 	 */
@@ -0,0 +1,145 @@
+package com.doobs.modern.util.batch;
+
+import static org.lwjgl.opengl.GL15.*;
+
+import java.nio.*;
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
+/**
+ * A Batch whose vertices are rewritten every frame, stored in a StreamingBuffer. A frame
+ * looks like: begin(), put vertices laid out as the VertexFormat into the returned
+ * buffer, end(), draw() any number of times, then endFrame() after the last draw.
+ */
+public class StreamBatch implements Batch {
+	private int mode;
+	private VertexFormat format;
+	private int maxVertices;
+
+	private StreamingBuffer buffer;
+	private int numVertices = 0;
+
+	// Vertex array objects recorded for each attribute layout this batch was drawn with.
+	// Every frame's region starts at a whole vertex, so they stay valid.
+	private int[] vertexArrays = new int[0];
+	private Map<?, ?>[] vertexArrayLayouts = new Map<?, ?>[0];
+	private int numVertexArrays = 0;
+
+	/**
+	 * Creates a StreamBatch that draws up to "maxVertices" vertices laid out as "format"
+	 * per frame, using the OpenGL drawing "mode".
+	 */
+	public StreamBatch(int mode, VertexFormat format, int maxVertices) {
+		this.mode = mode;
+		this.format = format;
+		this.maxVertices = maxVertices;
+		this.buffer = new StreamingBuffer(GL_ARRAY_BUFFER, maxVertices * format.getStride());
+	}
+
+	/**
+	 * Starts a new frame and returns the buffer to put its vertices into. The vertices
+	 * written are the ones before the buffer's position when end() is called.
+	 */
+	public FloatBuffer begin() {
+		this.buffer.begin();
+		return this.buffer.getFloatBuffer();
+	}
+
+	/**
+	 * Finishes this frame's vertices.
+	 */
+	public void end() {
+		this.numVertices = (this.buffer.getFloatBuffer().position() * 4) / this.format.getStride();
+		this.buffer.end();
+	}
+
+	/**
+	 * Draws the vertices of the current frame.
+	 */
+	public void draw(Map<String, Integer> attributeLocations) {
+		if (this.numVertices == 0) {
+			return;
+		}
+
+		GLBackend gl = GL.get();
+		if (GLTools.vertexArrays) {
+			gl.glBindVertexArray(this.getVertexArray(attributeLocations));
+		} else {
+			SimpleBatch.bind(this.buffer.getBuffer(), this.format, attributeLocations);
+		}
+
+		// Draw from the start of the current region instead of moving the attributes.
+		gl.glDrawArrays(this.mode, this.buffer.getOffset() / this.format.getStride(), this.numVertices);
+		GLValidation.check("StreamBatch.draw");
+	}
+
+	/**
+	 * Fences the current frame's vertices. Call after its last draw.
+	 */
+	public void endFrame() {
+		this.buffer.fence();
+	}
+
+	private int getVertexArray(Map<String, Integer> attributeLocations) {
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			if (this.vertexArrayLayouts[i] == attributeLocations) {
+				return this.vertexArrays[i];
+			}
+		}
+
+		GLBackend gl = GL.get();
+		int vertexArray = gl.glGenVertexArrays();
+		gl.glBindVertexArray(vertexArray);
+		SimpleBatch.bind(this.buffer.getBuffer(), this.format, attributeLocations);
+
+		if (this.numVertexArrays == this.vertexArrays.length) {
+			int capacity = Math.max(2, this.numVertexArrays * 2);
+			this.vertexArrays = Arrays.copyOf(this.vertexArrays, capacity);
+			this.vertexArrayLayouts = Arrays.copyOf(this.vertexArrayLayouts, capacity);
+		}
+		this.vertexArrays[this.numVertexArrays] = vertexArray;
+		this.vertexArrayLayouts[this.numVertexArrays++] = attributeLocations;
+		return vertexArray;
+	}
+
+	/**
+	 * Deletes the StreamingBuffer and vertex arrays of this StreamBatch.
+	 */
+	public void cleanup() {
+		GLBackend gl = GL.get();
+		if (this.numVertexArrays > 0) {
+			gl.glBindVertexArray(0);
+		}
+		for (int i = 0; i < this.numVertexArrays; i++) {
+			gl.glDeleteVertexArrays(this.vertexArrays[i]);
+		}
+		this.numVertexArrays = 0;
+		this.buffer.cleanup();
+	}
+
+	// Getters
+	public int getMode() {
+		return this.mode;
+	}
+
+	public VertexFormat getFormat() {
+		return this.format;
+	}
+
+	public int getMaxVertices() {
+		return this.maxVertices;
+	}
+
+	/**
+	 * Returns the number of vertices written in the current frame.
+	 */
+	public int getNumVertices() {
+		return this.numVertices;
+	}
+
+	public StreamingBuffer getStreamingBuffer() {
+		return this.buffer;
+	}
+}
@@ -0,0 +1,235 @@
+package com.doobs.modern.util.batch;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+
+import java.nio.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
+/**
+ * A buffer for data that is rewritten every frame, like particles or debug lines. Each
+ * frame writes up to getFrameSize() bytes straight into mapped buffer memory between
+ * begin() and end(), so nothing is copied and no OpenGL buffer is allocated after
+ * creation.
+ *
+ * The buffer keeps one region per frame in flight, and a region is only written again
+ * once the fence placed by fence() at the end of its frame has passed. How that works
+ * depends on what the context supports (see Mode).
+ */
+public class StreamingBuffer {
+	public enum Mode {
+		// The whole buffer stays mapped (OpenGL 4.4 or ARB_buffer_storage).
+		PERSISTENT,
+		// Each frame maps its own region without synchronizing. Fences keep it safe.
+		UNSYNCHRONIZED,
+		// Each frame orphans the buffer and maps the new storage. For contexts without
+		// fences. There's only one region, and the driver keeps the old storage alive.
+		ORPHANING
+	}
+
+	private static final int DEFAULT_FRAMES = 3;
+
+	// How long to wait for a region that is still in use, in nanoseconds.
+	private static final long WAIT_TIMEOUT = 1000000000L;
+
+	private int target;
+	private int buffer;
+	private int frameSize;
+	private int numFrames;
+	private Mode mode;
+
+	// Views of each region. For a persistently mapped buffer they're made once. Otherwise
+	// they're the last mapping of the region, which OpenGL hands back while the region maps
+	// to the same memory, so the views don't have to be made again.
+	private ByteBuffer[] regions;
+	private FloatBuffer[] regionFloats;
+
+	private ByteBuffer current;
+	private FloatBuffer currentFloats;
+	private boolean mapped = false;
+
+	private long[] fences;
+	private int frame = 0;
+
+	private int numStalls = 0;
+
+	/**
+	 * Creates a StreamingBuffer for "target" (e.g. GL_ARRAY_BUFFER) with "frameSize" bytes
+	 * per frame and three frames in flight.
+	 */
+	public StreamingBuffer(int target, int frameSize) {
+		this(target, frameSize, DEFAULT_FRAMES);
+	}
+
+	/**
+	 * Creates a StreamingBuffer for "target" with "frameSize" bytes per frame and
+	 * "numFrames" frames in flight.
+	 */
+	public StreamingBuffer(int target, int frameSize, int numFrames) {
+		GLBackend gl = GL.get();
+		this.target = target;
+		this.frameSize = frameSize;
+
+		if (gl.isVersionSupported(4, 4) || gl.isExtensionSupported("GL_ARB_buffer_storage")) {
+			this.mode = Mode.PERSISTENT;
+		} else if (gl.isVersionSupported(3, 2) || gl.isExtensionSupported("GL_ARB_sync")) {
+			this.mode = Mode.UNSYNCHRONIZED;
+		} else {
+			this.mode = Mode.ORPHANING;
+			numFrames = 1;
+		}
+		this.numFrames = numFrames;
+		this.fences = new long[numFrames];
+
+		this.regions = new ByteBuffer[numFrames];
+		this.regionFloats = new FloatBuffer[numFrames];
+
+		this.buffer = gl.glGenBuffers();
+		this.bind();
+		long size = (long) frameSize * numFrames;
+		if (this.mode == Mode.PERSISTENT) {
+			int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+			gl.glBufferStorage(target, size, flags);
+			ByteBuffer mapped = gl.glMapBufferRange(target, 0, size, flags, null);
+
+			for (int i = 0; i < numFrames; i++) {
+				mapped.limit((i + 1) * frameSize);
+				mapped.position(i * frameSize);
+				this.regions[i] = mapped.slice().order(ByteOrder.nativeOrder());
+				this.regionFloats[i] = this.regions[i].asFloatBuffer();
+			}
+		} else {
+			gl.glBufferData(target, size, GL_STREAM_DRAW);
+		}
+		GLValidation.check("StreamingBuffer");
+	}
+
+	/**
+	 * Moves on to the next region and returns a view of it to write this frame's data
+	 * to, starting at position 0. Only waits if the GPU is still reading the region,
+	 * which is counted in getNumStalls().
+	 */
+	public ByteBuffer begin() {
+		GLBackend gl = GL.get();
+		this.frame = (this.frame + 1) % this.numFrames;
+
+		long fence = this.fences[this.frame];
+		if (fence != 0) {
+			if (gl.glClientWaitSync(fence, 0, 0) == GL_TIMEOUT_EXPIRED) {
+				this.numStalls++;
+				gl.glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+			}
+			gl.glDeleteSync(fence);
+			this.fences[this.frame] = 0;
+		}
+
+		if (this.mode != Mode.PERSISTENT) {
+			this.bind();
+			ByteBuffer old = this.regions[this.frame], mapped;
+			if (this.mode == Mode.UNSYNCHRONIZED) {
+				int access = GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_UNSYNCHRONIZED_BIT;
+				mapped = gl.glMapBufferRange(this.target, this.getOffset(), this.frameSize, access, old);
+			} else {
+				gl.glBufferData(this.target, this.frameSize, GL_STREAM_DRAW);
+				mapped = gl.glMapBufferRange(this.target, 0, this.frameSize, GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT, old);
+			}
+			if (mapped != old) {
+				this.regions[this.frame] = mapped.order(ByteOrder.nativeOrder());
+				this.regionFloats[this.frame] = mapped.asFloatBuffer();
+			}
+			this.mapped = true;
+		}
+		this.current = this.regions[this.frame];
+		this.currentFloats = this.regionFloats[this.frame];
+
+		this.current.clear();
+		this.currentFloats.clear();
+		return this.current;
+	}
+
+	/**
+	 * Returns a float view of the region returned by the last begin(). Its position is
+	 * independent of the byte view's.
+	 */
+	public FloatBuffer getFloatBuffer() {
+		return this.currentFloats;
+	}
+
+	/**
+	 * Finishes writing this frame's data. It can be drawn afterwards.
+	 */
+	public void end() {
+		if (this.mapped) {
+			this.bind();
+			GL.get().glUnmapBuffer(this.target);
+			this.mapped = false;
+			GLValidation.check("StreamingBuffer.end");
+		}
+	}
+
+	/**
+	 * Fences this frame's region. Call after the last draw that reads it.
+	 */
+	public void fence() {
+		if (this.mode != Mode.ORPHANING) {
+			this.fences[this.frame] = GL.get().glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		}
+	}
+
+	private void bind() {
+		GLBackend gl = GL.get();
+		if ((this.target == GL_ELEMENT_ARRAY_BUFFER) && GLTools.vertexArrays) {
+			gl.glBindVertexArray(0);
+		}
+		gl.glBindBuffer(this.target, this.buffer);
+	}
+
+	public void cleanup() {
+		GLBackend gl = GL.get();
+		for (int i = 0; i < this.numFrames; i++) {
+			if (this.fences[i] != 0) {
+				gl.glDeleteSync(this.fences[i]);
+				this.fences[i] = 0;
+			}
+		}
+		if (this.mapped || (this.mode == Mode.PERSISTENT)) {
+			this.bind();
+			gl.glUnmapBuffer(this.target);
+		}
+		gl.glDeleteBuffers(this.buffer);
+	}
+
+	// Getters
+	public int getBuffer() {
+		return this.buffer;
+	}
+
+	/**
+	 * Returns the byte offset of the current frame's region within the buffer.
+	 */
+	public int getOffset() {
+		return this.frame * this.frameSize;
+	}
+
+	/**
+	 * Returns the number of bytes each frame can write.
+	 */
+	public int getFrameSize() {
+		return this.frameSize;
+	}
+
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * Returns how many times begin() had to wait for the GPU.
+	 */
+	public int getNumStalls() {
+		return this.numStalls;
+	}
+}
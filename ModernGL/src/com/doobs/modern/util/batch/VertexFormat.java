@@ -0,0 +1,134 @@
+package com.doobs.modern.util.batch;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import java.util.*;
+
+/**
+ * Describes how the attributes of one vertex are laid out in a single buffer. Attributes
+ * are packed in the order they are added, so every vertex takes up getStride() bytes.
+ */
+public class VertexFormat {
+	/**
+	 * One vertex attribute within a VertexFormat.
+	 */
+	public static class Attribute {
+		private final String name;
+		private final int components;
+		private final int type;
+		private final boolean normalized;
+		private final int offset;
+
+		private Attribute(String name, int components, int type, boolean normalized, int offset) {
+			this.name = name;
+			this.components = components;
+			this.type = type;
+			this.normalized = normalized;
+			this.offset = offset;
+		}
+
+		/**
+		 * Returns the name of the shader input this Attribute feeds.
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * Returns the number of components (1 - 4) in this Attribute.
+		 */
+		public int getComponents() {
+			return this.components;
+		}
+
+		/**
+		 * Returns the OpenGL type of each component (e.g. GL_FLOAT, GL_UNSIGNED_BYTE).
+		 */
+		public int getType() {
+			return this.type;
+		}
+
+		/**
+		 * Returns whether integer components are normalized to [0, 1] or [-1, 1].
+		 */
+		public boolean isNormalized() {
+			return this.normalized;
+		}
+
+		/**
+		 * Returns the offset of this Attribute from the start of a vertex, in bytes.
+		 */
+		public int getOffset() {
+			return this.offset;
+		}
+	}
+
+	private Attribute[] attributes = new Attribute[0];
+	private int stride = 0;
+
+	/**
+	 * Appends a float attribute called "name" with "components" components, then returns
+	 * this VertexFormat.
+	 */
+	public VertexFormat add(String name, int components) {
+		return this.add(name, components, GL_FLOAT, false);
+	}
+
+	/**
+	 * Appends an attribute called "name" with "components" components of OpenGL "type",
+	 * then returns this VertexFormat.
+	 */
+	public VertexFormat add(String name, int components, int type, boolean normalized) {
+		this.attributes = Arrays.copyOf(this.attributes, this.attributes.length + 1);
+		this.attributes[this.attributes.length - 1] = new Attribute(name, components, type, normalized, this.stride);
+
+		// Keep every attribute 4-byte aligned.
+		this.stride += ((components * getSize(type)) + 3) & ~3;
+		return this;
+	}
+
+	/**
+	 * Returns the attribute called "name", or null if this VertexFormat doesn't have one.
+	 */
+	public Attribute getAttribute(String name) {
+		for (Attribute attribute : this.attributes) {
+			if (attribute.name.equals(name)) {
+				return attribute;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the attributes of this VertexFormat in the order they are laid out. The
+	 * array must not be modified.
+	 */
+	public Attribute[] getAttributes() {
+		return this.attributes;
+	}
+
+	/**
+	 * Returns the size of one vertex, in bytes.
+	 */
+	public int getStride() {
+		return this.stride;
+	}
+
+	/**
+	 * Returns the size of one component of OpenGL "type", in bytes.
+	 */
+	public static int getSize(int type) {
+		switch (type) {
+		case GL_BYTE:
+		case GL_UNSIGNED_BYTE:
+			return 1;
+		case GL_SHORT:
+		case GL_UNSIGNED_SHORT:
+			return 2;
+		case GL_DOUBLE:
+			return 8;
+		default:
+			return 4;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.doobs.modern.util.gl;
+
+/**
+ * Holds the GLBackend every class in the library sends its OpenGL calls to. Defaults to
+ * LWJGL behind a StateCache; tests and benchmarks without a display can set a
+ * HeadlessBackend instead.
+ */
+public class GL {
+	private static GLBackend backend = new StateCache(new LWJGLBackend());
+
+	public static GLBackend get() {
+		return backend;
+	}
+
+	/**
+	 * Makes "backend" the current backend. Must be called before any GL objects are
+	 * created.
+	 */
+	public static void set(GLBackend backend) {
+		GL.backend = backend;
+	}
+
+	/**
+	 * Returns the StateCache of the current backend, or null if it isn't cached.
+	 */
+	public static StateCache getStateCache() {
+		return backend instanceof StateCache ? (StateCache) backend : null;
+	}
+
+	/**
+	 * Tells the current backend a frame has ended.
+	 */
+	public static void endFrame() {
+		if (backend instanceof StateCache) {
+			((StateCache) backend).endFrame();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.doobs.modern.util.gl;
+
+import java.nio.*;
+
+import org.lwjgl.opengl.*;
+
+/**
+ * The OpenGL calls made by the library. Methods are named and behave like their LWJGL
+ * counterparts, so the LWJGL documentation applies. See GL for the current backend.
+ */
+public interface GLBackend {
+	// Capabilities
+	/**
+	 * Returns whether the context supports OpenGL "major"."minor".
+	 */
+	public boolean isVersionSupported(int major, int minor);
+
+	/**
+	 * Returns whether the context supports the extension called "name" (e.g.
+	 * "GL_KHR_debug").
+	 */
+	public boolean isExtensionSupported(String name);
+
+	// State
+	public void glEnable(int cap);
+
+	public void glDisable(int cap);
+
+	public void glCullFace(int mode);
+
+	public void glBlendFunc(int sfactor, int dfactor);
+
+	public void glHint(int target, int mode);
+
+	public void glClearColor(float red, float green, float blue, float alpha);
+
+	public void glColor4f(float red, float green, float blue, float alpha);
+
+	public void glClear(int mask);
+
+	public void glViewport(int x, int y, int width, int height);
+
+	public int glGetError();
+
+	/**
+	 * Installs "handler" as the KHR_debug message callback, or removes the callback if
+	 * "handler" is null.
+	 */
+	public void glDebugMessageCallback(KHRDebugCallback.Handler handler);
+
+	public int glGetInteger(int pname);
+
+	// Buffers
+	public int glGenBuffers();
+
+	public void glDeleteBuffers(int buffer);
+
+	public void glBindBuffer(int target, int buffer);
+
+	public void glBufferData(int target, ByteBuffer data, int usage);
+
+	public void glBufferData(int target, ShortBuffer data, int usage);
+
+	public void glBufferData(int target, IntBuffer data, int usage);
+
+	public void glBufferData(int target, FloatBuffer data, int usage);
+
+	/**
+	 * Allocates "size" bytes of uninitialized storage for the buffer bound to "target".
+	 */
+	public void glBufferData(int target, long size, int usage);
+
+	public void glBufferSubData(int target, long offset, ByteBuffer data);
+
+	public void glBufferSubData(int target, long offset, FloatBuffer data);
+
+	public void glBufferSubData(int target, long offset, IntBuffer data);
+
+	public void glBindBufferBase(int target, int index, int buffer);
+
+	public void glBindBufferRange(int target, int index, int buffer, long offset, long size);
+
+	/**
+	 * Allocates "size" bytes of immutable storage for the buffer bound to "target".
+	 */
+	public void glBufferStorage(int target, long size, int flags);
+
+	/**
+	 * Maps "length" bytes of the buffer bound to "target", starting at "offset". The returned
+	 * buffer is in OpenGL's byte order, which may not be the native order. If "oldBuffer"
+	 * (which may be null) already points at the mapped memory, it is returned instead of a
+	 * new buffer.
+	 */
+	public ByteBuffer glMapBufferRange(int target, long offset, long length, int access, ByteBuffer oldBuffer);
+
+	public boolean glUnmapBuffer(int target);
+
+	// Vertex arrays
+	public int glGenVertexArrays();
+
+	public void glDeleteVertexArrays(int array);
+
+	public void glBindVertexArray(int array);
+
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset);
+
+	public void glEnableVertexAttribArray(int index);
+
+	public void glDisableVertexAttribArray(int index);
+
+	public void glVertexAttribDivisor(int index, int divisor);
+
+	// Drawing
+	public void glDrawArrays(int mode, int first, int count);
+
+	public void glDrawElements(int mode, int count, int type, long offset);
+
+	public void glDrawArraysInstanced(int mode, int first, int count, int primcount);
+
+	public void glDrawElementsInstanced(int mode, int count, int type, long offset, int primcount);
+
+	// Shaders
+	public int glCreateProgram();
+
+	public int glCreateShader(int type);
+
+	public void glShaderSource(int shader, CharSequence source);
+
+	public void glCompileShader(int shader);
+
+	public int glGetShaderi(int shader, int pname);
+
+	public String glGetShaderInfoLog(int shader, int maxLength);
+
+	public void glAttachShader(int program, int shader);
+
+	public void glLinkProgram(int program);
+
+	public void glValidateProgram(int program);
+
+	public int glGetProgrami(int program, int pname);
+
+	public String glGetActiveAttrib(int program, int index, int maxLength);
+
+	public int glGetAttribLocation(int program, CharSequence name);
+
+	public String glGetActiveUniform(int program, int index, int maxLength);
+
+	public int glGetUniformLocation(int program, CharSequence name);
+
+	public void glUseProgram(int program);
+
+	public void glDeleteProgram(int program);
+
+	public void glDeleteShader(int shader);
+
+	public int glGetUniformBlockIndex(int program, CharSequence name);
+
+	public void glUniformBlockBinding(int program, int index, int binding);
+
+	// Uniforms
+	public void glUniform1i(int location, int v0);
+
+	public void glUniform3f(int location, float v0, float v1, float v2);
+
+	public void glUniform4f(int location, float v0, float v1, float v2, float v3);
+
+	public void glUniformMatrix3(int location, boolean transpose, FloatBuffer matrices);
+
+	public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices);
+
+	// Textures
+	public int glGenTextures();
+
+	public void glActiveTexture(int texture);
+
+	public void glBindTexture(int target, int texture);
+
+	public void glTexParameteri(int target, int pname, int param);
+
+	public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels);
+
+	// Sync objects
+	/**
+	 * Inserts a fence and returns a handle for it. Handles are never 0.
+	 */
+	public long glFenceSync(int condition, int flags);
+
+	public int glClientWaitSync(long sync, int flags, long timeout);
+
+	public void glDeleteSync(long sync);
+}
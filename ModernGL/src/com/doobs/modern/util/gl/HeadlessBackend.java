@@ -0,0 +1,545 @@
+package com.doobs.modern.util.gl;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+
+import java.nio.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.lwjgl.*;
+import org.lwjgl.opengl.*;
+
+/**
+ * A GLBackend that needs no display or GPU. It hands out object IDs, fakes shader
+ * introspection by scanning the GLSL source for inputs and uniforms, and counts the calls
+ * it receives. Used to test and benchmark the CPU side of rendering.
+ */
+public class HeadlessBackend implements GLBackend {
+	private static final Pattern IN_PATTERN = Pattern.compile("\\bin\\s+\\w+\\s+(\\w+)\\s*;");
+	private static final Pattern UNIFORM_PATTERN = Pattern.compile("\\buniform\\s+\\w+\\s+(\\w+)\\s*;");
+	private static final Pattern BLOCK_PATTERN = Pattern.compile("\\buniform\\s+(\\w+)\\s*\\{");
+
+	private int majorVersion, minorVersion;
+	private Set<String> extensions = new HashSet<String>();
+
+	private int nextID = 1;
+
+	// Shader sources by shader ID, and shaders attached to each program.
+	private Map<Integer, String> shaderSources = new HashMap<Integer, String>();
+	private Map<Integer, List<Integer>> programShaders = new HashMap<Integer, List<Integer>>();
+
+	// Active attributes, uniforms and uniform blocks of each linked program. Locations and
+	// block indices are list indices.
+	private Map<Integer, List<String>> programAttributes = new HashMap<Integer, List<String>>();
+	private Map<Integer, List<String>> programUniforms = new HashMap<Integer, List<String>>();
+	private Map<Integer, List<String>> programBlocks = new HashMap<Integer, List<String>>();
+
+	private boolean recording = false;
+	private List<String> calls = new ArrayList<String>();
+
+	private long numCalls;
+	private long numDrawCalls;
+	private long numBufferBinds;
+	private long numVertexArrayBinds;
+	private long numTextureBinds;
+	private long numProgramBinds;
+	private long numUniformUploads;
+	private long uploadedBytes;
+
+	/**
+	 * Creates a HeadlessBackend that claims to support OpenGL 4.4.
+	 */
+	public HeadlessBackend() {
+		this(4, 4);
+	}
+
+	/**
+	 * Creates a HeadlessBackend that claims to support OpenGL "major"."minor" and no
+	 * extensions.
+	 */
+	public HeadlessBackend(int major, int minor) {
+		this.majorVersion = major;
+		this.minorVersion = minor;
+	}
+
+	/**
+	 * Makes this HeadlessBackend claim support for the extension called "name".
+	 */
+	public void addExtension(String name) {
+		this.extensions.add(name);
+	}
+
+	/**
+	 * Sets whether the name of every call is kept (see getCalls()).
+	 */
+	public void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	/**
+	 * Returns the names of the calls received while recording, in order.
+	 */
+	public List<String> getCalls() {
+		return this.calls;
+	}
+
+	/**
+	 * Resets all counters and forgets the recorded calls.
+	 */
+	public void reset() {
+		this.calls.clear();
+		this.numCalls = 0;
+		this.numDrawCalls = 0;
+		this.numBufferBinds = 0;
+		this.numVertexArrayBinds = 0;
+		this.numTextureBinds = 0;
+		this.numProgramBinds = 0;
+		this.numUniformUploads = 0;
+		this.uploadedBytes = 0;
+	}
+
+	private void record(String call) {
+		this.numCalls++;
+		if (this.recording) {
+			this.calls.add(call);
+		}
+	}
+
+	// Counters
+	public long getNumCalls() {
+		return this.numCalls;
+	}
+
+	public long getNumDrawCalls() {
+		return this.numDrawCalls;
+	}
+
+	public long getNumBufferBinds() {
+		return this.numBufferBinds;
+	}
+
+	public long getNumVertexArrayBinds() {
+		return this.numVertexArrayBinds;
+	}
+
+	public long getNumTextureBinds() {
+		return this.numTextureBinds;
+	}
+
+	public long getNumProgramBinds() {
+		return this.numProgramBinds;
+	}
+
+	public long getNumUniformUploads() {
+		return this.numUniformUploads;
+	}
+
+	/**
+	 * Returns the number of bytes uploaded to buffers and textures.
+	 */
+	public long getUploadedBytes() {
+		return this.uploadedBytes;
+	}
+
+	// Capabilities
+	public boolean isVersionSupported(int major, int minor) {
+		return (major < this.majorVersion) || ((major == this.majorVersion) && (minor <= this.minorVersion));
+	}
+
+	public boolean isExtensionSupported(String name) {
+		return this.extensions.contains(name);
+	}
+
+	// State
+	public void glEnable(int cap) {
+		this.record("glEnable");
+	}
+
+	public void glDisable(int cap) {
+		this.record("glDisable");
+	}
+
+	public void glCullFace(int mode) {
+		this.record("glCullFace");
+	}
+
+	public void glBlendFunc(int sfactor, int dfactor) {
+		this.record("glBlendFunc");
+	}
+
+	public void glHint(int target, int mode) {
+		this.record("glHint");
+	}
+
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		this.record("glClearColor");
+	}
+
+	public void glColor4f(float red, float green, float blue, float alpha) {
+		this.record("glColor4f");
+	}
+
+	public void glClear(int mask) {
+		this.record("glClear");
+	}
+
+	public void glViewport(int x, int y, int width, int height) {
+		this.record("glViewport");
+	}
+
+	public int glGetError() {
+		this.record("glGetError");
+		return GL_NO_ERROR;
+	}
+
+	public void glDebugMessageCallback(KHRDebugCallback.Handler handler) {
+		this.record("glDebugMessageCallback");
+	}
+
+	public int glGetInteger(int pname) {
+		this.record("glGetInteger");
+		switch (pname) {
+		case GL31.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT:
+			return 256;
+		default:
+			return 0;
+		}
+	}
+
+	// Buffers
+	public int glGenBuffers() {
+		this.record("glGenBuffers");
+		return this.nextID++;
+	}
+
+	public void glDeleteBuffers(int buffer) {
+		this.record("glDeleteBuffers");
+	}
+
+	public void glBindBuffer(int target, int buffer) {
+		this.record("glBindBuffer");
+		this.numBufferBinds++;
+	}
+
+	public void glBufferData(int target, ByteBuffer data, int usage) {
+		this.record("glBufferData");
+		this.uploadedBytes += data.remaining();
+	}
+
+	public void glBufferData(int target, ShortBuffer data, int usage) {
+		this.record("glBufferData");
+		this.uploadedBytes += data.remaining() * 2;
+	}
+
+	public void glBufferData(int target, IntBuffer data, int usage) {
+		this.record("glBufferData");
+		this.uploadedBytes += data.remaining() * 4;
+	}
+
+	public void glBufferData(int target, FloatBuffer data, int usage) {
+		this.record("glBufferData");
+		this.uploadedBytes += data.remaining() * 4;
+	}
+
+	public void glBufferData(int target, long size, int usage) {
+		this.record("glBufferData");
+	}
+
+	public void glBufferSubData(int target, long offset, ByteBuffer data) {
+		this.record("glBufferSubData");
+		this.uploadedBytes += data.remaining();
+	}
+
+	public void glBufferSubData(int target, long offset, FloatBuffer data) {
+		this.record("glBufferSubData");
+		this.uploadedBytes += data.remaining() * 4;
+	}
+
+	public void glBufferSubData(int target, long offset, IntBuffer data) {
+		this.record("glBufferSubData");
+		this.uploadedBytes += data.remaining() * 4;
+	}
+
+	public void glBindBufferBase(int target, int index, int buffer) {
+		this.record("glBindBufferBase");
+		this.numBufferBinds++;
+	}
+
+	public void glBindBufferRange(int target, int index, int buffer, long offset, long size) {
+		this.record("glBindBufferRange");
+		this.numBufferBinds++;
+	}
+
+	public void glBufferStorage(int target, long size, int flags) {
+		this.record("glBufferStorage");
+	}
+
+	public ByteBuffer glMapBufferRange(int target, long offset, long length, int access, ByteBuffer oldBuffer) {
+		this.record("glMapBufferRange");
+		if ((oldBuffer != null) && (oldBuffer.capacity() == length)) {
+			return oldBuffer;
+		}
+		return BufferUtils.createByteBuffer((int) length);
+	}
+
+	public boolean glUnmapBuffer(int target) {
+		this.record("glUnmapBuffer");
+		return true;
+	}
+
+	// Vertex arrays
+	public int glGenVertexArrays() {
+		this.record("glGenVertexArrays");
+		return this.nextID++;
+	}
+
+	public void glDeleteVertexArrays(int array) {
+		this.record("glDeleteVertexArrays");
+	}
+
+	public void glBindVertexArray(int array) {
+		this.record("glBindVertexArray");
+		this.numVertexArrayBinds++;
+	}
+
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		this.record("glVertexAttribPointer");
+	}
+
+	public void glEnableVertexAttribArray(int index) {
+		this.record("glEnableVertexAttribArray");
+	}
+
+	public void glDisableVertexAttribArray(int index) {
+		this.record("glDisableVertexAttribArray");
+	}
+
+	public void glVertexAttribDivisor(int index, int divisor) {
+		this.record("glVertexAttribDivisor");
+	}
+
+	// Drawing
+	public void glDrawArrays(int mode, int first, int count) {
+		this.record("glDrawArrays");
+		this.numDrawCalls++;
+	}
+
+	public void glDrawElements(int mode, int count, int type, long offset) {
+		this.record("glDrawElements");
+		this.numDrawCalls++;
+	}
+
+	public void glDrawArraysInstanced(int mode, int first, int count, int primcount) {
+		this.record("glDrawArraysInstanced");
+		this.numDrawCalls++;
+	}
+
+	public void glDrawElementsInstanced(int mode, int count, int type, long offset, int primcount) {
+		this.record("glDrawElementsInstanced");
+		this.numDrawCalls++;
+	}
+
+	// Shaders
+	public int glCreateProgram() {
+		this.record("glCreateProgram");
+		int program = this.nextID++;
+		this.programShaders.put(program, new ArrayList<Integer>());
+		return program;
+	}
+
+	public int glCreateShader(int type) {
+		this.record("glCreateShader");
+		return this.nextID++;
+	}
+
+	public void glShaderSource(int shader, CharSequence source) {
+		this.record("glShaderSource");
+		this.shaderSources.put(shader, source.toString());
+	}
+
+	public void glCompileShader(int shader) {
+		this.record("glCompileShader");
+	}
+
+	public int glGetShaderi(int shader, int pname) {
+		this.record("glGetShaderi");
+		return GL_TRUE;
+	}
+
+	public String glGetShaderInfoLog(int shader, int maxLength) {
+		this.record("glGetShaderInfoLog");
+		return "";
+	}
+
+	public void glAttachShader(int program, int shader) {
+		this.record("glAttachShader");
+		this.programShaders.get(program).add(shader);
+	}
+
+	public void glLinkProgram(int program) {
+		this.record("glLinkProgram");
+
+		// Only vertex shader inputs are attributes. Fragment shaders declare their inputs
+		// after the uniforms, so the first shader attached is assumed to be the vertex
+		// shader.
+		List<String> attributes = new ArrayList<String>();
+		List<String> uniforms = new ArrayList<String>();
+		List<String> blocks = new ArrayList<String>();
+		List<Integer> shaders = this.programShaders.get(program);
+		for (int i = 0; i < shaders.size(); i++) {
+			String source = this.shaderSources.get(shaders.get(i));
+			if (i == 0) {
+				addMatches(attributes, IN_PATTERN, source);
+			}
+			addMatches(uniforms, UNIFORM_PATTERN, source);
+			addMatches(blocks, BLOCK_PATTERN, source);
+		}
+		this.programAttributes.put(program, attributes);
+		this.programUniforms.put(program, uniforms);
+		this.programBlocks.put(program, blocks);
+	}
+
+	private static void addMatches(List<String> names, Pattern pattern, String source) {
+		Matcher matcher = pattern.matcher(source);
+		while (matcher.find()) {
+			if (!names.contains(matcher.group(1))) {
+				names.add(matcher.group(1));
+			}
+		}
+	}
+
+	public void glValidateProgram(int program) {
+		this.record("glValidateProgram");
+	}
+
+	public int glGetProgrami(int program, int pname) {
+		this.record("glGetProgrami");
+		switch (pname) {
+		case GL_ACTIVE_ATTRIBUTES:
+			return this.programAttributes.get(program).size();
+		case GL_ACTIVE_UNIFORMS:
+			return this.programUniforms.get(program).size();
+		case GL_ACTIVE_ATTRIBUTE_MAX_LENGTH:
+		case GL_ACTIVE_UNIFORM_MAX_LENGTH:
+			return 256;
+		default:
+			return GL_TRUE;
+		}
+	}
+
+	public String glGetActiveAttrib(int program, int index, int maxLength) {
+		this.record("glGetActiveAttrib");
+		return this.programAttributes.get(program).get(index);
+	}
+
+	public int glGetAttribLocation(int program, CharSequence name) {
+		this.record("glGetAttribLocation");
+		return this.programAttributes.get(program).indexOf(name.toString());
+	}
+
+	public String glGetActiveUniform(int program, int index, int maxLength) {
+		this.record("glGetActiveUniform");
+		return this.programUniforms.get(program).get(index);
+	}
+
+	public int glGetUniformLocation(int program, CharSequence name) {
+		this.record("glGetUniformLocation");
+		return this.programUniforms.get(program).indexOf(name.toString());
+	}
+
+	public void glUseProgram(int program) {
+		this.record("glUseProgram");
+		this.numProgramBinds++;
+	}
+
+	public void glDeleteProgram(int program) {
+		this.record("glDeleteProgram");
+		this.programShaders.remove(program);
+		this.programAttributes.remove(program);
+		this.programUniforms.remove(program);
+		this.programBlocks.remove(program);
+	}
+
+	public void glDeleteShader(int shader) {
+		this.record("glDeleteShader");
+		this.shaderSources.remove(shader);
+	}
+
+	public int glGetUniformBlockIndex(int program, CharSequence name) {
+		this.record("glGetUniformBlockIndex");
+		int index = this.programBlocks.get(program).indexOf(name.toString());
+		return (index == -1) ? GL31.GL_INVALID_INDEX : index;
+	}
+
+	public void glUniformBlockBinding(int program, int index, int binding) {
+		this.record("glUniformBlockBinding");
+	}
+
+	// Uniforms
+	public void glUniform1i(int location, int v0) {
+		this.record("glUniform1i");
+		this.numUniformUploads++;
+	}
+
+	public void glUniform3f(int location, float v0, float v1, float v2) {
+		this.record("glUniform3f");
+		this.numUniformUploads++;
+	}
+
+	public void glUniform4f(int location, float v0, float v1, float v2, float v3) {
+		this.record("glUniform4f");
+		this.numUniformUploads++;
+	}
+
+	public void glUniformMatrix3(int location, boolean transpose, FloatBuffer matrices) {
+		this.record("glUniformMatrix3");
+		this.numUniformUploads++;
+	}
+
+	public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices) {
+		this.record("glUniformMatrix4");
+		this.numUniformUploads++;
+	}
+
+	// Textures
+	public int glGenTextures() {
+		this.record("glGenTextures");
+		return this.nextID++;
+	}
+
+	public void glActiveTexture(int texture) {
+		this.record("glActiveTexture");
+	}
+
+	public void glBindTexture(int target, int texture) {
+		this.record("glBindTexture");
+		this.numTextureBinds++;
+	}
+
+	public void glTexParameteri(int target, int pname, int param) {
+		this.record("glTexParameteri");
+	}
+
+	public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+		this.record("glTexImage2D");
+		if (pixels != null) {
+			this.uploadedBytes += pixels.remaining();
+		}
+	}
+
+	// Sync objects
+	public long glFenceSync(int condition, int flags) {
+		this.record("glFenceSync");
+		return this.nextID++;
+	}
+
+	public int glClientWaitSync(long sync, int flags, long timeout) {
+		this.record("glClientWaitSync");
+		return GL32.GL_ALREADY_SIGNALED;
+	}
+
+	public void glDeleteSync(long sync) {
+		this.record("glDeleteSync");
+	}
+}
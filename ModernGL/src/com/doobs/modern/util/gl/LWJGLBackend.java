@@ -0,0 +1,372 @@
+package com.doobs.modern.util.gl;
+
+import java.nio.*;
+
+import org.lwjgl.opengl.*;
+
+/**
+ * Sends every call straight to LWJGL and the current OpenGL context.
+ */
+public class LWJGLBackend implements GLBackend {
+	// GLSync objects can't be created from a handle, so fences are handed out as handles
+	// into this ring, at the handle modulo its length. It grows when a slot is still taken.
+	private GLSync[] syncs = new GLSync[16];
+	private long[] syncHandles = new long[16];
+	private long nextSync = 1;
+
+	// Capabilities
+	public boolean isVersionSupported(int major, int minor) {
+		return this.getCapability("OpenGL" + major + minor);
+	}
+
+	public boolean isExtensionSupported(String name) {
+		return this.getCapability(name);
+	}
+
+	/**
+	 * Returns the ContextCapabilities flag called "name", or false if there's no such
+	 * flag.
+	 */
+	private boolean getCapability(String name) {
+		try {
+			return ContextCapabilities.class.getField(name).getBoolean(GLContext.getCapabilities());
+		} catch (NoSuchFieldException e) {
+			return false;
+		} catch (IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	// State
+	public void glEnable(int cap) {
+		GL11.glEnable(cap);
+	}
+
+	public void glDisable(int cap) {
+		GL11.glDisable(cap);
+	}
+
+	public void glCullFace(int mode) {
+		GL11.glCullFace(mode);
+	}
+
+	public void glBlendFunc(int sfactor, int dfactor) {
+		GL11.glBlendFunc(sfactor, dfactor);
+	}
+
+	public void glHint(int target, int mode) {
+		GL11.glHint(target, mode);
+	}
+
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		GL11.glClearColor(red, green, blue, alpha);
+	}
+
+	public void glColor4f(float red, float green, float blue, float alpha) {
+		GL11.glColor4f(red, green, blue, alpha);
+	}
+
+	public void glClear(int mask) {
+		GL11.glClear(mask);
+	}
+
+	public void glViewport(int x, int y, int width, int height) {
+		GL11.glViewport(x, y, width, height);
+	}
+
+	public int glGetError() {
+		return GL11.glGetError();
+	}
+
+	public void glDebugMessageCallback(KHRDebugCallback.Handler handler) {
+		KHRDebug.glDebugMessageCallback(handler != null ? new KHRDebugCallback(handler) : null);
+	}
+
+	public int glGetInteger(int pname) {
+		return GL11.glGetInteger(pname);
+	}
+
+	// Buffers
+	public int glGenBuffers() {
+		return GL15.glGenBuffers();
+	}
+
+	public void glDeleteBuffers(int buffer) {
+		GL15.glDeleteBuffers(buffer);
+	}
+
+	public void glBindBuffer(int target, int buffer) {
+		GL15.glBindBuffer(target, buffer);
+	}
+
+	public void glBufferData(int target, ByteBuffer data, int usage) {
+		GL15.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, ShortBuffer data, int usage) {
+		GL15.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, IntBuffer data, int usage) {
+		GL15.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, FloatBuffer data, int usage) {
+		GL15.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, long size, int usage) {
+		GL15.glBufferData(target, size, usage);
+	}
+
+	public void glBufferSubData(int target, long offset, ByteBuffer data) {
+		GL15.glBufferSubData(target, offset, data);
+	}
+
+	public void glBufferSubData(int target, long offset, FloatBuffer data) {
+		GL15.glBufferSubData(target, offset, data);
+	}
+
+	public void glBufferSubData(int target, long offset, IntBuffer data) {
+		GL15.glBufferSubData(target, offset, data);
+	}
+
+	public void glBindBufferBase(int target, int index, int buffer) {
+		GL30.glBindBufferBase(target, index, buffer);
+	}
+
+	public void glBindBufferRange(int target, int index, int buffer, long offset, long size) {
+		GL30.glBindBufferRange(target, index, buffer, offset, size);
+	}
+
+	public void glBufferStorage(int target, long size, int flags) {
+		GL44.glBufferStorage(target, size, flags);
+	}
+
+	public ByteBuffer glMapBufferRange(int target, long offset, long length, int access, ByteBuffer oldBuffer) {
+		return GL30.glMapBufferRange(target, offset, length, access, oldBuffer);
+	}
+
+	public boolean glUnmapBuffer(int target) {
+		return GL15.glUnmapBuffer(target);
+	}
+
+	// Vertex arrays
+	public int glGenVertexArrays() {
+		return GL30.glGenVertexArrays();
+	}
+
+	public void glDeleteVertexArrays(int array) {
+		GL30.glDeleteVertexArrays(array);
+	}
+
+	public void glBindVertexArray(int array) {
+		GL30.glBindVertexArray(array);
+	}
+
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		GL20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+	}
+
+	public void glEnableVertexAttribArray(int index) {
+		GL20.glEnableVertexAttribArray(index);
+	}
+
+	public void glDisableVertexAttribArray(int index) {
+		GL20.glDisableVertexAttribArray(index);
+	}
+
+	public void glVertexAttribDivisor(int index, int divisor) {
+		GL33.glVertexAttribDivisor(index, divisor);
+	}
+
+	// Drawing
+	public void glDrawArrays(int mode, int first, int count) {
+		GL11.glDrawArrays(mode, first, count);
+	}
+
+	public void glDrawElements(int mode, int count, int type, long offset) {
+		GL11.glDrawElements(mode, count, type, offset);
+	}
+
+	public void glDrawArraysInstanced(int mode, int first, int count, int primcount) {
+		GL31.glDrawArraysInstanced(mode, first, count, primcount);
+	}
+
+	public void glDrawElementsInstanced(int mode, int count, int type, long offset, int primcount) {
+		GL31.glDrawElementsInstanced(mode, count, type, offset, primcount);
+	}
+
+	// Shaders
+	public int glCreateProgram() {
+		return GL20.glCreateProgram();
+	}
+
+	public int glCreateShader(int type) {
+		return GL20.glCreateShader(type);
+	}
+
+	public void glShaderSource(int shader, CharSequence source) {
+		GL20.glShaderSource(shader, source);
+	}
+
+	public void glCompileShader(int shader) {
+		GL20.glCompileShader(shader);
+	}
+
+	public int glGetShaderi(int shader, int pname) {
+		return GL20.glGetShaderi(shader, pname);
+	}
+
+	public String glGetShaderInfoLog(int shader, int maxLength) {
+		return GL20.glGetShaderInfoLog(shader, maxLength);
+	}
+
+	public void glAttachShader(int program, int shader) {
+		GL20.glAttachShader(program, shader);
+	}
+
+	public void glLinkProgram(int program) {
+		GL20.glLinkProgram(program);
+	}
+
+	public void glValidateProgram(int program) {
+		GL20.glValidateProgram(program);
+	}
+
+	public int glGetProgrami(int program, int pname) {
+		return GL20.glGetProgrami(program, pname);
+	}
+
+	public String glGetActiveAttrib(int program, int index, int maxLength) {
+		return GL20.glGetActiveAttrib(program, index, maxLength);
+	}
+
+	public int glGetAttribLocation(int program, CharSequence name) {
+		return GL20.glGetAttribLocation(program, name);
+	}
+
+	public String glGetActiveUniform(int program, int index, int maxLength) {
+		return GL20.glGetActiveUniform(program, index, maxLength);
+	}
+
+	public int glGetUniformLocation(int program, CharSequence name) {
+		return GL20.glGetUniformLocation(program, name);
+	}
+
+	public void glUseProgram(int program) {
+		GL20.glUseProgram(program);
+	}
+
+	public void glDeleteProgram(int program) {
+		GL20.glDeleteProgram(program);
+	}
+
+	public void glDeleteShader(int shader) {
+		GL20.glDeleteShader(shader);
+	}
+
+	public int glGetUniformBlockIndex(int program, CharSequence name) {
+		return GL31.glGetUniformBlockIndex(program, name);
+	}
+
+	public void glUniformBlockBinding(int program, int index, int binding) {
+		GL31.glUniformBlockBinding(program, index, binding);
+	}
+
+	// Uniforms
+	public void glUniform1i(int location, int v0) {
+		GL20.glUniform1i(location, v0);
+	}
+
+	public void glUniform3f(int location, float v0, float v1, float v2) {
+		GL20.glUniform3f(location, v0, v1, v2);
+	}
+
+	public void glUniform4f(int location, float v0, float v1, float v2, float v3) {
+		GL20.glUniform4f(location, v0, v1, v2, v3);
+	}
+
+	public void glUniformMatrix3(int location, boolean transpose, FloatBuffer matrices) {
+		GL20.glUniformMatrix3(location, transpose, matrices);
+	}
+
+	public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices) {
+		GL20.glUniformMatrix4(location, transpose, matrices);
+	}
+
+	// Textures
+	public int glGenTextures() {
+		return GL11.glGenTextures();
+	}
+
+	public void glActiveTexture(int texture) {
+		GL13.glActiveTexture(texture);
+	}
+
+	public void glBindTexture(int target, int texture) {
+		GL11.glBindTexture(target, texture);
+	}
+
+	public void glTexParameteri(int target, int pname, int param) {
+		GL11.glTexParameteri(target, pname, param);
+	}
+
+	public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+		GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+	}
+
+	// Sync objects
+	public long glFenceSync(int condition, int flags) {
+		GLSync sync = GL32.glFenceSync(condition, flags);
+		long handle = this.nextSync++;
+		while (this.syncs[this.getSyncSlot(handle)] != null) {
+			this.growSyncs();
+		}
+		int slot = this.getSyncSlot(handle);
+		this.syncs[slot] = sync;
+		this.syncHandles[slot] = handle;
+		return handle;
+	}
+
+	public int glClientWaitSync(long sync, int flags, long timeout) {
+		return GL32.glClientWaitSync(this.syncs[this.getSyncSlot(sync)], flags, timeout);
+	}
+
+	public void glDeleteSync(long sync) {
+		int slot = this.getSyncSlot(sync);
+		GL32.glDeleteSync(this.syncs[slot]);
+		this.syncs[slot] = null;
+	}
+
+	private int getSyncSlot(long handle) {
+		return (int) (handle % this.syncs.length);
+	}
+
+	/**
+	 * Doubles the ring of GLSync objects, until every one in use has its own slot.
+	 */
+	private void growSyncs() {
+		GLSync[] oldSyncs = this.syncs;
+		long[] oldHandles = this.syncHandles;
+		int capacity = oldSyncs.length * 2;
+		boolean collided = true;
+		while (collided) {
+			collided = false;
+			this.syncs = new GLSync[capacity];
+			this.syncHandles = new long[capacity];
+			for (int i = 0; i < oldSyncs.length; i++) {
+				if (oldSyncs[i] != null) {
+					int slot = this.getSyncSlot(oldHandles[i]);
+					if (this.syncs[slot] != null) {
+						collided = true;
+						capacity *= 2;
+						break;
+					}
+					this.syncs[slot] = oldSyncs[i];
+					this.syncHandles[slot] = oldHandles[i];
+				}
+			}
+		}
+	}
+}
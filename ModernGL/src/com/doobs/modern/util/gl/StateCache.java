@@ -0,0 +1,529 @@
+package com.doobs.modern.util.gl;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL15.*;
+
+import java.nio.*;
+
+import org.lwjgl.opengl.*;
+
+/**
+ * A GLBackend that shadows the OpenGL state it changes and drops calls that wouldn't
+ * change anything before they reach the wrapped backend. Covers the bound program, array
+ * and element buffers, vertex array, textures per unit, enabled vertex attributes,
+ * depth/blend/cull enables and the viewport. Everything else is passed through.
+ *
+ * If OpenGL state is changed without going through this StateCache, call invalidate().
+ */
+public class StateCache implements GLBackend {
+	private static final int UNKNOWN = -1;
+	private static final int MAX_TEXTURE_UNITS = 32;
+
+	// Indices of the cached glEnable() capabilities.
+	private static final int DEPTH_TEST = 0, BLEND = 1, CULL_FACE = 2;
+
+	private GLBackend backend;
+
+	private int program;
+	private int arrayBuffer;
+	private int elementArrayBuffer;
+	private int vertexArray;
+
+	private int activeTexture;
+	private int[] textures = new int[MAX_TEXTURE_UNITS];
+
+	// Bit i is set in "knownAttribs" if the enabled state of attribute i is known, and in
+	// "enabledAttribs" if it is enabled.
+	private long knownAttribs;
+	private long enabledAttribs;
+
+	private int[] capabilities = new int[3];
+	private int[] viewport = new int[4];
+
+	private int issuedCalls, skippedCalls;
+	private int lastIssuedCalls, lastSkippedCalls;
+
+	public StateCache(GLBackend backend) {
+		this.backend = backend;
+		this.invalidate();
+	}
+
+	/**
+	 * Forgets all shadowed state, so the next call of every kind reaches the backend.
+	 */
+	public void invalidate() {
+		this.program = UNKNOWN;
+		this.arrayBuffer = UNKNOWN;
+		this.elementArrayBuffer = UNKNOWN;
+		this.vertexArray = UNKNOWN;
+		this.activeTexture = UNKNOWN;
+		for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+			this.textures[i] = UNKNOWN;
+		}
+		this.knownAttribs = 0;
+		this.enabledAttribs = 0;
+		for (int i = 0; i < this.capabilities.length; i++) {
+			this.capabilities[i] = UNKNOWN;
+		}
+		this.viewport[2] = UNKNOWN;
+	}
+
+	/**
+	 * Ends the current frame. The call counts of the frame are available from
+	 * getIssuedCalls() and getSkippedCalls() until the next frame ends.
+	 */
+	public void endFrame() {
+		this.lastIssuedCalls = this.issuedCalls;
+		this.lastSkippedCalls = this.skippedCalls;
+		this.issuedCalls = 0;
+		this.skippedCalls = 0;
+	}
+
+	/**
+	 * Returns the number of cacheable calls passed on to the backend last frame.
+	 */
+	public int getIssuedCalls() {
+		return this.lastIssuedCalls;
+	}
+
+	/**
+	 * Returns the number of redundant calls dropped last frame.
+	 */
+	public int getSkippedCalls() {
+		return this.lastSkippedCalls;
+	}
+
+	/**
+	 * Returns the backend calls are passed on to.
+	 */
+	public GLBackend getBackend() {
+		return this.backend;
+	}
+
+	/**
+	 * Counts a cacheable call and returns whether it has to be issued, i.e. whether
+	 * "current" differs from "requested".
+	 */
+	private boolean changes(int current, int requested) {
+		if (current == requested) {
+			this.skippedCalls++;
+			return false;
+		}
+		this.issuedCalls++;
+		return true;
+	}
+
+	private static int getCapabilityIndex(int cap) {
+		switch (cap) {
+		case GL_DEPTH_TEST:
+			return DEPTH_TEST;
+		case GL_BLEND:
+			return BLEND;
+		case GL_CULL_FACE:
+			return CULL_FACE;
+		default:
+			return UNKNOWN;
+		}
+	}
+
+	// Capabilities
+	public boolean isVersionSupported(int major, int minor) {
+		return this.backend.isVersionSupported(major, minor);
+	}
+
+	public boolean isExtensionSupported(String name) {
+		return this.backend.isExtensionSupported(name);
+	}
+
+	// State
+	public void glEnable(int cap) {
+		int index = getCapabilityIndex(cap);
+		if (index == UNKNOWN) {
+			this.backend.glEnable(cap);
+		} else if (this.changes(this.capabilities[index], GL_TRUE)) {
+			this.capabilities[index] = GL_TRUE;
+			this.backend.glEnable(cap);
+		}
+	}
+
+	public void glDisable(int cap) {
+		int index = getCapabilityIndex(cap);
+		if (index == UNKNOWN) {
+			this.backend.glDisable(cap);
+		} else if (this.changes(this.capabilities[index], GL_FALSE)) {
+			this.capabilities[index] = GL_FALSE;
+			this.backend.glDisable(cap);
+		}
+	}
+
+	public void glCullFace(int mode) {
+		this.backend.glCullFace(mode);
+	}
+
+	public void glBlendFunc(int sfactor, int dfactor) {
+		this.backend.glBlendFunc(sfactor, dfactor);
+	}
+
+	public void glHint(int target, int mode) {
+		this.backend.glHint(target, mode);
+	}
+
+	public void glClearColor(float red, float green, float blue, float alpha) {
+		this.backend.glClearColor(red, green, blue, alpha);
+	}
+
+	public void glColor4f(float red, float green, float blue, float alpha) {
+		this.backend.glColor4f(red, green, blue, alpha);
+	}
+
+	public void glClear(int mask) {
+		this.backend.glClear(mask);
+	}
+
+	public void glViewport(int x, int y, int width, int height) {
+		int[] v = this.viewport;
+		if ((v[0] == x) && (v[1] == y) && (v[2] == width) && (v[3] == height)) {
+			this.skippedCalls++;
+			return;
+		}
+		this.issuedCalls++;
+		v[0] = x;
+		v[1] = y;
+		v[2] = width;
+		v[3] = height;
+		this.backend.glViewport(x, y, width, height);
+	}
+
+	public int glGetError() {
+		return this.backend.glGetError();
+	}
+
+	public void glDebugMessageCallback(KHRDebugCallback.Handler handler) {
+		this.backend.glDebugMessageCallback(handler);
+	}
+
+	public int glGetInteger(int pname) {
+		return this.backend.glGetInteger(pname);
+	}
+
+	// Buffers
+	public int glGenBuffers() {
+		return this.backend.glGenBuffers();
+	}
+
+	public void glDeleteBuffers(int buffer) {
+		// Deleted buffers are unbound.
+		if (this.arrayBuffer == buffer) {
+			this.arrayBuffer = 0;
+		}
+		if (this.elementArrayBuffer == buffer) {
+			this.elementArrayBuffer = 0;
+		}
+		this.backend.glDeleteBuffers(buffer);
+	}
+
+	public void glBindBuffer(int target, int buffer) {
+		if (target == GL_ARRAY_BUFFER) {
+			if (this.changes(this.arrayBuffer, buffer)) {
+				this.arrayBuffer = buffer;
+				this.backend.glBindBuffer(target, buffer);
+			}
+		} else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+			if (this.changes(this.elementArrayBuffer, buffer)) {
+				this.elementArrayBuffer = buffer;
+				this.backend.glBindBuffer(target, buffer);
+			}
+		} else {
+			this.backend.glBindBuffer(target, buffer);
+		}
+	}
+
+	public void glBufferData(int target, ByteBuffer data, int usage) {
+		this.backend.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, ShortBuffer data, int usage) {
+		this.backend.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, IntBuffer data, int usage) {
+		this.backend.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, FloatBuffer data, int usage) {
+		this.backend.glBufferData(target, data, usage);
+	}
+
+	public void glBufferData(int target, long size, int usage) {
+		this.backend.glBufferData(target, size, usage);
+	}
+
+	public void glBufferSubData(int target, long offset, ByteBuffer data) {
+		this.backend.glBufferSubData(target, offset, data);
+	}
+
+	public void glBufferSubData(int target, long offset, FloatBuffer data) {
+		this.backend.glBufferSubData(target, offset, data);
+	}
+
+	public void glBufferSubData(int target, long offset, IntBuffer data) {
+		this.backend.glBufferSubData(target, offset, data);
+	}
+
+	public void glBindBufferBase(int target, int index, int buffer) {
+		this.backend.glBindBufferBase(target, index, buffer);
+	}
+
+	public void glBindBufferRange(int target, int index, int buffer, long offset, long size) {
+		this.backend.glBindBufferRange(target, index, buffer, offset, size);
+	}
+
+	public void glBufferStorage(int target, long size, int flags) {
+		this.backend.glBufferStorage(target, size, flags);
+	}
+
+	public ByteBuffer glMapBufferRange(int target, long offset, long length, int access, ByteBuffer oldBuffer) {
+		return this.backend.glMapBufferRange(target, offset, length, access, oldBuffer);
+	}
+
+	public boolean glUnmapBuffer(int target) {
+		return this.backend.glUnmapBuffer(target);
+	}
+
+	// Vertex arrays
+	public int glGenVertexArrays() {
+		return this.backend.glGenVertexArrays();
+	}
+
+	public void glDeleteVertexArrays(int array) {
+		if (this.vertexArray == array) {
+			this.bindVertexArray(0);
+		}
+		this.backend.glDeleteVertexArrays(array);
+	}
+
+	public void glBindVertexArray(int array) {
+		if (this.changes(this.vertexArray, array)) {
+			this.bindVertexArray(array);
+			this.backend.glBindVertexArray(array);
+		}
+	}
+
+	/**
+	 * Shadows a vertex array change. The element buffer and enabled attributes belong to
+	 * the vertex array, so they are unknown afterwards.
+	 */
+	private void bindVertexArray(int array) {
+		this.vertexArray = array;
+		this.elementArrayBuffer = UNKNOWN;
+		this.knownAttribs = 0;
+	}
+
+	public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long offset) {
+		this.backend.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+	}
+
+	public void glEnableVertexAttribArray(int index) {
+		if (index >= 64) {
+			this.backend.glEnableVertexAttribArray(index);
+			return;
+		}
+
+		long bit = 1L << index;
+		if (((this.knownAttribs & bit) != 0) && ((this.enabledAttribs & bit) != 0)) {
+			this.skippedCalls++;
+		} else {
+			this.issuedCalls++;
+			this.knownAttribs |= bit;
+			this.enabledAttribs |= bit;
+			this.backend.glEnableVertexAttribArray(index);
+		}
+	}
+
+	public void glDisableVertexAttribArray(int index) {
+		if (index >= 64) {
+			this.backend.glDisableVertexAttribArray(index);
+			return;
+		}
+
+		long bit = 1L << index;
+		if (((this.knownAttribs & bit) != 0) && ((this.enabledAttribs & bit) == 0)) {
+			this.skippedCalls++;
+		} else {
+			this.issuedCalls++;
+			this.knownAttribs |= bit;
+			this.enabledAttribs &= ~bit;
+			this.backend.glDisableVertexAttribArray(index);
+		}
+	}
+
+	public void glVertexAttribDivisor(int index, int divisor) {
+		this.backend.glVertexAttribDivisor(index, divisor);
+	}
+
+	// Drawing
+	public void glDrawArrays(int mode, int first, int count) {
+		this.backend.glDrawArrays(mode, first, count);
+	}
+
+	public void glDrawElements(int mode, int count, int type, long offset) {
+		this.backend.glDrawElements(mode, count, type, offset);
+	}
+
+	public void glDrawArraysInstanced(int mode, int first, int count, int primcount) {
+		this.backend.glDrawArraysInstanced(mode, first, count, primcount);
+	}
+
+	public void glDrawElementsInstanced(int mode, int count, int type, long offset, int primcount) {
+		this.backend.glDrawElementsInstanced(mode, count, type, offset, primcount);
+	}
+
+	// Shaders
+	public int glCreateProgram() {
+		return this.backend.glCreateProgram();
+	}
+
+	public int glCreateShader(int type) {
+		return this.backend.glCreateShader(type);
+	}
+
+	public void glShaderSource(int shader, CharSequence source) {
+		this.backend.glShaderSource(shader, source);
+	}
+
+	public void glCompileShader(int shader) {
+		this.backend.glCompileShader(shader);
+	}
+
+	public int glGetShaderi(int shader, int pname) {
+		return this.backend.glGetShaderi(shader, pname);
+	}
+
+	public String glGetShaderInfoLog(int shader, int maxLength) {
+		return this.backend.glGetShaderInfoLog(shader, maxLength);
+	}
+
+	public void glAttachShader(int program, int shader) {
+		this.backend.glAttachShader(program, shader);
+	}
+
+	public void glLinkProgram(int program) {
+		this.backend.glLinkProgram(program);
+	}
+
+	public void glValidateProgram(int program) {
+		this.backend.glValidateProgram(program);
+	}
+
+	public int glGetProgrami(int program, int pname) {
+		return this.backend.glGetProgrami(program, pname);
+	}
+
+	public String glGetActiveAttrib(int program, int index, int maxLength) {
+		return this.backend.glGetActiveAttrib(program, index, maxLength);
+	}
+
+	public int glGetAttribLocation(int program, CharSequence name) {
+		return this.backend.glGetAttribLocation(program, name);
+	}
+
+	public String glGetActiveUniform(int program, int index, int maxLength) {
+		return this.backend.glGetActiveUniform(program, index, maxLength);
+	}
+
+	public int glGetUniformLocation(int program, CharSequence name) {
+		return this.backend.glGetUniformLocation(program, name);
+	}
+
+	public void glUseProgram(int program) {
+		if (this.changes(this.program, program)) {
+			this.program = program;
+			this.backend.glUseProgram(program);
+		}
+	}
+
+	public void glDeleteProgram(int program) {
+		this.backend.glDeleteProgram(program);
+	}
+
+	public void glDeleteShader(int shader) {
+		this.backend.glDeleteShader(shader);
+	}
+
+	public int glGetUniformBlockIndex(int program, CharSequence name) {
+		return this.backend.glGetUniformBlockIndex(program, name);
+	}
+
+	public void glUniformBlockBinding(int program, int index, int binding) {
+		this.backend.glUniformBlockBinding(program, index, binding);
+	}
+
+	// Uniforms
+	public void glUniform1i(int location, int v0) {
+		this.backend.glUniform1i(location, v0);
+	}
+
+	public void glUniform3f(int location, float v0, float v1, float v2) {
+		this.backend.glUniform3f(location, v0, v1, v2);
+	}
+
+	public void glUniform4f(int location, float v0, float v1, float v2, float v3) {
+		this.backend.glUniform4f(location, v0, v1, v2, v3);
+	}
+
+	public void glUniformMatrix3(int location, boolean transpose, FloatBuffer matrices) {
+		this.backend.glUniformMatrix3(location, transpose, matrices);
+	}
+
+	public void glUniformMatrix4(int location, boolean transpose, FloatBuffer matrices) {
+		this.backend.glUniformMatrix4(location, transpose, matrices);
+	}
+
+	// Textures
+	public int glGenTextures() {
+		return this.backend.glGenTextures();
+	}
+
+	public void glActiveTexture(int texture) {
+		if (this.changes(this.activeTexture, texture)) {
+			this.activeTexture = texture;
+			this.backend.glActiveTexture(texture);
+		}
+	}
+
+	public void glBindTexture(int target, int texture) {
+		int unit = this.activeTexture - GL_TEXTURE0;
+		if ((target != GL_TEXTURE_2D) || (unit < 0) || (unit >= MAX_TEXTURE_UNITS)) {
+			// Only 2D textures on a known unit are shadowed.
+			if ((unit >= 0) && (unit < MAX_TEXTURE_UNITS)) {
+				this.textures[unit] = UNKNOWN;
+			}
+			this.backend.glBindTexture(target, texture);
+		} else if (this.changes(this.textures[unit], texture)) {
+			this.textures[unit] = texture;
+			this.backend.glBindTexture(target, texture);
+		}
+	}
+
+	public void glTexParameteri(int target, int pname, int param) {
+		this.backend.glTexParameteri(target, pname, param);
+	}
+
+	public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format, int type, ByteBuffer pixels) {
+		this.backend.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+	}
+
+	// Sync objects
+	public long glFenceSync(int condition, int flags) {
+		return this.backend.glFenceSync(condition, flags);
+	}
+
+	public int glClientWaitSync(long sync, int flags, long timeout) {
+		return this.backend.glClientWaitSync(sync, flags, timeout);
+	}
+
+	public void glDeleteSync(long sync) {
+		this.backend.glDeleteSync(sync);
+	}
+}
@@ -2,14 +2,30 @@ package com.doobs.modern.util.matrix;
 
 import java.nio.*;
 
+import org.lwjgl.*;
+
 import com.doobs.modern.util.*;
 
+/**
+ * The model-view and projection matrix stacks, with the matrices derived from them. The
+ * projection x model-view matrix, its buffer and the normal matrix are cached, and only
+ * recomputed when the version of a stack they depend on changed.
+ */
 public class GeometryTransform {
 	private MatrixStack modelViewStack;
 	private MatrixStack projectionStack;
 
 	private float[] mvpMatrix = new float[16];
 	private float[] normalMatrix = new float[9];
+	private FloatBuffer mvpBuffer = BufferUtils.createFloatBuffer(16);
+
+	// The stack versions each cached value was computed from. Stack versions start at 1.
+	private int mvpModelViewVersion = 0, mvpProjectionVersion = 0;
+	private int bufferModelViewVersion = 0, bufferProjectionVersion = 0;
+	private int normalVersion = 0;
+	private boolean normalNormalized;
+
+	private int numHits = 0, numMisses = 0;
 
 	public GeometryTransform(MatrixStack modelViewStack, MatrixStack projectionStack) {
 		this.modelViewStack = modelViewStack;
@@ -38,17 +54,64 @@ public class GeometryTransform {
 	}
 
 	public float[] getModelViewProjectionMatrix() {
-		Math3D.matrixMultiply4f(this.mvpMatrix, this.getProjectionMatrix(), this.getModelViewMatrix());
+		if (this.updateModelViewProjectionMatrix()) {
+			this.numMisses++;
+		} else {
+			this.numHits++;
+		}
 		return this.mvpMatrix;
 	}
 
+	/**
+	 * Recomputes the projection x model-view matrix if a stack changed since, without
+	 * counting a hit or miss. Returns whether it was recomputed.
+	 */
+	private boolean updateModelViewProjectionMatrix() {
+		int modelViewVersion = this.modelViewStack.getVersion(), projectionVersion = this.projectionStack.getVersion();
+		if ((modelViewVersion == this.mvpModelViewVersion) && (projectionVersion == this.mvpProjectionVersion)) {
+			return false;
+		}
+		Math3D.matrixMultiply4f(this.mvpMatrix, this.getProjectionMatrix(), this.getModelViewMatrix());
+		this.mvpModelViewVersion = modelViewVersion;
+		this.mvpProjectionVersion = projectionVersion;
+		return true;
+	}
+
+	/**
+	 * Returns a buffer holding the projection x model-view matrix, between position 0 and
+	 * its limit. The buffer is refilled when the matrix changes, and shouldn't be modified.
+	 */
+	public FloatBuffer getModelViewProjectionBuffer() {
+		int modelViewVersion = this.modelViewStack.getVersion(), projectionVersion = this.projectionStack.getVersion();
+		if ((modelViewVersion == this.bufferModelViewVersion) && (projectionVersion == this.bufferProjectionVersion)) {
+			this.numHits++;
+			return this.mvpBuffer;
+		}
+		this.numMisses++;
+		this.updateModelViewProjectionMatrix();
+		this.mvpBuffer.position(0);
+		this.mvpBuffer.put(this.mvpMatrix);
+		this.mvpBuffer.flip();
+		this.bufferModelViewVersion = modelViewVersion;
+		this.bufferProjectionVersion = projectionVersion;
+		return this.mvpBuffer;
+	}
+
 	public float[] getNormalMatrix(boolean normalize) {
+		int modelViewVersion = this.modelViewStack.getVersion();
+		if ((modelViewVersion == this.normalVersion) && (normalize == this.normalNormalized)) {
+			this.numHits++;
+			return this.normalMatrix;
+		}
+		this.numMisses++;
 		Math3D.extractRotationMatrix3f(this.normalMatrix, this.getModelViewMatrix());
 		if (normalize) {
 			Math3D.normalize3f(this.normalMatrix, 0);
 			Math3D.normalize3f(this.normalMatrix, 3);
 			Math3D.normalize3f(this.normalMatrix, 6);
 		}
+		this.normalVersion = modelViewVersion;
+		this.normalNormalized = normalize;
 		return this.normalMatrix;
 	}
 
@@ -63,6 +126,7 @@ public class GeometryTransform {
 
 	public void setModelViewStack(MatrixStack modelViewStack) {
 		this.modelViewStack = modelViewStack;
+		this.invalidate();
 	}
 
 	public MatrixStack getProjectionStack() {
@@ -71,6 +135,7 @@ public class GeometryTransform {
 
 	public void setProjectionStack(MatrixStack projectionStack) {
 		this.projectionStack = projectionStack;
+		this.invalidate();
 	}
 
 	public float[] getModelViewMatrix() {
@@ -80,4 +145,35 @@ public class GeometryTransform {
 	public float[] getProjectionMatrix() {
 		return this.getProjectionStack().getMatrix();
 	}
+
+	/**
+	 * Returns how many times a cached matrix or buffer could be returned as it was.
+	 */
+	public int getNumHits() {
+		return this.numHits;
+	}
+
+	/**
+	 * Returns how many times a cached matrix had to be recomputed or its buffer refilled.
+	 */
+	public int getNumMisses() {
+		return this.numMisses;
+	}
+
+	/**
+	 * Resets the hit and miss counters.
+	 */
+	public void resetCounters() {
+		this.numHits = 0;
+		this.numMisses = 0;
+	}
+
+	/**
+	 * Forgets the cached matrices, e.g. after switching stacks whose versions may collide.
+	 */
+	private void invalidate() {
+		this.mvpModelViewVersion = this.mvpProjectionVersion = 0;
+		this.bufferModelViewVersion = this.bufferProjectionVersion = 0;
+		this.normalVersion = 0;
+	}
 }
@@ -1,8 +1,5 @@
 package com.doobs.modern.util.matrix;
 
-import java.nio.*;
-
-import org.lwjgl.*;
 import org.lwjgl.opengl.*;
 
 import com.doobs.modern.util.*;
@@ -19,16 +16,20 @@ public class Matrices {
 
 	public static GeometryTransform transform;
 
-	private static FloatBuffer matrixBuffer;
-
 	public static void init() {
+		init(Display.getWidth(), Display.getHeight());
+	}
+
+	/**
+	 * Sets up the matrices for a "width" x "height" viewport, without asking the Display.
+	 */
+	public static void init(int width, int height) {
 		isPerspective = true;
-		perspective = new PerspectiveFrustum(GLTools.fov, (float) Display.getWidth() / Display.getHeight(), GLTools.zNear, GLTools.zFar);
-		orthographic = new OrthographicFrustum(Display.getWidth(), Display.getHeight());
+		perspective = new PerspectiveFrustum(GLTools.fov, (float) width / height, GLTools.zNear, GLTools.zFar);
+		orthographic = new OrthographicFrustum(width, height);
 		modelViewStack = new MatrixStack();
 		projectionStack = new MatrixStack(perspective.getProjectionMatrix());
 		transform = new GeometryTransform(modelViewStack, projectionStack);
-		matrixBuffer = BufferUtils.createFloatBuffer(16);
 	}
 
 	public static void switchToOrtho() {
@@ -42,7 +43,7 @@ public class Matrices {
 	}
 
 	public static void loadIdentity() {
-		Math3D.loadIdentity4f(modelViewStack.getMatrix());
+		modelViewStack.loadIdentity();
 	}
 
 	public static void translate(float x, float y, float z) {
@@ -61,18 +62,43 @@ public class Matrices {
 		rotate((float) angle, (float) x, (float) y, (float) z);
 	}
 
+	/**
+	 * Sends the matrices "shader" has uniforms for. Shaders that take their projection from
+	 * FrameUniforms only get the model-view matrix, and throw an IllegalStateException if
+	 * FrameUniforms was never updated.
+	 */
+	public static void sendMatrices(Shader shader) {
+		if (shader.usesFrameUniforms() && !FrameUniforms.isUploaded()) {
+			throw new IllegalStateException("FrameUniforms.update() must be called before drawing with a shader that reads " + FrameUniforms.BLOCK_NAME);
+		}
+		if (shader.getModelViewMatrixUniform().isActive()) {
+			sendMVMatrix(shader);
+		}
+		if (shader.getProjectionMatrixUniform().isActive()) {
+			sendPMatrix(shader);
+		}
+		if (shader.getModelViewProjectionMatrixUniform().isActive()) {
+			sendMVPMatrix(shader);
+		}
+	}
+
 	public static void sendMVMatrix(Shader shader) {
-		transform.fillModelViewBuffer(matrixBuffer);
-		shader.setUniformMatrix4(StockShaders.MODEL_VIEW_MATRIX_UNIFORM_NAME, false, matrixBuffer);
+		shader.getModelViewMatrixUniform().set(transform.getModelViewMatrix());
 	}
 
 	public static void sendPMatrix(Shader shader) {
-		transform.fillProjectionBuffer(matrixBuffer);
-		shader.setUniformMatrix4(StockShaders.PROJECTION_MATRIX_UNIFORM_NAME, false, matrixBuffer);
+		shader.getProjectionMatrixUniform().set(transform.getProjectionMatrix());
 	}
 
+	/**
+	 * Sends the model-view-projection matrix. The stock shaders take their projection from
+	 * FrameUniforms and have no mvpMatrix, so they get what sendMatrices() sends instead.
+	 */
 	public static void sendMVPMatrix(Shader shader) {
-		transform.fillModelViewProjectionBuffer(matrixBuffer);
-		shader.setUniformMatrix4(StockShaders.MODEL_VIEW_PROJECTION_MATRIX_UNIFORM_NAME, false, matrixBuffer);
+		if (shader.getModelViewProjectionMatrixUniform().isActive()) {
+			shader.getModelViewProjectionMatrixUniform().set(transform.getModelViewProjectionBuffer());
+		} else {
+			sendMatrices(shader);
+		}
 	}
 }
@@ -1,82 +1,334 @@
 package com.doobs.modern.util.matrix;
 
 import java.nio.*;
+import java.util.*;
 
 import com.doobs.modern.util.*;
 
+/**
+ * A stack of 4x4 matrices, where every operation multiplies the top matrix in place.
+ *
+ * Every matrix on the stack is tagged with the most general kind of transform it may be,
+ * from IDENTITY to GENERAL, so operations can skip the work that doesn't apply: a
+ * translation of a translation is three additions, and transforms built from translations,
+ * rotations and scales never touch the bottom row. Code that writes to getMatrix() directly
+ * should use load() instead, or the tag goes stale.
+ *
+ * Every matrix on the stack also has a version, which changes whenever the matrix does,
+ * so callers such as GeometryTransform can cache results computed from the top matrix.
+ * Versions come from one counter per stack, so a version never repeats: after pop(), the
+ * version is the one the matrix had before push().
+ */
 public class MatrixStack {
 	private static final int MATRIX_SIZE = 16;
 	private static final int DEFAULT_DEPTH = 64;
 
+	// Matrix types, each including the ones before it.
+	public static final int IDENTITY = 0;
+	public static final int TRANSLATION = 1;
+	public static final int RIGID = 2;
+	public static final int AFFINE = 3;
+	public static final int GENERAL = 4;
+
+	// How far a matrix may be from the type it's classified as.
+	private static final float EPSILON = 1e-5f;
+
 	private float[][] matrixStack;
+	private int[] types;
+	private int[] versions;
 	private int topIndex = 0;
+	private int nextVersion = 0;
 
 	// Temp matrix. Avoiding garbage collection on operations!
 	private float[] temp = new float[16];
-	private float[] temp2 = new float[16];
+
+	// The last arbitrary axis rotation, which is reused when it's repeated.
+	private float[] rotation = new float[16];
+	private float rotationAngle = Float.NaN, rotationX, rotationY, rotationZ;
 
 	public MatrixStack() {
 		this.matrixStack = new float[DEFAULT_DEPTH][MATRIX_SIZE];
-		Math3D.loadIdentity4f(this.matrixStack[this.topIndex]);
+		this.types = new int[DEFAULT_DEPTH];
+		this.versions = new int[DEFAULT_DEPTH];
+		this.loadIdentity();
 	}
 
 	public MatrixStack(float[] matrix) {
 		this.matrixStack = new float[DEFAULT_DEPTH][MATRIX_SIZE];
-		System.arraycopy(matrix, 0, this.matrixStack[this.topIndex], 0, MATRIX_SIZE);
+		this.types = new int[DEFAULT_DEPTH];
+		this.versions = new int[DEFAULT_DEPTH];
+		this.load(matrix);
+	}
+
+	/**
+	 * Creates a MatrixStack holding the identity matrix, with room for "depth" matrices.
+	 * changed() isn't called, as subclasses aren't set up yet.
+	 */
+	protected MatrixStack(int depth) {
+		this.matrixStack = new float[depth][MATRIX_SIZE];
+		this.types = new int[depth];
+		this.versions = new int[depth];
+		Math3D.loadIdentity4f(this.matrixStack[0]);
+		this.types[0] = IDENTITY;
+		this.versions[0] = ++this.nextVersion;
 	}
 
 	public void push() {
-		System.arraycopy(this.matrixStack[this.topIndex], 0, this.matrixStack[++this.topIndex], 0, MATRIX_SIZE);
+		if (this.topIndex + 1 == this.matrixStack.length) {
+			throw new IllegalStateException("Matrix stack overflow: more than " + this.matrixStack.length + " matrices pushed");
+		}
+		System.arraycopy(this.matrixStack[this.topIndex], 0, this.matrixStack[this.topIndex + 1], 0, MATRIX_SIZE);
+		this.types[this.topIndex + 1] = this.types[this.topIndex];
+		this.versions[this.topIndex + 1] = this.versions[this.topIndex];
+		this.topIndex++;
 	}
 
 	public void pop() {
+		if (this.topIndex == 0) {
+			throw new IllegalStateException("Matrix stack underflow: popped more matrices than were pushed");
+		}
 		this.topIndex--;
 	}
 
+	/**
+	 * Replaces the top matrix with the identity matrix.
+	 */
+	public void loadIdentity() {
+		Math3D.loadIdentity4f(this.matrixStack[this.topIndex]);
+		this.types[this.topIndex] = IDENTITY;
+		this.changed();
+	}
+
+	/**
+	 * Replaces the top matrix with "matrix".
+	 */
+	public void load(float[] matrix) {
+		this.load(matrix, classify(matrix));
+	}
+
+	/**
+	 * Replaces the top matrix with "matrix", which is known to be of type "type" or a
+	 * simpler one.
+	 */
+	public void load(float[] matrix, int type) {
+		this.load(matrix, 0, type);
+	}
+
+	/**
+	 * Replaces the top matrix with the one at "matrices"["offset"], which is known to be of
+	 * type "type" or a simpler one.
+	 */
+	public void load(float[] matrices, int offset, int type) {
+		System.arraycopy(matrices, offset, this.matrixStack[this.topIndex], 0, MATRIX_SIZE);
+		this.types[this.topIndex] = type;
+		this.changed();
+	}
+
 	public void translate(float x, float y, float z) {
-		System.arraycopy(this.matrixStack[this.topIndex], 0, this.temp, 0, MATRIX_SIZE);
-		Math3D.translate4f(this.temp2, x, y, z);
-		Math3D.matrixMultiply4f(this.matrixStack[this.topIndex], this.temp, this.temp2);
+		float[] m = this.matrixStack[this.topIndex];
+		switch (this.types[this.topIndex]) {
+		case IDENTITY:
+		case TRANSLATION:
+			m[12] += x;
+			m[13] += y;
+			m[14] += z;
+			this.types[this.topIndex] = TRANSLATION;
+			break;
+		default:
+			Math3D.multiplyTranslation4f(m, x, y, z);
+		}
+		this.changed();
+	}
+
+	public void scale(float x, float y, float z) {
+		if ((x == 1.0f) && (y == 1.0f) && (z == 1.0f)) {
+			return;
+		}
+		Math3D.multiplyScale4f(this.matrixStack[this.topIndex], x, y, z);
+		this.types[this.topIndex] = Math.max(this.types[this.topIndex], AFFINE);
+		this.changed();
 	}
 
+	/**
+	 * Rotates "angdeg" degrees around the axis ("x", "y", "z"). Rotations around the x, y
+	 * or z axis are done in place, others are built once and reused while they repeat.
+	 */
 	public void rotate(float angdeg, float x, float y, float z) {
-		System.arraycopy(this.matrixStack[this.topIndex], 0, this.temp, 0, MATRIX_SIZE);// save
-																						// current
-		// matrix
-		Math3D.rotate4f(this.temp2, angdeg, x, y, z); // calculate rotation
-		Math3D.matrixMultiply4f(this.matrixStack[this.topIndex], this.temp, this.temp2); // multiply
-																							// and
-																							// put
-		// result.
+		if ((y == 0.0f) && (z == 0.0f) && (x != 0.0f)) {
+			this.rotateX(x > 0.0f ? angdeg : -angdeg);
+		} else if ((x == 0.0f) && (z == 0.0f) && (y != 0.0f)) {
+			this.rotateY(y > 0.0f ? angdeg : -angdeg);
+		} else if ((x == 0.0f) && (y == 0.0f) && (z != 0.0f)) {
+			this.rotateZ(z > 0.0f ? angdeg : -angdeg);
+		} else if ((x != 0.0f) || (y != 0.0f) || (z != 0.0f)) {
+			if ((angdeg != this.rotationAngle) || (x != this.rotationX) || (y != this.rotationY) || (z != this.rotationZ)) {
+				Math3D.rotate4f(this.rotation, angdeg, x, y, z);
+				this.rotationAngle = angdeg;
+				this.rotationX = x;
+				this.rotationY = y;
+				this.rotationZ = z;
+			}
+			this.multiply4(this.rotation, RIGID);
+		}
+	}
+
+	public void rotateX(float angdeg) {
+		Math3D.multiplyRotationX4f(this.matrixStack[this.topIndex], angdeg);
+		this.types[this.topIndex] = Math.max(this.types[this.topIndex], RIGID);
+		this.changed();
+	}
+
+	public void rotateY(float angdeg) {
+		Math3D.multiplyRotationY4f(this.matrixStack[this.topIndex], angdeg);
+		this.types[this.topIndex] = Math.max(this.types[this.topIndex], RIGID);
+		this.changed();
+	}
+
+	public void rotateZ(float angdeg) {
+		Math3D.multiplyRotationZ4f(this.matrixStack[this.topIndex], angdeg);
+		this.types[this.topIndex] = Math.max(this.types[this.topIndex], RIGID);
+		this.changed();
 	}
 
 	public void multiply3(float[] op) {
-		System.arraycopy(this.matrixStack[this.topIndex], 0, this.temp, 0, 16);// save
-																				// current
-																				// matrix
-		Math3D.loadIdentity4f(this.temp2);
+		Math3D.loadIdentity4f(this.temp);
 		for (int i = 0; i < 3; i++) {
-			this.temp2[i * 4] = op[i * 3];
-			this.temp2[(i * 4) + 1] = op[(i * 3) + 1];
-			this.temp2[(i * 4) + 2] = op[(i * 3) + 2];
+			this.temp[i * 4] = op[i * 3];
+			this.temp[(i * 4) + 1] = op[(i * 3) + 1];
+			this.temp[(i * 4) + 2] = op[(i * 3) + 2];
 		}
-		Math3D.matrixMultiply4f(this.matrixStack[this.topIndex], this.temp, this.temp2);
+		this.multiply4(this.temp, AFFINE);
 	}
 
 	public void multiply4(float[] op) {
-		System.arraycopy(this.matrixStack[this.topIndex], 0, this.temp, 0, 16);// save
-																				// current
-																				// matrix
-		Math3D.matrixMultiply4f(this.matrixStack[this.topIndex], this.temp, op);
+		this.multiply4(op, classify(op));
+	}
+
+	/**
+	 * Multiplies the top matrix by "op", which is known to be of type "type" or a simpler
+	 * one.
+	 */
+	public void multiply4(float[] op, int type) {
+		float[] m = this.matrixStack[this.topIndex];
+		int topType = this.types[this.topIndex];
+		if (type == IDENTITY) {
+			return;
+		} else if (topType == IDENTITY) {
+			System.arraycopy(op, 0, m, 0, MATRIX_SIZE);
+		} else if (type == TRANSLATION) {
+			Math3D.multiplyTranslation4f(m, op[12], op[13], op[14]);
+		} else if ((topType <= AFFINE) && (type <= AFFINE)) {
+			Math3D.matrixMultiplyAffine4f(m, m, op);
+		} else {
+			System.arraycopy(m, 0, this.temp, 0, MATRIX_SIZE);
+			Math3D.matrixMultiply4f(m, this.temp, op);
+		}
+		this.types[this.topIndex] = Math.max(topType, type);
+		this.changed();
+	}
+
+	/**
+	 * Called after every change of the top matrix. Subclasses that keep a copy of the
+	 * matrices update it here, after calling this.
+	 */
+	protected void changed() {
+		this.versions[this.topIndex] = ++this.nextVersion;
+	}
+
+	/**
+	 * Makes room for "depth" matrices, keeping the ones on the stack.
+	 */
+	protected void grow(int depth) {
+		int oldDepth = this.matrixStack.length;
+		this.matrixStack = Arrays.copyOf(this.matrixStack, depth);
+		for (int i = oldDepth; i < depth; i++) {
+			this.matrixStack[i] = new float[MATRIX_SIZE];
+		}
+		this.types = Arrays.copyOf(this.types, depth);
+		this.versions = Arrays.copyOf(this.versions, depth);
+	}
+
+	/**
+	 * Returns how many matrices there is room for before push() throws.
+	 */
+	protected int getCapacity() {
+		return this.matrixStack.length;
+	}
+
+	/**
+	 * Changes the entries of "result" to the inverse of the top matrix, using the cheapest
+	 * inversion its type allows. Returns whether it could be inverted.
+	 */
+	public boolean getInverse(float[] result) {
+		float[] m = this.matrixStack[this.topIndex];
+		switch (this.types[this.topIndex]) {
+		case IDENTITY:
+			Math3D.loadIdentity4f(result);
+			return true;
+		case TRANSLATION:
+			Math3D.translate4f(result, -m[12], -m[13], -m[14]);
+			return true;
+		case RIGID:
+			Math3D.matrixInverseRigid4f(result, m);
+			return true;
+		default:
+			return Math3D.matrixInverse4f(result, m);
+		}
 	}
 
 	public float[] getMatrix() {
 		return this.matrixStack[this.topIndex];
 	}
 
+	/**
+	 * Returns the type of the top matrix, from IDENTITY to GENERAL.
+	 */
+	public int getType() {
+		return this.types[this.topIndex];
+	}
+
+	/**
+	 * Returns the version of the top matrix, which changes whenever the matrix does.
+	 */
+	public int getVersion() {
+		return this.versions[this.topIndex];
+	}
+
+	/**
+	 * Returns the number of matrices on the stack.
+	 */
+	public int getDepth() {
+		return this.topIndex + 1;
+	}
+
 	public void fillBuffer(FloatBuffer buffer) {
 		buffer.position(0);
 		buffer.put(this.matrixStack[this.topIndex]);
 		buffer.flip();
 	}
+
+	/**
+	 * Returns the simplest type "matrix" is, from IDENTITY to GENERAL.
+	 */
+	public static int classify(float[] matrix) {
+		float[] m = matrix;
+		if ((m[3] != 0.0f) || (m[7] != 0.0f) || (m[11] != 0.0f) || (m[15] != 1.0f)) {
+			return GENERAL;
+		}
+		if ((m[0] == 1.0f) && (m[1] == 0.0f) && (m[2] == 0.0f) && (m[4] == 0.0f) && (m[5] == 1.0f) && (m[6] == 0.0f) && (m[8] == 0.0f) && (m[9] == 0.0f)
+				&& (m[10] == 1.0f)) {
+			return (m[12] == 0.0f) && (m[13] == 0.0f) && (m[14] == 0.0f) ? IDENTITY : TRANSLATION;
+		}
+
+		// Rigid if the columns of the rotation are unit length and perpendicular.
+		for (int i = 0; i < 12; i += 4) {
+			for (int j = i; j < 12; j += 4) {
+				float dot = (m[i] * m[j]) + (m[i + 1] * m[j + 1]) + (m[i + 2] * m[j + 2]);
+				if (Math.abs(dot - (i == j ? 1.0f : 0.0f)) > EPSILON) {
+					return AFFINE;
+				}
+			}
+		}
+		return RIGID;
+	}
 }
@@ -0,0 +1,95 @@
+package com.doobs.modern.util.matrix;
+
+import java.nio.*;
+
+import org.lwjgl.*;
+
+/**
+ * A MatrixStack that also keeps its matrices in one contiguous direct buffer, so the top
+ * matrix can be passed to glUniformMatrix4 or UniformMatrix.set(FloatBuffer) without
+ * copying it first. It can be used wherever a MatrixStack can, e.g. in a
+ * GeometryTransform or as Matrices.modelViewStack.
+ *
+ * Operations work on the heap matrices like in a MatrixStack, with the same type tags, and
+ * the top matrix is written to the buffer after every change. The stack grows on push() up
+ * to "maxDepth" matrices, and pushing past that or popping the last matrix throws an
+ * IllegalStateException, which catches unbalanced push() and pop() calls where they happen.
+ */
+public class OffHeapMatrixStack extends MatrixStack {
+	private static final int MATRIX_SIZE = 16;
+	private static final int DEFAULT_DEPTH = 16;
+	private static final int DEFAULT_MAX_DEPTH = 1024;
+
+	private FloatBuffer buffer;
+	private FloatBuffer[] slices;
+	private int maxDepth;
+
+	public OffHeapMatrixStack() {
+		this(DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * Creates an OffHeapMatrixStack holding the identity matrix, that can be pushed until
+	 * it holds "maxDepth" matrices.
+	 */
+	public OffHeapMatrixStack(int maxDepth) {
+		super(Math.min(DEFAULT_DEPTH, maxDepth));
+		this.maxDepth = maxDepth;
+		this.allocate(this.getCapacity());
+		this.store();
+	}
+
+	public void push() {
+		if ((this.getDepth() == this.getCapacity()) && (this.getCapacity() < this.maxDepth)) {
+			int depth = Math.min(this.getCapacity() * 2, this.maxDepth);
+			this.grow(depth);
+			this.allocate(depth);
+		}
+		super.push();
+		this.store();
+	}
+
+	protected void changed() {
+		super.changed();
+		this.store();
+	}
+
+	/**
+	 * Returns a buffer holding the top matrix between position 0 and its limit, which can
+	 * be uploaded as it is. It stays valid until the stack grows, and shouldn't be
+	 * modified.
+	 */
+	public FloatBuffer getMatrixBuffer() {
+		return this.slices[this.getDepth() - 1];
+	}
+
+	public int getMaxDepth() {
+		return this.maxDepth;
+	}
+
+	private void store() {
+		FloatBuffer slice = this.slices[this.getDepth() - 1];
+		slice.put(this.getMatrix());
+		slice.position(0);
+	}
+
+	/**
+	 * Moves the matrices to a buffer with room for "depth" matrices, and makes a slice for
+	 * each of them.
+	 */
+	private void allocate(int depth) {
+		FloatBuffer buffer = BufferUtils.createFloatBuffer(depth * MATRIX_SIZE);
+		if (this.buffer != null) {
+			this.buffer.clear();
+			buffer.put(this.buffer);
+		}
+		this.buffer = buffer;
+
+		this.slices = new FloatBuffer[depth];
+		for (int i = 0; i < depth; i++) {
+			buffer.limit((i + 1) * MATRIX_SIZE).position(i * MATRIX_SIZE);
+			this.slices[i] = buffer.slice();
+		}
+		buffer.clear();
+	}
+}
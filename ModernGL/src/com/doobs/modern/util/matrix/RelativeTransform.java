@@ -0,0 +1,107 @@
+package com.doobs.modern.util.matrix;
+
+import com.doobs.modern.util.*;
+
+/**
+ * Builds model-view matrices for worlds too large for float positions. Object and camera
+ * positions are doubles, and only their difference is rounded to floats, so objects near
+ * the camera stay precise however far from the origin they are. The rotation and scale of
+ * every object are still floats, and the matrices sent to the GPU are ordinary floats.
+ *
+ * Call setCamera() once per frame, then getModelView() per object or getModelViews() for
+ * many objects at once. The projection is unaffected, as it never sees world positions.
+ */
+public class RelativeTransform {
+	// The view rotation, without translation, in the upper 3x3.
+	private float[] view = new float[16];
+	private double cameraX, cameraY, cameraZ;
+
+	// Temp matrix. Avoiding garbage collection on loading!
+	private float[] temp = new float[16];
+
+	public RelativeTransform() {
+		Math3D.loadIdentity4f(this.view);
+	}
+
+	/**
+	 * Takes the orientation and double precision position of "camera".
+	 */
+	public void setCamera(Camera camera) {
+		this.setCamera(camera.getViewMatrix(), camera.getWorldX(), camera.getWorldY(), camera.getWorldZ());
+	}
+
+	/**
+	 * Takes the rotation of the view matrix "viewMatrix" (its translation is ignored), and
+	 * the camera position ("x", "y", "z").
+	 */
+	public void setCamera(float[] viewMatrix, double x, double y, double z) {
+		System.arraycopy(viewMatrix, 0, this.view, 0, 12);
+		this.view[3] = this.view[7] = this.view[11] = 0.0f;
+		this.cameraX = x;
+		this.cameraY = y;
+		this.cameraZ = z;
+	}
+
+	/**
+	 * Changes the entries of "result" to the model-view matrix of an object at ("x", "y",
+	 * "z"), rotated and scaled by the upper 3x3 of "model" (its translation is ignored).
+	 */
+	public void getModelView(float[] result, float[] model, double x, double y, double z) {
+		this.getModelViews(result, 0, model, 0, x - this.cameraX, y - this.cameraY, z - this.cameraZ);
+	}
+
+	/**
+	 * Like getModelView() for "count" objects at once. The model matrices are read from
+	 * "models" starting at "modelOffset" and the model-view matrices written to "results"
+	 * starting at "resultOffset", 16 floats apart. The positions are read from "positions"
+	 * starting at "positionOffset", 3 doubles apart.
+	 */
+	public void getModelViews(float[] results, int resultOffset, float[] models, int modelOffset, double[] positions, int positionOffset, int count) {
+		int r = resultOffset, m = modelOffset, p = positionOffset;
+		for (int i = 0; i < count; i++, r += 16, m += 16, p += 3) {
+			this.getModelViews(results, r, models, m, positions[p] - this.cameraX, positions[p + 1] - this.cameraY, positions[p + 2] - this.cameraZ);
+		}
+	}
+
+	/**
+	 * Replaces the top matrix of "stack" with the model-view matrix of an object at ("x",
+	 * "y", "z"), rotated and scaled by the upper 3x3 of "model".
+	 */
+	public void loadModelView(MatrixStack stack, float[] model, double x, double y, double z) {
+		this.getModelView(this.temp, model, x, y, z);
+		stack.load(this.temp, MatrixStack.AFFINE);
+	}
+
+	/**
+	 * Changes the entries of "result" to the camera space position of the world position
+	 * ("x", "y", "z"), e.g. for culling or picking near the camera.
+	 */
+	public void getRelativePosition(float[] result, double x, double y, double z) {
+		float dx = (float) (x - this.cameraX), dy = (float) (y - this.cameraY), dz = (float) (z - this.cameraZ);
+		float[] v = this.view;
+		result[0] = (v[0] * dx) + (v[4] * dy) + (v[8] * dz);
+		result[1] = (v[1] * dx) + (v[5] * dy) + (v[9] * dz);
+		result[2] = (v[2] * dx) + (v[6] * dy) + (v[10] * dz);
+	}
+
+	/**
+	 * Writes the model-view matrix for the model matrix at "models"["m"] offset by ("dx",
+	 * "dy", "dz") from the camera to "results"["r"]. The offset is only rounded to floats
+	 * here, after the large coordinates cancelled out.
+	 */
+	private void getModelViews(float[] results, int r, float[] models, int m, double dx, double dy, double dz) {
+		float[] v = this.view;
+		float tx = (float) dx, ty = (float) dy, tz = (float) dz;
+		for (int column = 0; column < 12; column += 4) {
+			float m0 = models[m + column], m1 = models[m + column + 1], m2 = models[m + column + 2];
+			results[r + column] = (v[0] * m0) + (v[4] * m1) + (v[8] * m2);
+			results[r + column + 1] = (v[1] * m0) + (v[5] * m1) + (v[9] * m2);
+			results[r + column + 2] = (v[2] * m0) + (v[6] * m1) + (v[10] * m2);
+			results[r + column + 3] = 0.0f;
+		}
+		results[r + 12] = (v[0] * tx) + (v[4] * ty) + (v[8] * tz);
+		results[r + 13] = (v[1] * tx) + (v[5] * ty) + (v[9] * tz);
+		results[r + 14] = (v[2] * tx) + (v[6] * ty) + (v[10] * tz);
+		results[r + 15] = 1.0f;
+	}
+}
@@ -1,18 +1,159 @@
 package com.doobs.modern.util.matrix.frustum;
 
+import com.doobs.modern.util.matrix.*;
+
 public class Frustum {
+	public static final int LEFT = 0, RIGHT = 1, BOTTOM = 2, TOP = 3, NEAR = 4, FAR = 5;
+
 	protected float[] projMatrix = new float[16];
 
 	// Untransformed corners of the frustum
 	protected float[] nearUL = new float[4], nearLL = new float[4], nearUR = new float[4], nearLR = new float[4];
 	protected float[] farUL = new float[4], farLL = new float[4], farUR = new float[4], farLR = new float[4];
 
+	// The six clipping planes as (a, b, c, d), with normals pointing inside. A point is in
+	// front of a plane when a * x + b * y + c * z + d >= 0.
+	protected float[] planes = new float[24];
+
 	public Frustum() {
 
 	}
 
+	/**
+	 * Extracts the clipping planes from the clip space "matrix" (column major). With the
+	 * projection matrix the planes are in eye space, with the projection x model-view
+	 * matrix they are in the space of whatever the model-view matrix transforms.
+	 */
+	public void updatePlanes(float[] matrix) {
+		for (int i = 0; i < 3; i++) {
+			// Row 3 plus and minus row "i".
+			this.setPlane(i * 2, matrix[3] + matrix[i], matrix[7] + matrix[4 + i], matrix[11] + matrix[8 + i], matrix[15] + matrix[12 + i]);
+			this.setPlane(i * 2 + 1, matrix[3] - matrix[i], matrix[7] - matrix[4 + i], matrix[11] - matrix[8 + i], matrix[15] - matrix[12 + i]);
+		}
+	}
+
+	/**
+	 * Extracts the clipping planes from the projection x model-view matrix of "transform".
+	 * Bounds are then tested in the space the model-view matrix transforms from, so with
+	 * only the camera applied, bounds are in world space.
+	 */
+	public void updatePlanes(GeometryTransform transform) {
+		this.updatePlanes(transform.getModelViewProjectionMatrix());
+	}
+
+	private void setPlane(int plane, float a, float b, float c, float d) {
+		float length = (float) Math.sqrt(a * a + b * b + c * c);
+		this.planes[plane * 4] = a / length;
+		this.planes[plane * 4 + 1] = b / length;
+		this.planes[plane * 4 + 2] = c / length;
+		this.planes[plane * 4 + 3] = d / length;
+	}
+
+	/**
+	 * Returns whether any part of the sphere at ("x", "y", "z") with "radius" can be
+	 * inside this Frustum. Spheres near a corner may pass without being visible.
+	 */
+	public boolean isSphereVisible(float x, float y, float z, float radius) {
+		float[] p = this.planes;
+		for (int i = 0; i < 24; i += 4) {
+			if (p[i] * x + p[i + 1] * y + p[i + 2] * z + p[i + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether any part of the axis aligned box from ("minX", "minY", "minZ") to
+	 * ("maxX", "maxY", "maxZ") can be inside this Frustum.
+	 */
+	public boolean isBoxVisible(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		float[] p = this.planes;
+		for (int i = 0; i < 24; i += 4) {
+			// The corner furthest along the plane's normal.
+			float x = p[i] >= 0 ? maxX : minX;
+			float y = p[i + 1] >= 0 ? maxY : minY;
+			float z = p[i + 2] >= 0 ? maxZ : minZ;
+			if (p[i] * x + p[i + 1] * y + p[i + 2] * z + p[i + 3] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests the spheres "start" (inclusive) to "end" (exclusive), whose centers and radii
+	 * are stored in separate arrays. The indices of the visible ones are written to
+	 * "visible" in order, and their number is returned.
+	 */
+	public int cullSpheres(float[] centerX, float[] centerY, float[] centerZ, float[] radius, int start, int end, int[] visible) {
+		return this.cullSpheres(centerX, centerY, centerZ, radius, start, end, visible, 0);
+	}
+
+	/**
+	 * Like cullSpheres(float[], float[], float[], float[], int, int, int[]), but writes the
+	 * visible indices to "visible" from "visibleOffset" on.
+	 */
+	public int cullSpheres(float[] centerX, float[] centerY, float[] centerZ, float[] radius, int start, int end, int[] visible, int visibleOffset) {
+		float[] p = this.planes;
+		int numVisible = 0;
+		for (int object = start; object < end; object++) {
+			float x = centerX[object], y = centerY[object], z = centerZ[object], r = -radius[object];
+			boolean inside = (p[0] * x + p[1] * y + p[2] * z + p[3] >= r) && (p[4] * x + p[5] * y + p[6] * z + p[7] >= r)
+					&& (p[8] * x + p[9] * y + p[10] * z + p[11] >= r) && (p[12] * x + p[13] * y + p[14] * z + p[15] >= r)
+					&& (p[16] * x + p[17] * y + p[18] * z + p[19] >= r) && (p[20] * x + p[21] * y + p[22] * z + p[23] >= r);
+			if (inside) {
+				visible[visibleOffset + numVisible++] = object;
+			}
+		}
+		return numVisible;
+	}
+
+	/**
+	 * Tests the axis aligned boxes "start" (inclusive) to "end" (exclusive), given by their
+	 * centers and half extents in separate arrays. The indices of the visible ones are
+	 * written to "visible" in order, and their number is returned.
+	 */
+	public int cullBoxes(float[] centerX, float[] centerY, float[] centerZ, float[] extentX, float[] extentY, float[] extentZ, int start, int end,
+			int[] visible) {
+		return this.cullBoxes(centerX, centerY, centerZ, extentX, extentY, extentZ, start, end, visible, 0);
+	}
+
+	/**
+	 * Like cullBoxes(float[], float[], float[], float[], float[], float[], int, int, int[]),
+	 * but writes the visible indices to "visible" from "visibleOffset" on.
+	 */
+	public int cullBoxes(float[] centerX, float[] centerY, float[] centerZ, float[] extentX, float[] extentY, float[] extentZ, int start, int end,
+			int[] visible, int visibleOffset) {
+		float[] p = this.planes;
+		int numVisible = 0;
+		for (int object = start; object < end; object++) {
+			float x = centerX[object], y = centerY[object], z = centerZ[object];
+			float ex = extentX[object], ey = extentY[object], ez = extentZ[object];
+
+			boolean inside = true;
+			for (int i = 0; inside && (i < 24); i += 4) {
+				// The box's extent along the plane's normal.
+				float r = Math.abs(p[i]) * ex + Math.abs(p[i + 1]) * ey + Math.abs(p[i + 2]) * ez;
+				inside = p[i] * x + p[i + 1] * y + p[i + 2] * z + p[i + 3] >= -r;
+			}
+			if (inside) {
+				visible[visibleOffset + numVisible++] = object;
+			}
+		}
+		return numVisible;
+	}
+
 	// Getters and setters
 	public float[] getProjectionMatrix() {
 		return this.projMatrix;
 	}
+
+	/**
+	 * Returns the clipping planes, 4 floats each in the order LEFT, RIGHT, BOTTOM, TOP,
+	 * NEAR, FAR.
+	 */
+	public float[] getPlanes() {
+		return this.planes;
+	}
 }
@@ -63,5 +63,8 @@ public class OrthographicFrustum extends Frustum {
 		this.farLR[1] = yMin;
 		this.farLR[2] = zMax;
 		this.farLR[3] = 1.0f;
+
+		// Eye space clipping planes until a model-view matrix is given
+		this.updatePlanes(this.projMatrix);
 	}
 }
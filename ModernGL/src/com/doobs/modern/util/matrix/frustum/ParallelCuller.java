@@ -0,0 +1,163 @@
+package com.doobs.modern.util.matrix.frustum;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Culls large numbers of struct-of-arrays bounds against a Frustum on a ForkJoinPool.
+ *
+ * The objects are split into fixed chunks. Every chunk is tested by one worker, which
+ * writes the visible indices into the output array at the chunk's own start, so workers
+ * never share a slot and need no locks. The chunks are then compacted in order, which
+ * gives the same result as a single Frustum.cullSpheres() or cullBoxes() call.
+ *
+ * A ParallelCuller runs one cull at a time.
+ */
+public class ParallelCuller {
+	private static final int DEFAULT_CHUNK_SIZE = 4096;
+
+	private ForkJoinPool pool;
+	private int chunkSize;
+
+	// Number of visible objects found in each chunk of the current cull.
+	private int[] chunkCounts = new int[0];
+
+	// The current cull. Boxes are tested if "extentX" != null, spheres otherwise.
+	private Frustum frustum;
+	private float[] centerX, centerY, centerZ;
+	private float[] radius;
+	private float[] extentX, extentY, extentZ;
+	private int numObjects;
+	private int[] visible;
+
+	/**
+	 * Creates a ParallelCuller using one worker per available processor.
+	 */
+	public ParallelCuller() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a ParallelCuller with "parallelism" workers.
+	 */
+	public ParallelCuller(int parallelism) {
+		this(parallelism, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a ParallelCuller with "parallelism" workers that each test "chunkSize"
+	 * objects at a time.
+	 */
+	public ParallelCuller(int parallelism, int chunkSize) {
+		this.pool = new ForkJoinPool(parallelism);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Tests the first "numObjects" spheres, like Frustum.cullSpheres(). The indices of the
+	 * visible ones are written to "visible", which needs room for "numObjects" indices,
+	 * and their number is returned.
+	 */
+	public int cullSpheres(Frustum frustum, float[] centerX, float[] centerY, float[] centerZ, float[] radius, int numObjects, int[] visible) {
+		this.radius = radius;
+		this.extentX = this.extentY = this.extentZ = null;
+		return this.cull(frustum, centerX, centerY, centerZ, numObjects, visible);
+	}
+
+	/**
+	 * Tests the first "numObjects" boxes, like Frustum.cullBoxes(). The indices of the
+	 * visible ones are written to "visible", which needs room for "numObjects" indices,
+	 * and their number is returned.
+	 */
+	public int cullBoxes(Frustum frustum, float[] centerX, float[] centerY, float[] centerZ, float[] extentX, float[] extentY, float[] extentZ,
+			int numObjects, int[] visible) {
+		this.radius = null;
+		this.extentX = extentX;
+		this.extentY = extentY;
+		this.extentZ = extentZ;
+		return this.cull(frustum, centerX, centerY, centerZ, numObjects, visible);
+	}
+
+	private int cull(Frustum frustum, float[] centerX, float[] centerY, float[] centerZ, int numObjects, int[] visible) {
+		this.frustum = frustum;
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.centerZ = centerZ;
+		this.numObjects = numObjects;
+		this.visible = visible;
+
+		int numChunks = (numObjects + this.chunkSize - 1) / this.chunkSize;
+		if (numChunks > this.chunkCounts.length) {
+			this.chunkCounts = Arrays.copyOf(this.chunkCounts, numChunks);
+		}
+		if (numChunks > 1) {
+			this.pool.invoke(new CullTask(0, numChunks));
+		} else if (numChunks == 1) {
+			this.cullChunk(0);
+		}
+
+		// Move every chunk's visible indices down to follow the previous chunk's.
+		int numVisible = 0;
+		for (int chunk = 0; chunk < numChunks; chunk++) {
+			int count = this.chunkCounts[chunk];
+			System.arraycopy(visible, chunk * this.chunkSize, visible, numVisible, count);
+			numVisible += count;
+		}
+
+		this.frustum = null;
+		this.centerX = this.centerY = this.centerZ = this.radius = this.extentX = this.extentY = this.extentZ = null;
+		this.visible = null;
+		return numVisible;
+	}
+
+	private void cullChunk(int chunk) {
+		int start = chunk * this.chunkSize;
+		int end = Math.min(start + this.chunkSize, this.numObjects);
+		if (this.extentX != null) {
+			this.chunkCounts[chunk] = this.frustum.cullBoxes(this.centerX, this.centerY, this.centerZ, this.extentX, this.extentY, this.extentZ, start, end,
+					this.visible, start);
+		} else {
+			this.chunkCounts[chunk] = this.frustum.cullSpheres(this.centerX, this.centerY, this.centerZ, this.radius, start, end, this.visible, start);
+		}
+	}
+
+	/**
+	 * Stops the workers. The ParallelCuller can't be used afterwards.
+	 */
+	public void cleanup() {
+		this.pool.shutdown();
+	}
+
+	// Getters
+	public int getParallelism() {
+		return this.pool.getParallelism();
+	}
+
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * Culls chunks "first" (inclusive) to "last" (exclusive), splitting in halves until a
+	 * single chunk is left.
+	 */
+	private class CullTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int first, last;
+
+		public CullTask(int first, int last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute() {
+			if (this.last - this.first == 1) {
+				ParallelCuller.this.cullChunk(this.first);
+			} else {
+				int middle = (this.first + this.last) >>> 1;
+				invokeAll(new CullTask(this.first, middle), new CullTask(middle, this.last));
+			}
+		}
+	}
+}
@@ -78,5 +78,8 @@ public class PerspectiveFrustum extends Frustum {
 		this.farLR[1] = yFmin;
 		this.farLR[2] = -fFar;
 		this.farLR[3] = 1.0f;
+
+		// Eye space clipping planes until a model-view matrix is given
+		this.updatePlanes(this.projMatrix);
 	}
 }
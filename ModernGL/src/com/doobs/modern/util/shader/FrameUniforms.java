@@ -0,0 +1,146 @@
+package com.doobs.modern.util.shader;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import java.nio.*;
+
+import org.lwjgl.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Holds the data that is the same for every draw in a frame (projection, view, camera and
+ * light) in one std140 uniform buffer. Every Shader that declares BLOCK_SOURCE reads it
+ * from binding point BINDING, so it is uploaded once per frame instead of once per draw
+ * and shader.
+ *
+ * GraphicsContext calls beginFrame() before every GameLoop.render(), which is enough for
+ * shaders that only read the projection. Loops using the view, camera or light call
+ * update() again once the Camera is applied. Other render loops must call update() before
+ * drawing with such a Shader, or Matrices.sendMatrices() throws.
+ */
+public class FrameUniforms {
+	public static final String BLOCK_NAME = "FrameData";
+	public static final int BINDING = 0;
+
+	/**
+	 * GLSL declaration of the block. Members are read as "frame.projection" etc. Positions
+	 * are in eye space, except cameraPosition, which is in world space.
+	 */
+	public static final String BLOCK_SOURCE = "layout(std140) uniform FrameData {" + " mat4 projection;" + " mat4 view;" + " mat4 viewProjection;"
+			+ " vec4 cameraPosition;" + " vec4 lightPosition;" + "} frame;";
+
+	// Offsets of the members in floats. std140 packs mat4s and vec4s without padding.
+	private static final int PROJECTION_OFFSET = 0;
+	private static final int VIEW_OFFSET = 16;
+	private static final int VIEW_PROJECTION_OFFSET = 32;
+	private static final int CAMERA_POSITION_OFFSET = 48;
+	private static final int LIGHT_POSITION_OFFSET = 52;
+	private static final int SIZE = 56;
+
+	private static int buffer = 0;
+	private static FloatBuffer data = BufferUtils.createFloatBuffer(SIZE);
+	private static float[] viewProjection = new float[16];
+	private static float[] identity = new float[16];
+
+	// World space.
+	private static float lightX = 0, lightY = 0, lightZ = 0;
+
+	/**
+	 * Sets the world space light position sent by the next update().
+	 */
+	public static void setLightPosition(float x, float y, float z) {
+		lightX = x;
+		lightY = y;
+		lightZ = z;
+	}
+
+	/**
+	 * Uploads the frame data with an identity view, so the projection is current before
+	 * anything is drawn. Positions are then the same in eye and world space.
+	 */
+	public static void beginFrame() {
+		Math3D.loadIdentity4f(identity);
+		update(identity);
+	}
+
+	/**
+	 * Uploads the frame data, using the current model-view matrix as the view matrix. Call
+	 * once per frame, after the Camera's transformations are applied and before any object
+	 * transformations.
+	 */
+	public static void update() {
+		update(Matrices.transform.getModelViewMatrix());
+	}
+
+	/**
+	 * Uploads the frame data for the "view" matrix and the current projection matrix.
+	 * "view" is assumed to be a rotation and translation only.
+	 */
+	public static void update(float[] view) {
+		GLBackend gl = GL.get();
+		if (buffer == 0) {
+			buffer = gl.glGenBuffers();
+			gl.glBindBuffer(GL_UNIFORM_BUFFER, buffer);
+			gl.glBufferData(GL_UNIFORM_BUFFER, SIZE * 4, GL_DYNAMIC_DRAW);
+		} else {
+			gl.glBindBuffer(GL_UNIFORM_BUFFER, buffer);
+		}
+
+		float[] projection = Matrices.transform.getProjectionMatrix();
+		Math3D.matrixMultiply4f(viewProjection, projection, view);
+
+		data.clear();
+		data.position(PROJECTION_OFFSET);
+		data.put(projection);
+		data.position(VIEW_OFFSET);
+		data.put(view);
+		data.position(VIEW_PROJECTION_OFFSET);
+		data.put(viewProjection);
+
+		// The camera sits at -(R^T * t) for a view of rotation R and translation t.
+		data.position(CAMERA_POSITION_OFFSET);
+		data.put(-((view[0] * view[12]) + (view[1] * view[13]) + (view[2] * view[14])));
+		data.put(-((view[4] * view[12]) + (view[5] * view[13]) + (view[6] * view[14])));
+		data.put(-((view[8] * view[12]) + (view[9] * view[13]) + (view[10] * view[14])));
+		data.put(1.0f);
+
+		data.position(LIGHT_POSITION_OFFSET);
+		data.put((view[0] * lightX) + (view[4] * lightY) + (view[8] * lightZ) + view[12]);
+		data.put((view[1] * lightX) + (view[5] * lightY) + (view[9] * lightZ) + view[13]);
+		data.put((view[2] * lightX) + (view[6] * lightY) + (view[10] * lightZ) + view[14]);
+		data.put(1.0f);
+		data.flip();
+
+		gl.glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+		gl.glBindBufferBase(GL_UNIFORM_BUFFER, BINDING, buffer);
+		GLValidation.check("FrameUniforms.update");
+	}
+
+	/**
+	 * Deletes the uniform buffer. The next update() creates a new one.
+	 */
+	public static void cleanup() {
+		if (buffer != 0) {
+			GL.get().glDeleteBuffers(buffer);
+			buffer = 0;
+		}
+	}
+
+	/**
+	 * Returns the ID of the uniform buffer, or 0 if update() hasn't been called yet.
+	 */
+	public static int getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Returns whether the frame data was uploaded since the uniform buffer was created.
+	 */
+	public static boolean isUploaded() {
+		return buffer != 0;
+	}
+}
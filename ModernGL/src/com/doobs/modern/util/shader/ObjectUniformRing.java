@@ -0,0 +1,239 @@
+package com.doobs.modern.util.shader;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+
+import java.nio.*;
+
+import org.lwjgl.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Streams per-object shader data (model-view matrix, MVP matrix and color) through one
+ * large uniform buffer instead of a glUniform call per object. Each object gets a slot in
+ * the std140 block declared by BLOCK_SOURCE, and a draw selects its slot with bind().
+ *
+ * The buffer is split into one region per frame in flight. A region is only written
+ * again after the fence placed at the end of its frame has passed, so the CPU never
+ * overwrites data the GPU is still reading.
+ *
+ * A frame looks like: beginFrame(), push() every object, flush(), then bind() each slot
+ * before its draw, and endFrame() once everything is submitted.
+ */
+public class ObjectUniformRing {
+	public static final String BLOCK_NAME = "ObjectData";
+	public static final int BINDING = 1;
+
+	/**
+	 * GLSL declaration of the block. Members are read as "object.mvMatrix" etc.
+	 */
+	public static final String BLOCK_SOURCE = "layout(std140) uniform ObjectData {" + " mat4 mvMatrix;" + " mat4 mvpMatrix;" + " vec4 color;"
+			+ "} object;";
+
+	// Size of one object's data in bytes: two mat4s and a vec4.
+	public static final int OBJECT_SIZE = 144;
+
+	private static final int DEFAULT_FRAMES = 3;
+
+	// How long to wait for a region that is still in use, in nanoseconds.
+	private static final long WAIT_TIMEOUT = 1000000000L;
+
+	private int buffer;
+	private int capacity;
+	private int numFrames;
+
+	// Distance between slots, in bytes. OBJECT_SIZE rounded up to the offset alignment.
+	private int stride;
+
+	// Whether the whole buffer is mapped for the ring's lifetime. Otherwise objects are
+	// written to "staging" and uploaded by flush().
+	private boolean persistent;
+	private ByteBuffer mapped;
+	private ByteBuffer staging;
+	private FloatBuffer data;
+
+	private long[] fences;
+	private int frame = 0;
+
+	// Slots written in the current frame, and how many of them flush() has uploaded.
+	private int numObjects = 0;
+	private int numFlushed = 0;
+
+	private int numStalls = 0;
+
+	/**
+	 * Creates an ObjectUniformRing with room for "capacity" objects per frame and three
+	 * frames in flight.
+	 */
+	public ObjectUniformRing(int capacity) {
+		this(capacity, DEFAULT_FRAMES);
+	}
+
+	/**
+	 * Creates an ObjectUniformRing with room for "capacity" objects per frame and
+	 * "numFrames" frames in flight.
+	 */
+	public ObjectUniformRing(int capacity, int numFrames) {
+		GLBackend gl = GL.get();
+		this.capacity = capacity;
+		this.numFrames = numFrames;
+		this.fences = new long[numFrames];
+
+		int alignment = Math.max(gl.glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT), 1);
+		this.stride = ((OBJECT_SIZE + alignment - 1) / alignment) * alignment;
+		long size = (long) this.stride * capacity * numFrames;
+
+		this.buffer = gl.glGenBuffers();
+		gl.glBindBuffer(GL_UNIFORM_BUFFER, this.buffer);
+		this.persistent = gl.isVersionSupported(4, 4) || gl.isExtensionSupported("GL_ARB_buffer_storage");
+		if (this.persistent) {
+			int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+			gl.glBufferStorage(GL_UNIFORM_BUFFER, size, flags);
+			this.mapped = gl.glMapBufferRange(GL_UNIFORM_BUFFER, 0, size, flags, null).order(ByteOrder.nativeOrder());
+			this.data = this.mapped.asFloatBuffer();
+		} else {
+			gl.glBufferData(GL_UNIFORM_BUFFER, size, GL_STREAM_DRAW);
+			this.staging = BufferUtils.createByteBuffer(this.stride * capacity);
+			this.data = this.staging.asFloatBuffer();
+		}
+		GLValidation.check("ObjectUniformRing");
+	}
+
+	/**
+	 * Moves on to the next region and forgets the objects of the last frame. Only waits if
+	 * the GPU is still reading the region, which is counted in getNumStalls().
+	 */
+	public void beginFrame() {
+		this.frame = (this.frame + 1) % this.numFrames;
+		this.numObjects = 0;
+		this.numFlushed = 0;
+
+		long fence = this.fences[this.frame];
+		if (fence != 0) {
+			GLBackend gl = GL.get();
+			if (gl.glClientWaitSync(fence, 0, 0) == GL_TIMEOUT_EXPIRED) {
+				this.numStalls++;
+				gl.glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+			}
+			gl.glDeleteSync(fence);
+			this.fences[this.frame] = 0;
+		}
+	}
+
+	/**
+	 * Writes the model-view and MVP matrices of "transform" and the color ("r", "g", "b",
+	 * "a") to the next slot, and returns the slot.
+	 */
+	public int push(GeometryTransform transform, float r, float g, float b, float a) {
+		return this.push(transform.getModelViewMatrix(), transform.getModelViewProjectionMatrix(), r, g, b, a);
+	}
+
+	/**
+	 * Writes "mvMatrix", "mvpMatrix" and the color ("r", "g", "b", "a") to the next slot,
+	 * and returns the slot.
+	 */
+	public int push(float[] mvMatrix, float[] mvpMatrix, float r, float g, float b, float a) {
+		if (this.numObjects == this.capacity) {
+			throw new IllegalStateException("ObjectUniformRing is full (" + this.capacity + " objects)");
+		}
+
+		// The staging buffer only holds the current region.
+		int slot = this.numObjects++;
+		int offset = this.persistent ? this.getOffset(slot) : (slot * this.stride);
+		this.data.position(offset / 4);
+		this.data.put(mvMatrix, 0, 16);
+		this.data.put(mvpMatrix, 0, 16);
+		this.data.put(r);
+		this.data.put(g);
+		this.data.put(b);
+		this.data.put(a);
+		return slot;
+	}
+
+	/**
+	 * Makes the slots pushed since the last flush() visible to OpenGL. Must be called
+	 * before drawing with them.
+	 */
+	public void flush() {
+		if (!this.persistent && (this.numFlushed < this.numObjects)) {
+			this.staging.position(this.numFlushed * this.stride);
+			this.staging.limit(((this.numObjects - 1) * this.stride) + OBJECT_SIZE);
+
+			GLBackend gl = GL.get();
+			gl.glBindBuffer(GL_UNIFORM_BUFFER, this.buffer);
+			gl.glBufferSubData(GL_UNIFORM_BUFFER, this.getOffset(this.numFlushed), this.staging);
+			this.staging.clear();
+			GLValidation.check("ObjectUniformRing.flush");
+		}
+		this.numFlushed = this.numObjects;
+	}
+
+	/**
+	 * Points the ObjectData block of the bound Shader at "slot".
+	 */
+	public void bind(int slot) {
+		GL.get().glBindBufferRange(GL_UNIFORM_BUFFER, BINDING, this.buffer, this.getOffset(slot), OBJECT_SIZE);
+	}
+
+	/**
+	 * Fences the current region. Call after the last draw of the frame.
+	 */
+	public void endFrame() {
+		this.fences[this.frame] = GL.get().glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	public void cleanup() {
+		GLBackend gl = GL.get();
+		for (int i = 0; i < this.numFrames; i++) {
+			if (this.fences[i] != 0) {
+				gl.glDeleteSync(this.fences[i]);
+				this.fences[i] = 0;
+			}
+		}
+		if (this.persistent) {
+			gl.glBindBuffer(GL_UNIFORM_BUFFER, this.buffer);
+			gl.glUnmapBuffer(GL_UNIFORM_BUFFER);
+		}
+		gl.glDeleteBuffers(this.buffer);
+	}
+
+	/**
+	 * Returns the byte offset of "slot" of the current region within the buffer.
+	 */
+	private int getOffset(int slot) {
+		return (this.frame * this.capacity + slot) * this.stride;
+	}
+
+	// Getters
+	public int getBuffer() {
+		return this.buffer;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	public int getNumObjects() {
+		return this.numObjects;
+	}
+
+	/**
+	 * Returns whether the buffer is persistently mapped (OpenGL 4.4 or ARB_buffer_storage).
+	 */
+	public boolean isPersistent() {
+		return this.persistent;
+	}
+
+	/**
+	 * Returns how many times beginFrame() had to wait for the GPU.
+	 */
+	public int getNumStalls() {
+		return this.numStalls;
+	}
+}
@@ -2,29 +2,43 @@ package com.doobs.modern.util.shader;
 
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.*;
 
 import java.io.*;
 import java.nio.*;
 import java.util.*;
 
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
 public class Shader {
 	public int program;
 	public int vertexShader, fragmentShader;
 
 	private Map<String, Integer> inLocations = new HashMap<String, Integer>();
 	private Map<String, Integer> uniformLocations = new HashMap<String, Integer>();
+	private Map<String, Uniform> uniforms = new HashMap<String, Uniform>();
+
+	// Uniforms of the stock shaders, resolved when the program is compiled.
+	private UniformMatrix mvMatrixUniform, pMatrixUniform, mvpMatrixUniform;
+	private Uniform4f colorUniform;
+
+	// Whether the program reads the FrameUniforms block.
+	private boolean frameUniforms = false;
 
 	public Shader(String URL) {
-		this.program = glCreateProgram();
-		this.vertexShader = glCreateShader(GL_VERTEX_SHADER);
-		this.fragmentShader = glCreateShader(GL_FRAGMENT_SHADER);
+		GLBackend gl = GL.get();
+		this.program = gl.glCreateProgram();
+		this.vertexShader = gl.glCreateShader(GL_VERTEX_SHADER);
+		this.fragmentShader = gl.glCreateShader(GL_FRAGMENT_SHADER);
 		this.compile(this.loadProgram(URL + ".vert"), this.loadProgram(URL + ".frag"));
 	}
 
 	public Shader(String vertexSource, String fragmentSource) {
-		this.program = glCreateProgram();
-		this.vertexShader = glCreateShader(GL_VERTEX_SHADER);
-		this.fragmentShader = glCreateShader(GL_FRAGMENT_SHADER);
+		GLBackend gl = GL.get();
+		this.program = gl.glCreateProgram();
+		this.vertexShader = gl.glCreateShader(GL_VERTEX_SHADER);
+		this.fragmentShader = gl.glCreateShader(GL_FRAGMENT_SHADER);
 		this.compile(vertexSource, fragmentSource);
 	}
 
@@ -48,65 +62,94 @@ public class Shader {
 	}
 
 	public void compile(String vertexSource, String fragmentSource) {
+		GLBackend gl = GL.get();
 		// Vertex
-		glShaderSource(this.vertexShader, vertexSource);
-		glCompileShader(this.vertexShader);
-		if (glGetShaderi(this.vertexShader, GL_COMPILE_STATUS) == GL_FALSE) {
+		gl.glShaderSource(this.vertexShader, vertexSource);
+		gl.glCompileShader(this.vertexShader);
+		if (gl.glGetShaderi(this.vertexShader, GL_COMPILE_STATUS) == GL_FALSE) {
 			System.err.println("Vertex shader not compiled.");
-			System.err.println(glGetShaderInfoLog(this.vertexShader, 1024));
+			System.err.println(gl.glGetShaderInfoLog(this.vertexShader, 1024));
 		}
 
 		// Fragment
-		glShaderSource(this.fragmentShader, fragmentSource);
-		glCompileShader(this.fragmentShader);
-		if (glGetShaderi(this.fragmentShader, GL_COMPILE_STATUS) == GL_FALSE) {
+		gl.glShaderSource(this.fragmentShader, fragmentSource);
+		gl.glCompileShader(this.fragmentShader);
+		if (gl.glGetShaderi(this.fragmentShader, GL_COMPILE_STATUS) == GL_FALSE) {
 			System.err.println("Fragment shader not compiled.");
-			System.err.println(glGetShaderInfoLog(this.fragmentShader, 1024));
+			System.err.println(gl.glGetShaderInfoLog(this.fragmentShader, 1024));
 		}
 
 		// Program
-		glAttachShader(this.program, this.vertexShader);
-		glAttachShader(this.program, this.fragmentShader);
-		glLinkProgram(this.program);
-		glValidateProgram(this.program);
+		gl.glAttachShader(this.program, this.vertexShader);
+		gl.glAttachShader(this.program, this.fragmentShader);
+		gl.glLinkProgram(this.program);
+		gl.glValidateProgram(this.program);
+		if (gl.isVersionSupported(3, 1)) {
+			this.frameUniforms = this.bindUniformBlock(FrameUniforms.BLOCK_NAME, FrameUniforms.BINDING);
+			this.bindUniformBlock(ObjectUniformRing.BLOCK_NAME, ObjectUniformRing.BINDING);
+		}
 
 		// Attributes
-		int numAttributes = glGetProgrami(this.program, GL_ACTIVE_ATTRIBUTES);
-		int maxAttributeLength = glGetProgrami(this.program, GL_ACTIVE_ATTRIBUTE_MAX_LENGTH);
+		int numAttributes = gl.glGetProgrami(this.program, GL_ACTIVE_ATTRIBUTES);
+		int maxAttributeLength = gl.glGetProgrami(this.program, GL_ACTIVE_ATTRIBUTE_MAX_LENGTH);
 		System.out.println("{ ATTRIBUTES }");
 		for (int i = 0; i < numAttributes; i++) {
-			String name = glGetActiveAttrib(this.program, i, maxAttributeLength);
-			int location = glGetAttribLocation(this.program, name);
+			String name = gl.glGetActiveAttrib(this.program, i, maxAttributeLength);
+			int location = gl.glGetAttribLocation(this.program, name);
 			System.out.println(name + ":" + location);
 			this.inLocations.put(name, location);
 		}
 		System.out.println();
 
 		// Uniforms
-		int numUniforms = glGetProgrami(this.program, GL_ACTIVE_UNIFORMS);
-		int maxUniformLength = glGetProgrami(this.program, GL_ACTIVE_UNIFORM_MAX_LENGTH);
+		int numUniforms = gl.glGetProgrami(this.program, GL_ACTIVE_UNIFORMS);
+		int maxUniformLength = gl.glGetProgrami(this.program, GL_ACTIVE_UNIFORM_MAX_LENGTH);
 		System.out.println("{ UNIFORMS }");
 		for (int i = 0; i < numUniforms; i++) {
-			String name = glGetActiveUniform(this.program, i, maxUniformLength);
-			int location = glGetUniformLocation(this.program, name);
+			String name = gl.glGetActiveUniform(this.program, i, maxUniformLength);
+			int location = gl.glGetUniformLocation(this.program, name);
 			this.uniformLocations.put(name, location);
 			System.out.println(name + ":" + location);
 		}
 		System.out.println();
+
+		this.uniforms.clear();
+		this.mvMatrixUniform = this.getUniformMatrix4(StockShaders.MODEL_VIEW_MATRIX_UNIFORM_NAME);
+		this.pMatrixUniform = this.getUniformMatrix4(StockShaders.PROJECTION_MATRIX_UNIFORM_NAME);
+		this.mvpMatrixUniform = this.getUniformMatrix4(StockShaders.MODEL_VIEW_PROJECTION_MATRIX_UNIFORM_NAME);
+		this.colorUniform = this.getUniform4f(StockShaders.COLOR_UNIFORM_NAME);
+
+		GLValidation.check("Shader.compile");
+	}
+
+	/**
+	 * Points the uniform block called "name" at uniform buffer binding point "binding".
+	 * Returns false if this Shader doesn't have the block.
+	 */
+	public boolean bindUniformBlock(String name, int binding) {
+		GLBackend gl = GL.get();
+		int index = gl.glGetUniformBlockIndex(this.program, name);
+		if (index == GL_INVALID_INDEX) {
+			return false;
+		}
+		gl.glUniformBlockBinding(this.program, index, binding);
+		return true;
 	}
 
 	public void use() {
-		glUseProgram(this.program);
+		GL.get().glUseProgram(this.program);
+		GLValidation.check("Shader.use");
 	}
 
 	public void end() {
-		glUseProgram(0);
+		GL.get().glUseProgram(0);
 	}
 
 	public void cleanup() {
-		glDeleteProgram(this.program);
-		glDeleteShader(this.vertexShader);
-		glDeleteShader(this.fragmentShader);
+		GLBackend gl = GL.get();
+		gl.glDeleteProgram(this.program);
+		gl.glDeleteShader(this.vertexShader);
+		gl.glDeleteShader(this.fragmentShader);
 	}
 
 	// Getters and Setters
@@ -114,6 +157,13 @@ public class Shader {
 		return this.program;
 	}
 
+	/**
+	 * Returns whether this Shader reads the FrameData block of FrameUniforms.
+	 */
+	public boolean usesFrameUniforms() {
+		return this.frameUniforms;
+	}
+
 	public Map<String, Integer> getAttributeLocations() {
 		return this.inLocations;
 	}
@@ -122,28 +172,124 @@ public class Shader {
 		return this.uniformLocations;
 	}
 
+	/**
+	 * Returns the mat4 uniform called "name". The same Uniform is returned every time, so
+	 * it can be kept instead of looking it up per upload.
+	 */
+	public UniformMatrix getUniformMatrix4(String name) {
+		Uniform uniform = this.uniforms.get(name);
+		if (uniform == null) {
+			uniform = new UniformMatrix(name, this.getUniformLocation(name), 4);
+			this.uniforms.put(name, uniform);
+		}
+		return (UniformMatrix) this.checkType(uniform, "mat4");
+	}
+
+	/**
+	 * Returns the mat3 uniform called "name".
+	 */
+	public UniformMatrix getUniformMatrix3(String name) {
+		Uniform uniform = this.uniforms.get(name);
+		if (uniform == null) {
+			uniform = new UniformMatrix(name, this.getUniformLocation(name), 3);
+			this.uniforms.put(name, uniform);
+		}
+		return (UniformMatrix) this.checkType(uniform, "mat3");
+	}
+
+	/**
+	 * Returns the int or sampler uniform called "name".
+	 */
+	public Uniform1i getUniform1i(String name) {
+		Uniform uniform = this.uniforms.get(name);
+		if (uniform == null) {
+			uniform = new Uniform1i(name, this.getUniformLocation(name));
+			this.uniforms.put(name, uniform);
+		}
+		return (Uniform1i) this.checkType(uniform, "int");
+	}
+
+	/**
+	 * Returns the vec3 uniform called "name".
+	 */
+	public Uniform3f getUniform3f(String name) {
+		Uniform uniform = this.uniforms.get(name);
+		if (uniform == null) {
+			uniform = new Uniform3f(name, this.getUniformLocation(name));
+			this.uniforms.put(name, uniform);
+		}
+		return (Uniform3f) this.checkType(uniform, "vec3");
+	}
+
+	/**
+	 * Returns the vec4 uniform called "name".
+	 */
+	public Uniform4f getUniform4f(String name) {
+		Uniform uniform = this.uniforms.get(name);
+		if (uniform == null) {
+			uniform = new Uniform4f(name, this.getUniformLocation(name));
+			this.uniforms.put(name, uniform);
+		}
+		return (Uniform4f) this.checkType(uniform, "vec4");
+	}
+
+	/**
+	 * Returns "uniform", or throws an IllegalArgumentException if it was already looked up
+	 * as a different type than "type".
+	 */
+	private Uniform checkType(Uniform uniform, String type) {
+		if (!uniform.getType().equals(type)) {
+			throw new IllegalArgumentException("Uniform \"" + uniform.getName() + "\" was looked up as a " + uniform.getType() + ", not a " + type + ".");
+		}
+		return uniform;
+	}
+
+	private int getUniformLocation(String name) {
+		Integer location = this.uniformLocations.get(name);
+		return (location == null) ? -1 : location;
+	}
+
+	public UniformMatrix getModelViewMatrixUniform() {
+		return this.mvMatrixUniform;
+	}
+
+	public UniformMatrix getProjectionMatrixUniform() {
+		return this.pMatrixUniform;
+	}
+
+	public UniformMatrix getModelViewProjectionMatrixUniform() {
+		return this.mvpMatrixUniform;
+	}
+
+	public Uniform4f getColorUniform() {
+		return this.colorUniform;
+	}
+
 	public void setUniformMatrix4(String uniformName, boolean transpose, FloatBuffer matrixdata) {
-		int location = this.uniformLocations.get(uniformName);
-		glUniformMatrix4(location, transpose, matrixdata);
+		if (transpose) {
+			this.getUniformMatrix4(uniformName).setTransposed(matrixdata);
+		} else {
+			this.getUniformMatrix4(uniformName).set(matrixdata);
+		}
 	}
 
 	public void setUniformMatrix3(String uniformName, boolean transpose, FloatBuffer matrixdata) {
-		int location = this.uniformLocations.get(uniformName);
-		glUniformMatrix3(location, transpose, matrixdata);
+		if (transpose) {
+			this.getUniformMatrix3(uniformName).setTransposed(matrixdata);
+		} else {
+			this.getUniformMatrix3(uniformName).set(matrixdata);
+		}
 	}
 
 	public void setUniform1i(String uniformName, int i) {
-		int location = this.uniformLocations.get(uniformName);
-		glUniform1i(location, i);
+		this.getUniform1i(uniformName).set(i);
 	}
 
 	public void setUniform3f(String uniformName, float v1, float v2, float v3) {
-		int location = this.uniformLocations.get(uniformName);
-		glUniform3f(location, v1, v2, v3);
+		this.getUniform3f(uniformName).set(v1, v2, v3);
 	}
 
 	public void setUniform4f(String uniformName, float v1, float v2, float v3, float v4) {
-		int location = this.uniformLocations.get(uniformName);
-		glUniform4f(location, v1, v2, v3, v4);
+		this.getUniform4f(uniformName).set(v1, v2, v3, v4);
 	}
 }
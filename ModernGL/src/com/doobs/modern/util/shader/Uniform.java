@@ -0,0 +1,49 @@
+package com.doobs.modern.util.shader;
+
+/**
+ * A uniform of a Shader, resolved once when the Shader is compiled. Subclasses remember
+ * the last value they uploaded, so setting an unchanged value is a compare instead of an
+ * OpenGL call. Values are only uploaded while the Shader is in use.
+ *
+ * Uniforms the Shader doesn't have get location -1 and ignore every value.
+ */
+public abstract class Uniform {
+	protected final String name;
+	protected final int location;
+
+	// Whether the last uploaded value is known.
+	protected boolean uploaded = false;
+
+	protected Uniform(String name, int location) {
+		this.name = name;
+		this.location = location;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public int getLocation() {
+		return this.location;
+	}
+
+	/**
+	 * Returns the GLSL type of this uniform, e.g. "vec4" or "mat3".
+	 */
+	public abstract String getType();
+
+	/**
+	 * Returns whether the Shader actually has this uniform.
+	 */
+	public boolean isActive() {
+		return this.location != -1;
+	}
+
+	/**
+	 * Forgets the last uploaded value, so the next value is uploaded even if it is the
+	 * same. Needed if the uniform was changed without going through this Uniform.
+	 */
+	public void invalidate() {
+		this.uploaded = false;
+	}
+}
@@ -0,0 +1,29 @@
+package com.doobs.modern.util.shader;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
+/**
+ * An int or sampler uniform.
+ */
+public class Uniform1i extends Uniform {
+	private int value;
+
+	Uniform1i(String name, int location) {
+		super(name, location);
+	}
+
+	public void set(int value) {
+		if ((this.location == -1) || (this.uploaded && (this.value == value))) {
+			return;
+		}
+		this.value = value;
+		this.uploaded = true;
+		GL.get().glUniform1i(this.location, value);
+		GLValidation.check("Uniform1i.set");
+	}
+
+	public String getType() {
+		return "int";
+	}
+}
@@ -0,0 +1,31 @@
+package com.doobs.modern.util.shader;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
+/**
+ * A vec3 uniform.
+ */
+public class Uniform3f extends Uniform {
+	private float v1, v2, v3;
+
+	Uniform3f(String name, int location) {
+		super(name, location);
+	}
+
+	public void set(float v1, float v2, float v3) {
+		if ((this.location == -1) || (this.uploaded && (this.v1 == v1) && (this.v2 == v2) && (this.v3 == v3))) {
+			return;
+		}
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+		this.uploaded = true;
+		GL.get().glUniform3f(this.location, v1, v2, v3);
+		GLValidation.check("Uniform3f.set");
+	}
+
+	public String getType() {
+		return "vec3";
+	}
+}
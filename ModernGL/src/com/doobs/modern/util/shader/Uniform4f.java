@@ -0,0 +1,32 @@
+package com.doobs.modern.util.shader;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
+/**
+ * A vec4 uniform, e.g. a color.
+ */
+public class Uniform4f extends Uniform {
+	private float v1, v2, v3, v4;
+
+	Uniform4f(String name, int location) {
+		super(name, location);
+	}
+
+	public void set(float v1, float v2, float v3, float v4) {
+		if ((this.location == -1) || (this.uploaded && (this.v1 == v1) && (this.v2 == v2) && (this.v3 == v3) && (this.v4 == v4))) {
+			return;
+		}
+		this.v1 = v1;
+		this.v2 = v2;
+		this.v3 = v3;
+		this.v4 = v4;
+		this.uploaded = true;
+		GL.get().glUniform4f(this.location, v1, v2, v3, v4);
+		GLValidation.check("Uniform4f.set");
+	}
+
+	public String getType() {
+		return "vec4";
+	}
+}
@@ -0,0 +1,113 @@
+package com.doobs.modern.util.shader;
+
+import java.nio.*;
+
+import org.lwjgl.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
+/**
+ * A mat3 or mat4 uniform. Matrices are column-major, like everywhere else in the library.
+ */
+public class UniformMatrix extends Uniform {
+	private final int size;
+	private final float[] value;
+	private final FloatBuffer buffer;
+
+	/**
+	 * Creates a "size" x "size" matrix uniform ("size" is 3 or 4).
+	 */
+	UniformMatrix(String name, int location, int size) {
+		super(name, location);
+		this.size = size;
+		this.value = new float[size * size];
+		this.buffer = BufferUtils.createFloatBuffer(size * size);
+	}
+
+	/**
+	 * Uploads "matrix" if it differs from the last uploaded matrix.
+	 */
+	public void set(float[] matrix) {
+		if ((this.location == -1) || (this.uploaded && this.matches(matrix))) {
+			return;
+		}
+		System.arraycopy(matrix, 0, this.value, 0, this.value.length);
+		this.uploaded = true;
+
+		this.buffer.clear();
+		this.buffer.put(this.value);
+		this.buffer.flip();
+		this.upload(this.buffer);
+	}
+
+	/**
+	 * Uploads the matrix between "matrix"'s position and limit if it differs from the last
+	 * uploaded matrix. Doesn't change "matrix"'s position.
+	 */
+	public void set(FloatBuffer matrix) {
+		if (this.location == -1) {
+			return;
+		}
+
+		int start = matrix.position();
+		boolean matches = this.uploaded;
+		for (int i = 0; i < this.value.length; i++) {
+			float f = matrix.get(start + i);
+			if (this.value[i] != f) {
+				this.value[i] = f;
+				matches = false;
+			}
+		}
+		if (matches) {
+			return;
+		}
+		this.uploaded = true;
+		this.upload(matrix);
+	}
+
+	private boolean matches(float[] matrix) {
+		for (int i = 0; i < this.value.length; i++) {
+			if (this.value[i] != matrix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Uploads the row-major matrix between "matrix"'s position and limit, transposing it.
+	 * It isn't compared, and the next set() uploads whatever it is given.
+	 */
+	public void setTransposed(FloatBuffer matrix) {
+		if (this.location == -1) {
+			return;
+		}
+		this.uploaded = false;
+		this.upload(matrix, true);
+	}
+
+	private void upload(FloatBuffer matrix) {
+		this.upload(matrix, false);
+	}
+
+	private void upload(FloatBuffer matrix, boolean transpose) {
+		if (this.size == 4) {
+			GL.get().glUniformMatrix4(this.location, transpose, matrix);
+		} else {
+			GL.get().glUniformMatrix3(this.location, transpose, matrix);
+		}
+		GLValidation.check("UniformMatrix.set");
+	}
+
+	public String getType() {
+		return "mat" + this.size;
+	}
+
+	/**
+	 * Returns the number of rows and columns of this matrix.
+	 */
+	public int getSize() {
+		return this.size;
+	}
+}
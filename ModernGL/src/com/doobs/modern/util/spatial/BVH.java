@@ -0,0 +1,556 @@
+package com.doobs.modern.util.spatial;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.doobs.modern.util.matrix.frustum.*;
+
+/**
+ * A bounding volume hierarchy over the axis aligned boxes of a set of objects.
+ *
+ * The tree is built with the binned surface area heuristic and stored flattened in
+ * primitive arrays: node "n" has its box at nodeBounds[n * 6], and its two children (if
+ * any) next to each other at nodeLeft[n] and nodeLeft[n] + 1. The objects below every
+ * node are a contiguous range of the object order, so a subtree that is completely
+ * visible is accepted with a single copy.
+ *
+ * Object boxes are read from a caller owned float[] with 6 floats per object (min x, y,
+ * z, then max x, y, z). After moving objects, call refit() to update the node boxes
+ * without changing the tree. Refitting loosens the tree over time; rebuild() when
+ * getCostRatio() grows too large. Queries and refits allocate nothing.
+ */
+public class BVH {
+	private static final int NUM_BINS = 16;
+	private static final int MAX_LEAF_SIZE = 4;
+
+	// Cost of visiting a node, relative to testing one object.
+	private static final float TRAVERSAL_COST = 1.0f;
+
+	// Ranges with more objects than this are built on separate threads.
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	private float[] bounds;
+	private int numObjects;
+	private ForkJoinPool pool;
+
+	// Centroids and boxes of the objects in tree order, used while building. They are
+	// partitioned along with the objects so building reads them sequentially.
+	private float[] centroids;
+	private float[] buildBounds;
+
+	// Objects in tree order.
+	private int[] objects;
+
+	private int numNodes;
+	private float[] nodeBounds;
+	private int[] nodeLeft; // -1 for leaves
+	private int[] nodeFirst;
+	private int[] nodeCount;
+	private int depth;
+
+	private float builtCost;
+	private float cost;
+
+	// Traversal stack: node and the planes it still intersects.
+	private int[] stackNodes;
+	private int[] stackMasks;
+
+	/**
+	 * Builds a BVH over the first "numObjects" boxes in "bounds" (6 floats each).
+	 */
+	public BVH(float[] bounds, int numObjects) {
+		this(bounds, numObjects, null);
+	}
+
+	/**
+	 * Builds a BVH over the first "numObjects" boxes in "bounds" (6 floats each). Large
+	 * subtrees are built in parallel on "pool" if it isn't null.
+	 */
+	public BVH(float[] bounds, int numObjects, ForkJoinPool pool) {
+		this.bounds = bounds;
+		this.numObjects = numObjects;
+		this.pool = pool;
+
+		int maxNodes = Math.max(1, numObjects * 2 - 1);
+		this.centroids = new float[numObjects * 3];
+		this.buildBounds = new float[numObjects * 6];
+		this.objects = new int[numObjects];
+		this.nodeBounds = new float[maxNodes * 6];
+		this.nodeLeft = new int[maxNodes];
+		this.nodeFirst = new int[maxNodes];
+		this.nodeCount = new int[maxNodes];
+		this.rebuild();
+	}
+
+	/**
+	 * Sets the box of "object". Call refit() or rebuild() afterwards.
+	 */
+	public void setBounds(int object, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int b = object * 6;
+		this.bounds[b] = minX;
+		this.bounds[b + 1] = minY;
+		this.bounds[b + 2] = minZ;
+		this.bounds[b + 3] = maxX;
+		this.bounds[b + 4] = maxY;
+		this.bounds[b + 5] = maxZ;
+	}
+
+	/**
+	 * Builds the tree from scratch for the current object boxes.
+	 */
+	public void rebuild() {
+		for (int i = 0; i < this.numObjects; i++) {
+			int b = i * 6;
+			this.centroids[i * 3] = (this.bounds[b] + this.bounds[b + 3]) * 0.5f;
+			this.centroids[i * 3 + 1] = (this.bounds[b + 1] + this.bounds[b + 4]) * 0.5f;
+			this.centroids[i * 3 + 2] = (this.bounds[b + 2] + this.bounds[b + 5]) * 0.5f;
+			this.objects[i] = i;
+		}
+		System.arraycopy(this.bounds, 0, this.buildBounds, 0, this.numObjects * 6);
+
+		AtomicInteger nodesUsed = new AtomicInteger(1);
+		AtomicInteger maxDepth = new AtomicInteger(1);
+		if ((this.pool != null) && (this.numObjects > PARALLEL_THRESHOLD)) {
+			this.pool.invoke(new BuildTask(0, 0, this.numObjects, 1, nodesUsed, maxDepth));
+		} else {
+			this.build(0, 0, this.numObjects, 1, new Bins(), nodesUsed, maxDepth, null);
+		}
+		this.numNodes = nodesUsed.get();
+		this.depth = maxDepth.get();
+
+		// Children are pushed one per level below the parent's sibling.
+		this.stackNodes = new int[this.depth + 2];
+		this.stackMasks = new int[this.depth + 2];
+
+		this.builtCost = this.computeCost();
+		this.cost = this.builtCost;
+	}
+
+	/**
+	 * Builds node "node" over the objects "first" to "first" + "count". If "task" isn't
+	 * null, large children are built as separate fork-join tasks.
+	 */
+	private void build(int node, int first, int count, int depth, Bins bins, AtomicInteger nodesUsed, AtomicInteger maxDepth, BuildTask task) {
+		this.nodeFirst[node] = first;
+		this.nodeCount[node] = count;
+		this.nodeLeft[node] = -1;
+		this.fitNode(node, first, count, bins);
+
+		int current = maxDepth.get();
+		while ((depth > current) && !maxDepth.compareAndSet(current, depth)) {
+			current = maxDepth.get();
+		}
+		if (count <= MAX_LEAF_SIZE) {
+			return;
+		}
+
+		int split = this.findSplit(node, first, count, bins);
+		if (split < 0) {
+			// No useful split (e.g. all centroids equal), so halve the range.
+			split = first + count / 2;
+		}
+
+		int left = nodesUsed.getAndAdd(2);
+		this.nodeLeft[node] = left;
+		int leftCount = split - first;
+		if ((task != null) && (count > PARALLEL_THRESHOLD)) {
+			ForkJoinTask.invokeAll(new BuildTask(left, first, leftCount, depth + 1, nodesUsed, maxDepth),
+					new BuildTask(left + 1, split, count - leftCount, depth + 1, nodesUsed, maxDepth));
+		} else {
+			this.build(left, first, leftCount, depth + 1, bins, nodesUsed, maxDepth, null);
+			this.build(left + 1, split, count - leftCount, depth + 1, bins, nodesUsed, maxDepth, null);
+		}
+	}
+
+	/**
+	 * Finds the cheapest binned split of the objects of "node" and partitions them around
+	 * it. Returns the index of the first object of the right half, or -1 if the objects
+	 * can't be split.
+	 */
+	private int findSplit(int node, int first, int count, Bins bins) {
+		// Bin the objects along all three axes in one pass.
+		float[] cMin = bins.centroidMin, cMax = bins.centroidMax;
+		float[] scale = bins.scale;
+		for (int axis = 0; axis < 3; axis++) {
+			float extent = cMax[axis] - cMin[axis];
+			scale[axis] = extent > 0 ? NUM_BINS / extent : 0;
+		}
+		bins.clear();
+		for (int i = first; i < first + count; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				int bin = axis * NUM_BINS + Math.min(NUM_BINS - 1, (int) ((this.centroids[i * 3 + axis] - cMin[axis]) * scale[axis]));
+				bins.counts[bin]++;
+				grow(bins.bounds, bin * 6, this.buildBounds, i * 6);
+			}
+		}
+
+		float bestCost = Float.POSITIVE_INFINITY;
+		int bestAxis = -1, bestBin = -1;
+		float nodeArea = area(this.nodeBounds, node * 6);
+		for (int axis = 0; axis < 3; axis++) {
+			if (scale[axis] == 0) {
+				continue;
+			}
+
+			// Sweep from the right to get the area and count right of every split.
+			int base = axis * NUM_BINS;
+			bins.resetSweep();
+			int rightCount = 0;
+			for (int bin = NUM_BINS - 1; bin > 0; bin--) {
+				rightCount += bins.counts[base + bin];
+				grow(bins.sweep, 0, bins.bounds, (base + bin) * 6);
+				bins.rightAreas[bin] = rightCount > 0 ? area(bins.sweep, 0) : 0;
+				bins.rightCounts[bin] = rightCount;
+			}
+
+			bins.resetSweep();
+			int leftCount = 0;
+			for (int bin = 0; bin < NUM_BINS - 1; bin++) {
+				leftCount += bins.counts[base + bin];
+				grow(bins.sweep, 0, bins.bounds, (base + bin) * 6);
+				if ((leftCount == 0) || (bins.rightCounts[bin + 1] == 0)) {
+					continue;
+				}
+				// Costs are scaled by the node's area, which keeps flat nodes from dividing by 0.
+				float cost = TRAVERSAL_COST * nodeArea + area(bins.sweep, 0) * leftCount + bins.rightAreas[bin + 1] * bins.rightCounts[bin + 1];
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = bin;
+				}
+			}
+		}
+
+		if (bestAxis < 0) {
+			return -1;
+		}
+
+		// Partition the objects: bins up to "bestBin" go left.
+		int i = first, j = first + count - 1;
+		while (i <= j) {
+			int bin = Math.min(NUM_BINS - 1, (int) ((this.centroids[i * 3 + bestAxis] - cMin[bestAxis]) * scale[bestAxis]));
+			if (bin <= bestBin) {
+				i++;
+			} else {
+				this.swap(i, j--);
+			}
+		}
+		return (i == first) || (i == first + count) ? -1 : i;
+	}
+
+	private void swap(int i, int j) {
+		int object = this.objects[i];
+		this.objects[i] = this.objects[j];
+		this.objects[j] = object;
+		for (int k = 0; k < 3; k++) {
+			float centroid = this.centroids[i * 3 + k];
+			this.centroids[i * 3 + k] = this.centroids[j * 3 + k];
+			this.centroids[j * 3 + k] = centroid;
+		}
+		for (int k = 0; k < 6; k++) {
+			float bound = this.buildBounds[i * 6 + k];
+			this.buildBounds[i * 6 + k] = this.buildBounds[j * 6 + k];
+			this.buildBounds[j * 6 + k] = bound;
+		}
+	}
+
+	/**
+	 * Updates the node boxes for the current object boxes, keeping the tree. Children
+	 * always come after their parent, so one backwards pass is enough.
+	 */
+	public void refit() {
+		for (int node = this.numNodes - 1; node >= 0; node--) {
+			int left = this.nodeLeft[node];
+			if (left < 0) {
+				this.fitLeaf(node);
+			} else {
+				int b = node * 6;
+				System.arraycopy(this.nodeBounds, left * 6, this.nodeBounds, b, 6);
+				grow(this.nodeBounds, b, this.nodeBounds, (left + 1) * 6);
+			}
+		}
+		this.cost = this.computeCost();
+	}
+
+	/**
+	 * Sets the box of "node" to contain the objects "first" to "first" + "count", and
+	 * stores the extent of their centroids in "bins".
+	 */
+	private void fitNode(int node, int first, int count, Bins bins) {
+		int b = node * 6;
+		Bins.empty(this.nodeBounds, b);
+		float[] cMin = bins.centroidMin, cMax = bins.centroidMax;
+		for (int axis = 0; axis < 3; axis++) {
+			cMin[axis] = Float.POSITIVE_INFINITY;
+			cMax[axis] = Float.NEGATIVE_INFINITY;
+		}
+		for (int i = first; i < first + count; i++) {
+			grow(this.nodeBounds, b, this.buildBounds, i * 6);
+			for (int axis = 0; axis < 3; axis++) {
+				float centroid = this.centroids[i * 3 + axis];
+				if (centroid < cMin[axis]) {
+					cMin[axis] = centroid;
+				}
+				if (centroid > cMax[axis]) {
+					cMax[axis] = centroid;
+				}
+			}
+		}
+	}
+
+	private void fitLeaf(int node) {
+		int b = node * 6;
+		Bins.empty(this.nodeBounds, b);
+		int first = this.nodeFirst[node];
+		for (int i = first; i < first + this.nodeCount[node]; i++) {
+			grow(this.nodeBounds, b, this.bounds, this.objects[i] * 6);
+		}
+	}
+
+	/**
+	 * Returns the surface area heuristic cost of the whole tree, relative to its root.
+	 */
+	private float computeCost() {
+		float rootArea = area(this.nodeBounds, 0);
+		if (rootArea <= 0) {
+			return 0;
+		}
+
+		float cost = 0;
+		for (int node = 0; node < this.numNodes; node++) {
+			float area = area(this.nodeBounds, node * 6);
+			cost += this.nodeLeft[node] < 0 ? area * this.nodeCount[node] : area * TRAVERSAL_COST;
+		}
+		return cost / rootArea;
+	}
+
+	/**
+	 * Writes the objects whose boxes can be visible in "frustum" to "visible", which needs
+	 * room for every object, and returns their number. Subtrees completely inside the
+	 * frustum are accepted without testing their nodes, and subtrees completely outside
+	 * one plane are skipped.
+	 */
+	public int query(Frustum frustum, int[] visible) {
+		if (this.numObjects == 0) {
+			return 0;
+		}
+
+		float[] p = frustum.getPlanes();
+		int numVisible = 0;
+		int top = 0;
+		this.stackNodes[top] = 0;
+		this.stackMasks[top++] = 0x3F;
+
+		while (top > 0) {
+			int node = this.stackNodes[--top];
+			int mask = this.stackMasks[top];
+
+			// Test the planes the parent wasn't completely inside of.
+			int b = node * 6;
+			boolean outside = false;
+			for (int plane = 0; plane < 6; plane++) {
+				if ((mask & (1 << plane)) == 0) {
+					continue;
+				}
+				int i = plane * 4;
+				float nx = p[i], ny = p[i + 1], nz = p[i + 2], d = p[i + 3];
+				float far = nx * (nx >= 0 ? this.nodeBounds[b + 3] : this.nodeBounds[b]) + ny * (ny >= 0 ? this.nodeBounds[b + 4] : this.nodeBounds[b + 1])
+						+ nz * (nz >= 0 ? this.nodeBounds[b + 5] : this.nodeBounds[b + 2]) + d;
+				if (far < 0) {
+					outside = true;
+					break;
+				}
+				float near = nx * (nx >= 0 ? this.nodeBounds[b] : this.nodeBounds[b + 3]) + ny * (ny >= 0 ? this.nodeBounds[b + 1] : this.nodeBounds[b + 4])
+						+ nz * (nz >= 0 ? this.nodeBounds[b + 2] : this.nodeBounds[b + 5]) + d;
+				if (near >= 0) {
+					mask &= ~(1 << plane);
+				}
+			}
+			if (outside) {
+				continue;
+			}
+
+			int left = this.nodeLeft[node];
+			if ((mask == 0) || ((left < 0) && (this.nodeCount[node] == 1))) {
+				System.arraycopy(this.objects, this.nodeFirst[node], visible, numVisible, this.nodeCount[node]);
+				numVisible += this.nodeCount[node];
+			} else if (left < 0) {
+				// Test the objects of a partially visible leaf one by one.
+				int first = this.nodeFirst[node];
+				for (int i = first; i < first + this.nodeCount[node]; i++) {
+					int o = this.objects[i] * 6;
+					if (frustum.isBoxVisible(this.bounds[o], this.bounds[o + 1], this.bounds[o + 2], this.bounds[o + 3], this.bounds[o + 4], this.bounds[o + 5])) {
+						visible[numVisible++] = this.objects[i];
+					}
+				}
+			} else {
+				this.stackNodes[top] = left + 1;
+				this.stackMasks[top++] = mask;
+				this.stackNodes[top] = left;
+				this.stackMasks[top++] = mask;
+			}
+		}
+		return numVisible;
+	}
+
+	/**
+	 * Finds the closest object hit by "ray", testing the objects of every leaf the ray
+	 * reaches with "intersector". Closer children are visited first, and nodes further away
+	 * than the closest hit so far are skipped. On a hit, the ray's distance and hit are
+	 * set to it. Returns the object hit, or -1.
+	 */
+	public int intersect(Ray ray, RayIntersector intersector) {
+		if ((this.numObjects == 0) || (ray.intersectBox(this.nodeBounds, 0) >= ray.distance)) {
+			return -1;
+		}
+
+		int hit = -1;
+		int top = 0;
+		this.stackNodes[top++] = 0;
+		while (top > 0) {
+			int node = this.stackNodes[--top];
+
+			// A closer hit may have been found since the node was pushed.
+			if (ray.intersectBox(this.nodeBounds, node * 6) >= ray.distance) {
+				continue;
+			}
+
+			int left = this.nodeLeft[node];
+			if (left < 0) {
+				int first = this.nodeFirst[node];
+				for (int i = first; i < first + this.nodeCount[node]; i++) {
+					float distance = intersector.intersect(this.objects[i], ray);
+					if (distance < ray.distance) {
+						ray.distance = distance;
+						hit = this.objects[i];
+					}
+				}
+			} else {
+				// Push the further child first, so the nearer one is visited next.
+				float leftDistance = ray.intersectBox(this.nodeBounds, left * 6);
+				float rightDistance = ray.intersectBox(this.nodeBounds, (left + 1) * 6);
+				boolean leftNear = leftDistance <= rightDistance;
+				if (Math.max(leftDistance, rightDistance) < ray.distance) {
+					this.stackNodes[top++] = leftNear ? left + 1 : left;
+				}
+				if (Math.min(leftDistance, rightDistance) < ray.distance) {
+					this.stackNodes[top++] = leftNear ? left : left + 1;
+				}
+			}
+		}
+
+		if (hit >= 0) {
+			ray.hit = hit;
+		}
+		return hit;
+	}
+
+	/**
+	 * Grows the box at "dest"["destOffset"] to contain the box at "src"["srcOffset"].
+	 */
+	static void grow(float[] dest, int destOffset, float[] src, int srcOffset) {
+		for (int i = 0; i < 3; i++) {
+			if (src[srcOffset + i] < dest[destOffset + i]) {
+				dest[destOffset + i] = src[srcOffset + i];
+			}
+			if (src[srcOffset + 3 + i] > dest[destOffset + 3 + i]) {
+				dest[destOffset + 3 + i] = src[srcOffset + 3 + i];
+			}
+		}
+	}
+
+	/**
+	 * Returns half the surface area of the box at "box"["offset"], or 0 if it's empty.
+	 */
+	static float area(float[] box, int offset) {
+		float x = box[offset + 3] - box[offset];
+		float y = box[offset + 4] - box[offset + 1];
+		float z = box[offset + 5] - box[offset + 2];
+		if ((x < 0) || (y < 0) || (z < 0)) {
+			return 0;
+		}
+		return x * y + y * z + z * x;
+	}
+
+	// Getters
+	public int getNumObjects() {
+		return this.numObjects;
+	}
+
+	public int getNumNodes() {
+		return this.numNodes;
+	}
+
+	public int getDepth() {
+		return this.depth;
+	}
+
+	/**
+	 * Returns how much the tree's cost has grown through refits since it was built. A
+	 * value well above 1 means rebuild() is worth it.
+	 */
+	public float getCostRatio() {
+		return this.builtCost > 0 ? this.cost / this.builtCost : 1.0f;
+	}
+
+	/**
+	 * Returns the node boxes. The box around every object comes first (min x, y, z, then
+	 * max x, y, z).
+	 */
+	public float[] getNodeBounds() {
+		return this.nodeBounds;
+	}
+
+	/**
+	 * Per-thread scratch space for binning.
+	 */
+	private static class Bins {
+		private int[] counts = new int[3 * NUM_BINS];
+		private float[] bounds = new float[3 * NUM_BINS * 6];
+		private float[] rightAreas = new float[NUM_BINS];
+		private int[] rightCounts = new int[NUM_BINS];
+		private float[] sweep = new float[6];
+		private float[] centroidMin = new float[3];
+		private float[] centroidMax = new float[3];
+		private float[] scale = new float[3];
+
+		private void clear() {
+			for (int bin = 0; bin < 3 * NUM_BINS; bin++) {
+				this.counts[bin] = 0;
+				empty(this.bounds, bin * 6);
+			}
+		}
+
+		private void resetSweep() {
+			empty(this.sweep, 0);
+		}
+
+		private static void empty(float[] box, int offset) {
+			box[offset] = box[offset + 1] = box[offset + 2] = Float.POSITIVE_INFINITY;
+			box[offset + 3] = box[offset + 4] = box[offset + 5] = Float.NEGATIVE_INFINITY;
+		}
+	}
+
+	/**
+	 * Builds a subtree, forking again for large children.
+	 */
+	private class BuildTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int node, first, count, depth;
+		private AtomicInteger nodesUsed, maxDepth;
+
+		public BuildTask(int node, int first, int count, int depth, AtomicInteger nodesUsed, AtomicInteger maxDepth) {
+			this.node = node;
+			this.first = first;
+			this.count = count;
+			this.depth = depth;
+			this.nodesUsed = nodesUsed;
+			this.maxDepth = maxDepth;
+		}
+
+		protected void compute() {
+			BVH.this.build(this.node, this.first, this.count, this.depth, new Bins(), this.nodesUsed, this.maxDepth, this);
+		}
+	}
+}
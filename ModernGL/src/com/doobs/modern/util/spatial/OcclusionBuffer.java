@@ -0,0 +1,562 @@
+package com.doobs.modern.util.spatial;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.doobs.modern.util.batch.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * A low resolution depth buffer rasterized on the CPU, for skipping objects hidden
+ * behind large occluders such as walls and terrain without GPU queries.
+ *
+ * Each frame: clear(), add the occluder meshes with addOccluder(), rasterize(), then test
+ * objects with isVisible(). Occluders are projected when added and rasterized together,
+ * optionally in parallel: the buffer is split into bands of rows, and every band is
+ * rasterized by one worker, so no two workers write the same pixel.
+ *
+ * Depths are window depths (0 on the near plane, 1 on the far plane). A pixel only takes
+ * an occluder's depth if the occluder covers all of it, and then the farthest depth the
+ * occluder has in it, so the buffer never hides more than the occluders do: gaps and
+ * partly covered pixels stay visible. A pixel is covered if its center is on one of the
+ * occluder's front faces (counter-clockwise) and none of its silhouette edges touch the
+ * pixel. Silhouette edges are the edges of front faces not shared with another front
+ * face, so the seams inside a mesh don't count, even between vertices that only share a
+ * position. Triangles with a corner in front of the near plane (between it and the eye)
+ * are left out, which only makes the buffer hide less.
+ */
+public class OcclusionBuffer {
+	// Rows per band when rasterizing in parallel.
+	private static final int BAND_HEIGHT = 16;
+
+	// Vertices closer to the eye than this (in clip space w) are treated as behind it.
+	private static final float NEAR_W = 1e-5f;
+
+	private int width, height;
+	private float[] depth;
+
+	// Projected occluder front faces: window x, y and depth of each corner.
+	private float[] triangles = new float[9 * 1024];
+	private int numTriangles = 0;
+
+	// Silhouette edges of the occluders: window x and y of both ends.
+	private float[] edges = new float[4 * 1024];
+	private int numEdges = 0;
+
+	// The first triangle and edge of every occluder, and its window bounds (min x, min y,
+	// max x, max y).
+	private int[] occluderTriangles = new int[16];
+	private int[] occluderEdges = new int[16];
+	private float[] occluderBounds = new float[4 * 16];
+	private int numOccluders = 0;
+
+	// Projected vertices (window x, y and depth, then clip space w, or 0 for vertices in
+	// front of the near plane) and front face indices of the occluder being added. Indices
+	// are of the first vertex at the same position, which "vertexTable" finds.
+	private float[] projected = new float[4 * 1024];
+	private int[] frontIndices = new int[3 * 1024];
+	private int[] firstVertex = new int[1024];
+	private int[] vertexTable = new int[2048];
+
+	// Directed edges of the occluder being added, as (start << 32) | end, or -1 if empty.
+	private long[] edgeTable = new long[1024];
+	private int edgeMask;
+
+	// Per occluder, the farthest depth in every pixel it touches, and whether it covers
+	// the pixel. Every band only uses its own rows.
+	private float[] occluderDepth;
+	private boolean[] covered;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * Creates a "width" x "height" OcclusionBuffer that rasterizes on the calling thread.
+	 */
+	public OcclusionBuffer(int width, int height) {
+		this(width, height, null);
+	}
+
+	/**
+	 * Creates a "width" x "height" OcclusionBuffer that rasterizes bands of rows in
+	 * parallel on "pool" if it isn't null.
+	 */
+	public OcclusionBuffer(int width, int height, ForkJoinPool pool) {
+		this.width = width;
+		this.height = height;
+		this.depth = new float[width * height];
+		this.occluderDepth = new float[width * height];
+		this.covered = new boolean[width * height];
+		this.pool = pool;
+		this.clear();
+	}
+
+	/**
+	 * Empties the buffer and forgets all occluders.
+	 */
+	public void clear() {
+		Arrays.fill(this.depth, 1.0f);
+		this.numTriangles = 0;
+		this.numEdges = 0;
+		this.numOccluders = 0;
+	}
+
+	/**
+	 * Adds the triangles built so far by "shapes" as an occluder, transformed by the
+	 * projection x model-view matrix of "transform".
+	 */
+	public void addOccluder(Shapes shapes, GeometryTransform transform) {
+		this.addOccluder(shapes.getVertexData(), Shapes.VERTEX_FORMAT.getStride() / 4, shapes.getNumVertices(), shapes.getIndexData(),
+				shapes.getNumIndexes(), transform.getModelViewProjectionMatrix());
+	}
+
+	/**
+	 * Adds the triangles of "indices" (the first "numIndices") as an occluder. Positions
+	 * are the first three floats of every vertex in "vertexData", "stride" floats apart,
+	 * and "mvp" is the projection x model-view matrix.
+	 */
+	public void addOccluder(float[] vertexData, int stride, int numVertices, int[] indices, int numIndices, float[] mvp) {
+		if (numVertices * 4 > this.projected.length) {
+			this.projected = new float[Math.max(numVertices * 4, this.projected.length * 2)];
+		}
+		this.findFirstVertices(vertexData, stride, numVertices);
+
+		float[] m = mvp;
+		float halfWidth = this.width * 0.5f, halfHeight = this.height * 0.5f;
+		for (int vertex = 0; vertex < numVertices; vertex++) {
+			int v = vertex * stride;
+			float x = vertexData[v], y = vertexData[v + 1], z = vertexData[v + 2];
+			float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+			float clipZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+			int p = vertex * 4;
+			if ((w < NEAR_W) || (clipZ < -w)) {
+				this.projected[p + 3] = 0.0f;
+				continue;
+			}
+			this.projected[p + 3] = w;
+			float inverseW = 1.0f / w;
+			this.projected[p] = ((m[0] * x + m[4] * y + m[8] * z + m[12]) * inverseW + 1.0f) * halfWidth;
+			this.projected[p + 1] = ((m[1] * x + m[5] * y + m[9] * z + m[13]) * inverseW + 1.0f) * halfHeight;
+			this.projected[p + 2] = (clipZ * inverseW + 1.0f) * 0.5f;
+		}
+
+		// The front faces, and the window bounds of all of them.
+		int firstTriangle = this.numTriangles;
+		int numFront = 0;
+		float left = Float.POSITIVE_INFINITY, right = Float.NEGATIVE_INFINITY;
+		float bottom = Float.POSITIVE_INFINITY, top = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i + 2 < numIndices; i += 3) {
+			int p0 = indices[i] * 4, p1 = indices[i + 1] * 4, p2 = indices[i + 2] * 4;
+			if ((this.projected[p0 + 3] < NEAR_W) || (this.projected[p1 + 3] < NEAR_W) || (this.projected[p2 + 3] < NEAR_W)) {
+				continue;
+			}
+
+			// Twice the signed area. Back faces and degenerate triangles are skipped.
+			float x0 = this.projected[p0], y0 = this.projected[p0 + 1];
+			float x1 = this.projected[p1], y1 = this.projected[p1 + 1];
+			float x2 = this.projected[p2], y2 = this.projected[p2 + 1];
+			if ((x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0) <= 0) {
+				continue;
+			}
+
+			if ((this.numTriangles + 1) * 9 > this.triangles.length) {
+				this.triangles = Arrays.copyOf(this.triangles, this.triangles.length * 2);
+			}
+			int t = this.numTriangles++ * 9;
+			System.arraycopy(this.projected, p0, this.triangles, t, 3);
+			System.arraycopy(this.projected, p1, this.triangles, t + 3, 3);
+			System.arraycopy(this.projected, p2, this.triangles, t + 6, 3);
+
+			if ((numFront + 1) * 3 > this.frontIndices.length) {
+				this.frontIndices = Arrays.copyOf(this.frontIndices, this.frontIndices.length * 2);
+			}
+			this.frontIndices[numFront * 3] = this.firstVertex[indices[i]];
+			this.frontIndices[numFront * 3 + 1] = this.firstVertex[indices[i + 1]];
+			this.frontIndices[numFront * 3 + 2] = this.firstVertex[indices[i + 2]];
+			numFront++;
+
+			left = Math.min(left, Math.min(x0, Math.min(x1, x2)));
+			right = Math.max(right, Math.max(x0, Math.max(x1, x2)));
+			bottom = Math.min(bottom, Math.min(y0, Math.min(y1, y2)));
+			top = Math.max(top, Math.max(y0, Math.max(y1, y2)));
+		}
+		if (numFront == 0) {
+			return;
+		}
+
+		// An edge is on the silhouette unless another front face goes along it the other
+		// way.
+		int firstEdge = this.numEdges;
+		this.clearEdges(numFront * 3);
+		for (int i = 0; i < numFront * 3; i++) {
+			this.addEdge(this.frontIndices[i], this.frontIndices[i % 3 == 2 ? i - 2 : i + 1]);
+		}
+		for (int i = 0; i < numFront * 3; i++) {
+			int start = this.frontIndices[i], end = this.frontIndices[i % 3 == 2 ? i - 2 : i + 1];
+			if (this.hasEdge(end, start)) {
+				continue;
+			}
+			if ((this.numEdges + 1) * 4 > this.edges.length) {
+				this.edges = Arrays.copyOf(this.edges, this.edges.length * 2);
+			}
+			int e = this.numEdges++ * 4;
+			this.edges[e] = this.projected[start * 4];
+			this.edges[e + 1] = this.projected[start * 4 + 1];
+			this.edges[e + 2] = this.projected[end * 4];
+			this.edges[e + 3] = this.projected[end * 4 + 1];
+		}
+
+		if (this.numOccluders == this.occluderTriangles.length) {
+			this.occluderTriangles = Arrays.copyOf(this.occluderTriangles, this.numOccluders * 2);
+			this.occluderEdges = Arrays.copyOf(this.occluderEdges, this.numOccluders * 2);
+			this.occluderBounds = Arrays.copyOf(this.occluderBounds, this.numOccluders * 8);
+		}
+		int o = this.numOccluders++;
+		this.occluderTriangles[o] = firstTriangle;
+		this.occluderEdges[o] = firstEdge;
+		this.occluderBounds[o * 4] = left;
+		this.occluderBounds[o * 4 + 1] = bottom;
+		this.occluderBounds[o * 4 + 2] = right;
+		this.occluderBounds[o * 4 + 3] = top;
+	}
+
+	/**
+	 * Sets "firstVertex" of each of the "numVertices" vertices in "vertexData" to the
+	 * first vertex at the same position.
+	 */
+	private void findFirstVertices(float[] vertexData, int stride, int numVertices) {
+		if (numVertices > this.firstVertex.length) {
+			this.firstVertex = new int[Math.max(numVertices, this.firstVertex.length * 2)];
+		}
+		int size = Integer.highestOneBit(Math.max(numVertices * 2, 16) - 1) << 1;
+		if (size > this.vertexTable.length) {
+			this.vertexTable = new int[size];
+		}
+		Arrays.fill(this.vertexTable, 0, size, -1);
+		int mask = size - 1;
+
+		for (int vertex = 0; vertex < numVertices; vertex++) {
+			int v = vertex * stride;
+			float x = vertexData[v], y = vertexData[v + 1], z = vertexData[v + 2];
+			// Adding 0 turns -0 into 0, which compares equal to it.
+			int hash = Float.floatToIntBits(x + 0.0f) * 73856093 ^ Float.floatToIntBits(y + 0.0f) * 19349663 ^ Float.floatToIntBits(z + 0.0f) * 83492791;
+			int slot = hash(hash) & mask;
+			int first = vertex;
+			while (this.vertexTable[slot] != -1) {
+				int other = this.vertexTable[slot] * stride;
+				if ((vertexData[other] == x) && (vertexData[other + 1] == y) && (vertexData[other + 2] == z)) {
+					first = this.vertexTable[slot];
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (first == vertex) {
+				this.vertexTable[slot] = vertex;
+			}
+			this.firstVertex[vertex] = first;
+		}
+	}
+
+	/**
+	 * Empties the edge table, making room for "numEdges" edges.
+	 */
+	private void clearEdges(int numEdges) {
+		int size = Integer.highestOneBit(Math.max(numEdges * 2, 16) - 1) << 1;
+		if (size > this.edgeTable.length) {
+			this.edgeTable = new long[size];
+		}
+		Arrays.fill(this.edgeTable, 0, size, -1L);
+		this.edgeMask = size - 1;
+	}
+
+	private void addEdge(int start, int end) {
+		long key = ((long) start << 32) | end;
+		int slot = hash(key) & this.edgeMask;
+		while ((this.edgeTable[slot] != -1L) && (this.edgeTable[slot] != key)) {
+			slot = (slot + 1) & this.edgeMask;
+		}
+		this.edgeTable[slot] = key;
+	}
+
+	private boolean hasEdge(int start, int end) {
+		long key = ((long) start << 32) | end;
+		int slot = hash(key) & this.edgeMask;
+		while (this.edgeTable[slot] != -1L) {
+			if (this.edgeTable[slot] == key) {
+				return true;
+			}
+			slot = (slot + 1) & this.edgeMask;
+		}
+		return false;
+	}
+
+	private static int hash(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+	/**
+	 * Rasterizes the occluders added since clear() into the buffer.
+	 */
+	public void rasterize() {
+		int numBands = (this.height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		if ((this.pool != null) && (numBands > 1)) {
+			this.pool.invoke(new RasterTask(0, numBands));
+		} else {
+			this.rasterizeRows(0, this.height);
+		}
+	}
+
+	/**
+	 * Rasterizes every occluder into rows "firstRow" (inclusive) to "lastRow" (exclusive).
+	 * Each occluder is drawn on its own first, and only the pixels it covers are merged
+	 * into the buffer.
+	 */
+	private void rasterizeRows(int firstRow, int lastRow) {
+		for (int o = 0; o < this.numOccluders; o++) {
+			float[] bounds = this.occluderBounds;
+			int minX = Math.max(0, (int) Math.floor(bounds[o * 4]));
+			int maxX = Math.min(this.width - 1, (int) Math.floor(bounds[o * 4 + 2]));
+			int minY = Math.max(firstRow, (int) Math.floor(bounds[o * 4 + 1]));
+			int maxY = Math.min(lastRow - 1, (int) Math.floor(bounds[o * 4 + 3]));
+			if ((minX > maxX) || (minY > maxY)) {
+				continue;
+			}
+
+			for (int y = minY; y <= maxY; y++) {
+				int row = y * this.width;
+				Arrays.fill(this.occluderDepth, row + minX, row + maxX + 1, Float.NEGATIVE_INFINITY);
+				Arrays.fill(this.covered, row + minX, row + maxX + 1, false);
+			}
+
+			int lastTriangle = o + 1 < this.numOccluders ? this.occluderTriangles[o + 1] : this.numTriangles;
+			for (int triangle = this.occluderTriangles[o]; triangle < lastTriangle; triangle++) {
+				this.rasterizeTriangle(triangle * 9, minX, maxX, minY, maxY);
+			}
+			int lastEdge = o + 1 < this.numOccluders ? this.occluderEdges[o + 1] : this.numEdges;
+			for (int edge = this.occluderEdges[o]; edge < lastEdge; edge++) {
+				this.uncoverEdge(edge * 4, minX, maxX, minY, maxY);
+			}
+
+			for (int y = minY; y <= maxY; y++) {
+				int row = y * this.width;
+				for (int x = minX; x <= maxX; x++) {
+					int p = row + x;
+					if (this.covered[p] && (this.occluderDepth[p] < this.depth[p])) {
+						this.depth[p] = this.occluderDepth[p];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Draws the triangle at "triangles"["i"] into the pixels from ("minX", "minY") to
+	 * ("maxX", "maxY"): every pixel it overlaps gets at least the farthest depth the
+	 * triangle has in it, and every pixel whose center it covers is marked covered.
+	 */
+	private void rasterizeTriangle(int i, int minX, int maxX, int minY, int maxY) {
+		float[] t = this.triangles;
+		float x0 = t[i], y0 = t[i + 1], z0 = t[i + 2];
+		float x1 = t[i + 3], y1 = t[i + 4], z1 = t[i + 5];
+		float x2 = t[i + 6], y2 = t[i + 7], z2 = t[i + 8];
+
+		minX = Math.max(minX, (int) Math.floor(Math.min(x0, Math.min(x1, x2))));
+		maxX = Math.min(maxX, (int) Math.floor(Math.max(x0, Math.max(x1, x2))));
+		minY = Math.max(minY, (int) Math.floor(Math.min(y0, Math.min(y1, y2))));
+		maxY = Math.min(maxY, (int) Math.floor(Math.max(y0, Math.max(y1, y2))));
+		if ((minX > maxX) || (minY > maxY)) {
+			return;
+		}
+
+		// Edge functions, each positive on the inner side of the edge opposite a corner,
+		// and how they change per pixel in x and y. A pixel overlaps the triangle if each
+		// is at least -r at its center, where r is the most it changes towards a corner.
+		float a0 = y1 - y2, b0 = x2 - x1, c0 = x1 * y2 - x2 * y1;
+		float a1 = y2 - y0, b1 = x0 - x2, c1 = x2 * y0 - x0 * y2;
+		float a2 = y0 - y1, b2 = x1 - x0, c2 = x0 * y1 - x1 * y0;
+		float r0 = 0.5f * (Math.abs(a0) + Math.abs(b0));
+		float r1 = 0.5f * (Math.abs(a1) + Math.abs(b1));
+		float r2 = 0.5f * (Math.abs(a2) + Math.abs(b2));
+
+		// Depth is linear in window space: z = z0 + zA * (x - x0) + zB * (y - y0). Using
+		// differences keeps flat thin triangles flat. The farthest depth in a pixel is at
+		// a corner, and never beyond the farthest corner of the triangle.
+		float inverseArea = 1.0f / ((x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0));
+		float zA = (a1 * (z1 - z0) + a2 * (z2 - z0)) * inverseArea;
+		float zB = (b1 * (z1 - z0) + b2 * (z2 - z0)) * inverseArea;
+		float zOffset = 0.5f * (Math.abs(zA) + Math.abs(zB));
+		float zMax = Math.max(z0, Math.max(z1, z2));
+
+		float startX = minX + 0.5f;
+		for (int y = minY; y <= maxY; y++) {
+			float py = y + 0.5f;
+			float e0 = a0 * startX + b0 * py + c0;
+			float e1 = a1 * startX + b1 * py + c1;
+			float e2 = a2 * startX + b2 * py + c2;
+			float z = z0 + zA * (startX - x0) + zB * (py - y0);
+
+			int row = y * this.width;
+			for (int x = minX; x <= maxX; x++) {
+				if ((e0 >= -r0) && (e1 >= -r1) && (e2 >= -r2)) {
+					int p = row + x;
+					float far = Math.min(z + zOffset, zMax);
+					if (far > this.occluderDepth[p]) {
+						this.occluderDepth[p] = far;
+					}
+					if ((e0 >= 0) && (e1 >= 0) && (e2 >= 0)) {
+						this.covered[p] = true;
+					}
+				}
+				e0 += a0;
+				e1 += a1;
+				e2 += a2;
+				z += zA;
+			}
+		}
+	}
+
+	/**
+	 * Marks every pixel from ("minX", "minY") to ("maxX", "maxY") that the silhouette edge
+	 * at "edges"["i"] touches as not covered, one row at a time.
+	 */
+	private void uncoverEdge(int i, int minX, int maxX, int minY, int maxY) {
+		float x0 = this.edges[i], y0 = this.edges[i + 1];
+		float x1 = this.edges[i + 2], y1 = this.edges[i + 3];
+		float bottom = Math.min(y0, y1), top = Math.max(y0, y1);
+		int firstY = Math.max(minY, (int) Math.ceil(bottom) - 1);
+		int lastY = Math.min(maxY, (int) Math.floor(top));
+		float dxdy = y1 != y0 ? (x1 - x0) / (y1 - y0) : 0.0f;
+
+		for (int y = firstY; y <= lastY; y++) {
+			// The part of the edge within the row.
+			float from, to;
+			if (y1 == y0) {
+				from = Math.min(x0, x1);
+				to = Math.max(x0, x1);
+			} else {
+				from = x0 + (Math.max(y, bottom) - y0) * dxdy;
+				to = x0 + (Math.min(y + 1, top) - y0) * dxdy;
+				if (from > to) {
+					float swap = from;
+					from = to;
+					to = swap;
+				}
+			}
+
+			int firstX = Math.max(minX, (int) Math.ceil(from) - 1);
+			int lastX = Math.min(maxX, (int) Math.floor(to));
+			if (firstX <= lastX) {
+				int row = y * this.width;
+				Arrays.fill(this.covered, row + firstX, row + lastX + 1, false);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether any part of the box from ("minX", "minY", "minZ") to ("maxX", "maxY",
+	 * "maxZ") may be in front of the rasterized occluders. "mvp" is the projection x
+	 * model-view matrix of the box. Boxes reaching in front of the near plane are always
+	 * visible, and boxes off screen never are.
+	 */
+	public boolean isVisible(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, float[] mvp) {
+		float[] m = mvp;
+		float left = Float.POSITIVE_INFINITY, right = Float.NEGATIVE_INFINITY;
+		float bottom = Float.POSITIVE_INFINITY, top = Float.NEGATIVE_INFINITY;
+		float nearest = Float.POSITIVE_INFINITY;
+		for (int corner = 0; corner < 8; corner++) {
+			float x = (corner & 1) == 0 ? minX : maxX;
+			float y = (corner & 2) == 0 ? minY : maxY;
+			float z = (corner & 4) == 0 ? minZ : maxZ;
+			float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+			float clipZ = m[2] * x + m[6] * y + m[10] * z + m[14];
+			if ((w < NEAR_W) || (clipZ < -w)) {
+				return true;
+			}
+			float inverseW = 1.0f / w;
+			float windowX = ((m[0] * x + m[4] * y + m[8] * z + m[12]) * inverseW + 1.0f) * this.width * 0.5f;
+			float windowY = ((m[1] * x + m[5] * y + m[9] * z + m[13]) * inverseW + 1.0f) * this.height * 0.5f;
+			float windowZ = (clipZ * inverseW + 1.0f) * 0.5f;
+			left = Math.min(left, windowX);
+			right = Math.max(right, windowX);
+			bottom = Math.min(bottom, windowY);
+			top = Math.max(top, windowY);
+			nearest = Math.min(nearest, windowZ);
+		}
+		return this.isRectVisible(left, bottom, right, top, nearest);
+	}
+
+	/**
+	 * Like isVisible(float, float, float, float, float, float, float[]), with the
+	 * projection x model-view matrix of "transform".
+	 */
+	public boolean isVisible(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, GeometryTransform transform) {
+		return this.isVisible(minX, minY, minZ, maxX, maxY, maxZ, transform.getModelViewProjectionMatrix());
+	}
+
+	/**
+	 * Returns whether any pixel in the window rectangle from ("left", "bottom") to
+	 * ("right", "top") has no occluder nearer than "nearest".
+	 */
+	public boolean isRectVisible(float left, float bottom, float right, float top, float nearest) {
+		int minX = Math.max(0, (int) Math.floor(left));
+		int maxX = Math.min(this.width - 1, (int) Math.floor(right));
+		int minY = Math.max(0, (int) Math.floor(bottom));
+		int maxY = Math.min(this.height - 1, (int) Math.floor(top));
+
+		for (int y = minY; y <= maxY; y++) {
+			int row = y * this.width;
+			for (int x = minX; x <= maxX; x++) {
+				if (this.depth[row + x] >= nearest) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Getters
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/**
+	 * Returns the depths, row by row from the bottom.
+	 */
+	public float[] getDepth() {
+		return this.depth;
+	}
+
+	/**
+	 * Returns the number of occluder front faces added since clear().
+	 */
+	public int getNumTriangles() {
+		return this.numTriangles;
+	}
+
+	/**
+	 * Rasterizes bands "first" (inclusive) to "last" (exclusive), splitting in halves until
+	 * a single band is left.
+	 */
+	private class RasterTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int first, last;
+
+		public RasterTask(int first, int last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		protected void compute() {
+			if (this.last - this.first == 1) {
+				OcclusionBuffer.this.rasterizeRows(this.first * BAND_HEIGHT, Math.min((this.first + 1) * BAND_HEIGHT, OcclusionBuffer.this.height));
+			} else {
+				int middle = (this.first + this.last) >>> 1;
+				invokeAll(new RasterTask(this.first, middle), new RasterTask(middle, this.last));
+			}
+		}
+	}
+}
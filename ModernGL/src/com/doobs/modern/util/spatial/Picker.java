@@ -0,0 +1,146 @@
+package com.doobs.modern.util.spatial;
+
+import java.util.*;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * Finds the closest object under a ray or the mouse. Every object is a TriangleBVH mesh
+ * with a model matrix, and a BVH over the objects' boxes finds the ones worth testing.
+ * Rays are moved into each object's space rather than moving its triangles.
+ *
+ * Call refit() after changing transforms. Adding objects makes the next refit() or pick()
+ * build the BVH again.
+ */
+public class Picker implements RayIntersector {
+	private int numObjects = 0;
+	private TriangleBVH[] meshes = new TriangleBVH[16];
+	private float[] inverses = new float[16 * 16];
+	private float[] bounds = new float[16 * 6];
+
+	// Null until built, and again after objects are added.
+	private BVH bvh;
+
+	// The ray in the space of the object being tested.
+	private Ray localRay = new Ray();
+
+	private Ray windowRay = new Ray();
+
+	private int hitTriangle = -1;
+
+	// Temp matrix. Avoiding garbage collection on transforming!
+	private float[] inverse = new float[16];
+
+	public Picker() {
+
+	}
+
+	/**
+	 * Adds an object showing "mesh" transformed by "modelMatrix", and returns its index.
+	 */
+	public int add(TriangleBVH mesh, float[] modelMatrix) {
+		if (this.numObjects == this.meshes.length) {
+			int capacity = this.numObjects * 2;
+			this.meshes = Arrays.copyOf(this.meshes, capacity);
+			this.inverses = Arrays.copyOf(this.inverses, capacity * 16);
+			this.bounds = Arrays.copyOf(this.bounds, capacity * 6);
+		}
+
+		int object = this.numObjects++;
+		this.bvh = null;
+		this.meshes[object] = mesh;
+		this.setTransform(object, modelMatrix);
+		return object;
+	}
+
+	/**
+	 * Changes the model matrix of "object". Call refit() afterwards.
+	 */
+	public void setTransform(int object, float[] modelMatrix) {
+		if (!Math3D.matrixInverse4f(this.inverse, modelMatrix)) {
+			Math3D.loadIdentity4f(this.inverse);
+		}
+		System.arraycopy(this.inverse, 0, this.inverses, object * 16, 16);
+
+		// The box around the mesh's box, transformed.
+		Math3D.transformBoxes3f(this.bounds, object * 6, modelMatrix, this.meshes[object].getBVH().getNodeBounds(), 0, 1);
+	}
+
+	/**
+	 * Builds the BVH over the objects added so far. Done by refit() and pick() when needed.
+	 */
+	public void build() {
+		this.bvh = new BVH(this.bounds, this.numObjects);
+	}
+
+	/**
+	 * Updates the BVH after transforms changed, or builds it if objects were added.
+	 */
+	public void refit() {
+		if (this.bvh == null) {
+			this.build();
+			return;
+		}
+		this.bvh.refit();
+		if (this.bvh.getCostRatio() > 2.0f) {
+			this.bvh.rebuild();
+		}
+	}
+
+	/**
+	 * Finds the closest object hit by "ray" and returns its index, or -1. On a hit, the
+	 * ray's distance and hit are set to it, and getHitTriangle() returns the triangle hit.
+	 */
+	public int pick(Ray ray) {
+		this.hitTriangle = -1;
+		if (this.bvh == null) {
+			this.build();
+		}
+		return this.bvh.intersect(ray, this);
+	}
+
+	/**
+	 * Finds the closest object under the window coordinates ("x", "y") of a "width" x
+	 * "height" viewport, like Ray.setFromWindow(). Objects are in the space the model-view
+	 * matrix of "transform" transforms from. Returns the object's index, or -1.
+	 */
+	public int pick(GeometryTransform transform, float x, float y, int width, int height) {
+		if (!this.windowRay.setFromWindow(transform, x, y, width, height)) {
+			return -1;
+		}
+		return this.pick(this.windowRay);
+	}
+
+	public float intersect(int object, Ray ray) {
+		this.localRay.transform(ray, this.inverses, object * 16);
+		int triangle = this.meshes[object].intersect(this.localRay);
+		if (triangle < 0) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		// Only hits closer than the ray's distance are found, so this is the closest yet.
+		this.hitTriangle = triangle;
+		return this.localRay.distance;
+	}
+
+	// Getters
+	public int getNumObjects() {
+		return this.numObjects;
+	}
+
+	/**
+	 * Returns the triangle of the object hit by the last pick, or -1.
+	 */
+	public int getHitTriangle() {
+		return this.hitTriangle;
+	}
+
+	/**
+	 * Returns the ray used by the last pick(GeometryTransform, ...), with the distance of
+	 * the hit.
+	 */
+	public Ray getWindowRay() {
+		return this.windowRay;
+	}
+}
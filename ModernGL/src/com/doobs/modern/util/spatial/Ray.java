@@ -0,0 +1,182 @@
+package com.doobs.modern.util.spatial;
+
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.matrix.*;
+
+/**
+ * A ray for picking, with the closest hit found so far. Points along the ray are origin +
+ * t * direction, and only hits with t below getDistance() count.
+ */
+public class Ray {
+	float originX, originY, originZ;
+	float directionX, directionY, directionZ;
+	float inverseX, inverseY, inverseZ;
+
+	float distance = Float.POSITIVE_INFINITY;
+	int hit = -1;
+
+	// Temp matrix and points. Avoiding garbage collection on picking!
+	private float[] inverseMVP = new float[16];
+	private float[] near = new float[3];
+	private float[] far = new float[3];
+
+	public Ray() {
+
+	}
+
+	/**
+	 * Starts the ray at ("originX", "originY", "originZ") going in the direction
+	 * ("directionX", "directionY", "directionZ"), and forgets any hit.
+	 */
+	public void set(float originX, float originY, float originZ, float directionX, float directionY, float directionZ) {
+		this.originX = originX;
+		this.originY = originY;
+		this.originZ = originZ;
+		this.directionX = directionX;
+		this.directionY = directionY;
+		this.directionZ = directionZ;
+		this.inverseX = 1.0f / directionX;
+		this.inverseY = 1.0f / directionY;
+		this.inverseZ = 1.0f / directionZ;
+		this.distance = Float.POSITIVE_INFINITY;
+		this.hit = -1;
+	}
+
+	/**
+	 * Sets the ray to go from the near plane to the far plane through the window
+	 * coordinates ("x", "y") of a "width" x "height" viewport. (0, 0) is the lower left
+	 * corner, as with Mouse.getX() and Mouse.getY(). The ray is in the space the model-view
+	 * matrix of "transform" transforms from, and its direction is normalized. Returns false
+	 * if the projection x model-view matrix can't be inverted.
+	 */
+	public boolean setFromWindow(GeometryTransform transform, float x, float y, int width, int height) {
+		if (!Math3D.matrixInverse4f(this.inverseMVP, transform.getModelViewProjectionMatrix())) {
+			return false;
+		}
+		if (!Math3D.unproject(this.near, this.inverseMVP, x, y, 0.0f, 0, 0, width, height)
+				|| !Math3D.unproject(this.far, this.inverseMVP, x, y, 1.0f, 0, 0, width, height)) {
+			return false;
+		}
+
+		float dx = this.far[0] - this.near[0], dy = this.far[1] - this.near[1], dz = this.far[2] - this.near[2];
+		float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		this.set(this.near[0], this.near[1], this.near[2], dx / length, dy / length, dz / length);
+		return true;
+	}
+
+	/**
+	 * Sets this ray to "ray" transformed by "matrix", keeping its distance. The direction
+	 * isn't normalized, so distances along both rays stay the same.
+	 */
+	public void transform(Ray ray, float[] matrix) {
+		this.transform(ray, matrix, 0);
+	}
+
+	/**
+	 * Like transform(Ray, float[]), with the matrix at "matrices"["offset"].
+	 */
+	public void transform(Ray ray, float[] matrices, int offset) {
+		float[] m = matrices;
+		int o = offset;
+		float ox = ray.originX, oy = ray.originY, oz = ray.originZ;
+		float dx = ray.directionX, dy = ray.directionY, dz = ray.directionZ;
+		this.set(m[o] * ox + m[o + 4] * oy + m[o + 8] * oz + m[o + 12], m[o + 1] * ox + m[o + 5] * oy + m[o + 9] * oz + m[o + 13],
+				m[o + 2] * ox + m[o + 6] * oy + m[o + 10] * oz + m[o + 14], m[o] * dx + m[o + 4] * dy + m[o + 8] * dz, m[o + 1] * dx + m[o + 5] * dy + m[o + 9] * dz,
+				m[o + 2] * dx + m[o + 6] * dy + m[o + 10] * dz);
+		this.distance = ray.distance;
+	}
+
+	/**
+	 * Returns the distance at which the ray enters the box at "boxes"["offset"] (min x, y,
+	 * z, then max x, y, z), 0 if it starts inside, or Float.POSITIVE_INFINITY if it misses.
+	 * Axes the ray doesn't move along are checked by position, as their slab distances
+	 * would be 0 * infinity on the faces of the box.
+	 */
+	float intersectBox(float[] boxes, int offset) {
+		float tMin = 0.0f, tMax = Float.POSITIVE_INFINITY;
+
+		if (this.directionX != 0.0f) {
+			float t1 = (boxes[offset] - this.originX) * this.inverseX;
+			float t2 = (boxes[offset + 3] - this.originX) * this.inverseX;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		} else if ((this.originX < boxes[offset]) || (this.originX > boxes[offset + 3])) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		if (this.directionY != 0.0f) {
+			float t1 = (boxes[offset + 1] - this.originY) * this.inverseY;
+			float t2 = (boxes[offset + 4] - this.originY) * this.inverseY;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		} else if ((this.originY < boxes[offset + 1]) || (this.originY > boxes[offset + 4])) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		if (this.directionZ != 0.0f) {
+			float t1 = (boxes[offset + 2] - this.originZ) * this.inverseZ;
+			float t2 = (boxes[offset + 5] - this.originZ) * this.inverseZ;
+			tMin = Math.max(tMin, Math.min(t1, t2));
+			tMax = Math.min(tMax, Math.max(t1, t2));
+		} else if ((this.originZ < boxes[offset + 2]) || (this.originZ > boxes[offset + 5])) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		return tMax >= tMin ? tMin : Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Changes the entries of "result" to the point at distance "t" along the ray.
+	 */
+	public void getPoint(float[] result, float t) {
+		result[0] = this.originX + this.directionX * t;
+		result[1] = this.originY + this.directionY * t;
+		result[2] = this.originZ + this.directionZ * t;
+	}
+
+	// Getters and setters
+	public float getOriginX() {
+		return this.originX;
+	}
+
+	public float getOriginY() {
+		return this.originY;
+	}
+
+	public float getOriginZ() {
+		return this.originZ;
+	}
+
+	public float getDirectionX() {
+		return this.directionX;
+	}
+
+	public float getDirectionY() {
+		return this.directionY;
+	}
+
+	public float getDirectionZ() {
+		return this.directionZ;
+	}
+
+	/**
+	 * Returns the distance of the closest hit, or the maximum distance if nothing was hit.
+	 */
+	public float getDistance() {
+		return this.distance;
+	}
+
+	/**
+	 * Sets the maximum distance of a hit.
+	 */
+	public void setDistance(float distance) {
+		this.distance = distance;
+	}
+
+	/**
+	 * Returns what was hit (e.g. an object or triangle index), or -1.
+	 */
+	public int getHit() {
+		return this.hit;
+	}
+}
@@ -0,0 +1,12 @@
+package com.doobs.modern.util.spatial;
+
+/**
+ * Tests the objects in a BVH against a ray (see BVH.intersect()).
+ */
+public interface RayIntersector {
+	/**
+	 * Returns the distance along "ray" at which "object" is hit, or
+	 * Float.POSITIVE_INFINITY if it isn't hit closer than ray.getDistance().
+	 */
+	public float intersect(int object, Ray ray);
+}
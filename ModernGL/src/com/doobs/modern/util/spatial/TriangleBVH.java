@@ -0,0 +1,118 @@
+package com.doobs.modern.util.spatial;
+
+import java.util.concurrent.*;
+
+/**
+ * A BVH over the triangles of a mesh, for picking. Vertex positions are read from the
+ * first three floats of every vertex in the vertex data, and every three indices form a
+ * triangle. Both arrays are kept, not copied.
+ */
+public class TriangleBVH implements RayIntersector {
+	// Rays miss a triangle when the sine of the angle between their direction and its plane
+	// is below this, as the hit would be numerically meaningless. Being relative, it
+	// doesn't depend on the size of the triangle.
+	private static final float EPSILON = 1e-7f;
+
+	private float[] vertexData;
+	private int stride;
+	private int[] indices;
+	private int numTriangles;
+	private BVH bvh;
+
+	/**
+	 * Builds a TriangleBVH over the first "numIndices" / 3 triangles of "indices", whose
+	 * vertices are "stride" floats apart in "vertexData".
+	 */
+	public TriangleBVH(float[] vertexData, int stride, int[] indices, int numIndices) {
+		this(vertexData, stride, indices, numIndices, null);
+	}
+
+	/**
+	 * Like TriangleBVH(float[], int, int[], int), but builds large subtrees in parallel on
+	 * "pool" if it isn't null.
+	 */
+	public TriangleBVH(float[] vertexData, int stride, int[] indices, int numIndices, ForkJoinPool pool) {
+		this.vertexData = vertexData;
+		this.stride = stride;
+		this.indices = indices;
+		this.numTriangles = numIndices / 3;
+
+		float[] bounds = new float[this.numTriangles * 6];
+		for (int triangle = 0; triangle < this.numTriangles; triangle++) {
+			int b = triangle * 6;
+			bounds[b] = bounds[b + 1] = bounds[b + 2] = Float.POSITIVE_INFINITY;
+			bounds[b + 3] = bounds[b + 4] = bounds[b + 5] = Float.NEGATIVE_INFINITY;
+			for (int corner = 0; corner < 3; corner++) {
+				int v = indices[triangle * 3 + corner] * stride;
+				for (int axis = 0; axis < 3; axis++) {
+					bounds[b + axis] = Math.min(bounds[b + axis], vertexData[v + axis]);
+					bounds[b + 3 + axis] = Math.max(bounds[b + 3 + axis], vertexData[v + axis]);
+				}
+			}
+		}
+		this.bvh = new BVH(bounds, this.numTriangles, pool);
+	}
+
+	/**
+	 * Finds the closest triangle hit by "ray" and returns its index, or -1. On a hit, the
+	 * ray's distance and hit are set to it.
+	 */
+	public int intersect(Ray ray) {
+		return this.bvh.intersect(ray, this);
+	}
+
+	/**
+	 * Intersects "ray" with "triangle" (Moller-Trumbore).
+	 */
+	public float intersect(int triangle, Ray ray) {
+		float[] data = this.vertexData;
+		int v0 = this.indices[triangle * 3] * this.stride;
+		int v1 = this.indices[triangle * 3 + 1] * this.stride;
+		int v2 = this.indices[triangle * 3 + 2] * this.stride;
+
+		float e1x = data[v1] - data[v0], e1y = data[v1 + 1] - data[v0 + 1], e1z = data[v1 + 2] - data[v0 + 2];
+		float e2x = data[v2] - data[v0], e2y = data[v2 + 1] - data[v0 + 1], e2z = data[v2 + 2] - data[v0 + 2];
+
+		// p = direction x e2
+		float px = ray.directionY * e2z - ray.directionZ * e2y;
+		float py = ray.directionZ * e2x - ray.directionX * e2z;
+		float pz = ray.directionX * e2y - ray.directionY * e2x;
+		float det = e1x * px + e1y * py + e1z * pz;
+
+		// det is |direction| * |e1 x e2| * the sine, and |e1 x e2| <= |e1| * |e2|.
+		float e1LengthSquared = e1x * e1x + e1y * e1y + e1z * e1z;
+		float e2LengthSquared = e2x * e2x + e2y * e2y + e2z * e2z;
+		float directionLengthSquared = ray.directionX * ray.directionX + ray.directionY * ray.directionY + ray.directionZ * ray.directionZ;
+		if (det * det <= EPSILON * EPSILON * e1LengthSquared * e2LengthSquared * directionLengthSquared) {
+			return Float.POSITIVE_INFINITY;
+		}
+		float inverseDet = 1.0f / det;
+
+		float tx = ray.originX - data[v0], ty = ray.originY - data[v0 + 1], tz = ray.originZ - data[v0 + 2];
+		float u = (tx * px + ty * py + tz * pz) * inverseDet;
+		if ((u < 0) || (u > 1)) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		// q = t x e1
+		float qx = ty * e1z - tz * e1y;
+		float qy = tz * e1x - tx * e1z;
+		float qz = tx * e1y - ty * e1x;
+		float v = (ray.directionX * qx + ray.directionY * qy + ray.directionZ * qz) * inverseDet;
+		if ((v < 0) || (u + v > 1)) {
+			return Float.POSITIVE_INFINITY;
+		}
+
+		float t = (e2x * qx + e2y * qy + e2z * qz) * inverseDet;
+		return t >= 0 ? t : Float.POSITIVE_INFINITY;
+	}
+
+	// Getters
+	public int getNumTriangles() {
+		return this.numTriangles;
+	}
+
+	public BVH getBVH() {
+		return this.bvh;
+	}
+}
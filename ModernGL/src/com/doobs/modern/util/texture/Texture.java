@@ -1,6 +1,9 @@
 package com.doobs.modern.util.texture;
 
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.*;
+
+import com.doobs.modern.util.gl.*;
 
 public class Texture {
 	private int id;
@@ -13,7 +16,16 @@ public class Texture {
 	}
 
 	public void bind() {
-		glBindTexture(GL_TEXTURE_2D, this.id);
+		GL.get().glBindTexture(GL_TEXTURE_2D, this.id);
+	}
+
+	/**
+	 * Binds this Texture to texture unit "unit".
+	 */
+	public void bind(int unit) {
+		GLBackend gl = GL.get();
+		gl.glActiveTexture(GL_TEXTURE0 + unit);
+		gl.glBindTexture(GL_TEXTURE_2D, this.id);
 	}
 
 	public int getID() {
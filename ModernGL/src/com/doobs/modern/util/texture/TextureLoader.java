@@ -10,14 +10,18 @@ import javax.imageio.*;
 
 import org.lwjgl.*;
 
+import com.doobs.modern.util.*;
+import com.doobs.modern.util.gl.*;
+
 public class TextureLoader {
 	private static final int BYTES_PER_PIXEL = 4;
 
 	public static Texture getTexture(String URL, boolean mipmapped) {
+		GLBackend gl = GL.get();
 		try {
 			Texture result;
 
-			int texture = glGenTextures();
+			int texture = gl.glGenTextures();
 
 			BufferedImage image = ImageIO.read(new File(URL));
 			int width = image.getWidth();
@@ -41,17 +45,18 @@ public class TextureLoader {
 			}
 			data.flip();
 
-			glBindTexture(GL_TEXTURE_2D, texture);
+			gl.glBindTexture(GL_TEXTURE_2D, texture);
 
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
 
 			// Actual mipmapping makes texture disappear for some reason
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, mipmapped ? GL_LINEAR : GL_NEAREST);
-			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, mipmapped ? GL_LINEAR : GL_NEAREST);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, mipmapped ? GL_LINEAR : GL_NEAREST);
+			gl.glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, mipmapped ? GL_LINEAR : GL_NEAREST);
 
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, data);
-			glBindTexture(GL_TEXTURE_2D, 0);
+			gl.glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, data);
+			gl.glBindTexture(GL_TEXTURE_2D, 0);
+			GLValidation.check("TextureLoader.getTexture");
 
 			return result;
 		} catch (IOException e) {